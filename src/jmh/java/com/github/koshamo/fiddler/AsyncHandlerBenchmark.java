@@ -0,0 +1,183 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Measures the throughput of an <code>AsyncEventHandler</code>, whose 
+ * stages complete after a simulated I/O latency of 100 microseconds, with
+ * a growing number of events in flight. An operation is one completed 
+ * event.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncHandlerBenchmark {
+	private static final int BATCH = 256;
+	private static final long IO_MICROS = 100;
+
+	@Param({"1", "16", "256"})
+	public int maxInFlight;
+
+	@Param({"UNORDERED", "PER_KEY"})
+	public AsyncOrdering ordering;
+
+	private MessageBus messageBus;
+	private ScheduledExecutorService io;
+	private IoHandler receiver;
+	private Event[] events;
+	private long expected;
+
+	/**
+	 * create the message bus, the simulated I/O and register the handler
+	 */
+	@Setup
+	public void setup() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		io = Executors.newScheduledThreadPool(1);
+		receiver = new IoHandler(io, maxInFlight, ordering);
+		messageBus.registerAllEvents(receiver, ListenerType.ANY);
+		events = new Event[BATCH];
+		for (int i = 0; i < BATCH; i++)
+			events[i] = new MessageEvent(new CountingHandler(), null, "benchmark");
+		expected = 0;
+	}
+
+	/**
+	 * unregister the handler, stop the message bus and the simulated I/O
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		messageBus.unregisterAllEvents(receiver);
+		messageBus.stop();
+		io.shutdownNow();
+	}
+
+	/**
+	 * post a batch of events from different sources and wait until their
+	 * stages have completed
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void handleAsync() {
+		for (int i = 0; i < BATCH; i++)
+			messageBus.postEvent(events[i]);
+		expected += BATCH;
+		receiver.awaitCount(expected);
+	}
+
+	/**
+	 * An asynchronous handler completing its stages after the simulated
+	 * I/O latency.
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	static final class IoHandler implements AsyncEventHandler {
+		private final ScheduledExecutorService io;
+		private final int maxInFlight;
+		private final AsyncOrdering ordering;
+		private final AtomicLong count = new AtomicLong();
+
+		/**
+		 * Create the handler
+		 * @param io			the executor completing the stages
+		 * @param maxInFlight	the maximum number of events in flight
+		 * @param ordering		the ordering of the events
+		 */
+		IoHandler(ScheduledExecutorService io, int maxInFlight, 
+				AsyncOrdering ordering) {
+			this.io = io;
+			this.maxInFlight = maxInFlight;
+			this.ordering = ordering;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.AsyncEventHandler#handleAsync(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public CompletionStage<?> handleAsync(Event event) {
+			CompletableFuture<Void> stage = new CompletableFuture<>();
+			io.schedule(() -> {
+				count.incrementAndGet();
+				stage.complete(null);
+			}, IO_MICROS, TimeUnit.MICROSECONDS);
+			return stage;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.AsyncEventHandler#getMaxInFlight()
+		 */
+		@Override
+		public int getMaxInFlight() {
+			return maxInFlight;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.AsyncEventHandler#getOrdering()
+		 */
+		@Override
+		public AsyncOrdering getOrdering() {
+			return ordering;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+
+		/**
+		 * wait until the given number of stages have completed
+		 * @param expected	the number of events to wait for
+		 */
+		void awaitCount(long expected) {
+			while (count.get() < expected)
+				Thread.yield();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+import com.github.koshamo.fiddler.bridge.MessageBusBridge;
+import com.github.koshamo.fiddler.bridge.RemoteHandler;
+
+/**
+ * Measures the throughput of events sent to another Java VM through a
+ * <code>MessageBusBridge</code> over the loopback interface. The setup
+ * starts the <code>BridgePeer</code> in a second Java VM and connects to
+ * it. An operation is one event delivered to the handler of the peer, 
+ * which acknowledges every <code>BridgePeer.ACK_INTERVAL</code> events.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BridgeBenchmark {
+	private static final int BATCH = 10 * BridgePeer.ACK_INTERVAL;
+
+	private Process peer;
+	private MessageBus messageBus;
+	private MessageBusBridge bridge;
+	private CountingHandler acknowledgements;
+	private RemoteHandler sink;
+	private long sent;
+
+	/**
+	 * start the peer and connect the bridge
+	 * @throws IOException	if the peer can't be started or connected
+	 */
+	@Setup
+	public void setup() throws IOException {
+		String java = System.getProperty("java.home") + File.separator 
+				+ "bin" + File.separator + "java";
+		peer = new ProcessBuilder(java, "-cp", 
+				System.getProperty("java.class.path"), 
+				BridgePeer.class.getName())
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+		BufferedReader output = new BufferedReader(new InputStreamReader(
+				peer.getInputStream(), StandardCharsets.US_ASCII));
+		int port = Integer.parseInt(output.readLine().trim());
+		messageBus = new MessageBus();
+		acknowledgements = new CountingHandler();
+		messageBus.register(CounterEvent.class, acknowledgements, 
+				ListenerType.TARGET);
+		bridge = new MessageBusBridge(messageBus);
+		bridge.forward(CounterEvent.class, CounterEvent.CODEC);
+		bridge.export("benchmark", acknowledgements);
+		bridge.connect(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port));
+		sink = bridge.getRemoteHandler("sink");
+		sent = 0;
+	}
+
+	/**
+	 * close the bridge, which stops the peer, and stop the message bus
+	 * @throws InterruptedException	if interrupted while waiting for the 
+	 * peer
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		bridge.close();
+		messageBus.unregister(CounterEvent.class, acknowledgements);
+		messageBus.stop();
+		if (!peer.waitFor(10, TimeUnit.SECONDS))
+			peer.destroyForcibly();
+	}
+
+	/**
+	 * post a batch of events to the remote handler and wait until the peer
+	 * acknowledged all of them
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void send() {
+		for (int i = 0; i < BATCH; i++)
+			messageBus.postEvent(new CounterEvent(acknowledgements, sink, 
+					Integer.valueOf(0), Long.valueOf(sent + i)));
+		sent += BATCH;
+		acknowledgements.awaitCount(sent / BridgePeer.ACK_INTERVAL);
+	}
+}
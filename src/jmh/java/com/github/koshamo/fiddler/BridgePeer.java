@@ -0,0 +1,84 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+import com.github.koshamo.fiddler.bridge.MessageBusBridge;
+import com.github.koshamo.fiddler.bridge.RemoteHandler;
+
+/**
+ * The remote side of the <code>BridgeBenchmark</code>, running in its own
+ * Java VM. It listens on an ephemeral loopback port, prints the port to
+ * the standard output and accepts the bridge of the benchmark. The
+ * exported handler "sink" counts the received events and acknowledges
+ * every <code>ACK_INTERVAL</code> events to the handler "benchmark" of the
+ * benchmark. The peer exits, when the benchmark closes the bridge.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class BridgePeer {
+	/** the number of events acknowledged at once */
+	static final int ACK_INTERVAL = 1000;
+
+	private BridgePeer() {
+		// only main is used
+	}
+
+	/**
+	 * run the peer
+	 * @param args	not used
+	 * @throws Exception	if the bridge fails
+	 */
+	public static void main(String[] args) throws Exception {
+		MessageBus messageBus = new MessageBus();
+		MessageBusBridge bridge = new MessageBusBridge(messageBus);
+		RemoteHandler benchmark = bridge.getRemoteHandler("benchmark");
+		EventHandler sink = new EventHandler() {
+			private long count;
+
+			@Override
+			public void handle(Event event) {
+				if (++count % ACK_INTERVAL == 0)
+					messageBus.postEvent(new CounterEvent(this, benchmark, 
+							Integer.valueOf(0), Long.valueOf(count)));
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to clean up
+			}
+		};
+		messageBus.register(CounterEvent.class, sink, ListenerType.TARGET);
+		bridge.forward(CounterEvent.class, CounterEvent.CODEC);
+		bridge.export("sink", sink);
+		SocketAddress address = 
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		ServerSocketChannel server = MessageBusBridge.bind(address);
+		System.out.println(
+				((InetSocketAddress) server.getLocalAddress()).getPort());
+		System.out.flush();
+		bridge.accept(server);
+		while (bridge.isOpen())
+			Thread.sleep(100);
+		System.exit(0);
+	}
+}
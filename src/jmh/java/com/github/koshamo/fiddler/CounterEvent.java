@@ -0,0 +1,60 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.nio.ByteBuffer;
+
+import com.github.koshamo.fiddler.bridge.EventCodec;
+
+/**
+ * A small data event for the bridge benchmarks, holding a counter. The
+ * meta information is the number of the sending benchmark thread.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class CounterEvent extends DataEvent<Integer, Long> {
+
+	/** the codec writing the meta information and the counter */
+	static final EventCodec<CounterEvent> CODEC = 
+			new EventCodec<CounterEvent>() {
+		@Override
+		public void encode(CounterEvent event, ByteBuffer buffer) {
+			buffer.putInt(event.getMetaInformation().intValue())
+					.putLong(event.getData().longValue());
+		}
+
+		@Override
+		public CounterEvent decode(EventHandler source, EventHandler target,
+				ByteBuffer buffer) {
+			return new CounterEvent(source, target, 
+					Integer.valueOf(buffer.getInt()), 
+					Long.valueOf(buffer.getLong()));
+		}
+	};
+
+	/**
+	 * Create the event
+	 * @param source	the sender of the event
+	 * @param target	the target of the event, may be null
+	 * @param meta		the number of the sending thread
+	 * @param data		the counter
+	 */
+	CounterEvent(EventHandler source, EventHandler target, Integer meta, 
+			Long data) {
+		super(source, target, meta, data);
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+/**
+ * An <code>EventHandler</code> for the benchmarks, that just counts the
+ * events it receives. The benchmark threads wait for the count to know, 
+ * that their events have been handled.
+ * <p>
+ * The counter is only written by the thread calling the handler, which is
+ * a single thread at any time in every dispatch mode.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class CountingHandler implements EventHandler {
+	private volatile long count;
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+	 */
+	@Override
+	public void handle(Event event) {
+		count++;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+	 */
+	@Override
+	public void shutdown() {
+		// nothing to clean up
+	}
+
+	/**
+	 * get the number of events handled so far
+	 * @return	the number of handled events
+	 */
+	long getCount() {
+		return count;
+	}
+
+	/**
+	 * wait until the handler has received the given number of events
+	 * @param expected	the number of events to wait for
+	 */
+	void awaitCount(long expected) {
+		while (count < expected)
+			Thread.yield();
+	}
+}
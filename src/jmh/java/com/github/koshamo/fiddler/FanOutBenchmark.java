@@ -0,0 +1,102 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Measures the throughput of events distributed to many handlers 
+ * registered with <code>ListenerType.ANY</code>. An operation is one event
+ * delivered to all handlers.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+	private static final int BATCH = 100;
+
+	@Param({"1", "10", "100"})
+	public int handlers;
+
+	@Param({"SEQUENTIAL", "MAILBOX"})
+	public DispatchMode dispatchMode;
+
+	private MessageBus messageBus;
+	private CountingHandler[] receivers;
+	private long expected;
+	private Event event;
+
+	/**
+	 * create the message bus and register the handlers
+	 */
+	@Setup
+	public void setup() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, dispatchMode);
+		receivers = new CountingHandler[handlers];
+		for (int i = 0; i < handlers; i++) {
+			receivers[i] = new CountingHandler();
+			messageBus.registerAllEvents(receivers[i], ListenerType.ANY);
+		}
+		expected = 0;
+		event = new MessageEvent(receivers[0], null, "benchmark");
+	}
+
+	/**
+	 * unregister the handlers and stop the message bus
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (CountingHandler receiver : receivers)
+			messageBus.unregisterAllEvents(receiver);
+		messageBus.stop();
+	}
+
+	/**
+	 * post a batch of events and wait until every handler received them
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void fanOut() {
+		for (int i = 0; i < BATCH; i++)
+			messageBus.postEvent(event);
+		expected += BATCH;
+		for (CountingHandler receiver : receivers)
+			receiver.awaitCount(expected);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+import com.github.koshamo.fiddler.journal.EventJournal;
+import com.github.koshamo.fiddler.journal.JournalingEventQueue;
+
+/**
+ * Measures the time of <code>postEvent(Event)</code> with and without an
+ * <code>EventJournal</code> recording the events. The producer posts a 
+ * batch of events and waits until the handler has received them, so the
+ * queue never grows beyond a batch.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+	private static final int BATCH = 1000;
+
+	@Param({"false", "true"})
+	public boolean journaled;
+
+	private Path directory;
+	private EventJournal journal;
+	private MessageBus messageBus;
+	private CountingHandler handler;
+	private long posted;
+
+	/**
+	 * create the message bus, recording the events in a new journal
+	 * @throws IOException	if the journal can't be created
+	 */
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("fiddler-journal");
+		journal = EventJournal.open(directory);
+		journal.record(CounterEvent.class, 1, CounterEvent.CODEC);
+		EventQueue queue = journaled 
+				? new JournalingEventQueue(new LinkedEventQueue(), journal)
+				: new LinkedEventQueue();
+		messageBus = new MessageBus(queue, WaitStrategy.BLOCKING, 
+				DispatchMode.SEQUENTIAL);
+		handler = new CountingHandler();
+		messageBus.register(CounterEvent.class, handler, ListenerType.ANY);
+		posted = 0;
+	}
+
+	/**
+	 * stop the message bus, close the journal and delete its files
+	 * @throws IOException	if the files can't be deleted
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		messageBus.unregister(CounterEvent.class, handler);
+		messageBus.stop();
+		journal.close();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files)
+				Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+
+	/**
+	 * post a batch of events and wait until the handler caught up
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void post() {
+		for (int i = 0; i < BATCH; i++)
+			messageBus.postEvent(new CounterEvent(handler, null, 
+					Integer.valueOf(0), Long.valueOf(posted + i)));
+		posted += BATCH;
+		handler.awaitCount(posted);
+	}
+}
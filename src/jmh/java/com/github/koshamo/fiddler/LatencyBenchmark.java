@@ -0,0 +1,92 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Measures the time from posting a single event until the handler has
+ * received it. The results contain the percentiles of the latency, so the
+ * wait strategies and dispatch modes can be compared for the tail latency,
+ * too.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyBenchmark {
+
+	@Param({"BLOCKING", "SPIN_THEN_PARK", "BUSY_SPIN"})
+	public WaitStrategy waitStrategy;
+
+	@Param({"SEQUENTIAL", "MAILBOX"})
+	public DispatchMode dispatchMode;
+
+	private MessageBus messageBus;
+	private CountingHandler handler;
+	private Event event;
+
+	/**
+	 * create the message bus with a single handler
+	 */
+	@Setup
+	public void setup() {
+		messageBus = new MessageBus(waitStrategy, dispatchMode);
+		handler = new CountingHandler();
+		messageBus.registerAllEvents(handler, ListenerType.ANY);
+		event = new MessageEvent(handler, null, "benchmark");
+	}
+
+	/**
+	 * unregister the handler and stop the message bus
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		messageBus.unregisterAllEvents(handler);
+		messageBus.stop();
+	}
+
+	/**
+	 * post a single event and wait until it has been handled
+	 */
+	@Benchmark
+	public void postToHandle() {
+		long expected = handler.getCount() + 1;
+		messageBus.postEvent(event);
+		handler.awaitCount(expected);
+	}
+}
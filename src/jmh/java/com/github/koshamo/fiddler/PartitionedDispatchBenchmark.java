@@ -0,0 +1,158 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Measures the throughput of events from many sources handled by a 
+ * handler doing some work for every event, comparing 
+ * <code>DispatchMode.SEQUENTIAL</code> to 
+ * <code>DispatchMode.PARTITIONED</code> with a growing number of 
+ * partitions. An operation is one handled event.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartitionedDispatchBenchmark {
+	private static final int BATCH = 1024;
+	private static final int SOURCES = 64;
+
+	/** the number of partitions, 0 for <code>DispatchMode.SEQUENTIAL</code> */
+	@Param({"0", "1", "2", "4", "8"})
+	public int partitions;
+
+	/** the work done by the handler for every event */
+	@Param({"100", "1000"})
+	public int tokens;
+
+	private MessageBus messageBus;
+	private WorkingHandler receiver;
+	private Event[] events;
+	private long expected;
+
+	/**
+	 * create the message bus, register the handler and create the events
+	 * of the sources
+	 */
+	@Setup
+	public void setup() {
+		messageBus = partitions == 0
+				? new MessageBus(new LinkedEventQueue(), WaitStrategy.BLOCKING,
+						DispatchMode.SEQUENTIAL)
+				: new MessageBus(new LinkedEventQueue(), WaitStrategy.BLOCKING,
+						partitions);
+		receiver = new WorkingHandler(tokens);
+		messageBus.registerAllEvents(receiver, ListenerType.ANY);
+		events = new Event[SOURCES];
+		for (int i = 0; i < SOURCES; i++)
+			events[i] = new MessageEvent(new WorkingHandler(0), null, "benchmark");
+		expected = 0;
+	}
+
+	/**
+	 * unregister the handler and stop the message bus
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		messageBus.unregisterAllEvents(receiver);
+		messageBus.stop();
+	}
+
+	/**
+	 * post a batch of events from all sources and wait until they have been
+	 * handled
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void dispatch() {
+		for (int i = 0; i < BATCH; i++)
+			messageBus.postEvent(events[i % SOURCES]);
+		expected += BATCH;
+		receiver.awaitCount(expected);
+	}
+
+	/**
+	 * A handler burning some CPU time for every event. It may be called by
+	 * several partitions at once, so it counts atomically.
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	static final class WorkingHandler implements EventHandler {
+		private final int tokens;
+		private final AtomicLong count = new AtomicLong();
+
+		/**
+		 * Create the handler
+		 * @param tokens	the work done for every event
+		 */
+		WorkingHandler(int tokens) {
+			this.tokens = tokens;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			Blackhole.consumeCPU(tokens);
+			count.incrementAndGet();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+
+		/**
+		 * wait until the handler has received the given number of events
+		 * @param expected	the number of events to wait for
+		 */
+		void awaitCount(long expected) {
+			while (count.get() < expected)
+				Thread.yield();
+		}
+	}
+}
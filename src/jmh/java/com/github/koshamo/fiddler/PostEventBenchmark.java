@@ -0,0 +1,137 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Measures the throughput of <code>postEvent(Event)</code> with one or 
+ * more producer threads. Every producer posts a batch of events and waits
+ * until the handler has received as many events, so the benchmark measures
+ * the sustained rate of the message bus and the queue never grows beyond 
+ * a few batches. The parameter <code>metrics</code> shows the cost of 
+ * collecting the metrics.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostEventBenchmark {
+	private static final int BATCH = 1000;
+
+	@Param({"LINKED", "RING_BUFFER", "PRIORITY"})
+	public QueueType queue;
+
+	@Param({"BLOCKING", "SPIN_THEN_PARK"})
+	public WaitStrategy waitStrategy;
+
+	@Param({"true", "false"})
+	public boolean metrics;
+
+	private MessageBus messageBus;
+	private CountingHandler handler;
+	private AtomicLong posted;
+	private Event event;
+
+	/**
+	 * create the message bus with a single handler
+	 */
+	@Setup
+	public void setup() {
+		messageBus = new MessageBus(queue.create(), waitStrategy, 
+				DispatchMode.SEQUENTIAL);
+		messageBus.setMetricsEnabled(metrics);
+		handler = new CountingHandler();
+		messageBus.registerAllEvents(handler, ListenerType.ANY);
+		posted = new AtomicLong();
+		event = new MessageEvent(handler, null, "benchmark");
+	}
+
+	/**
+	 * unregister the handler and stop the message bus
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		messageBus.unregisterAllEvents(handler);
+		messageBus.stop();
+	}
+
+	/**
+	 * post events from a single thread
+	 */
+	@Benchmark
+	@Threads(1)
+	@OperationsPerInvocation(BATCH)
+	public void oneProducer() {
+		postBatch();
+	}
+
+	/**
+	 * post events from two threads
+	 */
+	@Benchmark
+	@Threads(2)
+	@OperationsPerInvocation(BATCH)
+	public void twoProducers() {
+		postBatch();
+	}
+
+	/**
+	 * post events from four threads
+	 */
+	@Benchmark
+	@Threads(4)
+	@OperationsPerInvocation(BATCH)
+	public void fourProducers() {
+		postBatch();
+	}
+
+	/**
+	 * post a batch of events and wait until the handler caught up
+	 */
+	private void postBatch() {
+		long expected = posted.addAndGet(BATCH);
+		for (int i = 0; i < BATCH; i++) {
+			while (!messageBus.postEvent(event))
+				Thread.yield();
+		}
+		handler.awaitCount(expected);
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+/**
+ * The event queues used as benchmark parameter. All queues are created 
+ * large enough for the batches posted by the benchmarks.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public enum QueueType {
+	/**
+	 * the default unbounded queue
+	 */
+	LINKED,
+	/**
+	 * the preallocated ring buffer
+	 */
+	RING_BUFFER,
+	/**
+	 * the priority lanes in strict order
+	 */
+	PRIORITY;
+
+	/** capacity of the bounded queues */
+	private static final int CAPACITY = 1 << 16;
+
+	/**
+	 * create a new event queue of this type
+	 * @return	the event queue
+	 */
+	EventQueue create() {
+		switch (this) {
+		case RING_BUFFER:
+			return new RingBufferEventQueue(CAPACITY);
+		case PRIORITY:
+			return new PriorityEventQueue();
+		case LINKED:
+		default:
+			return new LinkedEventQueue();
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Measures the throughput of events while another thread registers and
+ * unregisters a handler all the time. The <code>quiet</code> benchmark 
+ * posts the same events without any registration changes for comparison.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationChurnBenchmark {
+	private static final int BATCH = 1000;
+
+	@Param({"10", "1000"})
+	public int handlers;
+
+	private MessageBus messageBus;
+	private CountingHandler handler;
+	private CountingHandler[] others;
+	private CountingHandler churning;
+	private AtomicLong posted;
+	private Event event;
+
+	/**
+	 * create the message bus with a counting handler and some more handlers
+	 * registered to different event classes
+	 */
+	@Setup
+	public void setup() {
+		messageBus = new MessageBus();
+		handler = new CountingHandler();
+		messageBus.registerAllEvents(handler, ListenerType.ANY);
+		others = new CountingHandler[handlers];
+		for (int i = 0; i < handlers; i++) {
+			others[i] = new CountingHandler();
+			if (i % 2 == 0)
+				messageBus.registerDataEvents(others[i], ListenerType.TARGET);
+			else
+				messageBus.registerMessageEvents(others[i], ListenerType.TARGET);
+		}
+		churning = new CountingHandler();
+		posted = new AtomicLong();
+		event = new MessageEvent(handler, null, "benchmark");
+	}
+
+	/**
+	 * unregister all handlers and stop the message bus
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		messageBus.unregisterAllEvents(handler);
+		messageBus.unregisterMessageEvents(churning);
+		for (CountingHandler other : others) {
+			messageBus.unregisterDataEvents(other);
+			messageBus.unregisterMessageEvents(other);
+		}
+		messageBus.stop();
+	}
+
+	/**
+	 * post events while the registrations change
+	 */
+	@Benchmark
+	@Group("churn")
+	@OperationsPerInvocation(BATCH)
+	public void post() {
+		postBatch();
+	}
+
+	/**
+	 * register and unregister a handler for the posted event class
+	 */
+	@Benchmark
+	@Group("churn")
+	public void registerUnregister() {
+		messageBus.registerMessageEvents(churning, ListenerType.ANY);
+		messageBus.unregisterMessageEvents(churning);
+	}
+
+	/**
+	 * post events without registration changes
+	 */
+	@Benchmark
+	@Group("quiet")
+	@OperationsPerInvocation(BATCH)
+	public void postQuiet() {
+		postBatch();
+	}
+
+	/**
+	 * post a batch of events and wait until the handler caught up
+	 */
+	private void postBatch() {
+		long expected = posted.addAndGet(BATCH);
+		for (int i = 0; i < BATCH; i++)
+			messageBus.postEvent(event);
+		handler.awaitCount(expected);
+	}
+}
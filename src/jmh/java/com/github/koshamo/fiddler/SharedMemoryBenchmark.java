@@ -0,0 +1,117 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+import com.github.koshamo.fiddler.shm.SharedMemoryRing;
+import com.github.koshamo.fiddler.shm.SharedMemorySink;
+import com.github.koshamo.fiddler.shm.SharedMemorySource;
+
+/**
+ * Measures the throughput of events sent from one message bus to another
+ * through a <code>SharedMemoryRing</code>. Both message buses live in the
+ * benchmark VM, but map the ring like two processes would. An operation
+ * is one event delivered to the handler of the receiving message bus.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedMemoryBenchmark {
+	private static final int BATCH = 10_000;
+	private static final int CAPACITY = 1 << 20;
+
+	private Path file;
+	private MessageBus sender;
+	private MessageBus receiver;
+	private SharedMemorySink sink;
+	private SharedMemorySource source;
+	private CountingHandler handler;
+	private long sent;
+
+	/**
+	 * map the ring and connect both message buses to it
+	 * @throws IOException	if the ring can't be mapped
+	 */
+	@Setup
+	public void setup() throws IOException {
+		file = Files.createTempFile("fiddler", ".ring");
+		sender = new MessageBus();
+		receiver = new MessageBus();
+		handler = new CountingHandler();
+		receiver.register(CounterEvent.class, handler, ListenerType.ANY);
+		sink = new SharedMemorySink(sender, 
+				SharedMemoryRing.open(file, CAPACITY));
+		sink.forward(CounterEvent.class, 1, CounterEvent.CODEC);
+		source = new SharedMemorySource(receiver, 
+				SharedMemoryRing.open(file, CAPACITY));
+		source.receive(CounterEvent.class, 1, CounterEvent.CODEC);
+		source.start();
+		sent = 0;
+	}
+
+	/**
+	 * close the sink and the source and stop both message buses
+	 * @throws IOException	if the ring file can't be deleted
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		sink.close();
+		source.close();
+		receiver.unregister(CounterEvent.class, handler);
+		sender.stop();
+		receiver.stop();
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * post a batch of events to the sending message bus and wait until the
+	 * receiving message bus delivered all of them
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void send() {
+		for (int i = 0; i < BATCH; i++)
+			sender.postEvent(new CounterEvent(handler, null, 
+					Integer.valueOf(0), Long.valueOf(sent + i)));
+		sent += BATCH;
+		handler.awaitCount(sent);
+	}
+}
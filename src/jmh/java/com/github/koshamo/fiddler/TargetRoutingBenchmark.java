@@ -0,0 +1,156 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Measures the throughput of targeted events with many handlers registered
+ * with <code>ListenerType.TARGET</code>. The events are sent to the 
+ * handlers in turn, so the throughput should not depend on the number of
+ * handlers.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TargetRoutingBenchmark {
+	private static final int BATCH = 1000;
+
+	@Param({"10", "1000", "10000"})
+	public int handlers;
+
+	private MessageBus messageBus;
+	private TargetHandler[] receivers;
+	private Event[] events;
+	private Total total;
+	private long expected;
+	private int next;
+
+	/**
+	 * create the message bus, register the handlers and create an event
+	 * for every handler
+	 */
+	@Setup
+	public void setup() {
+		messageBus = new MessageBus();
+		total = new Total();
+		receivers = new TargetHandler[handlers];
+		events = new Event[handlers];
+		for (int i = 0; i < handlers; i++) {
+			receivers[i] = new TargetHandler(total);
+			messageBus.registerAllEvents(receivers[i], ListenerType.TARGET);
+		}
+		for (int i = 0; i < handlers; i++)
+			events[i] = new MessageEvent(receivers[(i + 1) % handlers], 
+					receivers[i], "benchmark");
+		expected = 0;
+		next = 0;
+	}
+
+	/**
+	 * unregister the handlers and stop the message bus
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (TargetHandler receiver : receivers)
+			messageBus.unregisterAllEvents(receiver);
+		messageBus.stop();
+	}
+
+	/**
+	 * post a batch of targeted events and wait until they are handled
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void route() {
+		for (int i = 0; i < BATCH; i++) {
+			messageBus.postEvent(events[next]);
+			if (++next == events.length)
+				next = 0;
+		}
+		expected += BATCH;
+		while (total.count < expected)
+			Thread.yield();
+	}
+
+	/**
+	 * The number of events received by all target handlers. The handlers
+	 * are called on the event thread only, so there is a single writer.
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class Total {
+		volatile long count;
+	}
+
+	/**
+	 * A handler counting the events in the shared total
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class TargetHandler implements EventHandler {
+		private final Total total;
+
+		/**
+		 * Create the handler
+		 * @param total	the total to count the events in
+		 */
+		TargetHandler(Total total) {
+			this.total = total;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			total.count++;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An AsyncEventHandler starts asynchronous work for the events it
+ * receives, e.g. a request to a remote service, and returns a
+ * <code>CompletionStage</code> completing when the work is done:
+ * <pre>
+ * public class OrderWriter implements AsyncEventHandler {
+ * 	{@literal @}Override
+ * 	public CompletionStage&lt;?&gt; handleAsync(Event event) {
+ * 		return database.insertAsync(((OrderEvent) event).getData());
+ * 	}
+ * 	{@literal @}Override
+ * 	public void shutdown() {
+ * 		database.close();
+ * 	}
+ * }
+ * </pre>
+ * The message bus doesn't wait for the stage, so no thread is occupied 
+ * while the work is in flight. At most <code>getMaxInFlight()</code> 
+ * events are in flight per handler, the other events wait within the 
+ * message bus until a stage completes. <code>getOrdering()</code> defines,
+ * whether the handling of an event may start before the events posted 
+ * earlier have completed.
+ * <p>
+ * <code>handleAsync(Event event)</code> is called by the thread
+ * distributing the event or by the thread completing the stage of an
+ * earlier event, so it must return quickly and never block. It may be
+ * called concurrently, unless the ordering is 
+ * <code>AsyncOrdering.ORDERED</code>. The time from calling it until the 
+ * stage completes is recorded as the handle time of the handler. An
+ * exception thrown by the method or completing the stage is counted and
+ * passed to the uncaught exception handler of the current thread.
+ * <p>
+ * After an <code>ExitEvent</code> the message bus calls 
+ * <code>shutdown()</code> as soon as no events of the handler are waiting
+ * or in flight anymore, so all events posted before have been handled and
+ * their stages have completed.
+ * <p>
+ * The events stay valid until the stage completes, the message bus keeps
+ * a reference to every <code>PooledDataEvent</code> in flight.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public interface AsyncEventHandler extends EventHandler {
+	/** the default maximum number of events in flight per handler */
+	int DEFAULT_MAX_IN_FLIGHT = 16;
+
+	/**
+	 * this method starts handling an event from the message bus.
+	 * @param event	the event that is distributed by the message bus
+	 * @return		the stage completing when the event has been handled,
+	 * null if the event has already been handled
+	 */
+	CompletionStage<?> handleAsync(Event event);
+
+	/**
+	 * handle the event and wait until the stage has completed. The message
+	 * bus never calls this method, it calls 
+	 * <code>handleAsync(Event event)</code> instead.
+	 * @param event	the event to be handled
+	 */
+	@Override
+	default void handle(Event event) {
+		CompletionStage<?> stage = handleAsync(event);
+		if (stage != null)
+			stage.toCompletableFuture().join();
+	}
+
+	/**
+	 * get the maximum number of events this handler works on at the same
+	 * time. The value is read once, when the handler is registered to a
+	 * message bus.
+	 * @return	the maximum number of events in flight, 
+	 * <code>DEFAULT_MAX_IN_FLIGHT</code> by default
+	 */
+	default int getMaxInFlight() {
+		return DEFAULT_MAX_IN_FLIGHT;
+	}
+
+	/**
+	 * get the order, in which the handling of the events is started. The
+	 * value is read once, when the handler is registered to a message bus.
+	 * @return	the ordering, <code>AsyncOrdering.UNORDERED</code> by 
+	 * default
+	 */
+	default AsyncOrdering getOrdering() {
+		return AsyncOrdering.UNORDERED;
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * This class is a helper class for the MessageBus class. Every registered
+ * <code>AsyncEventHandler</code> gets an asynchronous mailbox, which starts
+ * the handling of its events and keeps the events waiting, that must not
+ * be started yet.
+ * <p>
+ * The events wait in lanes. A lane may have up to 
+ * <code>laneLimit</code> events in flight, the mailbox up to
+ * <code>maxInFlight</code> events. <code>AsyncOrdering.UNORDERED</code>
+ * uses a single lane with the limit of the mailbox, 
+ * <code>AsyncOrdering.ORDERED</code> a single lane with the limit 1 and
+ * <code>AsyncOrdering.PER_KEY</code> a lane with the limit 1 for every
+ * partition key, which exists while the key has events waiting or in 
+ * flight. The lanes with events to be started are kept in the order they
+ * became ready.
+ * <p>
+ * Starting an event may complete its stage at once, which starts the next
+ * event. So only one thread starts events at a time, the others just put
+ * their events into the lanes, which keeps the stack flat.
+ * <p>
+ * Like a <code>Mailbox</code> the asynchronous mailbox of a handler, that
+ * is no longer registered, is retired until all its events have been 
+ * completed.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class AsyncMailbox {
+	private final AsyncEventHandler handler;
+	private final MessageBus messageBus;
+	private final HandlerMetrics metrics;
+	private final AsyncOrdering ordering;
+	private final int maxInFlight;
+	private final int laneLimit;
+	private final Lane singleLane;
+	private final Map<Object, Lane> lanes;
+	private final ArrayDeque<Lane> ready;
+	private int inFlight;
+	private boolean starting;
+	private boolean shutdownPending;
+	private volatile int depth;
+	private volatile boolean retired;
+
+	/**
+	 * Create the mailbox for an asynchronous handler
+	 * @param handler		the handler to deliver the events to
+	 * @param messageBus	the message bus owning this mailbox
+	 * @param metrics		the metrics of the handler
+	 * @throws IllegalArgumentException	if the maximum number of events in
+	 * flight of the handler is not positive
+	 */
+	AsyncMailbox(AsyncEventHandler handler, MessageBus messageBus,
+			HandlerMetrics metrics) {
+		ordering = Objects.requireNonNull(handler.getOrdering(),
+				"You must specify an AsyncOrdering");
+		maxInFlight = handler.getMaxInFlight();
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException(
+					"The maximum number of events in flight must be positive");
+		this.handler = handler;
+		this.messageBus = messageBus;
+		this.metrics = metrics;
+		laneLimit = ordering == AsyncOrdering.UNORDERED ? maxInFlight : 1;
+		singleLane = ordering == AsyncOrdering.PER_KEY ? null : new Lane(null);
+		lanes = new HashMap<>();
+		ready = new ArrayDeque<>();
+	}
+
+	/**
+	 * put an event into its lane and start the events, that may be 
+	 * started now
+	 * @param ev	the event to be handled
+	 */
+	void post(Event ev) {
+		synchronized (this) {
+			Lane lane = laneOf(ev);
+			lane.events.add(ev);
+			depth++;
+			if (!lane.ready && lane.inFlight < laneLimit) {
+				lane.ready = true;
+				ready.add(lane);
+			}
+		}
+		startReady();
+	}
+
+	/**
+	 * shut the handler down as soon as no events are waiting or in flight
+	 */
+	void shutdown() {
+		synchronized (this) {
+			if (inFlight > 0 || depth > 0) {
+				shutdownPending = true;
+				return;
+			}
+		}
+		handler.shutdown();
+	}
+
+	/**
+	 * get the number of events waiting to be started
+	 * @return	the mailbox depth
+	 */
+	int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * retire the mailbox, when the handler has been unregistered, or 
+	 * reuse it, when the handler registers again
+	 * @param retired	true, if the message bus wants to know, when all
+	 * events of the mailbox have been completed
+	 */
+	void setRetired(boolean retired) {
+		this.retired = retired;
+	}
+
+	/**
+	 * check, if the mailbox has no events waiting or in flight
+	 * @return	true, if the mailbox is idle
+	 */
+	synchronized boolean isIdle() {
+		return inFlight == 0 && depth == 0;
+	}
+
+	/**
+	 * get the lane of the event, the lane is created if the key of the
+	 * event has none. Must be called holding the lock.
+	 * @param ev	the event
+	 * @return		the lane of the event
+	 */
+	private Lane laneOf(Event ev) {
+		if (singleLane != null)
+			return singleLane;
+		Object key = ev.getPartitionKey();
+		Lane lane = lanes.get(key);
+		if (lane == null) {
+			lane = new Lane(key);
+			lanes.put(key, lane);
+		}
+		return lane;
+	}
+
+	/**
+	 * start the events of the ready lanes as long as the limit of events
+	 * in flight allows it. Returns at once, if another thread is starting
+	 * events, which then starts the events of this thread, too.
+	 */
+	private void startReady() {
+		synchronized (this) {
+			if (starting)
+				return;
+			starting = true;
+		}
+		while (true) {
+			Lane lane;
+			Event ev;
+			synchronized (this) {
+				lane = ready.peekFirst();
+				if (lane == null || inFlight >= maxInFlight) {
+					starting = false;
+					return;
+				}
+				ev = lane.events.poll();
+				depth--;
+				lane.inFlight++;
+				inFlight++;
+				if (lane.events.isEmpty() || lane.inFlight >= laneLimit) {
+					lane.ready = false;
+					ready.pollFirst();
+				}
+			}
+			start(ev, lane);
+		}
+	}
+
+	/**
+	 * call the handler and complete the event, when its stage completes
+	 * @param ev	the event to be handled
+	 * @param lane	the lane of the event
+	 */
+	private void start(Event ev, Lane lane) {
+		long start = messageBus.handlerStarted(ev);
+		CompletionStage<?> stage;
+		try {
+			stage = handler.handleAsync(ev);
+		} catch (RuntimeException e) {
+			messageBus.handlerFailed(metrics, e);
+			stage = null;
+		}
+		if (stage == null)
+			complete(ev, lane, start, null);
+		else
+			stage.whenComplete((result, failure) -> 
+					complete(ev, lane, start, failure));
+	}
+
+	/**
+	 * record the metrics of a completed event, give a pooled event back and
+	 * start the next events
+	 * @param ev		the handled event
+	 * @param lane		the lane of the event
+	 * @param start		the time the handler has been called
+	 * @param failure	the exception completing the stage, null if the
+	 * event has been handled successfully
+	 */
+	private void complete(Event ev, Lane lane, long start, Throwable failure) {
+		if (failure != null)
+			messageBus.handlerFailed(metrics, 
+					failure instanceof CompletionException 
+							&& failure.getCause() != null 
+					? failure.getCause() : failure);
+		messageBus.handlerFinished(handler, metrics, ev, start, depth);
+		PooledDataEvent.releaseIfPooled(ev);
+		boolean shutdown = false;
+		boolean drained;
+		synchronized (this) {
+			lane.inFlight--;
+			inFlight--;
+			if (!lane.events.isEmpty()) {
+				if (!lane.ready) {
+					lane.ready = true;
+					ready.add(lane);
+				}
+			} else if (lane.inFlight == 0 && lane != singleLane) {
+				lanes.remove(lane.key);
+			}
+			drained = inFlight == 0 && depth == 0;
+			if (shutdownPending && drained) {
+				shutdownPending = false;
+				shutdown = true;
+			}
+		}
+		if (shutdown)
+			handler.shutdown();
+		else
+			startReady();
+		if (drained && retired)
+			messageBus.mailboxDrained(handler);
+	}
+
+	/**
+	 * A lane holds the waiting events, that must be started in order
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class Lane {
+		final Object key;
+		final ArrayDeque<Event> events = new ArrayDeque<>();
+		int inFlight;
+		boolean ready;
+
+		/**
+		 * Create the lane
+		 * @param key	the partition key of the events of this lane, null
+		 * for the single lane
+		 */
+		Lane(Object key) {
+			this.key = key;
+		}
+	}
+}
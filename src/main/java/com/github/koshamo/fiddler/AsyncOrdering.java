@@ -0,0 +1,51 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+/**
+ * The AsyncOrdering defines, in which order the <code>MessageBus</code>
+ * starts the asynchronous handling of the events by an
+ * <code>AsyncEventHandler</code>.
+ * <ul>
+ * <li><code>UNORDERED</code> starts the handling of every event as soon as
+ * the number of events in flight allows it. The events are started in the
+ * order they have been posted, but may complete in any order.
+ * <li><code>ORDERED</code> starts the handling of an event only after the
+ * handling of the event before has completed, so the events are handled
+ * strictly one after the other, without occupying a thread while waiting.
+ * <li><code>PER_KEY</code> works like <code>ORDERED</code> for the events
+ * of the same partition key, see <code>Event.getPartitionKey()</code>,
+ * while the events of different keys are in flight at the same time.
+ * </ul>
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public enum AsyncOrdering {
+	/**
+	 * the events are handled in parallel and may complete in any order
+	 */
+	UNORDERED,
+	/**
+	 * an event is handled after the handling of the event before has
+	 * completed
+	 */
+	ORDERED,
+	/**
+	 * the events of the same partition key are handled one after the other
+	 */
+	PER_KEY
+}
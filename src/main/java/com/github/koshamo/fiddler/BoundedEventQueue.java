@@ -0,0 +1,433 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The BoundedEventQueue is an <code>EventQueue</code> with a fixed capacity 
+ * and a policy, what to do, if an event is posted to the full queue.
+ * <p>
+ * An unbounded queue grows as long as the producers post events faster than
+ * the handlers can handle them, until the application runs out of memory.
+ * The bounded queue limits the memory and lets you decide, how the 
+ * application degrades under overload, see <code>OverflowPolicy</code>.
+ * The queue counts the events it rejected or dropped, so you can watch it.
+ * <p>
+ * Events posted with <code>MessageBus.postEvents()</code> are handled as a
+ * whole: with <code>OverflowPolicy.REJECT</code> and 
+ * <code>OverflowPolicy.BLOCK</code> either all events are queued or none, 
+ * with <code>OverflowPolicy.DROP_NEWEST</code> the events not fitting into 
+ * the queue are dropped. A dropped <code>PooledDataEvent</code> is given 
+ * back to its pool.
+ * <p>
+ * Control events, i.e. the <code>ExitEvent</code> and the events with
+ * <code>EventPriority.CONTROL</code>, are never dropped. If a control event
+ * is posted to the full queue with <code>OverflowPolicy.DROP_OLDEST</code>
+ * or <code>OverflowPolicy.DROP_NEWEST</code>, the oldest respectively the 
+ * newest ordinary event in the queue is dropped instead. Only if the queue
+ * is full of control events, the control event is rejected.
+ * <p>
+ * Example:
+ * <pre>
+ * <code>
+ * BoundedEventQueue queue = new BoundedEventQueue(10000, 
+ * 		OverflowPolicy.DROP_OLDEST);
+ * MessageBus messageBus = new MessageBus(queue, WaitStrategy.BLOCKING, 
+ * 		DispatchMode.SEQUENTIAL);
+ * </code>
+ * </pre>
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class BoundedEventQueue implements EventQueue {
+
+	/**
+	 * The OverflowPolicy defines, what happens with an event, that is posted
+	 * while the queue is full.
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	public static enum OverflowPolicy {
+		/**
+		 * the posting thread waits for free space up to the configured 
+		 * timeout. If the timeout elapses, the event is rejected.
+		 * Don't use this, if handlers post events in 
+		 * <code>DispatchMode.SEQUENTIAL</code>, as the event thread would
+		 * wait for itself.
+		 */
+		BLOCK,
+		/**
+		 * the event is rejected and <code>postEvent()</code> returns false
+		 */
+		REJECT,
+		/**
+		 * the oldest event in the queue is dropped to make room for the
+		 * posted event
+		 */
+		DROP_OLDEST,
+		/**
+		 * the posted event is dropped silently, <code>postEvent()</code>
+		 * still returns true
+		 */
+		DROP_NEWEST
+	}
+	
+	private final Event[] items;
+	private int head;
+	private int count;
+	private final ReentrantLock lock;
+	private final Condition notFull;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final long blockTimeoutNanos;
+	private final LongAdder rejectedEvents;
+	private final LongAdder droppedEvents;
+	
+	/**
+	 * Create the queue. With <code>OverflowPolicy.BLOCK</code> the posting
+	 * thread waits until there is space in the queue.
+	 * 
+	 * @param capacity	the maximum number of events in the queue
+	 * @param policy	the policy for events posted to the full queue
+	 */
+	public BoundedEventQueue(int capacity, OverflowPolicy policy) {
+		this(capacity, policy, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Create the queue
+	 * 
+	 * @param capacity		the maximum number of events in the queue
+	 * @param policy		the policy for events posted to the full queue
+	 * @param blockTimeout	the maximum time to wait for free space with
+	 * <code>OverflowPolicy.BLOCK</code>
+	 * @param unit			the time unit of the timeout
+	 */
+	public BoundedEventQueue(int capacity, OverflowPolicy policy, 
+			long blockTimeout, TimeUnit unit) {
+		Objects.requireNonNull(policy, "You must specify an OverflowPolicy");
+		Objects.requireNonNull(unit, "You must specify a TimeUnit");
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be positive");
+		items = new Event[capacity];
+		lock = new ReentrantLock();
+		notFull = lock.newCondition();
+		this.capacity = capacity;
+		this.policy = policy;
+		blockTimeoutNanos = unit.toNanos(blockTimeout);
+		rejectedEvents = new LongAdder();
+		droppedEvents = new LongAdder();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#offer(com.github.koshamo.fiddler.Event)
+	 */
+	@Override
+	public boolean offer(Event ev) {
+		lock.lock();
+		try {
+			if (count < capacity) {
+				enqueue(ev);
+				return true;
+			}
+			switch (policy) {
+			case BLOCK:
+				if (!awaitSpace(1)) {
+					rejectedEvents.increment();
+					return false;
+				}
+				enqueue(ev);
+				return true;
+			case DROP_OLDEST:
+			case DROP_NEWEST:
+				return offerDropping(ev);
+			case REJECT:
+			default:
+				rejectedEvents.increment();
+				return false;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#offerAll(java.util.Collection)
+	 */
+	@Override
+	public boolean offerAll(Collection<? extends Event> events) {
+		int size = events.size();
+		lock.lock();
+		try {
+			if (capacity - count < size) {
+				switch (policy) {
+				case BLOCK:
+					if (size > capacity || !awaitSpace(size)) {
+						rejectedEvents.add(size);
+						return false;
+					}
+					break;
+				case DROP_OLDEST:
+				case DROP_NEWEST:
+					// if there are more events than the capacity, even
+					// posted events are dropped
+					for (Event ev : events) {
+						if (count < capacity)
+							enqueue(ev);
+						else
+							offerDropping(ev);
+					}
+					return true;
+				case REJECT:
+				default:
+					rejectedEvents.add(size);
+					return false;
+				}
+			}
+			for (Event ev : events)
+				enqueue(ev);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * queue the event into the full queue with 
+	 * <code>OverflowPolicy.DROP_OLDEST</code> or 
+	 * <code>OverflowPolicy.DROP_NEWEST</code>. A control event is never 
+	 * dropped, an ordinary event in the queue is dropped instead. Must be 
+	 * called holding the lock.
+	 * @param ev	the event
+	 * @return		true, if the event has been queued or dropped, false if 
+	 * the control event has been rejected, as the queue is full of control
+	 * events
+	 */
+	private boolean offerDropping(Event ev) {
+		boolean control = isControl(ev);
+		if (!control && policy == OverflowPolicy.DROP_NEWEST 
+				|| !dropOrdinary(policy == OverflowPolicy.DROP_OLDEST)) {
+			if (control) {
+				rejectedEvents.increment();
+				return false;
+			}
+			droppedEvents.increment();
+			PooledDataEvent.releaseIfPooled(ev);
+			return true;
+		}
+		enqueue(ev);
+		return true;
+	}
+	
+	/**
+	 * drop the oldest or the newest event in the queue, that is no control
+	 * event. Must be called holding the lock.
+	 * @param oldest	true to drop the oldest ordinary event, false to drop
+	 * the newest
+	 * @return			true, if an event has been dropped, false if there 
+	 * are only control events in the queue
+	 */
+	private boolean dropOrdinary(boolean oldest) {
+		for (int i = 0; i < count; i++) {
+			int n = oldest ? i : count - 1 - i;
+			Event ev = items[(head + n) % capacity];
+			if (!isControl(ev)) {
+				removeAt(n);
+				droppedEvents.increment();
+				PooledDataEvent.releaseIfPooled(ev);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * remove the event at the given position from the queue. The gap is 
+	 * closed by moving the fewer events, so dropping the oldest or newest
+	 * event doesn't move any event. Must be called holding the lock.
+	 * @param n	the position of the event, counted from the head
+	 */
+	private void removeAt(int n) {
+		if (n < count / 2) {
+			for (int i = n; i > 0; i--)
+				items[(head + i) % capacity] = items[(head + i - 1) % capacity];
+			items[head] = null;
+			head = (head + 1) % capacity;
+		} else {
+			for (int i = n; i < count - 1; i++)
+				items[(head + i) % capacity] = items[(head + i + 1) % capacity];
+			items[(head + count - 1) % capacity] = null;
+		}
+		count--;
+	}
+	
+	/**
+	 * check if the event is a control event, that must not be dropped
+	 * @param ev	the event
+	 * @return		true for the <code>ExitEvent</code> and the events with
+	 * <code>EventPriority.CONTROL</code>
+	 */
+	private static boolean isControl(Event ev) {
+		return ev instanceof ExitEvent 
+				|| ev.getPriority() == EventPriority.CONTROL;
+	}
+	
+	/**
+	 * wait for free space in the queue up to the timeout. Must be called 
+	 * holding the lock.
+	 * @param space	the number of free places needed
+	 * @return		true, if there is enough space in time
+	 */
+	private boolean awaitSpace(int space) {
+		long nanos = blockTimeoutNanos;
+		try {
+			while (capacity - count < space) {
+				if (nanos <= 0)
+					return false;
+				nanos = notFull.awaitNanos(nanos);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			// we are interrupted while waiting.
+			// the event is rejected, but the caller should know about
+			// the interruption
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * put the event at the end of the queue. Must be called holding the lock.
+	 * @param ev	the event
+	 */
+	private void enqueue(Event ev) {
+		items[(head + count) % capacity] = ev;
+		count++;
+	}
+	
+	/**
+	 * take the event from the head of the queue. Must be called holding the 
+	 * lock and only if the queue isn't empty.
+	 * @return	the event
+	 */
+	private Event dequeue() {
+		Event ev = items[head];
+		items[head] = null;
+		head = (head + 1) % capacity;
+		count--;
+		notFull.signalAll();
+		return ev;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#poll()
+	 */
+	@Override
+	public Event poll() {
+		lock.lock();
+		try {
+			return count == 0 ? null : dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#size()
+	 */
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * the drop policies don't reject ordinary events, so the capacity 
+	 * remaining is only limited with OverflowPolicy.REJECT and 
+	 * OverflowPolicy.BLOCK
+	 * 
+	 * @see com.github.koshamo.fiddler.EventQueue#remainingCapacity()
+	 */
+	@Override
+	public int remainingCapacity() {
+		if (policy == OverflowPolicy.DROP_OLDEST 
+				|| policy == OverflowPolicy.DROP_NEWEST)
+			return Integer.MAX_VALUE;
+		lock.lock();
+		try {
+			return capacity - count;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * get the maximum number of events in the queue
+	 * @return	the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * get the policy for events posted to the full queue
+	 * @return	the overflow policy
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * get the number of events, that have been rejected, because the queue
+	 * was full. This includes events, that couldn't be queued within the 
+	 * timeout with <code>OverflowPolicy.BLOCK</code>.
+	 * @return	the number of rejected events
+	 */
+	public long getRejectedEvents() {
+		return rejectedEvents.sum();
+	}
+	
+	/**
+	 * get the number of events, that have been dropped with 
+	 * <code>OverflowPolicy.DROP_OLDEST</code> or 
+	 * <code>OverflowPolicy.DROP_NEWEST</code>
+	 * @return	the number of dropped events
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.sum();
+	}
+
+}
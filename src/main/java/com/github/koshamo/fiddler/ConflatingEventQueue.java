@@ -0,0 +1,298 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ConflatingEventQueue is an <code>EventQueue</code> for streams of 
+ * <code>DataEvent</code>s, where only the latest value counts, e.g. quotes
+ * or status information shown in the UI.
+ * <p>
+ * Every data event with a conflation key replaces a queued event with the
+ * same key, that hasn't been distributed yet. The newer event takes the
+ * place of the older one, so it is distributed in the order the first of
+ * them has been posted, and the older event is never distributed. Thus the
+ * number of queued data events is limited by the number of distinct keys,
+ * no matter how fast they are posted.
+ * <p>
+ * Two events have the same key, if they are of the same class, have the
+ * same target and equal conflation keys. The conflation key of a data 
+ * event is the result of <code>DataEvent.getConflationKey()</code>, or its
+ * meta information, if its class or a superclass has been set to be 
+ * conflated with <code>conflate(Class)</code>. All other events are queued
+ * as usual.
+ * <pre>
+ * <code>
+ * ConflatingEventQueue queue = new ConflatingEventQueue();
+ * queue.conflate(QuoteEvent.class);
+ * MessageBus messageBus = new MessageBus(queue, WaitStrategy.BLOCKING, 
+ * 		DispatchMode.SEQUENTIAL);
+ * </code>
+ * </pre>
+ * Events posted with <code>MessageBus.postEvents()</code> are queued as a
+ * whole, but an event of the batch replacing a queued event takes the 
+ * place of the queued one. A replaced <code>PooledDataEvent</code> is given
+ * back to its pool.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class ConflatingEventQueue implements EventQueue {
+	private final ReentrantLock lock;
+	// holds the events without key and the slots of the conflated events
+	private final ArrayDeque<Object> entries;
+	private final Map<Key, Slot> slots;
+	private final Map<Class<?>, Boolean> conflatedClasses;
+	private long conflatedEvents;
+
+	/**
+	 * Create the queue
+	 */
+	public ConflatingEventQueue() {
+		lock = new ReentrantLock();
+		entries = new ArrayDeque<>();
+		slots = new HashMap<>();
+		conflatedClasses = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Conflate the data events of the given class and its subclasses by 
+	 * their meta information. This is only needed for event classes, that 
+	 * don't override <code>DataEvent.getConflationKey()</code>.
+	 * 
+	 * @param eventClass	the class of the data events
+	 */
+	@SuppressWarnings("rawtypes")
+	public void conflate(Class<? extends DataEvent> eventClass) {
+		Objects.requireNonNull(eventClass, "You must specify a DataEvent class");
+		conflatedClasses.put(eventClass, Boolean.TRUE);
+	}
+
+	/**
+	 * get the conflation key of the event
+	 * @param ev	the event
+	 * @return		the key, null if the event is not conflated
+	 */
+	Object conflationKeyOf(Event ev) {
+		if (!(ev instanceof DataEvent))
+			return null;
+		DataEvent<?, ?> de = (DataEvent<?, ?>) ev;
+		Object key = de.getConflationKey();
+		if (key != null || conflatedClasses.isEmpty())
+			return key;
+		for (Class<?> c = ev.getClass(); c != DataEvent.class; 
+				c = c.getSuperclass()) {
+			if (conflatedClasses.containsKey(c))
+				return de.getMetaInformation();
+		}
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#offer(com.github.koshamo.fiddler.Event)
+	 */
+	@Override
+	public boolean offer(Event ev) {
+		Object key = conflationKeyOf(ev);
+		lock.lock();
+		try {
+			enqueue(ev, key);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#offerAll(java.util.Collection)
+	 */
+	@Override
+	public boolean offerAll(Collection<? extends Event> events) {
+		Object[] keys = new Object[events.size()];
+		int i = 0;
+		for (Event ev : events)
+			keys[i++] = conflationKeyOf(ev);
+		lock.lock();
+		try {
+			i = 0;
+			for (Event ev : events)
+				enqueue(ev, keys[i++]);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * queue the event or let it replace the queued event with the same key.
+	 * Must be called holding the lock.
+	 * @param ev			the event
+	 * @param conflationKey	the conflation key of the event, null if the 
+	 * event is not conflated
+	 */
+	private void enqueue(Event ev, Object conflationKey) {
+		if (conflationKey == null) {
+			entries.addLast(ev);
+			return;
+		}
+		Key key = new Key(ev.getClass(), ev.getTarget(), conflationKey);
+		Slot slot = slots.get(key);
+		if (slot == null) {
+			slot = new Slot(key, ev);
+			slots.put(key, slot);
+			entries.addLast(slot);
+			return;
+		}
+		Event replaced = slot.event;
+		slot.event = ev;
+		conflatedEvents++;
+		PooledDataEvent.releaseIfPooled(replaced);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#poll()
+	 */
+	@Override
+	public Event poll() {
+		lock.lock();
+		try {
+			Object entry = entries.pollFirst();
+			if (!(entry instanceof Slot))
+				return (Event) entry;
+			Slot slot = (Slot) entry;
+			slots.remove(slot.key);
+			return slot.event;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#size()
+	 */
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * get the number of events, that have been replaced by newer events 
+	 * before they have been distributed
+	 * @return	the number of conflated events
+	 */
+	public long getConflatedEvents() {
+		lock.lock();
+		try {
+			return conflatedEvents;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The key of conflated events: the event class, the target and the 
+	 * conflation key of the event
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class Key {
+		private final Class<?> eventClass;
+		private final EventHandler target;
+		private final Object conflationKey;
+		private final int hash;
+
+		/**
+		 * Create the key
+		 * @param eventClass	the class of the event
+		 * @param target		the target of the event, may be null
+		 * @param conflationKey	the conflation key of the event
+		 */
+		Key(Class<?> eventClass, EventHandler target, Object conflationKey) {
+			this.eventClass = eventClass;
+			this.target = target;
+			this.conflationKey = conflationKey;
+			hash = (eventClass.hashCode() * 31 
+					+ System.identityHashCode(target)) * 31 
+					+ conflationKey.hashCode();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			// targets are handlers, which are compared by identity
+			return eventClass == other.eventClass && target == other.target
+					&& conflationKey.equals(other.conflationKey);
+		}
+	}
+
+	/**
+	 * The place of a conflated event in the queue, which holds the latest
+	 * event with this key
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class Slot {
+		final Key key;
+		Event event;
+
+		/**
+		 * Create the slot
+		 * @param key	the key of the events
+		 * @param event	the first event with this key
+		 */
+		Slot(Key key, Event event) {
+			this.key = key;
+			this.event = event;
+		}
+	}
+}
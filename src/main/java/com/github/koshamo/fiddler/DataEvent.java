@@ -83,4 +83,17 @@ public abstract class DataEvent<M, T> extends Event {
 	public T getData() {
 		return data;
 	}
+	
+	/**
+	 * Get the key for conflating this event in a 
+	 * <code>ConflatingEventQueue</code>. A queued event of the same class 
+	 * with the same target and an equal key is replaced by this event. 
+	 * Override this method for "latest value wins" events, e.g. to return 
+	 * the meta information.
+	 * @return	the conflation key, null by default, which means the event 
+	 * is never replaced
+	 */
+	public Object getConflationKey() {
+		return null;
+	}
 }
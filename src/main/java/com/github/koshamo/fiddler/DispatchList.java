@@ -0,0 +1,168 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * This class is a helper class for the MessageBus class. It holds all 
+ * handlers registered for a single event class and indexes the 
+ * <code>ListenerType.TARGET</code> handlers by their identity.
+ * <p>
+ * An event without target is delivered to all handlers. An event with a
+ * target is only delivered to the <code>ListenerType.ANY</code> handlers
+ * and to the target handler, which is looked up in the index. So the work
+ * for targeted events doesn't depend on the number of registered handlers.
+ * <p>
+ * The handlers registered with a <code>MetaFilter</code> are indexed by the
+ * values of their filters: for every value there is a dispatch list of the
+ * filtered handlers accepting this value. So the filtered handlers of an 
+ * event are selected by a single lookup of its meta information, and the
+ * message bus merges them with the handlers without filter by the order of
+ * their registration. Every filtered handler is held once per value of its
+ * filter, regardless of the number of handlers without filter.
+ * <p>
+ * The dispatch list is immutable and is created anew for every snapshot of
+ * the registered handlers.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class DispatchList {
+	private static final RegisteredHandler[] NONE = new RegisteredHandler[0];
+	/** the dispatch list without handlers */
+	static final DispatchList EMPTY = 
+			new DispatchList(NONE, Collections.emptyMap());
+	
+	private final RegisteredHandler[] all;
+	private final RegisteredHandler[] any;
+	private final Map<EventHandler, RegisteredHandler[]> targets;
+	private final Map<Object, DispatchList> byMeta;
+	
+	/**
+	 * Create the dispatch list
+	 * @param handlers	the handlers registered for the event class in the
+	 * order of their registration
+	 */
+	DispatchList(RegisteredHandler[] handlers) {
+		this(Arrays.stream(handlers)
+				.filter(rh -> rh.getFilter() == null)
+				.toArray(RegisteredHandler[]::new), metaIndexOf(handlers));
+	}
+	
+	/**
+	 * Create the dispatch list
+	 * @param handlers	the handlers receiving the events in the order of 
+	 * their registration
+	 * @param byMeta	the dispatch lists of the filtered handlers for the 
+	 * values of the meta information
+	 */
+	private DispatchList(RegisteredHandler[] handlers, 
+			Map<Object, DispatchList> byMeta) {
+		this.byMeta = byMeta;
+		all = handlers;
+		List<RegisteredHandler> anyHandlers = new ArrayList<>();
+		Map<EventHandler, List<RegisteredHandler>> targetHandlers = 
+				new IdentityHashMap<>();
+		for (RegisteredHandler rh : all) {
+			if (rh.getType() == ListenerType.ANY)
+				anyHandlers.add(rh);
+			else
+				targetHandlers.computeIfAbsent(rh.getHandler(), 
+						h -> new ArrayList<>()).add(rh);
+		}
+		any = anyHandlers.toArray(NONE);
+		targets = new IdentityHashMap<>();
+		targetHandlers.forEach((h, l) -> targets.put(h, l.toArray(NONE)));
+	}
+	
+	/**
+	 * create the dispatch lists of the filtered handlers for every value 
+	 * accepted by a filter
+	 * @param handlers	the handlers registered for the event class in the
+	 * order of their registration
+	 * @return			the dispatch lists by the values of the meta 
+	 * information
+	 */
+	private static Map<Object, DispatchList> metaIndexOf(
+			RegisteredHandler[] handlers) {
+		Map<Object, List<RegisteredHandler>> filtered = new HashMap<>();
+		for (RegisteredHandler rh : handlers)
+			if (rh.getFilter() != null)
+				for (Object value : rh.getFilter().getValues())
+					filtered.computeIfAbsent(value, v -> new ArrayList<>())
+							.add(rh);
+		if (filtered.isEmpty())
+			return Collections.emptyMap();
+		Map<Object, DispatchList> index = new HashMap<>();
+		filtered.forEach((value, list) -> index.put(value, 
+				new DispatchList(list.toArray(NONE), Collections.emptyMap())));
+		return index;
+	}
+	
+	/**
+	 * get the filtered handlers accepting the meta information of the 
+	 * event
+	 * @param ev	the event to be distributed
+	 * @return		the dispatch list of the filtered handlers accepting the
+	 * event, the empty list, if no filter accepts the event
+	 */
+	DispatchList filteredFor(Event ev) {
+		if (byMeta.isEmpty())
+			return EMPTY;
+		Object meta = MetaFilter.metaInformationOf(ev);
+		if (meta == null)
+			return EMPTY;
+		DispatchList list = byMeta.get(meta);
+		return list == null ? EMPTY : list;
+	}
+	
+	/**
+	 * get all handlers without filter, which receive events without target
+	 * @return	all handlers in the order of their registration
+	 */
+	RegisteredHandler[] getAll() {
+		return all;
+	}
+	
+	/**
+	 * get the handlers registered with <code>ListenerType.ANY</code>
+	 * @return	the handlers in the order of their registration
+	 */
+	RegisteredHandler[] getAny() {
+		return any;
+	}
+	
+	/**
+	 * get the registrations with <code>ListenerType.TARGET</code> of the
+	 * target handler
+	 * @param target	the target of the event
+	 * @return			the registrations of the target in the order of their
+	 * registration, an empty array if the target isn't registered
+	 */
+	RegisteredHandler[] getTargeted(EventHandler target) {
+		RegisteredHandler[] targeted = targets.get(target);
+		return targeted == null ? NONE : targeted;
+	}
+}
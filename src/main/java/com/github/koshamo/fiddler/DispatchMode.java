@@ -0,0 +1,67 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+/**
+ * The DispatchMode defines, how the <code>MessageBus</code> calls the 
+ * registered <code>EventHandler</code>s.
+ * <ul>
+ * <li><code>SEQUENTIAL</code> calls every handler directly on the event
+ * thread of the message bus. A handler, that needs a long time to handle an
+ * event, delays the delivery to all other handlers.
+ * <li><code>MAILBOX</code> gives every registered handler its own mailbox.
+ * The event thread only puts the event into the mailboxes, the handlers
+ * then run concurrently on a thread pool. Every handler still receives its 
+ * events in the order they have been posted and is never called 
+ * concurrently. In this mode the handler statistics also show the mailbox
+ * depth of every handler, see <code>MessageBus.getHandlerStatistics()</code>.
+ * <li><code>VIRTUAL_THREAD</code> works like <code>MAILBOX</code>, but the
+ * mailboxes are drained on virtual threads. A handler blocking in 
+ * <code>handle(Event event)</code>, e.g. on JDBC or file I/O, only blocks
+ * its virtual thread, so thousands of handlers may block at the same time
+ * using a few platform threads. This mode needs Java 21 or later, the 
+ * <code>MessageBus</code> constructor throws an 
+ * <code>UnsupportedOperationException</code> on older Java versions.
+ * <li><code>PARTITIONED</code> spreads the events over several partitions
+ * by their partition key, see <code>Event.getPartitionKey()</code>. Every
+ * partition calls the handlers on its own thread, so the events of the 
+ * same key are handled in the order they have been posted, while the 
+ * events of different keys are handled in parallel. A handler may be 
+ * called by several partitions concurrently and must be thread safe.
+ * </ul>
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public enum DispatchMode {
+	/**
+	 * all handlers are called one after the other on the event thread
+	 */
+	SEQUENTIAL,
+	/**
+	 * every handler is called from its own mailbox on a thread pool
+	 */
+	MAILBOX,
+	/**
+	 * every handler is called from its own mailbox on virtual threads
+	 */
+	VIRTUAL_THREAD,
+	/**
+	 * the handlers are called by several partitions, keeping the order of
+	 * the events of every partition key
+	 */
+	PARTITIONED
+}
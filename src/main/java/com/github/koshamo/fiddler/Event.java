@@ -30,6 +30,8 @@ import java.util.Objects;
 public abstract class Event {
 	private final EventHandler source;
 	private final EventHandler target;
+	// set by the message bus when posting, to measure the latency
+	long postNanos;
 
 	/**
 	 * The basic constructor uses only source and target of events.
@@ -57,4 +59,42 @@ public abstract class Event {
 	public EventHandler getTarget() {
 		return target;
 	}
+	
+	/**
+	 * get the priority of this event, which is used by the 
+	 * <code>PriorityEventQueue</code>. Override this method to give the
+	 * events of your class another priority.
+	 * @return	the priority, <code>EventPriority.NORMAL</code> by default
+	 */
+	public EventPriority getPriority() {
+		return EventPriority.NORMAL;
+	}
+
+	/**
+	 * get the topic of this event, which is used to deliver the event to
+	 * the handlers subscribed with
+	 * <code>MessageBus.subscribe(String, EventHandler, ListenerType)</code>.
+	 * The levels of the topic are separated by '/', e.g.
+	 * <code>"orders/eu/berlin"</code>. Override this method to give the
+	 * events of your class a topic. A topic with an empty level, like 
+	 * <code>"orders/"</code>, matches no subscription.
+	 * @return	the topic, null by default, which means the event is only
+	 * delivered to the handlers registered for its class
+	 */
+	public String getTopic() {
+		return null;
+	}
+
+	/**
+	 * get the partition key of this event, which is used by the message 
+	 * bus in <code>DispatchMode.PARTITIONED</code>. All events with the 
+	 * same key are handled by the same partition in the order they have 
+	 * been posted. Override this method to keep the order of the events of
+	 * your class by another key, e.g. an order number.
+	 * @return	the partition key, the source of this event by default, 
+	 * which is compared by its identity
+	 */
+	public Object getPartitionKey() {
+		return getSource();
+	}
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The EventPool holds reusable <code>PooledDataEvent</code>s. Producers
+ * claim an event, fill it in and post it, the message bus gives it back 
+ * after all handlers have handled it. See <code>PooledDataEvent</code> for
+ * the rules of using pooled events.
+ * <p>
+ * The pool is filled with <code>capacity</code> events when it is created.
+ * If all events are in use, <code>claim()</code> creates a new event, which
+ * is kept in the pool later, as long as the pool isn't full. So a pool a
+ * bit larger than the number of events in flight never creates any event
+ * after start up, which can be checked with <code>getCreatedEvents()</code>.
+ * <p>
+ * In debug mode every access to a released event throws an 
+ * <code>IllegalStateException</code>. This costs a volatile read for every
+ * access, so use it while testing your application.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class EventPool<E extends PooledDataEvent<?, ?>> {
+	private final Supplier<E> factory;
+	private final boolean debug;
+	private final PooledDataEvent<?, ?>[] events;
+	private final LongAdder createdEvents;
+	private int available;
+
+	/**
+	 * Create the event pool and fill it
+	 * 
+	 * @param capacity	the maximum number of unused events kept in the pool
+	 * @param factory	creates the events, e.g. 
+	 * <code>PooledDataEvent::new</code>
+	 */
+	public EventPool(int capacity, Supplier<E> factory) {
+		this(capacity, factory, false);
+	}
+
+	/**
+	 * Create the event pool and fill it
+	 * 
+	 * @param capacity	the maximum number of unused events kept in the pool
+	 * @param factory	creates the events, e.g. 
+	 * <code>PooledDataEvent::new</code>
+	 * @param debug		true, to check every access to a released event
+	 */
+	public EventPool(int capacity, Supplier<E> factory, boolean debug) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be positive");
+		Objects.requireNonNull(factory, "You must specify a factory");
+		this.factory = factory;
+		this.debug = debug;
+		events = new PooledDataEvent<?, ?>[capacity];
+		createdEvents = new LongAdder();
+		for (int i = 0; i < capacity; i++)
+			events[i] = create();
+		available = capacity;
+	}
+
+	/**
+	 * Claim an event from the pool. A new event is created, if the pool is 
+	 * empty.
+	 * 
+	 * @return	the event, which must be filled in and posted or released
+	 */
+	public E claim() {
+		E ev = take();
+		if (ev == null)
+			ev = create();
+		ev.claim(this, debug);
+		return ev;
+	}
+
+	/**
+	 * get the maximum number of unused events kept in the pool
+	 * @return	the capacity
+	 */
+	public int getCapacity() {
+		return events.length;
+	}
+
+	/**
+	 * get the number of unused events in the pool
+	 * @return	the number of available events
+	 */
+	public synchronized int getAvailable() {
+		return available;
+	}
+
+	/**
+	 * get the number of events created by the factory, including the events
+	 * created to fill the pool
+	 * @return	the number of created events
+	 */
+	public long getCreatedEvents() {
+		return createdEvents.sum();
+	}
+
+	/**
+	 * check, whether the pool checks every access to released events
+	 * @return	true, if the pool is in debug mode
+	 */
+	public boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * put a released event back into the pool. If the pool is full, the 
+	 * event is left to the garbage collector.
+	 * @param ev	the released event
+	 */
+	synchronized void giveBack(PooledDataEvent<?, ?> ev) {
+		if (available < events.length)
+			events[available++] = ev;
+	}
+
+	/**
+	 * take an unused event from the pool
+	 * @return	the event, null if the pool is empty
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized E take() {
+		if (available == 0)
+			return null;
+		E ev = (E) events[--available];
+		events[available] = null;
+		return ev;
+	}
+
+	/**
+	 * create a new event
+	 * @return	the new event
+	 */
+	private E create() {
+		E ev = Objects.requireNonNull(factory.get(), 
+				"The factory must create an event");
+		createdEvents.increment();
+		return ev;
+	}
+}
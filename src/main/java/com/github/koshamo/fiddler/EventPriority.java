@@ -0,0 +1,48 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+/**
+ * The EventPriority is used by the <code>PriorityEventQueue</code> to 
+ * distribute urgent events before the events queued earlier.
+ * <p>
+ * Every event has the priority <code>NORMAL</code>, unless its class 
+ * overrides <code>Event.getPriority()</code> or the priority of its class
+ * is set in the <code>PriorityEventQueue</code>. The <code>ExitEvent</code>
+ * has the priority <code>CONTROL</code>, so the application shuts down 
+ * quickly, even if lots of events are waiting.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public enum EventPriority {
+	/**
+	 * control events, always distributed first
+	 */
+	CONTROL,
+	/**
+	 * urgent events
+	 */
+	HIGH,
+	/**
+	 * the default priority
+	 */
+	NORMAL,
+	/**
+	 * events, that may wait, e.g. bulk data
+	 */
+	LOW
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Collection;
+
+/**
+ * The EventQueue holds the events posted to the <code>MessageBus</code>, 
+ * until the event thread distributes them.
+ * <p>
+ * Events may be offered by any number of threads concurrently, but are 
+ * taken from the queue by the event thread of the message bus only. So an
+ * implementation must support multiple producers and may rely on a single
+ * consumer.
+ * <p>
+ * Fiddler comes with these implementations:
+ * <ul>
+ * <li><code>LinkedEventQueue</code> is an unbounded queue and the default
+ * of the message bus.
+ * <li><code>RingBufferEventQueue</code> is a bounded queue, that preallocates
+ * its storage and doesn't create any garbage while posting events.
+ * <li><code>BoundedEventQueue</code> is a bounded queue with a configurable
+ * policy for events posted to the full queue.
+ * <li><code>PriorityEventQueue</code> holds a separate queue for every
+ * <code>EventPriority</code> and distributes urgent events first.
+ * <li><code>ConflatingEventQueue</code> replaces queued data events by newer
+ * events with the same key, so only the latest value is distributed.
+ * <li><code>journal.JournalingEventQueue</code> records the events in an
+ * <code>EventJournal</code> before passing them on to another queue, so 
+ * they can be replayed after a restart.
+ * </ul>
+ * Create the message bus with 
+ * <code>MessageBus(EventQueue, WaitStrategy, DispatchMode)</code> to choose
+ * the queue.
+ * <p>
+ * An event queue must not be shared by several message buses.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public interface EventQueue {
+
+	/**
+	 * put the event at the end of the queue. This method may be called by
+	 * any thread.
+	 * @param ev	the event to be queued, never null
+	 * @return		true, if the event has been queued, false if the queue is
+	 * full
+	 */
+	boolean offer(Event ev);
+	
+	/**
+	 * put all events at the end of the queue. Either all events are queued
+	 * or none and no other event gets in between. This method may be called
+	 * by any thread.
+	 * @param events	the events to be queued in this order, none of them
+	 * is null
+	 * @return			true, if the events have been queued, false if there 
+	 * is not enough space in the queue
+	 */
+	boolean offerAll(Collection<? extends Event> events);
+	
+	/**
+	 * take the event from the head of the queue. This method is only called
+	 * by the event thread of the message bus.
+	 * @return	the event, or null if the queue is empty
+	 */
+	Event poll();
+	
+	/**
+	 * check if the queue is empty. 
+	 * @return	true, if there is no event in the queue
+	 */
+	boolean isEmpty();
+	
+	/**
+	 * get the number of events in the queue. The result is only a snapshot,
+	 * as events may be offered and polled concurrently.
+	 * @return	the number of queued events
+	 */
+	int size();
+	
+	/**
+	 * get the number of events, that may be offered now without being 
+	 * rejected. The result is only a snapshot, unless the caller keeps the
+	 * other producers from offering events, as the consumer only frees
+	 * space. The default is <code>Integer.MAX_VALUE</code> for queues, that
+	 * never reject events.
+	 * @return	the number of events, that fit into the queue
+	 */
+	default int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+}
@@ -38,4 +38,14 @@ public class ExitEvent extends Event {
 		super(source, target);
 	}
 
+	/* (non-Javadoc)
+	 * the exit event must not wait for other events
+	 * 
+	 * @see com.github.koshamo.fiddler.Event#getPriority()
+	 */
+	@Override
+	public EventPriority getPriority() {
+		return EventPriority.CONTROL;
+	}
+
 }
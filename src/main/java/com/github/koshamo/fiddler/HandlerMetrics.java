@@ -0,0 +1,79 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a helper class for the MessageBus class to collect the 
+ * time spent in the <code>handle(Event event)</code> method and the 
+ * exceptions thrown by a single <code>EventHandler</code>. All registrations
+ * of a handler share the same metrics.
+ * <p>
+ * The counters may be updated by several threads at once, so a snapshot
+ * taken while the handler is running may be slightly inconsistent.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class HandlerMetrics {
+	private final LongAdder handledEvents = new LongAdder();
+	private final LongAdder totalHandleNanos = new LongAdder();
+	private final LongAdder exceptions = new LongAdder();
+	private final AtomicLong maxHandleNanos = new AtomicLong();
+	private volatile long lastHandleNanos;
+
+	/**
+	 * record a call of the handle method
+	 * @param nanos	the time spent in the handle method
+	 */
+	void recordHandle(long nanos) {
+		handledEvents.increment();
+		totalHandleNanos.add(nanos);
+		lastHandleNanos = nanos;
+		long max = maxHandleNanos.get();
+		while (nanos > max && !maxHandleNanos.compareAndSet(max, nanos))
+			max = maxHandleNanos.get();
+	}
+
+	/**
+	 * record an exception thrown by the handle method
+	 */
+	void recordException() {
+		exceptions.increment();
+	}
+
+	/**
+	 * get the number of exceptions thrown by the handle method
+	 * @return	the number of exceptions
+	 */
+	long getExceptions() {
+		return exceptions.sum();
+	}
+
+	/**
+	 * create a snapshot of the metrics
+	 * @param handler		the handler these metrics belong to
+	 * @param mailboxDepth	the number of events waiting in the mailbox
+	 * @return				the statistics
+	 */
+	HandlerStatistics snapshot(EventHandler handler, int mailboxDepth) {
+		return new HandlerStatistics(handler, mailboxDepth, 
+				handledEvents.sum(), totalHandleNanos.sum(), 
+				maxHandleNanos.get(), lastHandleNanos, exceptions.sum());
+	}
+}
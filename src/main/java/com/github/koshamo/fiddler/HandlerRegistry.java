@@ -0,0 +1,217 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is a helper class for the MessageBus class. It is an immutable
+ * snapshot of all registered handlers.
+ * <p>
+ * Registering or unregistering a handler creates a new snapshot, which 
+ * replaces the current one at once. The event thread takes the current 
+ * snapshot for every batch of events and iterates it without any locking. 
+ * Handlers registered or unregistered meanwhile, even from within 
+ * <code>handle(Event event)</code>, take effect with the next batch.
+ * <p>
+ * Every snapshot caches the dispatch lists of the event classes distributed
+ * so far, so the dispatch lists are created only once per snapshot. A new
+ * snapshot takes over the cached dispatch lists, that are not affected by
+ * the change, so registering and unregistering handlers for some events 
+ * doesn't slow down the distribution of other events.
+ * <p>
+ * The topic subscriptions are part of the registered handlers, too, but 
+ * are distributed using the <code>TopicTrie</code> of the snapshot instead 
+ * of the dispatch lists. Subscribing and unsubscribing doesn't touch the
+ * cached dispatch lists at all.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class HandlerRegistry {
+	/** the registry without any handlers */
+	static final HandlerRegistry EMPTY = 
+			new HandlerRegistry(new RegisteredHandler[0], TopicTrie.EMPTY);
+	
+	private final RegisteredHandler[] handlers;
+	private final TopicTrie topics;
+	private final Map<Class<?>, DispatchList> dispatchCache;
+	
+	/**
+	 * Create the snapshot
+	 * @param handlers	the registered handlers in the order of their
+	 * registration
+	 * @param topics	the index of the topic subscriptions
+	 */
+	private HandlerRegistry(RegisteredHandler[] handlers, TopicTrie topics) {
+		this.handlers = handlers;
+		this.topics = topics;
+		dispatchCache = new ConcurrentHashMap<>();
+	}
+	
+	/**
+	 * Create the snapshot and take over the cached dispatch lists of the 
+	 * previous snapshot, which don't contain the changed event class
+	 * @param handlers		the registered handlers in the order of their
+	 * registration
+	 * @param topics		the index of the topic subscriptions
+	 * @param previous		the previous snapshot
+	 * @param changedClass	the event class, that registrations changed for,
+	 * null if only topic subscriptions changed
+	 */
+	private HandlerRegistry(RegisteredHandler[] handlers, TopicTrie topics,
+			HandlerRegistry previous, Class<?> changedClass) {
+		this(handlers, topics);
+		previous.dispatchCache.forEach((c, l) -> {
+			if (changedClass == null || !changedClass.isAssignableFrom(c))
+				dispatchCache.put(c, l);
+		});
+	}
+	
+	/**
+	 * create a new snapshot with an additional handler
+	 * @param rh	the handler to be registered
+	 * @return		the new snapshot
+	 */
+	HandlerRegistry with(RegisteredHandler rh) {
+		return new HandlerRegistry(append(rh), topics, 
+				this, rh.getEventClass());
+	}
+	
+	/**
+	 * create a new snapshot with an additional topic subscription
+	 * @param levels	the levels of the topic pattern
+	 * @param rh		the subscribed handler, holding the topic pattern
+	 * @return			the new snapshot
+	 */
+	HandlerRegistry withTopic(String[] levels, RegisteredHandler rh) {
+		return new HandlerRegistry(append(rh), topics.with(levels, rh), 
+				this, null);
+	}
+	
+	/**
+	 * create a new snapshot without the registrations of the handler for
+	 * exactly the given event class and filter
+	 * @param eventClass	the event class to be unregistered from
+	 * @param filter		the filter of the registrations to be removed, 
+	 * null to remove the registrations without filter
+	 * @param handler		the handler to be unregistered
+	 * @return				the new snapshot, or this snapshot, if the handler
+	 * isn't registered for this event class and filter
+	 */
+	HandlerRegistry without(Class<?> eventClass, MetaFilter filter, 
+			EventHandler handler) {
+		RegisteredHandler[] newHandlers = Arrays.stream(handlers)
+				.filter(rh -> rh.getTopicPattern() != null
+						|| rh.getEventClass() != eventClass 
+						|| rh.getHandler() != handler
+						|| !Objects.equals(rh.getFilter(), filter))
+				.toArray(RegisteredHandler[]::new);
+		if (newHandlers.length == handlers.length)
+			return this;
+		return new HandlerRegistry(newHandlers, topics, this, eventClass);
+	}
+	
+	/**
+	 * create a new snapshot without the subscriptions of the handler to
+	 * exactly the given topic pattern
+	 * @param pattern	the topic pattern to be unsubscribed from
+	 * @param levels	the levels of the topic pattern
+	 * @param handler	the handler to be unsubscribed
+	 * @return			the new snapshot, or this snapshot, if the handler
+	 * isn't subscribed to this topic pattern
+	 */
+	HandlerRegistry withoutTopic(String pattern, String[] levels, 
+			EventHandler handler) {
+		TopicTrie newTopics = topics.without(levels, handler);
+		if (newTopics == topics)
+			return this;
+		RegisteredHandler[] newHandlers = Arrays.stream(handlers)
+				.filter(rh -> !pattern.equals(rh.getTopicPattern())
+						|| rh.getHandler() != handler)
+				.toArray(RegisteredHandler[]::new);
+		return new HandlerRegistry(newHandlers, newTopics, this, null);
+	}
+	
+	/**
+	 * create a copy of the registered handlers with an additional handler
+	 * @param rh	the handler to be registered
+	 * @return		the new handlers in the order of their registration
+	 */
+	private RegisteredHandler[] append(RegisteredHandler rh) {
+		RegisteredHandler[] newHandlers = 
+				Arrays.copyOf(handlers, handlers.length + 1);
+		newHandlers[handlers.length] = rh;
+		return newHandlers;
+	}
+	
+	/**
+	 * check if the handler is registered for any event class
+	 * @param handler	the handler to look for
+	 * @return			true, if the handler is registered
+	 */
+	boolean isRegistered(EventHandler handler) {
+		for (RegisteredHandler rh : handlers)
+			if (rh.getHandler() == handler)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * check if there is any handler registered
+	 * @return	true, if no handler is registered
+	 */
+	boolean isEmpty() {
+		return handlers.length == 0;
+	}
+	
+	/**
+	 * get all registered handlers. The array must not be changed!
+	 * @return	the handlers in the order of their registration
+	 */
+	RegisteredHandler[] getHandlers() {
+		return handlers;
+	}
+	
+	/**
+	 * get the index of the topic subscriptions
+	 * @return	the topic trie, which is empty if there are no subscriptions
+	 */
+	TopicTrie getTopics() {
+		return topics;
+	}
+	
+	/**
+	 * get the handlers registered for the given event class, including
+	 * the handlers registered for its superclasses. The handlers are
+	 * collected and indexed once per event class and snapshot.
+	 * @param eventClass	the class of the event to be distributed
+	 * @return				the dispatch list of this event class
+	 */
+	DispatchList dispatchListOf(Class<?> eventClass) {
+		DispatchList list = dispatchCache.get(eventClass);
+		if (list == null) 
+			list = dispatchCache.computeIfAbsent(eventClass, 
+					c -> new DispatchList(Arrays.stream(handlers)
+							.filter(rh -> rh.getTopicPattern() == null
+									&& rh.getEventClass().isAssignableFrom(c))
+							.toArray(RegisteredHandler[]::new)));
+		return list;
+	}
+}
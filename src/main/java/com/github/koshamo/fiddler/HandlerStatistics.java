@@ -0,0 +1,124 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+/**
+ * The HandlerStatistics is a snapshot of the statistics of a single 
+ * <code>EventHandler</code>, that is registered to a <code>MessageBus</code>.
+ * The mailbox depth is only known in <code>DispatchMode.MAILBOX</code> and
+ * <code>DispatchMode.VIRTUAL_THREAD</code>, otherwise it is always 0. For
+ * an <code>AsyncEventHandler</code> it is the number of events waiting to
+ * be started in every dispatch mode.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class HandlerStatistics {
+	private final EventHandler handler;
+	private final int mailboxDepth;
+	private final long handledEvents;
+	private final long totalHandleNanos;
+	private final long maxHandleNanos;
+	private final long lastHandleNanos;
+	private final long exceptions;
+
+	/**
+	 * Create the statistics snapshot
+	 * @param handler			the handler the statistics belong to
+	 * @param mailboxDepth		the number of events waiting in the mailbox
+	 * @param handledEvents		the number of handled events
+	 * @param totalHandleNanos	the time spent in all handle calls
+	 * @param maxHandleNanos	the longest time spent in one handle call
+	 * @param lastHandleNanos	the time spent in the last handle call
+	 * @param exceptions		the number of exceptions thrown by the handler
+	 */
+	HandlerStatistics(EventHandler handler, int mailboxDepth, 
+			long handledEvents, long totalHandleNanos, long maxHandleNanos,
+			long lastHandleNanos, long exceptions) {
+		this.handler = handler;
+		this.mailboxDepth = mailboxDepth;
+		this.handledEvents = handledEvents;
+		this.totalHandleNanos = totalHandleNanos;
+		this.maxHandleNanos = maxHandleNanos;
+		this.lastHandleNanos = lastHandleNanos;
+		this.exceptions = exceptions;
+	}
+
+	/**
+	 * get the handler these statistics belong to
+	 * @return	the event handler
+	 */
+	public EventHandler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * get the number of events, that are waiting to be handled
+	 * @return	the mailbox depth
+	 */
+	public int getMailboxDepth() {
+		return mailboxDepth;
+	}
+
+	/**
+	 * get the number of events handled so far
+	 * @return	the number of handled events
+	 */
+	public long getHandledEvents() {
+		return handledEvents;
+	}
+
+	/**
+	 * get the time spent in the handle method for all events
+	 * @return	the total handle time in nanoseconds
+	 */
+	public long getTotalHandleNanos() {
+		return totalHandleNanos;
+	}
+
+	/**
+	 * get the average time spent in the handle method
+	 * @return	the average handle time in nanoseconds, 0 if no events
+	 * have been handled
+	 */
+	public long getAverageHandleNanos() {
+		return handledEvents == 0 ? 0 : totalHandleNanos / handledEvents;
+	}
+
+	/**
+	 * get the longest time spent in the handle method for a single event
+	 * @return	the maximum handle time in nanoseconds
+	 */
+	public long getMaxHandleNanos() {
+		return maxHandleNanos;
+	}
+
+	/**
+	 * get the time spent in the handle method for the last event
+	 * @return	the last handle time in nanoseconds
+	 */
+	public long getLastHandleNanos() {
+		return lastHandleNanos;
+	}
+
+	/**
+	 * get the number of exceptions thrown by the handle method
+	 * @return	the number of exceptions
+	 */
+	public long getExceptions() {
+		return exceptions;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a helper class for the MessageBus class to record the
+ * time from posting an event until a handler is called. 
+ * <p>
+ * The histogram has a fixed number of buckets, so recording a value never
+ * allocates memory. Values below 8 nanoseconds get a bucket each, every 
+ * larger power of two is split into 8 buckets. So every value is recorded 
+ * with a precision of at least 12.5 percent, which is good enough for 
+ * percentiles of latencies.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class LatencyHistogram {
+	/** number of buckets every power of two is split into */
+	private static final int SUB_BUCKETS = 8;
+	private static final int SUB_BUCKET_BITS = 3;
+	/** enough buckets for every positive long value */
+	static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * record a single latency. Negative values are recorded as 0.
+	 * @param nanos	the latency in nanoseconds
+	 */
+	void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(indexOf(nanos));
+		totalNanos.add(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+			max = maxNanos.get();
+	}
+
+	/**
+	 * copy the bucket counts
+	 * @return	the number of recorded values in every bucket
+	 */
+	long[] getBuckets() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			copy[i] = buckets.get(i);
+		return copy;
+	}
+
+	/**
+	 * get the sum of all recorded values
+	 * @return	the total latency in nanoseconds
+	 */
+	long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * get the largest recorded value
+	 * @return	the maximum latency in nanoseconds
+	 */
+	long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * get the bucket of a value
+	 * @param nanos	the non-negative value
+	 * @return		the index of the bucket
+	 */
+	static int indexOf(long nanos) {
+		if (nanos < SUB_BUCKETS)
+			return (int) nanos;
+		int bits = 64 - Long.numberOfLeadingZeros(nanos);
+		int shift = bits - SUB_BUCKET_BITS - 1;
+		return (bits - SUB_BUCKET_BITS) * SUB_BUCKETS 
+				+ (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * get the largest value recorded in a bucket
+	 * @param index	the index of the bucket
+	 * @return		the upper bound of the bucket in nanoseconds
+	 */
+	static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		if (index == BUCKETS - 1)
+			return Long.MAX_VALUE;
+		int bits = index / SUB_BUCKETS + SUB_BUCKET_BITS;
+		int shift = bits - SUB_BUCKET_BITS - 1;
+		long next = SUB_BUCKETS + index % SUB_BUCKETS + 1;
+		return (next << shift) - 1;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The LinkedEventQueue is an unbounded <code>EventQueue</code> based on a 
+ * linked list. This is the default queue of the <code>MessageBus</code>.
+ * <p>
+ * As the queue is unbounded, posting an event always succeeds. But every
+ * posted event needs a list node to be allocated, which needs to be garbage
+ * collected afterwards. Consider <code>RingBufferEventQueue</code>, if you
+ * post lots of events.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class LinkedEventQueue implements EventQueue {
+
+	private final Queue<Event> queue;
+	
+	/**
+	 * Create an empty queue
+	 */
+	public LinkedEventQueue() {
+		queue = new ConcurrentLinkedQueue<>();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#offer(com.github.koshamo.fiddler.Event)
+	 */
+	@Override
+	public boolean offer(Event ev) {
+		return queue.offer(ev);
+	}
+
+	/* (non-Javadoc)
+	 * the events are linked to each other first and then appended to the 
+	 * queue at once
+	 * 
+	 * @see com.github.koshamo.fiddler.EventQueue#offerAll(java.util.Collection)
+	 */
+	@Override
+	public boolean offerAll(Collection<? extends Event> events) {
+		return queue.addAll(events) || events.isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#poll()
+	 */
+	@Override
+	public Event poll() {
+		return queue.poll();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#size()
+	 */
+	@Override
+	public int size() {
+		return queue.size();
+	}
+
+}
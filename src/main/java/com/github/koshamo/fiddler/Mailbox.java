@@ -0,0 +1,223 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is a helper class for the MessageBus class in 
+ * <code>DispatchMode.MAILBOX</code> and <code>DispatchMode.VIRTUAL_THREAD</code>.
+ * Every registered handler gets its own mailbox, which holds the events to
+ * be handled by this handler.
+ * <p>
+ * The mailbox is drained by at most one thread of the executor at any time,
+ * so the handler receives its events in order and is never called 
+ * concurrently. An <code>ExitEvent</code> in the mailbox calls the
+ * <code>shutdown()</code> method of the handler after all events posted
+ * before have been handled.
+ * <p>
+ * A mailbox of a handler, that is no longer registered, is retired: it 
+ * still delivers its events and tells the message bus, when it has been
+ * drained. If the handler registers again before, it gets the same 
+ * mailbox back.
+ * <p>
+ * A drained retired mailbox is removed. Removing takes the drain flag 
+ * for good, so the mailbox never calls the handler again. As the event
+ * thread may still post to it from a dispatch list taken before, such an
+ * event is handed to the message bus, which moves it to the current 
+ * mailbox of the handler or restores the removed mailbox.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class Mailbox {
+	/** maximum number of events handled before the thread is given back */
+	private static final int BATCH_SIZE = 64;
+
+	private final EventHandler handler;
+	private final Executor executor;
+	private final MessageBus messageBus;
+	private final Queue<Event> events;
+	private final AtomicInteger depth;
+	private final AtomicBoolean scheduled;
+	private final HandlerMetrics metrics;
+	private volatile boolean retired;
+	private volatile boolean removed;
+
+	/**
+	 * Create the mailbox for a handler
+	 * @param handler		the handler to deliver the events to
+	 * @param executor		the executor running the handler
+	 * @param messageBus	the message bus owning this mailbox
+	 * @param metrics		the metrics of the handler
+	 */
+	Mailbox(EventHandler handler, Executor executor, MessageBus messageBus,
+			HandlerMetrics metrics) {
+		this.handler = handler;
+		this.executor = executor;
+		this.messageBus = messageBus;
+		events = new ConcurrentLinkedQueue<>();
+		depth = new AtomicInteger();
+		scheduled = new AtomicBoolean();
+		this.metrics = metrics;
+	}
+
+	/**
+	 * put an event into the mailbox and make sure, the mailbox will be 
+	 * drained
+	 * @param ev	the event to be delivered
+	 */
+	void post(Event ev) {
+		events.offer(ev);
+		depth.incrementAndGet();
+		if (scheduled.compareAndSet(false, true))
+			executor.execute(this::drain);
+		else if (removed)
+			messageBus.postedToRemoved(this);
+	}
+
+	/**
+	 * submit the mailbox to the executor, if it is not already submitted
+	 */
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true))
+			executor.execute(this::drain);
+	}
+
+	/**
+	 * deliver the events in the mailbox to the handler. If there are
+	 * events left, the mailbox is submitted again to be fair to the other
+	 * mailboxes.
+	 */
+	private void drain() {
+		try {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Event ev = events.poll();
+				if (ev == null)
+					break;
+				depth.decrementAndGet();
+				deliver(ev);
+			}
+		} finally {
+			scheduled.set(false);
+			if (!events.isEmpty())
+				schedule();
+			else if (retired)
+				messageBus.mailboxDrained(handler);
+		}
+	}
+
+	/**
+	 * call the handler, the message bus records the time spent in the 
+	 * handler
+	 * @param ev	the event to be delivered
+	 */
+	private void deliver(Event ev) {
+		if (ev instanceof ExitEvent) {
+			handler.shutdown();
+			return;
+		}
+		messageBus.invokeHandler(handler, metrics, ev, depth.get());
+		PooledDataEvent.releaseIfPooled(ev);
+	}
+
+	/**
+	 * get the number of events waiting in this mailbox
+	 * @return	the mailbox depth
+	 */
+	int getDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * retire the mailbox, when the handler has been unregistered, or 
+	 * reuse it, when the handler registers again
+	 * @param retired	true, if the message bus wants to know, when the
+	 * mailbox has been drained
+	 */
+	void setRetired(boolean retired) {
+		this.retired = retired;
+	}
+
+	/**
+	 * remove the mailbox, if it has no events and is not being drained. 
+	 * Must be called holding the registry lock.
+	 * @return	true, if the mailbox has been removed
+	 */
+	boolean remove() {
+		if (!scheduled.compareAndSet(false, true))
+			return false;
+		// set before checking the events, so a post either is seen here
+		// or sees the mailbox removed
+		removed = true;
+		if (events.isEmpty())
+			return true;
+		restore();
+		return false;
+	}
+
+	/**
+	 * take back the removal of the mailbox and drain the events posted 
+	 * meanwhile. Must be called holding the registry lock.
+	 */
+	void restore() {
+		removed = false;
+		scheduled.set(false);
+		if (!events.isEmpty())
+			schedule();
+	}
+
+	/**
+	 * check, if the mailbox has been removed
+	 * @return	true, if the mailbox has been removed
+	 */
+	boolean isRemoved() {
+		return removed;
+	}
+
+	/**
+	 * move the events posted to the removed mailbox to the current mailbox
+	 * of the handler. Must be called holding the registry lock.
+	 * @param current	the mailbox of the handler registered again
+	 */
+	void moveTo(Mailbox current) {
+		Event ev;
+		while ((ev = events.poll()) != null) {
+			depth.decrementAndGet();
+			current.post(ev);
+		}
+	}
+
+	/**
+	 * get the handler of this mailbox
+	 * @return	the handler
+	 */
+	EventHandler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * get the metrics of the handler of this mailbox
+	 * @return	the metrics
+	 */
+	HandlerMetrics getMetrics() {
+		return metrics;
+	}
+}
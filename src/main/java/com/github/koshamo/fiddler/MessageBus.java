@@ -15,11 +15,37 @@
  */
 package com.github.koshamo.fiddler;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
-import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 /**
  * The MessageBus class is the main class for a message based modularized
@@ -96,15 +122,150 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * The handlers may register to different events, for example to message events
  * and to data events.
  * 
+ * Handlers may also register to any other event class, especially to your
+ * own subclasses of <code>Event</code>, using 
+ * <code>register(Class, EventHandler, ListenerType)</code>. A handler 
+ * registered to an event class receives all events of this class and of
+ * its subclasses, so <code>registerDataEvents(handler, type)</code> is the
+ * same as <code>register(DataEvent.class, handler, type)</code>. The message
+ * bus caches the matching handlers per event class, so only the handlers
+ * interested in an event are visited when distributing it. Within this cache
+ * the <code>ListenerType.TARGET</code> handlers are indexed by their identity,
+ * so an event with a target is handed to the target and the 
+ * <code>ListenerType.ANY</code> handlers directly, without looking at any 
+ * other handler.
+ * 
+ * Registering and unregistering is thread safe and may be done from any 
+ * thread, even from within the <code>handle(Event event)</code> method. The
+ * message bus keeps an immutable snapshot of all registrations, which is
+ * replaced on every change. So distributing the events never waits for a 
+ * lock. The event thread takes the queued events in batches and changes 
+ * take effect with the next batch of events.
+ * 
  * For every register method exists a conforming unregister method to unregister
  * from this type of events. 
  * 
+ * Events may have a topic, which is returned by <code>getTopic()</code>,
+ * e.g. <code>"orders/eu/berlin"</code>. Handlers interested in some topics
+ * only subscribe to them using 
+ * <code>subscribe(String, EventHandler, ListenerType)</code> instead of 
+ * registering to all events of a class and filtering them. A topic pattern
+ * may contain <code>*</code> for any single level and may end with 
+ * <code>**</code> for any number of levels, so <code>"orders/eu/*"</code>
+ * matches <code>"orders/eu/berlin"</code> and <code>"orders/**"</code>
+ * matches every topic starting with <code>"orders"</code>. The message bus 
+ * indexes the subscriptions in a trie, so finding the subscribers of an 
+ * event only depends on the number of levels of its topic. An event is 
+ * delivered to the handlers registered for its class first and then to 
+ * the handlers subscribed to its topic, in the order of their 
+ * subscription. A handler subscribed to several matching patterns receives
+ * the event once.
+ * 
  * It is also possible to register to all events and to message events (or
  * request or data events) and then to unregister from all events. The handler
  * then still is registered to message events in this case! If you are 
  * registered to all events and, as above, to message events, you will receive
  * the message event twice!
  * 
+ * Handlers interested in some of the data or request events of a class 
+ * only register with a <code>MetaFilter</code> using
+ * <code>register(Class, MetaFilter, EventHandler, ListenerType)</code>,
+ * e.g. with <code>MetaFilter.in("EU", "US")</code>, instead of checking
+ * the meta information of every event in <code>handle(Event event)</code>.
+ * The message bus indexes the filters by their values, so the handlers 
+ * accepting an event are found by a single lookup of its meta information.
+ * 
+ * A module requesting data may post its <code>RequestEvent</code> using
+ * <code>postRequest(RequestEvent, long, TimeUnit)</code> and gets a 
+ * <code>CompletableFuture</code> for the answer. The answering module calls 
+ * <code>reply(RequestEvent, DataEvent)</code> to complete this future 
+ * directly, so the answer isn't distributed to any other handler. If there
+ * is no answer in time, the future completes with a 
+ * <code>TimeoutException</code>.
+ * 
+ * The events are distributed by a separate event thread. Posting an event
+ * wakes up this thread immediately. What the thread does while there are no
+ * events is defined by the <code>WaitStrategy</code>, which may be chosen
+ * when creating the message bus. The default is 
+ * <code>WaitStrategy.BLOCKING</code>, which doesn't use any CPU time while
+ * the message bus is idle.
+ * 
+ * The posted events are kept in an <code>EventQueue</code>. By default this 
+ * is an unbounded <code>LinkedEventQueue</code>. If you post lots of events, 
+ * a preallocated <code>RingBufferEventQueue</code> avoids creating garbage
+ * for every event. If your producers may post events faster than your 
+ * handlers can handle them, use a <code>BoundedEventQueue</code> to limit
+ * the memory used by the queue and to choose what to do on overload. Use a
+ * <code>PriorityEventQueue</code>, if control events like the 
+ * <code>ExitEvent</code> must not wait behind a backlog of other events.
+ * For streams of data events, where only the latest value counts, a
+ * <code>ConflatingEventQueue</code> replaces queued events by newer ones.
+ * To keep the posted events beyond the end of the Java VM, wrap the queue
+ * in a <code>JournalingEventQueue</code>, which records them in an 
+ * <code>EventJournal</code> to be replayed after a restart.
+ * 
+ * By default the event thread calls all handlers one after the other. If 
+ * some of your handlers need a long time to handle an event, e.g. because
+ * they do I/O, create the message bus with <code>DispatchMode.MAILBOX</code>.
+ * Then every handler gets its own mailbox and the handlers run concurrently,
+ * while every single handler still receives its events in order. In this
+ * mode <code>getHandlerStatistics()</code> also shows the number of events
+ * waiting in every mailbox. On Java 21 or later you may use
+ * <code>DispatchMode.VIRTUAL_THREAD</code> instead, which drains the
+ * mailboxes on virtual threads, so handlers blocking on I/O don't occupy
+ * any platform thread.
+ * 
+ * A handler starting asynchronous work, e.g. non-blocking I/O, implements
+ * <code>AsyncEventHandler</code> and returns a <code>CompletionStage</code>
+ * for every event. The message bus doesn't wait for the stage, but keeps
+ * at most <code>getMaxInFlight()</code> events in flight per handler and
+ * starts the other events as the stages complete, in the order defined by
+ * <code>getOrdering()</code>. So many events are in flight without 
+ * occupying a thread in any dispatch mode. An asynchronous handler is shut
+ * down after all its stages have completed.
+ * 
+ * If a single thread can't distribute the events fast enough, create the
+ * message bus with <code>DispatchMode.PARTITIONED</code>. Then the event
+ * thread only spreads the events over several partitions by their
+ * partition key, which is the source of the event by default and may be
+ * changed by overriding <code>Event.getPartitionKey()</code>. Every 
+ * partition calls the handlers on its own thread, so the events of the 
+ * same key are handled in the order they have been posted, while the 
+ * events of different keys are handled in parallel. A handler may be 
+ * called by several partitions at the same time in this mode, so it must 
+ * be thread safe. Use 
+ * <code>MessageBus(EventQueue, WaitStrategy, int)</code> to choose the 
+ * number of partitions, which is the number of available processors by 
+ * default.
+ * 
+ * Every message bus has its own event thread by default. If your 
+ * application uses lots of message buses, e.g. one for every session, 
+ * create them with a shared <code>Executor</code> using 
+ * <code>MessageBus(Executor)</code>. Then a message bus only occupies a 
+ * thread of the executor while it distributes events, the events of every
+ * message bus are still distributed one after the other in order. A 
+ * message bus on a shared executor stops after the <code>ExitEvent</code>
+ * like any other, but doesn't exit the Java VM.
+ * 
+ * To stop a message bus without shutting the handlers down and without 
+ * exiting the Java VM, e.g. in tests, call <code>stop()</code>.
+ * 
+ * The message bus collects metrics: the depth of the event queue,
+ * the posted and distributed events per event class, the time from posting
+ * an event until a handler is called, the time spent in every handler and
+ * the number of registrations. Get them with <code>getMetrics()</code> or
+ * register the message bus to JMX using <code>registerMBean(String)</code>.
+ * If every nanosecond counts, switch the metrics off with 
+ * <code>setMetricsEnabled(false)</code>.
+ * A handler throwing an exception doesn't stop the message bus: the 
+ * exception is counted and passed to the uncaught exception handler of the
+ * thread, then the event is delivered to the next handler.
+ * 
+ * If you post lots of data events, use <code>PooledDataEvent</code>s from
+ * an <code>EventPool</code>. The message bus gives them back to their pool
+ * after all handlers have handled them, so the events are reused instead 
+ * of creating garbage.
+ * 
  * @author Dr. Jochen Raßler
  *
  */
@@ -136,16 +297,38 @@ public class MessageBus {
 	}
 	
 	
-	List<RegisteredHandler> eventHandlers;
-	List<RegisteredHandler> messageHandlers;
-	List<RegisteredHandler> requestHandlers;
-	List<RegisteredHandler> dataHandlers;
-	List<RegisteredHandler> eventHandlersToBeRemoved;
-	List<RegisteredHandler> messageHandlersToBeRemoved;
-	List<RegisteredHandler> requestHandlersToBeRemoved;
-	List<RegisteredHandler> dataHandlersToBeRemoved;
-	Queue<Event> eventQueue;
-	private EventRunner runner;
+	/** the start of a handler, that is not timed */
+	private static final long NOT_TIMED = Long.MIN_VALUE;
+	/** orders the topic subscriptions by the order of their subscription */
+	private static final Comparator<RegisteredHandler> BY_SEQUENCE = 
+			Comparator.comparingLong(RegisteredHandler::getSequence);
+	/** the empty list of handlers */
+	private static final RegisteredHandler[] NO_HANDLERS = 
+			new RegisteredHandler[0];
+	/** the correlation IDs of every message bus, so a reply matches its bus */
+	private static final AtomicLong CORRELATION_IDS = new AtomicLong();
+	
+	private volatile HandlerRegistry registry;
+	private final Object registryLock;
+	private final AtomicLong registrationSequence;
+	private final EventQueue eventQueue;
+	private final WaitStrategy waitStrategy;
+	private final DispatchMode dispatchMode;
+	private final Map<EventHandler, Mailbox> mailboxes;
+	private final Map<EventHandler, AsyncMailbox> asyncMailboxes;
+	private final Map<EventHandler, HandlerMetrics> handlerMetrics;
+	private final MessageBusMetrics metrics;
+	private volatile boolean metricsEnabled = true;
+	private ObjectName mbeanName;
+	private final Executor dispatchExecutor;
+	private final Executor mailboxExecutor;
+	private final Partition[] partitions;
+	private final AtomicInteger exitedPartitions;
+	private volatile SlowHandlerListener slowHandlerListener;
+	private volatile long slowHandlerThresholdNanos;
+	private final Map<Long, CompletableFuture<DataEvent<?, ?>>> pendingRequests;
+	private volatile ScheduledThreadPoolExecutor timeoutScheduler;
+	private final EventRunner runner;
 	
 	/**
 	 * Create a MessageBus and start it.
@@ -153,17 +336,135 @@ public class MessageBus {
 	 * Life can be that easy!
 	 */
 	public MessageBus() {
-		eventHandlers = new Vector<>();
-		messageHandlers = new Vector<>();
-		requestHandlers = new Vector<>();
-		dataHandlers = new Vector<>();
-		eventHandlersToBeRemoved = new Vector<>();
-		messageHandlersToBeRemoved = new Vector<>();
-		requestHandlersToBeRemoved = new Vector<>();
-		dataHandlersToBeRemoved = new Vector<>();
-		eventQueue = new ConcurrentLinkedQueue<>();
+		this(WaitStrategy.BLOCKING);
+	}
+	
+	/**
+	 * Create a MessageBus using the given wait strategy and start it.
+	 * 
+	 * @param waitStrategy	defines what the event thread does while there 
+	 * are no events to be distributed
+	 */
+	public MessageBus(WaitStrategy waitStrategy) {
+		this(waitStrategy, DispatchMode.SEQUENTIAL);
+	}
+	
+	/**
+	 * Create a MessageBus using the given wait strategy and dispatch mode 
+	 * and start it.
+	 * 
+	 * @param waitStrategy	defines what the event thread does while there 
+	 * are no events to be distributed
+	 * @param dispatchMode	defines how the event handlers are called
+	 */
+	public MessageBus(WaitStrategy waitStrategy, DispatchMode dispatchMode) {
+		this(new LinkedEventQueue(), waitStrategy, dispatchMode);
+	}
+	
+	/**
+	 * Create a MessageBus using the given event queue, wait strategy and 
+	 * dispatch mode and start it.
+	 * 
+	 * @param eventQueue	the queue holding the posted events, must not be
+	 * used by any other message bus
+	 * @param waitStrategy	defines what the event thread does while there 
+	 * are no events to be distributed
+	 * @param dispatchMode	defines how the event handlers are called
+	 */
+	public MessageBus(EventQueue eventQueue, WaitStrategy waitStrategy, 
+			DispatchMode dispatchMode) {
+		this(eventQueue, waitStrategy, null, dispatchMode,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a MessageBus in <code>DispatchMode.PARTITIONED</code> using
+	 * the given event queue, wait strategy and number of partitions and
+	 * start it.
+	 *
+	 * @param eventQueue	the queue holding the posted events, must not be
+	 * used by any other message bus
+	 * @param waitStrategy	defines what the event thread does while there
+	 * are no events to be distributed
+	 * @param partitions	the number of partitions, which is the maximum
+	 * number of threads calling the handlers at the same time
+	 * @throws IllegalArgumentException	if the number of partitions is not
+	 * positive
+	 */
+	public MessageBus(EventQueue eventQueue, WaitStrategy waitStrategy,
+			int partitions) {
+		this(eventQueue, waitStrategy, null, DispatchMode.PARTITIONED,
+				partitions);
+	}
+	
+	/**
+	 * Create a MessageBus, that distributes its events on the given 
+	 * executor instead of its own event thread, and start it.
+	 * 
+	 * @param executor	the executor shared by many message buses
+	 */
+	public MessageBus(Executor executor) {
+		this(new LinkedEventQueue(), executor, DispatchMode.SEQUENTIAL);
+	}
+	
+	/**
+	 * Create a MessageBus using the given event queue and dispatch mode,
+	 * that distributes its events on the given executor instead of its own
+	 * event thread, and start it. In <code>DispatchMode.MAILBOX</code> the
+	 * mailboxes are drained on this executor, too, and so are the
+	 * partitions in <code>DispatchMode.PARTITIONED</code>.
+	 * 
+	 * @param eventQueue	the queue holding the posted events, must not be
+	 * used by any other message bus
+	 * @param executor		the executor shared by many message buses
+	 * @param dispatchMode	defines how the event handlers are called
+	 */
+	public MessageBus(EventQueue eventQueue, Executor executor, 
+			DispatchMode dispatchMode) {
+		this(eventQueue, WaitStrategy.BLOCKING, 
+				Objects.requireNonNull(executor, "You must specify an Executor"),
+				dispatchMode, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Create a MessageBus and start it
+	 * 
+	 * @param eventQueue		the queue holding the posted events
+	 * @param waitStrategy		defines what the event thread does while 
+	 * there are no events to be distributed
+	 * @param dispatchExecutor	the executor distributing the events, null
+	 * to use an event thread
+	 * @param dispatchMode		defines how the event handlers are called
+	 * @param partitionCount	the number of partitions in
+	 * <code>DispatchMode.PARTITIONED</code>
+	 */
+	private MessageBus(EventQueue eventQueue, WaitStrategy waitStrategy, 
+			Executor dispatchExecutor, DispatchMode dispatchMode,
+			int partitionCount) {
+		Objects.requireNonNull(eventQueue, "You must specify an EventQueue");
+		Objects.requireNonNull(waitStrategy, "You must specify a WaitStrategy");
+		Objects.requireNonNull(dispatchMode, "You must specify a DispatchMode");
+		if (partitionCount < 1)
+			throw new IllegalArgumentException(
+					"The number of partitions must be positive");
+		this.eventQueue = eventQueue;
+		this.waitStrategy = waitStrategy;
+		this.dispatchMode = dispatchMode;
+		this.dispatchExecutor = dispatchExecutor;
+		mailboxes = new IdentityHashMap<>();
+		asyncMailboxes = new IdentityHashMap<>();
+		handlerMetrics = new IdentityHashMap<>();
+		metrics = new MessageBusMetrics();
+		mailboxExecutor = createMailboxExecutor(dispatchMode, dispatchExecutor);
+		partitions = createPartitions(dispatchMode, dispatchExecutor,
+				partitionCount);
+		exitedPartitions = new AtomicInteger();
+		registry = HandlerRegistry.EMPTY;
+		registryLock = new Object();
+		registrationSequence = new AtomicLong();
+		pendingRequests = new ConcurrentHashMap<>();
 		runner = new EventRunner();
-		new Thread(runner).start();
+		runner.start();
 	}
 	
 	/**
@@ -172,14 +473,206 @@ public class MessageBus {
 	 * 
 	 * @param ev	the event to be distributed
 	 * @return		true, if the event can be processed, false otherwise, which 
-	 * may occur, when the event queue is full or the event had been null
+	 * may occur, when the event queue is full, the event had been null or 
+	 * is a <code>PooledDataEvent</code>, that has not been claimed from its
+	 * pool or has already been posted
 	 */
 	public boolean postEvent(Event ev) {
-		if (ev == null)
+		if (ev == null || !PooledDataEvent.markPostedIfPooled(ev))
+			return false;
+		boolean enabled = metricsEnabled;
+		MessageBusMetrics.stamp(ev, enabled);
+		if (!eventQueue.offer(ev)) {
+			metrics.recordRejected(1);
+			PooledDataEvent.clearPostedIfPooled(ev);
+			return false;
+		}
+		if (enabled)
+			metrics.recordPost(ev);
+		runner.wakeup();
+		return true;
+	}
+	
+	/**
+	 * Call this method within your module to distribute a bunch of 
+	 * <code>Event</code>s at once, e.g. the data read from a file. The events
+	 * are queued as a whole, so no other event gets in between, and are 
+	 * distributed in the given order. This is much faster than posting
+	 * every single event.
+	 * 
+	 * @param events	the events to be distributed
+	 * @return			true, if the events can be processed, false otherwise, 
+	 * which may occur, when the event queue is full, any event had been 
+	 * null or is a <code>PooledDataEvent</code>, that has not been claimed
+	 * from its pool or has already been posted. In this case none of the 
+	 * events is distributed.
+	 */
+	public boolean postEvents(Collection<? extends Event> events) {
+		if (events == null)
+			return false;
+		List<Event> batch = new ArrayList<>(events);
+		if (batch.contains(null))
 			return false;
-		return eventQueue.offer(ev);
+		for (int i = 0; i < batch.size(); i++) {
+			if (!PooledDataEvent.markPostedIfPooled(batch.get(i))) {
+				for (int j = 0; j < i; j++)
+					PooledDataEvent.clearPostedIfPooled(batch.get(j));
+				return false;
+			}
+		}
+		boolean enabled = metricsEnabled;
+		for (Event ev : batch)
+			MessageBusMetrics.stamp(ev, enabled);
+		if (!eventQueue.offerAll(batch)) {
+			metrics.recordRejected(batch.size());
+			for (Event ev : batch)
+				PooledDataEvent.clearPostedIfPooled(ev);
+			return false;
+		}
+		if (enabled)
+			for (Event ev : batch)
+				metrics.recordPost(ev);
+		runner.wakeup();
+		return true;
+	}
+	
+	/**
+	 * Call this method within your module to post a request and get the
+	 * answer as a future. The message bus sets the correlation ID of the
+	 * request and distributes it like any other event. The handler answering 
+	 * the request calls <code>reply(RequestEvent, DataEvent)</code> to 
+	 * complete the future.
+	 * <p>
+	 * The future is completed on the thread calling <code>reply()</code>,
+	 * which may be the event thread. So use the asynchronous methods of the 
+	 * future for actions taking a long time.
+	 * 
+	 * @param request	the request to be distributed, must not have been
+	 * posted with this method before
+	 * @param timeout	the maximum time to wait for the reply
+	 * @param unit		the time unit of the timeout
+	 * @return			the future reply. It completes exceptionally with a
+	 * <code>TimeoutException</code>, if there is no reply in time, and with a 
+	 * <code>RejectedExecutionException</code>, if the request cannot be posted,
+	 * e.g. because the message bus has been stopped. Cancelling the future 
+	 * stops waiting for the reply.
+	 */
+	public CompletableFuture<DataEvent<?, ?>> postRequest(
+			RequestEvent<?> request, long timeout, TimeUnit unit) {
+		Objects.requireNonNull(request, "You must specify a RequestEvent");
+		Objects.requireNonNull(unit, "You must specify a TimeUnit");
+		if (request.getCorrelationId() != 0)
+			throw new IllegalStateException("The request has already been posted");
+		long id = CORRELATION_IDS.incrementAndGet();
+		request.setCorrelationId(id);
+		CompletableFuture<DataEvent<?, ?>> future = new CompletableFuture<>();
+		ScheduledFuture<?> timeoutTask;
+		try {
+			timeoutTask = timeoutScheduler().schedule(
+					() -> future.completeExceptionally(new TimeoutException(
+							"No reply for request " + id + " in time")), 
+					timeout, unit);
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+		// registered not before the timeout, so a rejected timeout leaves
+		// nothing behind. However the future completes, the request is not 
+		// pending anymore.
+		pendingRequests.put(id, future);
+		future.whenComplete((reply, ex) -> {
+			pendingRequests.remove(id);
+			timeoutTask.cancel(false);
+		});
+		try {
+			if (!postEvent(request))
+				future.completeExceptionally(new RejectedExecutionException(
+						"The request could not be posted"));
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Call this method within your module to answer a request posted with 
+	 * <code>postRequest(RequestEvent, long, TimeUnit)</code>. The reply is 
+	 * handed to the requester directly and is not distributed to any 
+	 * handler.
+	 * <p>
+	 * The correlation IDs are unique within the Java VM, so only the
+	 * message bus, the request has been posted to, completes its future.
+	 * Replying to a request at another message bus returns false.
+	 * 
+	 * @param request	the request to be answered
+	 * @param reply		the answer
+	 * @return			true, if the requester has been waiting for the reply,
+	 * false if the request has already been answered, timed out or hasn't 
+	 * been posted with <code>postRequest()</code>
+	 */
+	public boolean reply(RequestEvent<?> request, DataEvent<?, ?> reply) {
+		Objects.requireNonNull(request, "You must specify a RequestEvent");
+		CompletableFuture<DataEvent<?, ?>> future = 
+				pendingRequests.get(request.getCorrelationId());
+		return future != null && future.complete(reply);
+	}
+	
+	/**
+	 * Call this method within your module to tell the requester, that a
+	 * request posted with <code>postRequest(RequestEvent, long, TimeUnit)</code>
+	 * cannot be answered.
+	 * 
+	 * @param request	the request, that cannot be answered
+	 * @param cause		the reason
+	 * @return			true, if the requester has been waiting for the reply,
+	 * false if the request has already been answered, timed out or hasn't 
+	 * been posted with <code>postRequest()</code>
+	 */
+	public boolean replyExceptionally(RequestEvent<?> request, Throwable cause) {
+		Objects.requireNonNull(request, "You must specify a RequestEvent");
+		Objects.requireNonNull(cause, "You must specify a cause");
+		CompletableFuture<DataEvent<?, ?>> future = 
+				pendingRequests.get(request.getCorrelationId());
+		return future != null && future.completeExceptionally(cause);
 	}
 	
+	/**
+	 * get the number of requests waiting for a reply
+	 * @return	the number of pending requests
+	 */
+	public int getPendingRequests() {
+		return pendingRequests.size();
+	}
+	
+	/**
+	 * get the scheduler for the request timeouts. The scheduler is created 
+	 * with the first request, as most applications don't use requests.
+	 * @return	the timeout scheduler
+	 * @throws RejectedExecutionException	if the message bus has been 
+	 * stopped before the first request
+	 */
+	private ScheduledThreadPoolExecutor timeoutScheduler() {
+		ScheduledThreadPoolExecutor scheduler = timeoutScheduler;
+		if (scheduler == null) {
+			synchronized (pendingRequests) {
+				scheduler = timeoutScheduler;
+				if (scheduler == null) {
+					if (runner.stopped)
+						throw new RejectedExecutionException(
+								"The message bus has been stopped");
+					scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+						Thread t = new Thread(r, "Fiddler-RequestTimeout");
+						t.setDaemon(true);
+						return t;
+					});
+					// cancelled timeouts must not keep the futures alive
+					scheduler.setRemoveOnCancelPolicy(true);
+					timeoutScheduler = scheduler;
+				}
+			}
+		}
+		return scheduler;
+	}
 	
 	/**
 	 * register your EventHandler to listen for every event type, that is send 
@@ -189,9 +682,7 @@ public class MessageBus {
 	 * @param type		the listener type
 	 */
 	public void registerAllEvents(EventHandler handler, ListenerType type) {
-		Objects.requireNonNull(handler, "You must register a non-null EventHandler");
-		Objects.requireNonNull(type, "You must specify a ListenerType");
-		eventHandlers.add(new RegisteredHandler(handler, type));
+		register(Event.class, handler, type);
 	}
 	
 	/**
@@ -200,8 +691,7 @@ public class MessageBus {
 	 * @param handler	your event handler. Most used with <b>this</b>
 	 */
 	public void unregisterAllEvents(EventHandler handler) {
-		if (handler != null) 
-			unregisterEvents(handler, eventHandlers, eventHandlersToBeRemoved);
+		unregister(Event.class, handler);
 	}
 
 	/**
@@ -212,9 +702,7 @@ public class MessageBus {
 	 * @param type		the listener type
 	 */
 	public void registerMessageEvents(EventHandler handler, ListenerType type) {
-		Objects.requireNonNull(handler, "You must register a non-null EventHandler");
-		Objects.requireNonNull(type, "You must specify a ListenerType");
-		messageHandlers.add(new RegisteredHandler(handler, type));
+		register(MessageEvent.class, handler, type);
 	}
 	
 	/**
@@ -223,8 +711,7 @@ public class MessageBus {
 	 * @param handler	your event handler. Most used with <b>this</b>
 	 */
 	public void unregisterMessageEvents(EventHandler handler) {
-		if (handler != null) 
-			unregisterEvents(handler, messageHandlers, messageHandlersToBeRemoved);
+		unregister(MessageEvent.class, handler);
 	}
 
 	/**
@@ -235,9 +722,7 @@ public class MessageBus {
 	 * @param type		the listener type
 	 */
 	public void registerRequestEvents(EventHandler handler, ListenerType type) {
-		Objects.requireNonNull(handler, "You must register a non-null EventHandler");
-		Objects.requireNonNull(type, "You must specify a ListenerType");
-		requestHandlers.add(new RegisteredHandler(handler, type));
+		register(RequestEvent.class, handler, type);
 	}
 	
 	/**
@@ -246,8 +731,7 @@ public class MessageBus {
 	 * @param handler	your event handler. Most used with <b>this</b>
 	 */
 	public void unregisterRequestEvents(EventHandler handler) {
-		if (handler != null) 
-			unregisterEvents(handler, requestHandlers, requestHandlersToBeRemoved);
+		unregister(RequestEvent.class, handler);
 	}
 
 	/**
@@ -258,9 +742,7 @@ public class MessageBus {
 	 * @param type		the listener type
 	 */
 	public void registerDataEvents(EventHandler handler, ListenerType type) {
-		Objects.requireNonNull(handler, "You must register a non-null EventHandler");
-		Objects.requireNonNull(type, "You must specify a ListenerType");
-		dataHandlers.add(new RegisteredHandler(handler, type));
+		register(DataEvent.class, handler, type);
 	}
 	
 	/**
@@ -269,41 +751,793 @@ public class MessageBus {
 	 * @param handler	your event handler. Most used with <b>this</b>
 	 */
 	public void unregisterDataEvents(EventHandler handler) {
-		if (handler != null) 
-			unregisterEvents(handler, dataHandlers, dataHandlersToBeRemoved);
+		unregister(DataEvent.class, handler);
+	}
+
+	/**
+	 * register your EventHandler to listen for events of the given class and 
+	 * all its subclasses, that are send through the message bus.
+	 * 
+	 * @param eventClass	the class of the events to listen for
+	 * @param handler		your event handler. Most used with <b>this</b>
+	 * @param type			the listener type
+	 */
+	public void register(Class<? extends Event> eventClass, 
+			EventHandler handler, ListenerType type) {
+		Objects.requireNonNull(eventClass, "You must specify an Event class");
+		Objects.requireNonNull(handler, "You must register a non-null EventHandler");
+		Objects.requireNonNull(type, "You must specify a ListenerType");
+		synchronized (registryLock) {
+			registry = registry.with(new RegisteredHandler(eventClass, handler, 
+					type, mailboxOf(handler), asyncMailboxOf(handler), 
+					metricsOf(handler), registrationSequence.incrementAndGet()));
+		}
+		metrics.recordRegistration();
+	}
+	
+	/**
+	 * register your EventHandler to listen for the events of the given 
+	 * class and all its subclasses, whose meta information is accepted by
+	 * the filter. The event class must be a subclass of 
+	 * <code>DataEvent</code> or <code>RequestEvent</code>.
+	 * 
+	 * @param eventClass	the class of the events to listen for
+	 * @param filter		the filter of the meta information
+	 * @param handler		your event handler. Most used with <b>this</b>
+	 * @param type			the listener type
+	 * @throws IllegalArgumentException	if the events of the class have no
+	 * meta information
+	 */
+	public void register(Class<? extends Event> eventClass, MetaFilter filter,
+			EventHandler handler, ListenerType type) {
+		Objects.requireNonNull(eventClass, "You must specify an Event class");
+		Objects.requireNonNull(filter, "You must specify a MetaFilter");
+		Objects.requireNonNull(handler, "You must register a non-null EventHandler");
+		Objects.requireNonNull(type, "You must specify a ListenerType");
+		if (!DataEvent.class.isAssignableFrom(eventClass) 
+				&& !RequestEvent.class.isAssignableFrom(eventClass))
+			throw new IllegalArgumentException(
+					"You must specify a DataEvent or RequestEvent class");
+		synchronized (registryLock) {
+			registry = registry.with(new RegisteredHandler(eventClass, handler, 
+					type, mailboxOf(handler), asyncMailboxOf(handler), 
+					metricsOf(handler), registrationSequence.incrementAndGet(),
+					null, filter));
+		}
+		metrics.recordRegistration();
+	}
+	
+	/**
+	 * unregister your handler from receiving events of the given class.
+	 * Only the registration for exactly this class is removed, registrations
+	 * for super- or subclasses and registrations with a 
+	 * <code>MetaFilter</code> remain.
+	 * 
+	 * @param eventClass	the class of the events registered to
+	 * @param handler		your event handler. Most used with <b>this</b>
+	 */
+	public void unregister(Class<? extends Event> eventClass, 
+			EventHandler handler) {
+		unregister(eventClass, null, handler);
+	}
+	
+	/**
+	 * unregister your handler from receiving the events of the given class,
+	 * that are accepted by the filter. Only the registration for exactly 
+	 * this class and an equal filter is removed.
+	 * 
+	 * @param eventClass	the class of the events registered to
+	 * @param filter		the filter used for registering, null for the
+	 * registration without filter
+	 * @param handler		your event handler. Most used with <b>this</b>
+	 */
+	public void unregister(Class<? extends Event> eventClass, 
+			MetaFilter filter, EventHandler handler) {
+		if (eventClass == null || handler == null)
+			return;
+		synchronized (registryLock) {
+			HandlerRegistry next = 
+					registry.without(eventClass, filter, handler);
+			if (next == registry)
+				return;
+			registry = next;
+			// events already in the mailbox are still delivered
+			if (!registry.isRegistered(handler))
+				retire(handler);
+		}
+		metrics.recordUnregistration();
+		runner.wakeup();
 	}
 
 	/**
-	 * actual unregistering of a given handler.
-	 * The list is checked, if the handler is in there and is stored in
-	 * the to be removed list. The actual work is done in the runner thread
-	 * @param handler
-	 * @param list
-	 * @param listToBeRemoved
+	 * subscribe your EventHandler to the events with a topic matching the
+	 * pattern, regardless of their class. The levels of the pattern are
+	 * separated by '/'. A level <code>*</code> matches any single level of
+	 * the topic, the last level may be <code>**</code>, which matches any 
+	 * number of levels, including none.
+	 * 
+	 * @param pattern	the topic pattern, e.g. <code>"orders/eu/*"</code>
+	 * @param handler	your event handler. Most used with <b>this</b>
+	 * @param type		the listener type
+	 * @throws IllegalArgumentException	if the pattern has an empty level or
+	 * <code>**</code> is not its last level
+	 */
+	public void subscribe(String pattern, EventHandler handler, 
+			ListenerType type) {
+		Objects.requireNonNull(pattern, "You must specify a topic pattern");
+		Objects.requireNonNull(handler, "You must register a non-null EventHandler");
+		Objects.requireNonNull(type, "You must specify a ListenerType");
+		String[] levels = TopicTrie.levelsOf(pattern);
+		synchronized (registryLock) {
+			registry = registry.withTopic(levels, new RegisteredHandler(
+					Event.class, handler, type, mailboxOf(handler), 
+					asyncMailboxOf(handler), metricsOf(handler), 
+					registrationSequence.incrementAndGet(), pattern, null));
+		}
+		metrics.recordRegistration();
+	}
+	
+	/**
+	 * unsubscribe your handler from the topic pattern. Only the 
+	 * subscription to exactly this pattern is removed, subscriptions to
+	 * other patterns matching the same topics remain.
+	 * 
+	 * @param pattern	the topic pattern subscribed to
+	 * @param handler	your event handler. Most used with <b>this</b>
+	 * @throws IllegalArgumentException	if the pattern has an empty level or
+	 * <code>**</code> is not its last level
+	 */
+	public void unsubscribe(String pattern, EventHandler handler) {
+		if (pattern == null || handler == null)
+			return;
+		String[] levels = TopicTrie.levelsOf(pattern);
+		synchronized (registryLock) {
+			HandlerRegistry next = 
+					registry.withoutTopic(pattern, levels, handler);
+			if (next == registry)
+				return;
+			registry = next;
+			// events already in the mailbox are still delivered
+			if (!registry.isRegistered(handler))
+				retire(handler);
+		}
+		metrics.recordUnregistration();
+		runner.wakeup();
+	}
+
+	/**
+	 * Stop this message bus without exiting the Java VM, e.g. in tests or
+	 * benchmarks creating many message buses. The events still queued are
+	 * not distributed anymore and the handlers are not shut down, post an
+	 * <code>ExitEvent</code> to shut your application down instead. The 
+	 * threads created by this message bus end, a shared executor keeps 
+	 * running. When this method returns, the event thread has ended, unless
+	 * it is called by the event thread itself. The MBean registered with
+	 * <code>registerMBean(String)</code> is unregistered, so the name can
+	 * be used again.
+	 */
+	public void stop() {
+		runner.stopNow();
+		unregisterMBean();
+		if (mailboxExecutor instanceof ExecutorService 
+				&& mailboxExecutor != dispatchExecutor)
+			((ExecutorService) mailboxExecutor).shutdown();
+		if (partitions != null && partitions[0].executor instanceof ExecutorService
+				&& partitions[0].executor != dispatchExecutor)
+			((ExecutorService) partitions[0].executor).shutdown();
+		ScheduledThreadPoolExecutor scheduler;
+		synchronized (pendingRequests) {
+			scheduler = timeoutScheduler;
+		}
+		if (scheduler != null)
+			scheduler.shutdown();
+	}
+
+	/**
+	 * Get the statistics of every handler registered to this message bus.
+	 * The mailbox depth is only known in <code>DispatchMode.MAILBOX</code> 
+	 * and <code>DispatchMode.VIRTUAL_THREAD</code> and for every 
+	 * <code>AsyncEventHandler</code>, otherwise it is 0.
+	 * 
+	 * @return	the statistics for every registered handler
+	 */
+	public List<HandlerStatistics> getHandlerStatistics() {
+		List<HandlerStatistics> statistics = new ArrayList<>();
+		synchronized (registryLock) {
+			handlerMetrics.forEach((handler, hm) -> {
+				Mailbox mailbox = mailboxes.get(handler);
+				AsyncMailbox asyncMailbox = asyncMailboxes.get(handler);
+				int depth = 0;
+				if (mailbox != null)
+					depth = mailbox.getDepth();
+				else if (asyncMailbox != null)
+					depth = asyncMailbox.getDepth();
+				statistics.add(hm.snapshot(handler, depth));
+			});
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Get a snapshot of the metrics of this message bus, including the
+	 * statistics of every registered handler.
+	 * 
+	 * @return	the metrics
+	 */
+	public MetricsSnapshot getMetrics() {
+		return metrics.snapshot(eventQueue.size(), getHandlerStatistics());
+	}
+	
+	/**
+	 * Switch the collection of metrics on or off. The metrics are on by
+	 * default. Without metrics the message bus doesn't take time stamps 
+	 * and doesn't count the posted and distributed events, so 
+	 * <code>getMetrics()</code> and <code>getHandlerStatistics()</code> 
+	 * keep the values collected before. Rejected posts, exceptions of the
+	 * handlers and registrations are still counted, and a slow handler 
+	 * listener still gets the time of every handler.
+	 * 
+	 * @param enabled	true to collect the metrics, false to switch them off
+	 */
+	public void setMetricsEnabled(boolean enabled) {
+		metricsEnabled = enabled;
+	}
+	
+	/**
+	 * Check, if this message bus collects metrics.
+	 * 
+	 * @return	true, if the metrics are collected
+	 */
+	public boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+	
+	/**
+	 * Register this message bus to the platform MBean server, so its 
+	 * metrics can be watched with any JMX client. The object name is
+	 * <code>com.github.koshamo.fiddler:type=MessageBus,name=</code> followed
+	 * by the given name.
+	 * 
+	 * @param name	the name of this message bus, must be unique within the
+	 * Java VM and a valid value of an object name
+	 * @return		the object name of the MBean
+	 * @throws IllegalArgumentException	if the name is not valid
+	 * @throws IllegalStateException	if this message bus is already 
+	 * registered or the name is in use
+	 */
+	public synchronized ObjectName registerMBean(String name) {
+		Objects.requireNonNull(name, "You must specify a name");
+		if (mbeanName != null)
+			throw new IllegalStateException(
+					"The message bus is already registered as " + mbeanName);
+		ObjectName objectName;
+		try {
+			objectName = new ObjectName(
+					"com.github.koshamo.fiddler:type=MessageBus,name=" + name);
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalArgumentException("Invalid name: " + name, e);
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(new StandardMBean(new MessageBusMonitor(this), 
+					MessageBusMXBean.class, true), objectName);
+		} catch (JMException e) {
+			throw new IllegalStateException(
+					"The MBean could not be registered as " + objectName, e);
+		}
+		mbeanName = objectName;
+		return objectName;
+	}
+	
+	/**
+	 * Unregister this message bus from the platform MBean server, if it has
+	 * been registered with <code>registerMBean(String)</code>.
+	 */
+	public synchronized void unregisterMBean() {
+		if (mbeanName == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+		} catch (JMException e) {
+			// already unregistered by someone else, nothing left to do
+		}
+		mbeanName = null;
+	}
+	
+	/**
+	 * Set a listener, that is informed whenever a handler needs more time
+	 * for a single event than the given threshold.
+	 * 
+	 * @param threshold	the time a handler may need for a single event
+	 * @param unit		the time unit of the threshold
+	 * @param listener	the listener to be informed, null to remove the 
+	 * listener
+	 */
+	public void setSlowHandlerListener(long threshold, TimeUnit unit, 
+			SlowHandlerListener listener) {
+		Objects.requireNonNull(unit, "You must specify a TimeUnit");
+		slowHandlerThresholdNanos = unit.toNanos(threshold);
+		slowHandlerListener = listener;
+	}
+	
+	/**
+	 * call the handle method of the handler and record the metrics. An
+	 * exception thrown by the handler is counted and passed to the uncaught
+	 * exception handler of the current thread, so the other handlers still
+	 * receive the event.
+	 * @param handler		the handler to be called
+	 * @param hm			the metrics of the handler
+	 * @param ev			the event to be handled
+	 * @param mailboxDepth	the number of events still in the mailbox
+	 */
+	void invokeHandler(EventHandler handler, HandlerMetrics hm, Event ev,
+			int mailboxDepth) {
+		long start = handlerStarted(ev);
+		try {
+			handler.handle(ev);
+		} catch (RuntimeException e) {
+			handlerFailed(hm, e);
+		}
+		handlerFinished(handler, hm, ev, start, mailboxDepth);
+	}
+	
+	/**
+	 * record the latency of the event, just before a handler is called
+	 * @param ev	the event to be handled
+	 * @return		the time the handler is called, 
+	 * <code>NOT_TIMED</code> if neither the metrics nor a slow handler 
+	 * listener need it
+	 */
+	long handlerStarted(Event ev) {
+		boolean enabled = metricsEnabled;
+		if (!enabled && slowHandlerListener == null)
+			return NOT_TIMED;
+		long start = System.nanoTime();
+		if (enabled)
+			metrics.recordLatency(ev, start);
+		return start;
+	}
+	
+	/**
+	 * count the exception thrown by a handler and pass it to the uncaught
+	 * exception handler of the current thread
+	 * @param hm	the metrics of the handler
+	 * @param e		the exception thrown by the handler
+	 */
+	void handlerFailed(HandlerMetrics hm, Throwable e) {
+		hm.recordException();
+		metrics.recordHandlerException();
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+	}
+	
+	/**
+	 * record the time spent in the handler and inform the slow handler
+	 * listener
+	 * @param handler		the handler
+	 * @param hm			the metrics of the handler
+	 * @param ev			the handled event
+	 * @param start			the time the handler has been called
+	 * @param mailboxDepth	the number of events still in the mailbox
+	 */
+	void handlerFinished(EventHandler handler, HandlerMetrics hm, Event ev,
+			long start, int mailboxDepth) {
+		if (start == NOT_TIMED)
+			return;
+		long nanos = System.nanoTime() - start;
+		if (metricsEnabled)
+			hm.recordHandle(nanos);
+		SlowHandlerListener listener = slowHandlerListener;
+		if (listener != null && nanos > slowHandlerThresholdNanos)
+			listener.slowHandler(handler, ev, nanos, mailboxDepth);
+	}
+	
+	/**
+	 * distribute the event to the handlers of the registry snapshot and 
+	 * give a pooled event back to its pool afterwards
+	 * @param ev		the event to be distributed
+	 * @param current	the registry snapshot
+	 * @param matches	the list to collect the matching topic 
+	 * subscriptions, owned by the calling thread
+	 */
+	private void dispatch(Event ev, HandlerRegistry current, 
+			List<RegisteredHandler> matches) {
+		DispatchList list = current.dispatchListOf(ev.getClass());
+		handleEvent(ev, list, list.filteredFor(ev));
+		String topic = ev.getTopic();
+		if (topic != null && !current.getTopics().isEmpty())
+			handleTopic(ev, topic, current.getTopics(), matches);
+		// the mailboxes hold their own references
+		PooledDataEvent.releaseIfPooled(ev);
+	}
+	
+	/**
+	 * get the partition of the event by its partition key. The default 
+	 * key, the source of the event, is hashed by its identity.
+	 * @param ev	the event
+	 * @return		the partition handling the event
+	 */
+	private Partition partitionOf(Event ev) {
+		Object key = ev.getPartitionKey();
+		int hash;
+		if (key == null)
+			hash = 0;
+		else if (key == ev.getSource())
+			hash = System.identityHashCode(key);
+		else
+			hash = key.hashCode();
+		hash ^= hash >>> 16;
+		return partitions[(hash & Integer.MAX_VALUE) % partitions.length];
+	}
+	
+	/**
+	 * called by every partition reaching an <code>ExitEvent</code>. The 
+	 * last partition shuts the handlers down, so every handler has handled
+	 * all events posted before the exit event in all partitions.
+	 * @param ev	the exit event
+	 */
+	private void partitionExited(Event ev) {
+		if (exitedPartitions.incrementAndGet() % partitions.length == 0)
+			runner.shutdown(ev, registry);
+	}
+	
+	/**
+	 * call every EventHandler in this list and every filtered handler 
+	 * accepting the event, that is interested in the event, and perform 
+	 * the handle method in the order of their registration. If the event 
+	 * has a target, only the any handlers and the target are called.
+	 * @param ev		the event to be processed
+	 * @param list		the handler list without filters to be processed
+	 * @param filtered	the filtered handlers accepting the event
+	 */
+	private void handleEvent(Event ev, DispatchList list, 
+			DispatchList filtered) {
+		EventHandler target = ev.getTarget();
+		if (target == null) {
+			if (filtered == DispatchList.EMPTY)
+				for (RegisteredHandler rh : list.getAll())
+					deliver(ev, rh);
+			else
+				deliverInOrder(ev, list.getAll(), filtered.getAll(), 
+						NO_HANDLERS, NO_HANDLERS);
+			return;
+		}
+		deliverInOrder(ev, list.getAny(), list.getTargeted(target),
+				filtered.getAny(), filtered.getTargeted(target));
+	}
+	
+	/**
+	 * call the handlers of the lists in the order of their registration
+	 * @param ev	the event to be processed
+	 * @param a		handlers in the order of their registration
+	 * @param b		handlers in the order of their registration
+	 * @param c		handlers in the order of their registration
+	 * @param d		handlers in the order of their registration
+	 */
+	private void deliverInOrder(Event ev, RegisteredHandler[] a, 
+			RegisteredHandler[] b, RegisteredHandler[] c, 
+			RegisteredHandler[] d) {
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		int l = 0;
+		while (true) {
+			long next = Long.MAX_VALUE;
+			if (i < a.length)
+				next = a[i].getSequence();
+			if (j < b.length)
+				next = Math.min(next, b[j].getSequence());
+			if (k < c.length)
+				next = Math.min(next, c[k].getSequence());
+			if (l < d.length)
+				next = Math.min(next, d[l].getSequence());
+			if (next == Long.MAX_VALUE)
+				return;
+			if (i < a.length && a[i].getSequence() == next)
+				deliver(ev, a[i++]);
+			else if (j < b.length && b[j].getSequence() == next)
+				deliver(ev, b[j++]);
+			else if (k < c.length && c[k].getSequence() == next)
+				deliver(ev, c[k++]);
+			else
+				deliver(ev, d[l++]);
+		}
+	}
+	
+	/**
+	 * call every EventHandler subscribed to a pattern matching the topic
+	 * of the event in the order of their subscription. A handler 
+	 * subscribed to several matching patterns is called once. If the 
+	 * event has a target, only the any handlers and the target are 
+	 * called.
+	 * @param ev		the event to be processed
+	 * @param topic		the topic of the event
+	 * @param topics	the topic subscriptions to be processed
+	 * @param matches	the list to collect the matching subscriptions, 
+	 * owned by the calling thread
+	 */
+	private void handleTopic(Event ev, String topic, TopicTrie topics,
+			List<RegisteredHandler> matches) {
+		matches.clear();
+		topics.match(topic, matches);
+		if (matches.isEmpty())
+			return;
+		if (matches.size() > 1)
+			matches.sort(BY_SEQUENCE);
+		EventHandler target = ev.getTarget();
+		int size = 0;
+		for (int i = 0; i < matches.size(); i++) {
+			RegisteredHandler rh = matches.get(i);
+			if (target != null && rh.getType() == ListenerType.TARGET 
+					&& rh.getHandler() != target)
+				continue;
+			if (!containsHandler(matches, size, rh.getHandler()))
+				matches.set(size++, rh);
+		}
+		for (int i = 0; i < size; i++)
+			deliver(ev, matches.get(i));
+		matches.clear();
+	}
+	
+	/**
+	 * check if the handler is one of the first handlers of the list
+	 * @param list		the list of registered handlers
+	 * @param size		the number of handlers to look at
+	 * @param handler	the handler to look for
+	 * @return			true, if the handler is found
+	 */
+	private boolean containsHandler(List<RegisteredHandler> list, 
+			int size, EventHandler handler) {
+		for (int i = 0; i < size; i++)
+			if (list.get(i).getHandler() == handler)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * deliver the event to the handler, either directly or through
+	 * the handlers mailbox or asynchronous mailbox
+	 * @param ev	the event to be delivered
+	 * @param rh	the receiving handler
+	 */
+	private void deliver(Event ev, RegisteredHandler rh) {
+		if (rh.getMailbox() != null) {
+			PooledDataEvent.retainIfPooled(ev);
+			rh.getMailbox().post(ev);
+		} else if (rh.getAsyncMailbox() != null) {
+			// kept until the stage of the handler completes
+			PooledDataEvent.retainIfPooled(ev);
+			rh.getAsyncMailbox().post(ev);
+		} else
+			invokeHandler(rh.getHandler(), rh.getMetrics(), ev, 0);
+	}
+	
+	/**
+	 * get the mailbox of the given handler. The mailbox is created, if the 
+	 * handler doesn't have one yet, so all registrations of a handler share
+	 * the same mailbox. Must be called holding the registry lock.
+	 * @param handler	the handler
+	 * @return			the mailbox, or null if the message bus doesn't use
+	 * mailboxes
+	 */
+	private Mailbox mailboxOf(EventHandler handler) {
+		// asynchronous handlers don't need a thread of their own
+		if (mailboxExecutor == null || handler instanceof AsyncEventHandler)
+			return null;
+		Mailbox mailbox = mailboxes.get(handler);
+		if (mailbox == null) {
+			mailbox = new Mailbox(handler, mailboxExecutor, this, 
+					metricsOf(handler));
+			mailboxes.put(handler, mailbox);
+		} else
+			mailbox.setRetired(false);
+		return mailbox;
+	}
+	
+	/**
+	 * get the asynchronous mailbox of the given handler. The mailbox is
+	 * created, if the handler doesn't have one yet, so all registrations 
+	 * of a handler share the limit of events in flight. Must be called 
+	 * holding the registry lock.
+	 * @param handler	the handler
+	 * @return			the mailbox, or null if the handler is no
+	 * <code>AsyncEventHandler</code>
+	 * @throws IllegalArgumentException	if the maximum number of events in
+	 * flight of the handler is not positive
+	 */
+	private AsyncMailbox asyncMailboxOf(EventHandler handler) {
+		if (!(handler instanceof AsyncEventHandler))
+			return null;
+		AsyncMailbox mailbox = asyncMailboxes.get(handler);
+		if (mailbox == null) {
+			mailbox = new AsyncMailbox((AsyncEventHandler) handler, this, 
+					metricsOf(handler));
+			asyncMailboxes.put(handler, mailbox);
+		} else
+			mailbox.setRetired(false);
+		return mailbox;
+	}
+	
+	/**
+	 * forget the mailboxes and the metrics of a handler, that is no longer
+	 * registered. Mailboxes still holding events are retired and kept 
+	 * until they are drained, so a handler registering again before gets 
+	 * its mailbox back and is never called from two mailboxes at the same
+	 * time. An idle mailbox is removed, see 
+	 * <code>postedToRemoved(Mailbox)</code> for the events the event 
+	 * thread still posts to it. Must be called holding the registry lock.
+	 * @param handler	the unregistered handler
+	 */
+	private void retire(EventHandler handler) {
+		Mailbox mailbox = mailboxes.get(handler);
+		AsyncMailbox asyncMailbox = asyncMailboxes.get(handler);
+		// retire first, so a mailbox drained meanwhile calls back
+		if (mailbox != null)
+			mailbox.setRetired(true);
+		if (asyncMailbox != null)
+			asyncMailbox.setRetired(true);
+		if ((asyncMailbox == null || asyncMailbox.isIdle())
+				&& (mailbox == null || mailbox.remove())) {
+			mailboxes.remove(handler);
+			asyncMailboxes.remove(handler);
+			handlerMetrics.remove(handler);
+		}
+	}
+	
+	/**
+	 * called by a removed mailbox, when the event thread posted to it 
+	 * from a dispatch list taken before its handler was unregistered. If
+	 * the handler has registered again, the events are moved to its new
+	 * mailbox, otherwise the removed mailbox is restored as a retired
+	 * mailbox, so the handler is never called from two mailboxes.
+	 * @param mailbox	the removed mailbox
+	 */
+	void postedToRemoved(Mailbox mailbox) {
+		synchronized (registryLock) {
+			if (!mailbox.isRemoved())
+				return;
+			EventHandler handler = mailbox.getHandler();
+			Mailbox current = mailboxes.get(handler);
+			if (current != null) {
+				mailbox.moveTo(current);
+				return;
+			}
+			mailboxes.put(handler, mailbox);
+			handlerMetrics.putIfAbsent(handler, mailbox.getMetrics());
+			mailbox.setRetired(true);
+			mailbox.restore();
+		}
+	}
+	
+	/**
+	 * called by a retired mailbox, when it has been drained
+	 * @param handler	the handler of the mailbox
 	 */
-	private static void unregisterEvents(EventHandler handler, 
-			List<RegisteredHandler> list, List<RegisteredHandler> listToBeRemoved) {
-		list.stream()
-		.filter(rh -> rh.getHandler() == handler)
-		.forEach(listToBeRemoved::add);
+	void mailboxDrained(EventHandler handler) {
+		synchronized (registryLock) {
+			if (!registry.isRegistered(handler))
+				retire(handler);
+		}
+	}
+	
+	/**
+	 * get the metrics of the given handler. The metrics are created, if the
+	 * handler doesn't have them yet, so all registrations of a handler share
+	 * the same metrics. Must be called holding the registry lock.
+	 * @param handler	the handler
+	 * @return			the metrics of the handler
+	 */
+	private HandlerMetrics metricsOf(EventHandler handler) {
+		return handlerMetrics.computeIfAbsent(handler, h -> new HandlerMetrics());
+	}
+	
+	/**
+	 * create the executor draining the mailboxes
+	 * @param dispatchMode		the dispatch mode of the message bus
+	 * @param sharedExecutor	the executor shared by many message buses, 
+	 * null if the message bus has its own event thread
+	 * @return					the executor, or null if the dispatch mode 
+	 * doesn't use mailboxes
+	 * @throws UnsupportedOperationException	if virtual threads are 
+	 * requested, but the Java runtime doesn't support them
+	 */
+	private static Executor createMailboxExecutor(DispatchMode dispatchMode,
+			Executor sharedExecutor) {
+		switch (dispatchMode) {
+		case MAILBOX:
+			if (sharedExecutor != null)
+				return sharedExecutor;
+			return Executors.newCachedThreadPool(
+					new DispatchThreadFactory("Mailbox"));
+		case VIRTUAL_THREAD:
+			// looked up at runtime, so Fiddler still runs on older Java 
+			// versions as long as virtual threads are not used
+			try {
+				return (ExecutorService) Executors.class
+						.getMethod("newVirtualThreadPerTaskExecutor")
+						.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new UnsupportedOperationException(
+						"Virtual threads need Java 21 or later", e);
+			}
+		case PARTITIONED:
+		case SEQUENTIAL:
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * create the partitions of the message bus
+	 * @param dispatchMode		the dispatch mode of the message bus
+	 * @param sharedExecutor	the executor shared by many message buses, 
+	 * null if the message bus has its own event thread
+	 * @param count				the number of partitions
+	 * @return					the partitions, or null if the dispatch mode
+	 * doesn't use partitions
+	 */
+	private Partition[] createPartitions(DispatchMode dispatchMode,
+			Executor sharedExecutor, int count) {
+		if (dispatchMode != DispatchMode.PARTITIONED)
+			return null;
+		Executor executor = sharedExecutor != null ? sharedExecutor
+				: Executors.newFixedThreadPool(count, 
+						new DispatchThreadFactory("Partition"));
+		Partition[] result = new Partition[count];
+		for (int i = 0; i < count; i++)
+			result[i] = new Partition(executor);
+		return result;
 	}
 	
 	/**
 	 * This inner class handles all events in its own thread. So the event
 	 * handling is not running on the main thread.
 	 * 
-	 * Also the unregistering of handlers is done in this thread. If its done
-	 * here, it is thread safe!
+	 * The events are taken from the queue in batches of up to 
+	 * <code>BATCH_SIZE</code> events. Every batch is distributed to the
+	 * handlers of the registry snapshot, that is current when the batch is
+	 * taken from the queue. In <code>DispatchMode.PARTITIONED</code> the
+	 * runner only puts the events into their partitions, which distribute
+	 * them.
+	 * 
+	 * While the event queue is empty, the thread waits as defined by the
+	 * wait strategy. A parked thread is unparked by <code>wakeup()</code>.
+	 * 
+	 * If the message bus uses a shared executor, there is no event thread.
+	 * <code>wakeup()</code> submits the runner to the executor instead, if it
+	 * isn't submitted already, so at most one thread distributes the events
+	 * of this message bus at any time and the order of the events is kept.
+	 * The runner gives the thread back after <code>RUN_BATCHES</code> 
+	 * batches, so a busy message bus doesn't starve the others.
 	 * 
 	 * @author Dr. Jochen Raßler
 	 *
 	 */
 	private final class EventRunner implements Runnable {
+		/** maximum number of events taken from the queue at once */
+		private static final int BATCH_SIZE = 256;
+		/** maximum number of batches per run on a shared executor */
+		private static final int RUN_BATCHES = 4;
 
-		boolean run = true;
+		private final Event[] batch = new Event[BATCH_SIZE];
+		private final List<RegisteredHandler> topicMatches = new ArrayList<>();
+		volatile boolean run = true;
+		volatile boolean stopped = false;
+		volatile boolean waiting = false;
 		boolean exitSignal = false;
+		private final Thread thread;
+		private final AtomicBoolean scheduled;
 		EventRunner() {
-			// empty C'tor
+			thread = dispatchExecutor == null ? new Thread(this) : null;
+			scheduled = new AtomicBoolean();
+		}
+		
+		/**
+		 * start the event thread, if there is one
+		 */
+		void start() {
+			if (thread != null)
+				thread.start();
 		}
 		
 		/* (non-Javadoc)
@@ -311,107 +1545,169 @@ public class MessageBus {
 		 */
 		@Override
 		public void run() {
+			int idleCount = 0;
 			while (run) {
-				if (!eventQueue.isEmpty()) {
-					deleteNulls();
-					Event ev = eventQueue.poll();
-					// TODO: why are we here?
-					// we checked the queue with isEmpty(), which should have
-					// returned true
-					if (ev != null) {
-						if (ev instanceof ExitEvent) {
-							shutdown();
-							exitSignal = true;
-							continue;
-						}
-						handleEvent(ev, eventHandlers);
-						if (ev instanceof MessageEvent)
-							handleEvent(ev, messageHandlers);
-						if (ev instanceof RequestEvent)
-							handleEvent(ev, requestHandlers);
-						if (ev instanceof DataEvent)
-							handleEvent(ev, dataHandlers);
-					}
+				int size = drainQueue();
+				if (size > 0) {
+					idleCount = 0;
+					handleBatch(size);
 				} else {
-					try {
-						if (!Thread.interrupted())
-							Thread.sleep(5);
-					} catch (InterruptedException e) {
-						// we are interrupted while waiting.
-						// let's use this, to run this thread again
-						// and sleep afterwards
-					}
+					idleCount = idle(idleCount);
 				}
-				removeUnregisteredHandlers();
 				if (exitSignal) {
-					if (eventHandlers.isEmpty() 
-							&& messageHandlers.isEmpty() 
-							&& requestHandlers.isEmpty() 
-							&& dataHandlers.isEmpty())
+					if (registry.isEmpty())
 						stopRunner();
 				}
 			}
-			System.exit(0);
+			if (!stopped)
+				System.exit(0);
+		}
+		
+		/**
+		 * distribute some batches of events on the shared executor. The
+		 * scheduled flag is cleared before checking the queue once again, so
+		 * a concurrent <code>wakeup()</code> cannot get lost.
+		 */
+		private void runScheduled() {
+			try {
+				for (int i = 0; i < RUN_BATCHES && run; i++) {
+					int size = drainQueue();
+					if (size == 0)
+						break;
+					handleBatch(size);
+				}
+				// the Java VM keeps running for the other message buses
+				if (exitSignal && registry.isEmpty())
+					run = false;
+			} finally {
+				scheduled.set(false);
+			}
+			if (run && !eventQueue.isEmpty())
+				schedule();
 		}
 		
 		/**
-		 * thread safe removal of unregistered handlers
+		 * submit the runner to the shared executor, if it is not already 
+		 * submitted
 		 */
-		private void removeUnregisteredHandlers() {
-			eventHandlers.removeAll(eventHandlersToBeRemoved);
-			eventHandlersToBeRemoved.clear();
-			messageHandlers.removeAll(messageHandlersToBeRemoved);
-			messageHandlersToBeRemoved.clear();
-			requestHandlers.removeAll(requestHandlersToBeRemoved);
-			requestHandlersToBeRemoved.clear();
-			dataHandlers.removeAll(dataHandlersToBeRemoved);
-			dataHandlersToBeRemoved.clear();
+		private void schedule() {
+			if (!scheduled.get() && scheduled.compareAndSet(false, true))
+				dispatchExecutor.execute(this::runScheduled);
 		}
 		
 		/**
-		 * remove all handlers, that are garbage colltected without 
-		 * unregistering or got null after registering.
+		 * take the next batch of events from the queue
+		 * @return	the number of events in the batch
 		 */
-		private void deleteNulls() {
-			deleteNulls(eventHandlers);
-			deleteNulls(messageHandlers);
-			deleteNulls(requestHandlers);
-			deleteNulls(dataHandlers);
+		private int drainQueue() {
+			int size = 0;
+			Event ev;
+			while (size < BATCH_SIZE && (ev = eventQueue.poll()) != null)
+				batch[size++] = ev;
+			return size;
 		}
 		
 		/**
-		 * remove null handlers
-		 * @param list	the handler list to be cleared
+		 * distribute the events of the batch using the current registry
+		 * snapshot
+		 * @param size	the number of events in the batch
 		 */
-		private void deleteNulls(List<RegisteredHandler> list) {
-			while (list.contains(null)) 
-				list.remove(list.indexOf(null));
+		private void handleBatch(int size) {
+			HandlerRegistry current = registry;
+			for (int i = 0; i < size; i++) {
+				Event ev = batch[i];
+				batch[i] = null;
+				if (metricsEnabled)
+					metrics.recordDispatch(ev);
+				if (ev instanceof ExitEvent) {
+					if (partitions != null) {
+						for (Partition partition : partitions)
+							partition.post(ev);
+					} else {
+						shutdown(ev, current);
+					}
+					exitSignal = true;
+				} else if (partitions != null) {
+					// the partition takes over the reference of a pooled event
+					partitionOf(ev).post(ev);
+				} else {
+					dispatch(ev, current, topicMatches);
+				}
+			}
 		}
 		
 		/**
-		 * call every EventHandler in this list and perform the handle method
-		 * @param ev	the event to be processed
-		 * @param list	the handler list to be processed
+		 * wait for new events as defined by the wait strategy. The wait
+		 * strategy first spins, then yields and at last parks the thread.
+		 * @param idleCount	the number of idle rounds so far
+		 * @return			the number of idle rounds including this one
 		 */
-		private void handleEvent(Event ev, List<RegisteredHandler> list) {
-			for (RegisteredHandler rh : list) {
-				if (rh.getType() == ListenerType.ANY)
-					rh.getHandler().handle(ev);
-				if (rh.getType() == ListenerType.TARGET &&
-						(ev.getTarget() == null
-						|| ev.getTarget() == rh.getHandler()))
-					rh.getHandler().handle(ev);
+		private int idle(int idleCount) {
+			if (idleCount < waitStrategy.spinTries)
+				return idleCount + 1;
+			if (idleCount < waitStrategy.spinTries + waitStrategy.yieldTries) {
+				Thread.yield();
+				return idleCount + 1;
 			}
+			if (waitStrategy.parks)
+				park();
+			return idleCount;
 		}
-
+		
+		/**
+		 * park the thread until an event is posted or a handler is
+		 * unregistered. The waiting flag is set before checking the queue
+		 * once again, so a concurrent <code>wakeup()</code> cannot get lost.
+		 */
+		private void park() {
+			waiting = true;
+			if (run && eventQueue.isEmpty())
+				LockSupport.park(this);
+			waiting = false;
+			// we may be interrupted while waiting.
+			// let's use this, to run this thread again
+			// and park afterwards
+			Thread.interrupted();
+		}
+		
+		/**
+		 * wake up the event thread, if it is parked, or submit the runner
+		 * to the shared executor
+		 */
+		void wakeup() {
+			if (thread == null) {
+				if (run)
+					schedule();
+			} else if (waiting) {
+				LockSupport.unpark(thread);
+			}
+		}
+		
 		/**
 		 * send shutdown message to all handlers
+		 * @param ev		the exit event
+		 * @param current	the current registry snapshot
 		 */
-		private void shutdown() {
-			eventHandlers.stream().forEach(e -> e.getHandler().shutdown());
-			messageHandlers.stream().forEach(e -> e.getHandler().shutdown());
-			requestHandlers.stream().forEach(e -> e.getHandler().shutdown());
-			dataHandlers.stream().forEach(e -> e.getHandler().shutdown());
+		private void shutdown(Event ev, HandlerRegistry current) {
+			for (RegisteredHandler rh : current.getHandlers())
+				shutdown(ev, rh);
+		}
+		
+		/**
+		 * shut the handler down. If the handler has a mailbox, the shutdown 
+		 * is done after all events in the mailbox have been handled. An 
+		 * asynchronous handler is shut down after all its stages have
+		 * completed.
+		 * @param ev	the exit event
+		 * @param rh	the handler to be shut down
+		 */
+		private void shutdown(Event ev, RegisteredHandler rh) {
+			if (rh.getMailbox() != null)
+				rh.getMailbox().post(ev);
+			else if (rh.getAsyncMailbox() != null)
+				rh.getAsyncMailbox().shutdown();
+			else
+				rh.getHandler().shutdown();
 		}
 		
 		/**
@@ -419,7 +1715,131 @@ public class MessageBus {
 		 */
 		void stopRunner() {
 			run = false;
+			wakeup();
+		}
+		
+		/**
+		 * stop the runner without exiting the Java VM and wait for the 
+		 * event thread to end, unless it is the current thread
+		 */
+		void stopNow() {
+			stopped = true;
+			run = false;
+			if (thread == null || thread == Thread.currentThread())
+				return;
+			LockSupport.unpark(thread);
+			boolean interrupted = false;
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A partition holds the events of some partition keys in
+	 * <code>DispatchMode.PARTITIONED</code>. The event thread puts every 
+	 * event into the partition of its key, the partition then calls the
+	 * handlers on a thread of the executor.
+	 * <p>
+	 * The partition is drained by at most one thread at any time, so the 
+	 * events of a key are handled in order. Every drain takes the registry
+	 * snapshot, that is current at its start. The thread is given back 
+	 * after <code>BATCH_SIZE</code> events to be fair to the other 
+	 * partitions sharing the executor.
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private final class Partition {
+		/** maximum number of events handled before the thread is given back */
+		private static final int BATCH_SIZE = 256;
+
+		private final Executor executor;
+		private final Queue<Event> events;
+		private final AtomicBoolean scheduled;
+		private final List<RegisteredHandler> topicMatches;
+
+		/**
+		 * Create the partition
+		 * @param executor	the executor draining the partition
+		 */
+		Partition(Executor executor) {
+			this.executor = executor;
+			events = new ConcurrentLinkedQueue<>();
+			scheduled = new AtomicBoolean();
+			topicMatches = new ArrayList<>();
+		}
+
+		/**
+		 * put an event into the partition and make sure, the partition will
+		 * be drained
+		 * @param ev	the event to be handled
+		 */
+		void post(Event ev) {
+			events.offer(ev);
+			if (!scheduled.get() && scheduled.compareAndSet(false, true))
+				executor.execute(this::drain);
+		}
+
+		/**
+		 * distribute the events of the partition. If there are events left,
+		 * the partition is submitted again.
+		 */
+		private void drain() {
+			try {
+				HandlerRegistry current = registry;
+				for (int i = 0; i < BATCH_SIZE; i++) {
+					Event ev = events.poll();
+					if (ev == null)
+						break;
+					if (ev instanceof ExitEvent)
+						partitionExited(ev);
+					else
+						dispatch(ev, current, topicMatches);
+				}
+			} finally {
+				scheduled.set(false);
+			}
+			if (!events.isEmpty() && scheduled.compareAndSet(false, true))
+				executor.execute(this::drain);
+		}
+	}
+
+	/**
+	 * The thread factory for the mailbox and partition threads. The 
+	 * threads are daemon threads, so they don't keep the application alive.
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class DispatchThreadFactory implements ThreadFactory {
+		private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+		private final AtomicInteger threadNumber = new AtomicInteger();
+		private final String prefix;
+
+		/**
+		 * Create the thread factory
+		 * @param kind	the kind of the threads, which is part of their names
+		 */
+		DispatchThreadFactory(String kind) {
+			prefix = "Fiddler-" + kind + "-" + POOL_NUMBER.incrementAndGet() + "-";
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+		 */
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
 		}
 	}
 
-} 
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Map;
+
+/**
+ * The management interface of a <code>MessageBus</code>, which can be 
+ * registered to the platform MBean server using 
+ * <code>MessageBus.registerMBean(String)</code>. So the metrics of the 
+ * message bus can be watched with any JMX client, e.g. JConsole or 
+ * VisualVM.
+ * <p>
+ * The attributes are read from a <code>MetricsSnapshot</code>, which is
+ * taken at most ten times a second. The rates are the events per second 
+ * measured over the last one to two seconds. Event classes are named by their class name,
+ * handlers by their class name and identity hash code.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public interface MessageBusMXBean {
+
+	/**
+	 * get the number of events waiting in the event queue
+	 * @return	the queue depth
+	 */
+	int getQueueDepth();
+
+	/**
+	 * get the number of events posted successfully
+	 * @return	the number of posted events
+	 */
+	long getPostedEvents();
+
+	/**
+	 * get the number of events, that could not be posted
+	 * @return	the number of rejected events
+	 */
+	long getRejectedPosts();
+
+	/**
+	 * get the number of events distributed to the handlers
+	 * @return	the number of distributed events
+	 */
+	long getDispatchedEvents();
+
+	/**
+	 * get the number of events posted per second
+	 * @return	the post rate
+	 */
+	double getPostRate();
+
+	/**
+	 * get the number of events distributed per second
+	 * @return	the dispatch rate
+	 */
+	double getDispatchRate();
+
+	/**
+	 * get the number of events posted successfully for every event class
+	 * @return	the number of posted events per class name
+	 */
+	Map<String, Long> getPostedEventsPerClass();
+
+	/**
+	 * get the number of events distributed for every event class
+	 * @return	the number of distributed events per class name
+	 */
+	Map<String, Long> getDispatchedEventsPerClass();
+
+	/**
+	 * get the number of events posted per second for every event class
+	 * @return	the post rate per class name
+	 */
+	Map<String, Double> getPostRatePerClass();
+
+	/**
+	 * get the number of events distributed per second for every event class
+	 * @return	the dispatch rate per class name
+	 */
+	Map<String, Double> getDispatchRatePerClass();
+
+	/**
+	 * get the average time from posting an event until a handler is called
+	 * @return	the average latency in nanoseconds
+	 */
+	long getMeanLatencyNanos();
+
+	/**
+	 * get the median time from posting an event until a handler is called
+	 * @return	the median latency in nanoseconds
+	 */
+	long getMedianLatencyNanos();
+
+	/**
+	 * get the 99th percentile of the time from posting an event until a 
+	 * handler is called
+	 * @return	the 99th percentile of the latency in nanoseconds
+	 */
+	long get99thPercentileLatencyNanos();
+
+	/**
+	 * get the 99.9th percentile of the time from posting an event until a 
+	 * handler is called
+	 * @return	the 99.9th percentile of the latency in nanoseconds
+	 */
+	long get999thPercentileLatencyNanos();
+
+	/**
+	 * get the longest time from posting an event until a handler is called
+	 * @return	the maximum latency in nanoseconds
+	 */
+	long getMaxLatencyNanos();
+
+	/**
+	 * get the number of registrations of handlers
+	 * @return	the number of registrations
+	 */
+	long getRegistrations();
+
+	/**
+	 * get the number of removed registrations of handlers
+	 * @return	the number of unregistrations
+	 */
+	long getUnregistrations();
+
+	/**
+	 * get the number of exceptions thrown by all handlers
+	 * @return	the number of exceptions
+	 */
+	long getHandlerExceptions();
+
+	/**
+	 * get the average time spent in the handle method for every handler
+	 * @return	the average handle time in nanoseconds per handler
+	 */
+	Map<String, Long> getAverageHandleNanosPerHandler();
+
+	/**
+	 * get the longest time spent in the handle method for every handler
+	 * @return	the maximum handle time in nanoseconds per handler
+	 */
+	Map<String, Long> getMaxHandleNanosPerHandler();
+
+	/**
+	 * get the number of exceptions thrown by every handler
+	 * @return	the number of exceptions per handler
+	 */
+	Map<String, Long> getExceptionsPerHandler();
+
+	/**
+	 * get the number of requests waiting for a reply
+	 * @return	the number of pending requests
+	 */
+	int getPendingRequests();
+}
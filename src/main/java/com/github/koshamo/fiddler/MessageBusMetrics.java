@@ -0,0 +1,157 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a helper class for the MessageBus class to collect the
+ * metrics of the message bus. The metrics are collected unless they are
+ * switched off, so every counter is a <code>LongAdder</code>, which 
+ * doesn't slow down concurrent producers, and recording never allocates 
+ * memory once the counters of an event class exist.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class MessageBusMetrics {
+	private final LongAdder postedEvents = new LongAdder();
+	private final LongAdder rejectedPosts = new LongAdder();
+	private final LongAdder dispatchedEvents = new LongAdder();
+	private final LongAdder registrations = new LongAdder();
+	private final LongAdder unregistrations = new LongAdder();
+	private final LongAdder handlerExceptions = new LongAdder();
+	private final Map<Class<? extends Event>, ClassCounters> classCounters = 
+			new ConcurrentHashMap<>();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * remember the time an event is posted, so the latency can be measured
+	 * when it is handled
+	 * @param ev		the event to be posted
+	 * @param enabled	true, if the metrics are collected, otherwise the 
+	 * time stamp is cleared, so the event is not measured
+	 */
+	static void stamp(Event ev, boolean enabled) {
+		ev.postNanos = enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * record an event, that has been put into the event queue
+	 * @param ev	the posted event
+	 */
+	void recordPost(Event ev) {
+		postedEvents.increment();
+		countersOf(ev.getClass()).posted.increment();
+	}
+
+	/**
+	 * record events, that could not be put into the event queue
+	 * @param count	the number of rejected events
+	 */
+	void recordRejected(int count) {
+		rejectedPosts.add(count);
+	}
+
+	/**
+	 * record an event, that has been taken from the event queue to be
+	 * distributed to the handlers
+	 * @param ev	the distributed event
+	 */
+	void recordDispatch(Event ev) {
+		dispatchedEvents.increment();
+		countersOf(ev.getClass()).dispatched.increment();
+	}
+
+	/**
+	 * record the time from posting an event until a handler is called
+	 * @param ev		the event handed to the handler
+	 * @param nowNanos	the current time
+	 */
+	void recordLatency(Event ev, long nowNanos) {
+		if (ev.postNanos != 0)
+			latency.record(nowNanos - ev.postNanos);
+	}
+
+	/**
+	 * record an exception thrown by a handler
+	 */
+	void recordHandlerException() {
+		handlerExceptions.increment();
+	}
+
+	/**
+	 * record a new registration
+	 */
+	void recordRegistration() {
+		registrations.increment();
+	}
+
+	/**
+	 * record a removed registration
+	 */
+	void recordUnregistration() {
+		unregistrations.increment();
+	}
+
+	/**
+	 * create a snapshot of the metrics
+	 * @param queueDepth	the number of events waiting in the event queue
+	 * @param handlers		the statistics of the registered handlers
+	 * @return				the snapshot
+	 */
+	MetricsSnapshot snapshot(int queueDepth, List<HandlerStatistics> handlers) {
+		Map<Class<? extends Event>, Long> posted = new HashMap<>();
+		Map<Class<? extends Event>, Long> dispatched = new HashMap<>();
+		classCounters.forEach((cls, counters) -> {
+			posted.put(cls, counters.posted.sum());
+			dispatched.put(cls, counters.dispatched.sum());
+		});
+		return new MetricsSnapshot(System.nanoTime(), queueDepth, 
+				postedEvents.sum(), rejectedPosts.sum(), dispatchedEvents.sum(),
+				posted, dispatched, registrations.sum(), unregistrations.sum(),
+				handlerExceptions.sum(), latency.getBuckets(), 
+				latency.getTotalNanos(), latency.getMaxNanos(), handlers);
+	}
+
+	/**
+	 * get the counters of an event class, they are created with the first
+	 * event of this class
+	 * @param cls	the event class
+	 * @return		the counters
+	 */
+	private ClassCounters countersOf(Class<? extends Event> cls) {
+		ClassCounters counters = classCounters.get(cls);
+		if (counters == null)
+			counters = classCounters.computeIfAbsent(cls, c -> new ClassCounters());
+		return counters;
+	}
+
+	/**
+	 * The counters of a single event class
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class ClassCounters {
+		final LongAdder posted = new LongAdder();
+		final LongAdder dispatched = new LongAdder();
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * This class is a helper class for the MessageBus class and implements
+ * its management interface. The snapshot of the metrics is kept for a 
+ * short while, so reading all attributes at once doesn't take a snapshot 
+ * for every attribute. Once a second the current snapshot is kept as the
+ * base to calculate the rates.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class MessageBusMonitor implements MessageBusMXBean {
+	/** the time a snapshot is used before a new one is taken */
+	private static final long REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	/** the minimum time the rates are measured over */
+	private static final long RATE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final MessageBus messageBus;
+	private MetricsSnapshot previous;
+	private MetricsSnapshot tick;
+	private MetricsSnapshot current;
+
+	/**
+	 * Create the monitor
+	 * @param messageBus	the message bus to be monitored
+	 */
+	MessageBusMonitor(MessageBus messageBus) {
+		this.messageBus = messageBus;
+		current = messageBus.getMetrics();
+		tick = current;
+		previous = current;
+	}
+
+	/**
+	 * get the current snapshot, a new one is taken if the current one is
+	 * too old. If the last rate base is older than a second, it becomes the
+	 * previous snapshot, so the rates are measured over one to two seconds.
+	 * @return	the current snapshot
+	 */
+	private synchronized MetricsSnapshot snapshot() {
+		if (System.nanoTime() - current.getTimestampNanos() >= REFRESH_NANOS) {
+			current = messageBus.getMetrics();
+			if (current.getTimestampNanos() - tick.getTimestampNanos() 
+					>= RATE_NANOS) {
+				previous = tick;
+				tick = current;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * get the previous snapshot to calculate the rates
+	 * @return	the previous snapshot
+	 */
+	private synchronized MetricsSnapshot previous() {
+		return previous;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getQueueDepth()
+	 */
+	@Override
+	public int getQueueDepth() {
+		return snapshot().getQueueDepth();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getPostedEvents()
+	 */
+	@Override
+	public long getPostedEvents() {
+		return snapshot().getPostedEvents();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getRejectedPosts()
+	 */
+	@Override
+	public long getRejectedPosts() {
+		return snapshot().getRejectedPosts();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getDispatchedEvents()
+	 */
+	@Override
+	public long getDispatchedEvents() {
+		return snapshot().getDispatchedEvents();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getPostRate()
+	 */
+	@Override
+	public double getPostRate() {
+		return snapshot().getPostRate(previous());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getDispatchRate()
+	 */
+	@Override
+	public double getDispatchRate() {
+		return snapshot().getDispatchRate(previous());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getPostedEventsPerClass()
+	 */
+	@Override
+	public Map<String, Long> getPostedEventsPerClass() {
+		Map<String, Long> posted = new HashMap<>();
+		snapshot().getPostedEventsPerClass().forEach(
+				(cls, count) -> posted.put(cls.getName(), count));
+		return posted;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getDispatchedEventsPerClass()
+	 */
+	@Override
+	public Map<String, Long> getDispatchedEventsPerClass() {
+		Map<String, Long> dispatched = new HashMap<>();
+		snapshot().getDispatchedEventsPerClass().forEach(
+				(cls, count) -> dispatched.put(cls.getName(), count));
+		return dispatched;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getPostRatePerClass()
+	 */
+	@Override
+	public Map<String, Double> getPostRatePerClass() {
+		MetricsSnapshot now = snapshot();
+		MetricsSnapshot before = previous();
+		Map<String, Double> rates = new HashMap<>();
+		now.getPostedEventsPerClass().keySet().forEach(
+				cls -> rates.put(cls.getName(), now.getPostRate(cls, before)));
+		return rates;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getDispatchRatePerClass()
+	 */
+	@Override
+	public Map<String, Double> getDispatchRatePerClass() {
+		MetricsSnapshot now = snapshot();
+		MetricsSnapshot before = previous();
+		Map<String, Double> rates = new HashMap<>();
+		now.getDispatchedEventsPerClass().keySet().forEach(
+				cls -> rates.put(cls.getName(), now.getDispatchRate(cls, before)));
+		return rates;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getMeanLatencyNanos()
+	 */
+	@Override
+	public long getMeanLatencyNanos() {
+		return snapshot().getMeanLatencyNanos();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getMedianLatencyNanos()
+	 */
+	@Override
+	public long getMedianLatencyNanos() {
+		return snapshot().getLatencyPercentileNanos(50);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#get99thPercentileLatencyNanos()
+	 */
+	@Override
+	public long get99thPercentileLatencyNanos() {
+		return snapshot().getLatencyPercentileNanos(99);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#get999thPercentileLatencyNanos()
+	 */
+	@Override
+	public long get999thPercentileLatencyNanos() {
+		return snapshot().getLatencyPercentileNanos(99.9);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getMaxLatencyNanos()
+	 */
+	@Override
+	public long getMaxLatencyNanos() {
+		return snapshot().getMaxLatencyNanos();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getRegistrations()
+	 */
+	@Override
+	public long getRegistrations() {
+		return snapshot().getRegistrations();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getUnregistrations()
+	 */
+	@Override
+	public long getUnregistrations() {
+		return snapshot().getUnregistrations();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getHandlerExceptions()
+	 */
+	@Override
+	public long getHandlerExceptions() {
+		return snapshot().getHandlerExceptions();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getAverageHandleNanosPerHandler()
+	 */
+	@Override
+	public Map<String, Long> getAverageHandleNanosPerHandler() {
+		return perHandler(HandlerStatistics::getAverageHandleNanos);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getMaxHandleNanosPerHandler()
+	 */
+	@Override
+	public Map<String, Long> getMaxHandleNanosPerHandler() {
+		return perHandler(HandlerStatistics::getMaxHandleNanos);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getExceptionsPerHandler()
+	 */
+	@Override
+	public Map<String, Long> getExceptionsPerHandler() {
+		return perHandler(HandlerStatistics::getExceptions);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.MessageBusMXBean#getPendingRequests()
+	 */
+	@Override
+	public int getPendingRequests() {
+		return messageBus.getPendingRequests();
+	}
+
+	/**
+	 * collect a value of the statistics of every handler
+	 * @param value	the function reading the value from the statistics
+	 * @return		the value per handler name
+	 */
+	private Map<String, Long> perHandler(ToLongFunction<HandlerStatistics> value) {
+		Map<String, Long> values = new HashMap<>();
+		for (HandlerStatistics statistics : snapshot().getHandlerStatistics()) {
+			EventHandler handler = statistics.getHandler();
+			values.put(handler.getClass().getName() + "@" 
+					+ Integer.toHexString(System.identityHashCode(handler)),
+					value.applyAsLong(statistics));
+		}
+		return values;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The MetaFilter selects events by their meta information. Register a
+ * handler with a filter using
+ * <code>MessageBus.register(Class, MetaFilter, EventHandler, ListenerType)
+ * </code> and the handler only receives the data or request events with
+ * matching meta information, instead of receiving all events and
+ * discarding most of them in <code>handle(Event event)</code>:
+ * <pre>
+ * bus.register(BatteryLoadEvent.class, MetaFilter.equalTo("BATTERY_1"),
+ * 		this, ListenerType.ANY);
+ * bus.register(OrderEvent.class, MetaFilter.in("EU", "US"),
+ * 		this, ListenerType.TARGET);
+ * </pre>
+ * The meta information is compared using <code>equals(Object)</code> and
+ * <code>hashCode()</code>. The message bus indexes the filters of every
+ * event class by their values, so the matching handlers are found with a
+ * single lookup, regardless of the number of filtered registrations.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class MetaFilter {
+	private final Set<Object> values;
+
+	/**
+	 * Create the filter
+	 * @param values	the accepted values of the meta information
+	 */
+	private MetaFilter(Set<Object> values) {
+		this.values = Collections.unmodifiableSet(values);
+	}
+
+	/**
+	 * Create a filter accepting the events with meta information equal to
+	 * the value
+	 * @param value	the accepted value of the meta information
+	 * @return		the filter
+	 */
+	public static MetaFilter equalTo(Object value) {
+		return in(Collections.singleton(value));
+	}
+
+	/**
+	 * Create a filter accepting the events with meta information equal to
+	 * one of the values
+	 * @param values	the accepted values of the meta information
+	 * @return			the filter
+	 */
+	public static MetaFilter in(Object... values) {
+		Objects.requireNonNull(values, "You must specify the accepted values");
+		return in(Arrays.asList(values));
+	}
+
+	/**
+	 * Create a filter accepting the events with meta information equal to
+	 * one of the values
+	 * @param values	the accepted values of the meta information
+	 * @return			the filter
+	 */
+	public static MetaFilter in(Collection<?> values) {
+		Objects.requireNonNull(values, "You must specify the accepted values");
+		if (values.isEmpty())
+			throw new IllegalArgumentException(
+					"You must specify at least one accepted value");
+		Set<Object> set = new HashSet<>();
+		for (Object value : values)
+			set.add(Objects.requireNonNull(value,
+					"You must specify non-null accepted values"));
+		return new MetaFilter(set);
+	}
+
+	/**
+	 * get the accepted values of the meta information
+	 * @return	the unmodifiable set of accepted values
+	 */
+	public Set<Object> getValues() {
+		return values;
+	}
+
+	/**
+	 * check if the filter accepts the event
+	 * @param ev	the event to be checked
+	 * @return		true, if the meta information of the event is one of the
+	 * accepted values
+	 */
+	public boolean accepts(Event ev) {
+		Object meta = metaInformationOf(ev);
+		return meta != null && values.contains(meta);
+	}
+
+	/**
+	 * get the meta information of a data or request event
+	 * @param ev	the event
+	 * @return		the meta information, null if the event has none
+	 */
+	static Object metaInformationOf(Event ev) {
+		if (ev instanceof DataEvent)
+			return ((DataEvent<?, ?>) ev).getMetaInformation();
+		if (ev instanceof RequestEvent)
+			return ((RequestEvent<?>) ev).getMetaInformation();
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof MetaFilter))
+			return false;
+		return values.equals(((MetaFilter) obj).values);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return values.hashCode();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "MetaFilter" + values;
+	}
+}
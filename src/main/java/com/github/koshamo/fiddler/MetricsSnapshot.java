@@ -0,0 +1,334 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The MetricsSnapshot holds the metrics of a <code>MessageBus</code> at a
+ * single point in time, see <code>MessageBus.getMetrics()</code>. 
+ * <p>
+ * All counters count from the creation of the message bus. To get the rate
+ * of events per second, take two snapshots and use the rate methods of the
+ * later one, e.g. 
+ * <pre>
+ * <code>
+ * MetricsSnapshot before = messageBus.getMetrics();
+ * // ... some time later
+ * MetricsSnapshot now = messageBus.getMetrics();
+ * double postsPerSecond = now.getPostRate(before);
+ * </code>
+ * </pre>
+ * The latency is the time from posting an event until a handler is called
+ * with it, which includes the time in the event queue and in the mailbox 
+ * of the handler. It is recorded once for every handler called. 
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class MetricsSnapshot {
+	private final long timestampNanos;
+	private final int queueDepth;
+	private final long postedEvents;
+	private final long rejectedPosts;
+	private final long dispatchedEvents;
+	private final Map<Class<? extends Event>, Long> postedEventsPerClass;
+	private final Map<Class<? extends Event>, Long> dispatchedEventsPerClass;
+	private final long registrations;
+	private final long unregistrations;
+	private final long handlerExceptions;
+	private final long[] latencyBuckets;
+	private final long latencyCount;
+	private final long totalLatencyNanos;
+	private final long maxLatencyNanos;
+	private final List<HandlerStatistics> handlerStatistics;
+
+	/**
+	 * Create the snapshot
+	 * @param timestampNanos			the time of the snapshot
+	 * @param queueDepth				the number of events in the queue
+	 * @param postedEvents				the number of posted events
+	 * @param rejectedPosts				the number of events, that could 
+	 * not be posted
+	 * @param dispatchedEvents			the number of distributed events
+	 * @param postedEventsPerClass		the posted events of every class
+	 * @param dispatchedEventsPerClass	the distributed events of every class
+	 * @param registrations				the number of registrations
+	 * @param unregistrations			the number of removed registrations
+	 * @param handlerExceptions			the number of exceptions thrown by 
+	 * handlers
+	 * @param latencyBuckets			the latency histogram
+	 * @param totalLatencyNanos			the sum of all latencies
+	 * @param maxLatencyNanos			the maximum latency
+	 * @param handlerStatistics			the statistics of every handler
+	 */
+	MetricsSnapshot(long timestampNanos, int queueDepth, long postedEvents,
+			long rejectedPosts, long dispatchedEvents,
+			Map<Class<? extends Event>, Long> postedEventsPerClass,
+			Map<Class<? extends Event>, Long> dispatchedEventsPerClass,
+			long registrations, long unregistrations, long handlerExceptions,
+			long[] latencyBuckets, long totalLatencyNanos, long maxLatencyNanos,
+			List<HandlerStatistics> handlerStatistics) {
+		this.timestampNanos = timestampNanos;
+		this.queueDepth = queueDepth;
+		this.postedEvents = postedEvents;
+		this.rejectedPosts = rejectedPosts;
+		this.dispatchedEvents = dispatchedEvents;
+		this.postedEventsPerClass = 
+				Collections.unmodifiableMap(postedEventsPerClass);
+		this.dispatchedEventsPerClass = 
+				Collections.unmodifiableMap(dispatchedEventsPerClass);
+		this.registrations = registrations;
+		this.unregistrations = unregistrations;
+		this.handlerExceptions = handlerExceptions;
+		this.latencyBuckets = latencyBuckets;
+		long count = 0;
+		for (long bucket : latencyBuckets)
+			count += bucket;
+		this.latencyCount = count;
+		this.totalLatencyNanos = totalLatencyNanos;
+		this.maxLatencyNanos = maxLatencyNanos;
+		this.handlerStatistics = Collections.unmodifiableList(handlerStatistics);
+	}
+
+	/**
+	 * get the time this snapshot has been taken, as returned by 
+	 * <code>System.nanoTime()</code>
+	 * @return	the time of the snapshot in nanoseconds
+	 */
+	public long getTimestampNanos() {
+		return timestampNanos;
+	}
+
+	/**
+	 * get the number of events waiting in the event queue
+	 * @return	the queue depth
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * get the number of events posted successfully
+	 * @return	the number of posted events
+	 */
+	public long getPostedEvents() {
+		return postedEvents;
+	}
+
+	/**
+	 * get the number of events posted successfully of exactly the given 
+	 * class
+	 * @param eventClass	the event class
+	 * @return				the number of posted events
+	 */
+	public long getPostedEvents(Class<? extends Event> eventClass) {
+		return postedEventsPerClass.getOrDefault(eventClass, 0L).longValue();
+	}
+
+	/**
+	 * get the number of events posted successfully for every event class
+	 * @return	the number of posted events per class
+	 */
+	public Map<Class<? extends Event>, Long> getPostedEventsPerClass() {
+		return postedEventsPerClass;
+	}
+
+	/**
+	 * get the number of events, that could not be posted, because the 
+	 * event queue did not accept them
+	 * @return	the number of rejected events
+	 */
+	public long getRejectedPosts() {
+		return rejectedPosts;
+	}
+
+	/**
+	 * get the number of events distributed to the handlers
+	 * @return	the number of distributed events
+	 */
+	public long getDispatchedEvents() {
+		return dispatchedEvents;
+	}
+
+	/**
+	 * get the number of events distributed to the handlers of exactly the 
+	 * given class
+	 * @param eventClass	the event class
+	 * @return				the number of distributed events
+	 */
+	public long getDispatchedEvents(Class<? extends Event> eventClass) {
+		return dispatchedEventsPerClass.getOrDefault(eventClass, 0L).longValue();
+	}
+
+	/**
+	 * get the number of events distributed to the handlers for every event
+	 * class
+	 * @return	the number of distributed events per class
+	 */
+	public Map<Class<? extends Event>, Long> getDispatchedEventsPerClass() {
+		return dispatchedEventsPerClass;
+	}
+
+	/**
+	 * get the number of registrations of handlers
+	 * @return	the number of registrations
+	 */
+	public long getRegistrations() {
+		return registrations;
+	}
+
+	/**
+	 * get the number of removed registrations of handlers
+	 * @return	the number of unregistrations
+	 */
+	public long getUnregistrations() {
+		return unregistrations;
+	}
+
+	/**
+	 * get the number of exceptions thrown by all handlers
+	 * @return	the number of exceptions
+	 */
+	public long getHandlerExceptions() {
+		return handlerExceptions;
+	}
+
+	/**
+	 * get the statistics of every registered handler
+	 * @return	the handler statistics
+	 */
+	public List<HandlerStatistics> getHandlerStatistics() {
+		return handlerStatistics;
+	}
+
+	/**
+	 * get the number of recorded latencies
+	 * @return	the number of handler calls with a recorded latency
+	 */
+	public long getLatencyCount() {
+		return latencyCount;
+	}
+
+	/**
+	 * get the average time from posting an event until a handler is called
+	 * @return	the average latency in nanoseconds, 0 if nothing has been 
+	 * recorded
+	 */
+	public long getMeanLatencyNanos() {
+		return latencyCount == 0 ? 0 : totalLatencyNanos / latencyCount;
+	}
+
+	/**
+	 * get the longest time from posting an event until a handler is called
+	 * @return	the maximum latency in nanoseconds
+	 */
+	public long getMaxLatencyNanos() {
+		return maxLatencyNanos;
+	}
+
+	/**
+	 * get a percentile of the time from posting an event until a handler is
+	 * called. The value is precise to 12.5 percent.
+	 * @param percentile	the percentile, e.g. 99.9
+	 * @return				the latency in nanoseconds, that the given 
+	 * percentage of latencies did not exceed, 0 if nothing has been recorded
+	 */
+	public long getLatencyPercentileNanos(double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException(
+					"The percentile must be between 0 and 100");
+		if (latencyCount == 0)
+			return 0;
+		long rank = (long) Math.ceil(percentile / 100 * latencyCount);
+		long count = 0;
+		for (int i = 0; i < latencyBuckets.length; i++) {
+			count += latencyBuckets[i];
+			if (count >= rank && count > 0)
+				return Math.min(LatencyHistogram.upperBoundOf(i), maxLatencyNanos);
+		}
+		return maxLatencyNanos;
+	}
+
+	/**
+	 * get the number of events posted per second between the earlier 
+	 * snapshot and this one
+	 * @param earlier	a snapshot of the same message bus taken before
+	 * @return			the events posted per second
+	 */
+	public double getPostRate(MetricsSnapshot earlier) {
+		Objects.requireNonNull(earlier, "You must specify an earlier snapshot");
+		return rate(postedEvents, earlier.postedEvents, earlier);
+	}
+
+	/**
+	 * get the number of events of exactly the given class posted per second
+	 * between the earlier snapshot and this one
+	 * @param eventClass	the event class
+	 * @param earlier		a snapshot of the same message bus taken before
+	 * @return				the events posted per second
+	 */
+	public double getPostRate(Class<? extends Event> eventClass, 
+			MetricsSnapshot earlier) {
+		Objects.requireNonNull(earlier, "You must specify an earlier snapshot");
+		return rate(getPostedEvents(eventClass), 
+				earlier.getPostedEvents(eventClass), earlier);
+	}
+
+	/**
+	 * get the number of events distributed per second between the earlier 
+	 * snapshot and this one
+	 * @param earlier	a snapshot of the same message bus taken before
+	 * @return			the events distributed per second
+	 */
+	public double getDispatchRate(MetricsSnapshot earlier) {
+		Objects.requireNonNull(earlier, "You must specify an earlier snapshot");
+		return rate(dispatchedEvents, earlier.dispatchedEvents, earlier);
+	}
+
+	/**
+	 * get the number of events of exactly the given class distributed per 
+	 * second between the earlier snapshot and this one
+	 * @param eventClass	the event class
+	 * @param earlier		a snapshot of the same message bus taken before
+	 * @return				the events distributed per second
+	 */
+	public double getDispatchRate(Class<? extends Event> eventClass, 
+			MetricsSnapshot earlier) {
+		Objects.requireNonNull(earlier, "You must specify an earlier snapshot");
+		return rate(getDispatchedEvents(eventClass), 
+				earlier.getDispatchedEvents(eventClass), earlier);
+	}
+
+	/**
+	 * calculate the rate of a counter
+	 * @param count			the value of the counter in this snapshot
+	 * @param earlierCount	the value of the counter in the earlier snapshot
+	 * @param earlier		the earlier snapshot
+	 * @return				the increase of the counter per second
+	 */
+	private double rate(long count, long earlierCount, MetricsSnapshot earlier) {
+		long nanos = timestampNanos - earlier.timestampNanos;
+		if (nanos <= 0)
+			return 0;
+		return (count - earlierCount) * (double) TimeUnit.SECONDS.toNanos(1) 
+				/ nanos;
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * The PooledDataEvent is a <code>DataEvent</code>, that is reused instead
+ * of being created for every single update. Use it, if you post lots of 
+ * data events and want to avoid the garbage of the event objects.
+ * <p>
+ * Pooled events are taken from an <code>EventPool</code>. The producer 
+ * claims an event from the pool, fills it in and posts it. After all 
+ * handlers have finished handling the event, the message bus returns it to
+ * its pool, so it can be claimed again.
+ * <pre>
+ * {@code
+ * EventPool<PooledDataEvent<String, Integer>> pool = 
+ * 		new EventPool<>(1024, PooledDataEvent::new);
+ * 
+ * PooledDataEvent<String, Integer> ev = pool.claim();
+ * ev.set(this, null, "currentLoad", load);
+ * if (!messageBus.postEvent(ev))
+ * 	ev.release();
+ * }
+ * </pre>
+ * The rules for pooled events are:
+ * <ul>
+ * <li>A posted event belongs to the message bus. The producer must not 
+ * touch it anymore. If it cannot be posted, it still belongs to the 
+ * producer, who should release it.
+ * <li>A handler must not keep a reference to the event after 
+ * <code>handle(Event event)</code> returns. Copy the values you need or 
+ * call <code>retain()</code> and <code>release()</code> it later.
+ * <li>Every event must be posted once only.
+ * </ul>
+ * The message bus rejects an event, that has not been claimed from its 
+ * pool, has already been released or is posted again, so 
+ * <code>postEvent(Event)</code> returns false. An event rejected this way 
+ * must not be released.
+ * An <code>EventPool</code> created in debug mode checks every access to
+ * a released event and throws an <code>IllegalStateException</code>, so
+ * handlers breaking the rules are found early.
+ * <p>
+ * Subclass this event to give it your own event class, e.g. to register
+ * handlers for it. The data may be a mutable object created once with the 
+ * event and filled in after claiming it, so there is no payload garbage 
+ * either.
+ * <p>
+ * No garbage is created at all, if the message bus uses a
+ * <code>RingBufferEventQueue</code> and <code>DispatchMode.SEQUENTIAL</code>.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class PooledDataEvent<M, T> extends DataEvent<M, T> {
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<PooledDataEvent> REFERENCES =
+			AtomicIntegerFieldUpdater.newUpdater(PooledDataEvent.class, "references");
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<PooledDataEvent> POSTED =
+			AtomicIntegerFieldUpdater.newUpdater(PooledDataEvent.class, "posted");
+	/** the source of the event while it is in its pool */
+	private static final EventHandler UNCLAIMED = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never registered to any message bus
+		}
+
+		@Override
+		public void shutdown() {
+			// never registered to any message bus
+		}
+	};
+
+	private EventHandler source;
+	private EventHandler target;
+	private M meta;
+	private T data;
+	private EventPool<?> pool;
+	private boolean debug;
+	private volatile int references;
+	private volatile int posted;
+
+	/**
+	 * Create an unclaimed event. The events are created by the factory of
+	 * the <code>EventPool</code>.
+	 */
+	public PooledDataEvent() {
+		super(UNCLAIMED, null, null, null);
+	}
+
+	/**
+	 * Fill in the event after claiming it from the pool. Source must be 
+	 * provided, target may be null.
+	 * 
+	 * @param source	the sender of this event
+	 * @param target	the target of this event, may be null
+	 * @param meta		the meta data for this event
+	 * @param data		the actual data for this event
+	 */
+	public void set(EventHandler source, EventHandler target, M meta, T data) {
+		checkClaimed();
+		Objects.requireNonNull(source, "You must specify a EventHandler source");
+		this.source = source;
+		this.target = target;
+		this.meta = meta;
+		this.data = data;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.Event#getSource()
+	 */
+	@Override
+	public EventHandler getSource() {
+		checkClaimed();
+		return source;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.Event#getTarget()
+	 */
+	@Override
+	public EventHandler getTarget() {
+		checkClaimed();
+		return target;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.DataEvent#getMetaInformation()
+	 */
+	@Override
+	public M getMetaInformation() {
+		checkClaimed();
+		return meta;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.DataEvent#getData()
+	 */
+	@Override
+	public T getData() {
+		checkClaimed();
+		return data;
+	}
+
+	/**
+	 * Keep the event after <code>handle(Event event)</code> returns. The 
+	 * event is not returned to its pool before <code>release()</code> is 
+	 * called once for every call of this method.
+	 * 
+	 * @throws IllegalStateException	if the event has already been 
+	 * released to its pool
+	 */
+	public void retain() {
+		if (REFERENCES.getAndIncrement(this) <= 0) {
+			REFERENCES.getAndDecrement(this);
+			throw new IllegalStateException(
+					"The event has already been released to its pool");
+		}
+	}
+
+	/**
+	 * Give up a reference to this event. The event is returned to its pool,
+	 * when the last reference is released.
+	 * 
+	 * @throws IllegalStateException	if the event has already been 
+	 * released to its pool
+	 */
+	public void release() {
+		int left = REFERENCES.decrementAndGet(this);
+		if (left > 0)
+			return;
+		if (left < 0) {
+			REFERENCES.getAndIncrement(this);
+			throw new IllegalStateException(
+					"The event has already been released to its pool");
+		}
+		source = null;
+		target = null;
+		meta = null;
+		data = null;
+		pool.giveBack(this);
+	}
+
+	/**
+	 * check whether the event has been released already. The check is only
+	 * done, if the pool is in debug mode.
+	 * @throws IllegalStateException	if the event has been released
+	 */
+	private void checkClaimed() {
+		if (debug && references <= 0)
+			throw new IllegalStateException(
+					"The event has been released to its pool");
+	}
+
+	/**
+	 * release the event, if it is a pooled event. This is done by the
+	 * message bus and the event queues for every event they are done with.
+	 * If a handler released the event once too often, the exception is 
+	 * passed to the uncaught exception handler of the current thread, so 
+	 * the thread distributing the events keeps running.
+	 * @param ev	the event
+	 */
+	static void releaseIfPooled(Event ev) {
+		if (ev instanceof PooledDataEvent) {
+			try {
+				((PooledDataEvent<?, ?>) ev).release();
+			} catch (IllegalStateException e) {
+				reportMisuse(e);
+			}
+		}
+	}
+
+	/**
+	 * retain the event, if it is a pooled event. This is done by the 
+	 * message bus for every mailbox the event is put into. Like 
+	 * <code>releaseIfPooled(Event)</code> an event released too early 
+	 * doesn't stop the thread distributing the events.
+	 * @param ev	the event
+	 */
+	static void retainIfPooled(Event ev) {
+		if (ev instanceof PooledDataEvent) {
+			try {
+				((PooledDataEvent<?, ?>) ev).retain();
+			} catch (IllegalStateException e) {
+				reportMisuse(e);
+			}
+		}
+	}
+
+	/**
+	 * pass the exception of an event used against the rules to the 
+	 * uncaught exception handler of the current thread
+	 * @param e	the exception
+	 */
+	private static void reportMisuse(IllegalStateException e) {
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+	}
+
+	/**
+	 * mark the event as posted, if it is a pooled event
+	 * @param ev	the event to be posted
+	 * @return		true, if the event may be posted, false if it is a 
+	 * pooled event, that is not claimed or has already been posted
+	 */
+	static boolean markPostedIfPooled(Event ev) {
+		if (!(ev instanceof PooledDataEvent))
+			return true;
+		PooledDataEvent<?, ?> pooled = (PooledDataEvent<?, ?>) ev;
+		return pooled.references > 0 && POSTED.compareAndSet(pooled, 0, 1);
+	}
+
+	/**
+	 * give a pooled event, that could not be posted, back to the producer,
+	 * who may post it again or release it
+	 * @param ev	the rejected event
+	 */
+	static void clearPostedIfPooled(Event ev) {
+		if (ev instanceof PooledDataEvent)
+			((PooledDataEvent<?, ?>) ev).posted = 0;
+	}
+
+	/**
+	 * hand the event to a producer
+	 * @param owner		the pool the event belongs to
+	 * @param debugMode	true, if every access is checked
+	 */
+	void claim(EventPool<?> owner, boolean debugMode) {
+		pool = owner;
+		debug = debugMode;
+		posted = 0;
+		references = 1;
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * The PriorityEventQueue is an <code>EventQueue</code> with a separate lane
+ * for every <code>EventPriority</code>. Events of higher priority are
+ * distributed before events of lower priority, even if these have been
+ * posted earlier. Within a lane the events keep their order.
+ * <p>
+ * So an <code>ExitEvent</code> or an urgent message doesn't need to wait
+ * until a backlog of data events has been distributed. As the event thread
+ * takes the events from the queue in batches, an urgent event waits at most
+ * until the current batch has been distributed.
+ * <p>
+ * The priority of an event is taken from <code>Event.getPriority()</code>,
+ * unless a priority is set for its class (or a superclass) using
+ * <code>setPriority(Class, EventPriority)</code>.
+ * <p>
+ * The <code>CONTROL</code> lane is always drained first. The other lanes
+ * are drained either by strict priority, where a lower lane is only drained
+ * while all higher lanes are empty, or by weighted round robin, where every
+ * lane gets a share according to its weight, so low priority events are 
+ * never starved:
+ * <pre>
+ * <code>
+ * // strict priority, unbounded lanes
+ * new PriorityEventQueue();
+ * // weighted: up to 8 HIGH, 4 NORMAL and 1 LOW event per round,
+ * // the NORMAL lane is bounded
+ * new PriorityEventQueue(p -&gt; p == EventPriority.NORMAL 
+ * 		? new BoundedEventQueue(10000, OverflowPolicy.DROP_OLDEST) 
+ * 		: new LinkedEventQueue(), 8, 4, 1);
+ * </code>
+ * </pre>
+ * <p>
+ * Events posted with <code>MessageBus.postEvents()</code> having different
+ * priorities are queued lane by lane, but either all of them or none. The
+ * space in the bounded lanes is checked first, while no other producer 
+ * may offer events to these lanes, so a batch spanning several lanes 
+ * doesn't wait for space in a lane with 
+ * <code>BoundedEventQueue.OverflowPolicy.BLOCK</code>. A lane is bounded, 
+ * if its <code>remainingCapacity()</code> is limited when the queue is 
+ * created.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class PriorityEventQueue implements EventQueue {
+	private static final EventPriority[] PRIORITIES = EventPriority.values();
+	
+	private final EventQueue[] lanes;
+	private final int[] weights;
+	private final boolean[] bounded;
+	// offers to bounded lanes share the lock, batches spanning several 
+	// lanes own it
+	private final ReadWriteLock batchLock;
+	private final Map<Class<?>, EventPriority> classPriorities;
+	// the state of the round robin is only used by the event thread
+	private int currentLane;
+	private int credit;
+	
+	/**
+	 * Create the queue with unbounded lanes, that are drained by strict 
+	 * priority
+	 */
+	public PriorityEventQueue() {
+		this(p -> new LinkedEventQueue());
+	}
+	
+	/**
+	 * Create the queue with the given lanes, that are drained by strict 
+	 * priority
+	 * @param laneFactory	creates the queue for every priority lane
+	 */
+	public PriorityEventQueue(Function<EventPriority, EventQueue> laneFactory) {
+		this(laneFactory, null);
+	}
+	
+	/**
+	 * Create the queue with the given lanes, that are drained by weighted
+	 * round robin
+	 * @param laneFactory	creates the queue for every priority lane
+	 * @param highWeight	the number of <code>HIGH</code> events per round
+	 * @param normalWeight	the number of <code>NORMAL</code> events per round
+	 * @param lowWeight		the number of <code>LOW</code> events per round
+	 */
+	public PriorityEventQueue(Function<EventPriority, EventQueue> laneFactory,
+			int highWeight, int normalWeight, int lowWeight) {
+		this(laneFactory, new int[] {0, highWeight, normalWeight, lowWeight});
+		if (highWeight < 1 || normalWeight < 1 || lowWeight < 1)
+			throw new IllegalArgumentException("The weights must be positive");
+	}
+	
+	/**
+	 * Create the queue
+	 * @param laneFactory	creates the queue for every priority lane
+	 * @param weights		the weights of the lanes, null for strict priority
+	 */
+	private PriorityEventQueue(Function<EventPriority, EventQueue> laneFactory,
+			int[] weights) {
+		Objects.requireNonNull(laneFactory, "You must specify a lane factory");
+		lanes = new EventQueue[PRIORITIES.length];
+		bounded = new boolean[PRIORITIES.length];
+		for (EventPriority p : PRIORITIES) {
+			lanes[p.ordinal()] = Objects.requireNonNull(laneFactory.apply(p), 
+					"The lane factory must create an EventQueue");
+			bounded[p.ordinal()] = 
+					lanes[p.ordinal()].remainingCapacity() < Integer.MAX_VALUE;
+		}
+		batchLock = new ReentrantReadWriteLock();
+		this.weights = weights;
+		classPriorities = new ConcurrentHashMap<>();
+		currentLane = EventPriority.HIGH.ordinal();
+		credit = weights == null ? 0 : weights[currentLane];
+	}
+	
+	/**
+	 * Set the priority for all events of the given class and its subclasses.
+	 * This overrides the priority returned by the events.
+	 * @param eventClass	the event class
+	 * @param priority		the priority, null to use the priority of the 
+	 * events again
+	 */
+	public void setPriority(Class<? extends Event> eventClass, 
+			EventPriority priority) {
+		Objects.requireNonNull(eventClass, "You must specify an Event class");
+		if (priority == null)
+			classPriorities.remove(eventClass);
+		else
+			classPriorities.put(eventClass, priority);
+	}
+	
+	/**
+	 * get the priority of the event. The priority set for the nearest class
+	 * in the class hierarchy wins over the priority of the event.
+	 * @param ev	the event
+	 * @return		the priority
+	 */
+	EventPriority priorityOf(Event ev) {
+		if (!classPriorities.isEmpty()) {
+			for (Class<?> c = ev.getClass(); c != Object.class; 
+					c = c.getSuperclass()) {
+				EventPriority priority = classPriorities.get(c);
+				if (priority != null)
+					return priority;
+			}
+		}
+		EventPriority priority = ev.getPriority();
+		return priority == null ? EventPriority.NORMAL : priority;
+	}
+	
+	/**
+	 * get the lane of the given priority
+	 * @param priority	the priority
+	 * @return			the queue of this lane
+	 */
+	public EventQueue getLane(EventPriority priority) {
+		return lanes[priority.ordinal()];
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#offer(com.github.koshamo.fiddler.Event)
+	 */
+	@Override
+	public boolean offer(Event ev) {
+		int lane = priorityOf(ev).ordinal();
+		if (!bounded[lane])
+			return lanes[lane].offer(ev);
+		batchLock.readLock().lock();
+		try {
+			return lanes[lane].offer(ev);
+		} finally {
+			batchLock.readLock().unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#offerAll(java.util.Collection)
+	 */
+	@Override
+	public boolean offerAll(Collection<? extends Event> events) {
+		List<List<Event>> perLane = new ArrayList<>(PRIORITIES.length);
+		for (int i = 0; i < PRIORITIES.length; i++)
+			perLane.add(new ArrayList<>());
+		int used = 0;
+		int boundedUsed = 0;
+		int lastLane = 0;
+		for (Event ev : events) {
+			int lane = priorityOf(ev).ordinal();
+			List<Event> laneEvents = perLane.get(lane);
+			if (laneEvents.isEmpty()) {
+				used++;
+				if (bounded[lane])
+					boundedUsed++;
+				lastLane = lane;
+			}
+			laneEvents.add(ev);
+		}
+		if (used == 0)
+			return true;
+		if (used == 1) {
+			if (!bounded[lastLane])
+				return lanes[lastLane].offerAll(perLane.get(lastLane));
+			batchLock.readLock().lock();
+			try {
+				return lanes[lastLane].offerAll(perLane.get(lastLane));
+			} finally {
+				batchLock.readLock().unlock();
+			}
+		}
+		if (boundedUsed == 0)
+			return offerLanes(perLane);
+		batchLock.writeLock().lock();
+		try {
+			// no other producer takes the space checked for 
+			for (int i = 0; i < PRIORITIES.length; i++)
+				if (bounded[i] && !perLane.get(i).isEmpty() 
+						&& lanes[i].remainingCapacity() < perLane.get(i).size())
+					return false;
+			return offerLanes(perLane);
+		} finally {
+			batchLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * offer the events to their lanes, the bounded lanes must have enough
+	 * space for them. So only a lane breaking the contract of 
+	 * <code>remainingCapacity()</code> may reject its events.
+	 * @param perLane	the events of every lane
+	 * @return			true, if all events have been queued
+	 */
+	private boolean offerLanes(List<List<Event>> perLane) {
+		boolean queued = true;
+		for (int i = 0; i < PRIORITIES.length; i++)
+			if (!perLane.get(i).isEmpty())
+				queued &= lanes[i].offerAll(perLane.get(i));
+		return queued;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#poll()
+	 */
+	@Override
+	public Event poll() {
+		Event ev = lanes[EventPriority.CONTROL.ordinal()].poll();
+		if (ev != null)
+			return ev;
+		if (weights == null) {
+			for (int i = EventPriority.HIGH.ordinal(); i < lanes.length; i++) {
+				ev = lanes[i].poll();
+				if (ev != null)
+					return ev;
+			}
+			return null;
+		}
+		return pollWeighted();
+	}
+	
+	/**
+	 * take the next event by weighted round robin. The current lane is 
+	 * drained until its credit is used up or it is empty, then the next lane
+	 * gets its full credit.
+	 * @return	the event, or null if all lanes are empty
+	 */
+	private Event pollWeighted() {
+		// every lane is visited once, the current one twice to 
+		// use its new credit after a full round
+		for (int i = 0; i < lanes.length; i++) {
+			if (credit > 0) {
+				Event ev = lanes[currentLane].poll();
+				if (ev != null) {
+					credit--;
+					return ev;
+				}
+			}
+			currentLane = currentLane == lanes.length - 1 
+					? EventPriority.HIGH.ordinal() : currentLane + 1;
+			credit = weights[currentLane];
+		}
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		for (EventQueue lane : lanes)
+			if (!lane.isEmpty())
+				return false;
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#size()
+	 */
+	@Override
+	public int size() {
+		int size = 0;
+		for (EventQueue lane : lanes)
+			size += lane.size();
+		return size;
+	}
+
+}
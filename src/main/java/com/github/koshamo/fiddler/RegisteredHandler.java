@@ -19,23 +19,85 @@ import com.github.koshamo.fiddler.MessageBus.ListenerType;
 
 /**
  * This class is a helper class for the MessageBus class to store the 
- * ListenerType to every registered handler.
+ * event class, the ListenerType and the metrics to every registered handler.
+ * Handlers subscribed to a topic are stored with their topic pattern and
+ * the event class <code>Event</code>. Handlers registered with a 
+ * <code>MetaFilter</code> are stored with their filter.
  * 
  * @author Dr. Jochen Raßler
  *
  */
 final class RegisteredHandler {
+	private final Class<? extends Event> eventClass;
 	private final EventHandler handler;
 	private final ListenerType type;
+	private final Mailbox mailbox;
+	private final AsyncMailbox asyncMailbox;
+	private final HandlerMetrics metrics;
+	private final long sequence;
+	private final String topicPattern;
+	private final MetaFilter filter;
 	
 	/**
-	 * Create the registered handler using the ListenerType
-	 * @param handler	the handler to register
-	 * @param type		the ListenerType of this registered handler
+	 * Create the registered handler using the ListenerType and the
+	 * mailbox of the handler
+	 * @param eventClass	the class of the events the handler listens for
+	 * @param handler		the handler to register
+	 * @param type			the ListenerType of this registered handler
+	 * @param mailbox		the mailbox of the handler, null if the handler is
+	 * called directly
+	 * @param asyncMailbox	the mailbox of an asynchronous handler, null if
+	 * the handler is no <code>AsyncEventHandler</code>
+	 * @param metrics		the metrics of the handler
+	 * @param sequence		the number of this registration, used to keep
+	 * the order of registration
 	 */
-	RegisteredHandler(EventHandler handler, ListenerType type) {
+	RegisteredHandler(Class<? extends Event> eventClass, EventHandler handler, 
+			ListenerType type, Mailbox mailbox, AsyncMailbox asyncMailbox,
+			HandlerMetrics metrics, long sequence) {
+		this(eventClass, handler, type, mailbox, asyncMailbox, metrics, 
+				sequence, null, null);
+	}
+	
+	/**
+	 * Create the registered handler using the ListenerType and the
+	 * mailbox of the handler
+	 * @param eventClass	the class of the events the handler listens for
+	 * @param handler		the handler to register
+	 * @param type			the ListenerType of this registered handler
+	 * @param mailbox		the mailbox of the handler, null if the handler is
+	 * called directly
+	 * @param asyncMailbox	the mailbox of an asynchronous handler, null if
+	 * the handler is no <code>AsyncEventHandler</code>
+	 * @param metrics		the metrics of the handler
+	 * @param sequence		the number of this registration, used to keep
+	 * the order of registration
+	 * @param topicPattern	the topic pattern the handler is subscribed to,
+	 * null if the handler is registered for the event class
+	 * @param filter		the filter of the meta information, null if the
+	 * handler receives all events of the event class
+	 */
+	RegisteredHandler(Class<? extends Event> eventClass, EventHandler handler, 
+			ListenerType type, Mailbox mailbox, AsyncMailbox asyncMailbox,
+			HandlerMetrics metrics, long sequence, String topicPattern, 
+			MetaFilter filter) {
+		this.eventClass = eventClass;
 		this.handler = handler;
 		this.type = type;
+		this.mailbox = mailbox;
+		this.asyncMailbox = asyncMailbox;
+		this.metrics = metrics;
+		this.sequence = sequence;
+		this.topicPattern = topicPattern;
+		this.filter = filter;
+	}
+	
+	/**
+	 * get the class of the events, the handler is registered for
+	 * @return	the event class
+	 */
+	Class<? extends Event> getEventClass() {
+		return eventClass;
 	}
 	
 	/**
@@ -53,4 +115,57 @@ final class RegisteredHandler {
 	ListenerType getType() {
 		return type;
 	}
+	
+	/**
+	 * get the mailbox of this registered handler
+	 * @return	the mailbox, null if the handler is called directly
+	 */
+	Mailbox getMailbox() {
+		return mailbox;
+	}
+	
+	/**
+	 * get the mailbox of this registered asynchronous handler
+	 * @return	the mailbox, null if the handler is no 
+	 * <code>AsyncEventHandler</code>
+	 */
+	AsyncMailbox getAsyncMailbox() {
+		return asyncMailbox;
+	}
+	
+	/**
+	 * get the metrics of this registered handler, which are shared by all
+	 * registrations of the handler
+	 * @return	the handler metrics
+	 */
+	HandlerMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * get the number of this registration. Registrations done later have
+	 * higher numbers.
+	 * @return	the registration number
+	 */
+	long getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * get the topic pattern of this registered handler
+	 * @return	the topic pattern, null if the handler is registered for
+	 * the event class
+	 */
+	String getTopicPattern() {
+		return topicPattern;
+	}
+	
+	/**
+	 * get the filter of the meta information of this registered handler
+	 * @return	the filter, null if the handler receives all events of the
+	 * event class
+	 */
+	MetaFilter getFilter() {
+		return filter;
+	}
 }
@@ -56,6 +56,22 @@ package com.github.koshamo.fiddler;
  * or to have different meta types. But it is nice style to use the same meta
  * data, so the requesting module can now check with <code>==</code> or the 
  * equals method.
+ * <p>
+ * Instead of waiting for the DataEvent, the requesting module may post the
+ * request with <code>MessageBus.postRequest()</code> and gets a 
+ * <code>CompletableFuture</code>, that is completed as soon as the 
+ * answering module calls <code>MessageBus.reply()</code>:
+ * <pre>
+ * {@code
+ * messageBus.postRequest(new BatteryLoadRequestEvent(this, null, "getCurrentLoad"),
+ * 		1, TimeUnit.SECONDS)
+ * 	.thenAccept(data -> showLoad(data));
+ * 
+ * // in the module communicating with the hardware
+ * messageBus.reply(request, new BatteryLoadEvent(this, request.getSource(), 
+ * 		request.getMetaInformation(), load));
+ * }
+ * </pre>
  *  
  * @see DataEvent
 
@@ -65,6 +81,7 @@ package com.github.koshamo.fiddler;
 public abstract class RequestEvent<M> extends Event {
 
 	private final M meta;
+	private volatile long correlationId;
 	
 	/**
 	 * The constructor needs the message sender and optionally the message target.
@@ -89,4 +106,24 @@ public abstract class RequestEvent<M> extends Event {
 		return meta;
 	}
 	
+	/**
+	 * Get the correlation ID of this request. The message bus sets the 
+	 * correlation ID, if the request is posted with
+	 * <code>MessageBus.postRequest()</code>, to find the requester waiting
+	 * for the reply.
+	 * @return	the correlation ID, 0 if the request hasn't been posted with
+	 * <code>MessageBus.postRequest()</code>
+	 */
+	public long getCorrelationId() {
+		return correlationId;
+	}
+	
+	/**
+	 * set the correlation ID of this request
+	 * @param correlationId	the correlation ID
+	 */
+	void setCorrelationId(long correlationId) {
+		this.correlationId = correlationId;
+	}
+	
 }
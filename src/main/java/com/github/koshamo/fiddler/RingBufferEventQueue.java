@@ -0,0 +1,189 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The RingBufferEventQueue is a bounded <code>EventQueue</code>, that 
+ * preallocates its storage. Posting and distributing events doesn't create
+ * any garbage and doesn't need any lock.
+ * <p>
+ * The capacity of the ring buffer is a power of two. If the ring buffer is 
+ * full, <code>MessageBus.postEvent(Event)</code> returns false. So choose
+ * a capacity large enough to hold all events, that may be posted while 
+ * the handlers are busy.
+ * <p>
+ * Example:
+ * <pre>
+ * <code>
+ * MessageBus messageBus = new MessageBus(new RingBufferEventQueue(65536), 
+ * 		WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+ * </code>
+ * </pre>
+ * <p>
+ * The ring buffer supports any number of producers and a single consumer,
+ * which is the event thread of the message bus. Every slot has its own
+ * sequence: a producer claims a slot by incrementing the tail sequence, 
+ * stores the event and publishes it by setting the slot sequence. The 
+ * consumer takes the event as soon as the slot is published and releases
+ * the slot for the next round. The head and tail sequences are padded, so
+ * producers and consumer don't slow each other down by false sharing.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class RingBufferEventQueue implements EventQueue {
+
+	private final int capacity;
+	private final int mask;
+	private final Event[] buffer;
+	private final AtomicLongArray published;
+	private final Sequence tail;
+	private final Sequence head;
+	
+	/**
+	 * Create the ring buffer
+	 * @param capacity	the minimum number of events the ring buffer can hold.
+	 * It is rounded up to the next power of two, but at least 2, as a slot
+	 * of a ring buffer with the capacity 1 could not tell a published 
+	 * event from a free slot.
+	 */
+	public RingBufferEventQueue(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException(
+					"The capacity must be between 1 and 2^30");
+		this.capacity = capacity <= 2 
+				? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		mask = this.capacity - 1;
+		buffer = new Event[this.capacity];
+		published = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++)
+			published.set(i, i);
+		tail = new Sequence(0);
+		head = new Sequence(0);
+	}
+	
+	/**
+	 * get the number of events the ring buffer can hold
+	 * @return	the capacity, a power of two
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#offer(com.github.koshamo.fiddler.Event)
+	 */
+	@Override
+	public boolean offer(Event ev) {
+		while (true) {
+			long pos = tail.get();
+			int index = (int) pos & mask;
+			long diff = published.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					buffer[index] = ev;
+					published.lazySet(index, pos + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				// the slot of the last round has not been consumed yet
+				return false;
+			}
+			// another producer claimed this slot, try the next one
+		}
+	}
+
+	/* (non-Javadoc)
+	 * all slots are claimed at once. As the consumer releases the slots in 
+	 * order, all slots are free, if the last one is free.
+	 * 
+	 * @see com.github.koshamo.fiddler.EventQueue#offerAll(java.util.Collection)
+	 */
+	@Override
+	public boolean offerAll(Collection<? extends Event> events) {
+		int count = events.size();
+		if (count == 0)
+			return true;
+		if (count > capacity)
+			return false;
+		while (true) {
+			long pos = tail.get();
+			long last = pos + count - 1;
+			long diff = published.get((int) last & mask) - last;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + count)) {
+					for (Event ev : events) {
+						int index = (int) pos & mask;
+						buffer[index] = ev;
+						published.lazySet(index, ++pos);
+					}
+					return true;
+				}
+			} else if (diff < 0) {
+				return false;
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#poll()
+	 */
+	@Override
+	public Event poll() {
+		long pos = head.get();
+		int index = (int) pos & mask;
+		if (published.get(index) != pos + 1)
+			return null;
+		Event ev = buffer[index];
+		buffer[index] = null;
+		published.lazySet(index, pos + capacity);
+		head.lazySet(pos + 1);
+		return ev;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		// claimed slots count as well, even if they are not published yet.
+		// The event thread relies on this before parking: claiming a slot is 
+		// a full fence, so either the event thread sees the claimed slot or
+		// the producer sees the event thread waiting and wakes it up.
+		return tail.get() == head.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#size()
+	 */
+	@Override
+	public int size() {
+		long size = tail.get() - head.get();
+		return (int) Math.max(0, Math.min(size, capacity));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#remainingCapacity()
+	 */
+	@Override
+	public int remainingCapacity() {
+		return capacity - size();
+	}
+
+}
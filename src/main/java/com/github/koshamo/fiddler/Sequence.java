@@ -0,0 +1,76 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * This class is a helper class for the <code>RingBufferEventQueue</code>.
+ * It is a counter, that is padded to fill a cache line on its own. 
+ * <p>
+ * The producers and the consumer of a ring buffer update their sequences
+ * all the time. Without padding both sequences may be placed in the same 
+ * cache line and every update of one sequence would invalidate the other
+ * sequence in the caches of all other cores (false sharing).
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class Sequence {
+	private static final AtomicLongFieldUpdater<Sequence> UPDATER = 
+			AtomicLongFieldUpdater.newUpdater(Sequence.class, "value");
+	
+	// padding before and after the value, 
+	// so nothing else shares the cache line
+	long p1, p2, p3, p4, p5, p6, p7;
+	private volatile long value;
+	long p9, p10, p11, p12, p13, p14, p15;
+	
+	/**
+	 * Create the sequence
+	 * @param initialValue	the initial value of the sequence
+	 */
+	Sequence(long initialValue) {
+		value = initialValue;
+	}
+	
+	/**
+	 * get the current value
+	 * @return	the value
+	 */
+	long get() {
+		return value;
+	}
+	
+	/**
+	 * set the value. Other threads see the new value eventually, so use this
+	 * only, if you are the only writer.
+	 * @param newValue	the new value
+	 */
+	void lazySet(long newValue) {
+		UPDATER.lazySet(this, newValue);
+	}
+	
+	/**
+	 * set the new value atomically, if the current value is the expected one
+	 * @param expected	the expected current value
+	 * @param newValue	the new value
+	 * @return			true, if the value has been set
+	 */
+	boolean compareAndSet(long expected, long newValue) {
+		return UPDATER.compareAndSet(this, expected, newValue);
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+/**
+ * A SlowHandlerListener is informed, if an <code>EventHandler</code> needs 
+ * more time to handle an event than the threshold configured in
+ * <code>MessageBus.setSlowHandlerListener()</code>.
+ * <p>
+ * The listener is called on the thread, that called the slow handler, so
+ * it should return quickly, e.g. by just logging the information.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+@FunctionalInterface
+public interface SlowHandlerListener {
+
+	/**
+	 * this method is called, after a handler exceeded the threshold
+	 * @param handler		the slow handler
+	 * @param event			the event, the handler needed so long for
+	 * @param handleNanos	the time spent in the handle method in 
+	 * nanoseconds, for an <code>AsyncEventHandler</code> the time until the
+	 * stage completed
+	 * @param mailboxDepth	the number of events still waiting in the 
+	 * mailbox of this handler, always 0 in <code>DispatchMode.SEQUENTIAL</code>
+	 * unless the handler is an <code>AsyncEventHandler</code>
+	 */
+	void slowHandler(EventHandler handler, Event event, long handleNanos, 
+			int mailboxDepth);
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a helper class for the MessageBus class. It indexes the
+ * topic subscriptions by the levels of their patterns, so the handlers
+ * subscribed to the topic of an event are found by walking down the levels
+ * of the topic. The work per event depends on the number of levels of the
+ * topic, not on the number of subscriptions.
+ * <p>
+ * The levels of topics and patterns are separated by '/'. Every level of a
+ * pattern is either a name, which matches exactly this name, or
+ * <code>*</code>, which matches any single level. The last level of a
+ * pattern may be <code>**</code>, which matches any number of levels,
+ * including none. So <code>"orders/**"</code> matches
+ * <code>"orders"</code> and <code>"orders/eu/berlin"</code>. Neither 
+ * patterns nor topics may have empty levels, like <code>"orders/"</code>
+ * or <code>"orders//berlin"</code>: such a pattern is rejected and such a
+ * topic matches no subscription.
+ * <p>
+ * The named levels below a node are looked up in an open addressing table
+ * by the characters of the topic itself, so matching a topic doesn't 
+ * create any objects.
+ * <p>
+ * The trie is immutable. Adding or removing a subscription creates new
+ * nodes along the path of the pattern only and shares all other nodes with
+ * the previous trie, so it fits into the snapshots of the
+ * <code>HandlerRegistry</code>.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class TopicTrie {
+	/** the separator of the levels of a topic */
+	static final char SEPARATOR = '/';
+	/** the pattern level matching any single level */
+	static final String SINGLE_LEVEL = "*";
+	/** the pattern level matching any number of levels */
+	static final String MULTI_LEVEL = "**";
+
+	private static final RegisteredHandler[] NONE = new RegisteredHandler[0];
+	private static final String[] NO_NAMES = new String[0];
+	private static final TopicTrie[] NO_NODES = new TopicTrie[0];
+
+	/** the trie without any subscriptions */
+	static final TopicTrie EMPTY =
+			new TopicTrie(Collections.emptyMap(), null, NONE, NONE);
+
+	private final Map<String, TopicTrie> children;
+	/** the names of the children by their hash, null for a free slot */
+	private final String[] names;
+	/** the children at the slots of their names */
+	private final TopicTrie[] nodes;
+	private final TopicTrie singleLevel;
+	private final RegisteredHandler[] exact;
+	private final RegisteredHandler[] multiLevel;
+
+	/**
+	 * Create a node of the trie
+	 * @param children		the nodes of the named levels below this node
+	 * @param singleLevel	the node of the <code>*</code> level below this
+	 * node, may be null
+	 * @param exact			the subscriptions of the patterns ending at this
+	 * node in the order of their subscription
+	 * @param multiLevel	the subscriptions of the patterns ending with
+	 * <code>**</code> below this node in the order of their subscription
+	 */
+	private TopicTrie(Map<String, TopicTrie> children, TopicTrie singleLevel,
+			RegisteredHandler[] exact, RegisteredHandler[] multiLevel) {
+		this.children = children;
+		this.singleLevel = singleLevel;
+		this.exact = exact;
+		this.multiLevel = multiLevel;
+		if (children.isEmpty()) {
+			names = NO_NAMES;
+			nodes = NO_NODES;
+			return;
+		}
+		// at most half of the slots are used, so every probe ends quickly
+		int size = 2;
+		while (size < 2 * children.size())
+			size <<= 1;
+		names = new String[size];
+		nodes = new TopicTrie[size];
+		children.forEach((name, node) -> {
+			int i = slotOf(name.hashCode());
+			while (names[i] != null)
+				i = (i + 1) & (names.length - 1);
+			names[i] = name;
+			nodes[i] = node;
+		});
+	}
+
+	/**
+	 * split the pattern of a subscription into its levels
+	 * @param pattern	the pattern to be split
+	 * @return			the levels of the pattern
+	 * @throws IllegalArgumentException	if the pattern has an empty level or
+	 * <code>**</code> is not its last level
+	 */
+	static String[] levelsOf(String pattern) {
+		String[] levels = pattern.split(String.valueOf(SEPARATOR), -1);
+		for (int i = 0; i < levels.length; i++) {
+			if (levels[i].isEmpty())
+				throw new IllegalArgumentException(
+						"The topic pattern must not have empty levels: "
+								+ pattern);
+			if (MULTI_LEVEL.equals(levels[i]) && i < levels.length - 1)
+				throw new IllegalArgumentException(
+						"** must be the last level of the topic pattern: "
+								+ pattern);
+		}
+		return levels;
+	}
+
+	/**
+	 * check if there is any subscription in the trie
+	 * @return	true, if there are no subscriptions
+	 */
+	boolean isEmpty() {
+		return children.isEmpty() && singleLevel == null
+				&& exact.length == 0 && multiLevel.length == 0;
+	}
+
+	/**
+	 * create a new trie with an additional subscription
+	 * @param levels	the levels of the pattern
+	 * @param rh		the subscribed handler
+	 * @return			the new trie
+	 */
+	TopicTrie with(String[] levels, RegisteredHandler rh) {
+		return with(levels, 0, rh);
+	}
+
+	/**
+	 * create a new node with an additional subscription below this node
+	 * @param levels	the levels of the pattern
+	 * @param depth		the level of the pattern at this node
+	 * @param rh		the subscribed handler
+	 * @return			the new node
+	 */
+	private TopicTrie with(String[] levels, int depth, RegisteredHandler rh) {
+		if (depth == levels.length)
+			return new TopicTrie(children, singleLevel,
+					append(exact, rh), multiLevel);
+		String level = levels[depth];
+		if (MULTI_LEVEL.equals(level))
+			return new TopicTrie(children, singleLevel,
+					exact, append(multiLevel, rh));
+		if (SINGLE_LEVEL.equals(level))
+			return new TopicTrie(children,
+					orEmpty(singleLevel).with(levels, depth + 1, rh),
+					exact, multiLevel);
+		Map<String, TopicTrie> newChildren = new HashMap<>(children);
+		newChildren.put(level,
+				orEmpty(children.get(level)).with(levels, depth + 1, rh));
+		return new TopicTrie(newChildren, singleLevel, exact, multiLevel);
+	}
+
+	/**
+	 * create a new trie without the subscriptions of the handler to the
+	 * pattern
+	 * @param levels	the levels of the pattern
+	 * @param handler	the handler to be unsubscribed
+	 * @return			the new trie, or this trie, if the handler isn't
+	 * subscribed to the pattern
+	 */
+	TopicTrie without(String[] levels, EventHandler handler) {
+		return without(levels, 0, handler);
+	}
+
+	/**
+	 * create a new node without the subscriptions of the handler to the
+	 * pattern below this node. Nodes without any subscriptions are removed.
+	 * @param levels	the levels of the pattern
+	 * @param depth		the level of the pattern at this node
+	 * @param handler	the handler to be unsubscribed
+	 * @return			the new node, which may be empty, or this node, if
+	 * the handler isn't subscribed to the pattern
+	 */
+	private TopicTrie without(String[] levels, int depth,
+			EventHandler handler) {
+		if (depth == levels.length) {
+			RegisteredHandler[] newExact = remove(exact, handler);
+			return newExact == exact ? this :
+				new TopicTrie(children, singleLevel, newExact, multiLevel);
+		}
+		String level = levels[depth];
+		if (MULTI_LEVEL.equals(level)) {
+			RegisteredHandler[] newMultiLevel = remove(multiLevel, handler);
+			return newMultiLevel == multiLevel ? this :
+				new TopicTrie(children, singleLevel, exact, newMultiLevel);
+		}
+		if (SINGLE_LEVEL.equals(level)) {
+			if (singleLevel == null)
+				return this;
+			TopicTrie newSingleLevel =
+					singleLevel.without(levels, depth + 1, handler);
+			if (newSingleLevel == singleLevel)
+				return this;
+			return new TopicTrie(children,
+					newSingleLevel.isEmpty() ? null : newSingleLevel,
+					exact, multiLevel);
+		}
+		TopicTrie child = children.get(level);
+		if (child == null)
+			return this;
+		TopicTrie newChild = child.without(levels, depth + 1, handler);
+		if (newChild == child)
+			return this;
+		Map<String, TopicTrie> newChildren = new HashMap<>(children);
+		if (newChild.isEmpty())
+			newChildren.remove(level);
+		else
+			newChildren.put(level, newChild);
+		return new TopicTrie(newChildren, singleLevel, exact, multiLevel);
+	}
+
+	/**
+	 * collect the subscriptions matching the topic. The subscriptions are
+	 * collected node by node, so they are not in the order of their
+	 * subscription and a handler subscribed to several matching patterns
+	 * is collected several times.
+	 * @param topic		the topic of the event
+	 * @param matches	the list to add the matching subscriptions to, 
+	 * nothing is added if the topic has an empty level
+	 */
+	void match(String topic, List<RegisteredHandler> matches) {
+		if (isTopic(topic))
+			match(topic, 0, matches);
+	}
+
+	/**
+	 * check that the topic has no empty level
+	 * @param topic	the topic of the event
+	 * @return		true, if every level of the topic has a name
+	 */
+	static boolean isTopic(String topic) {
+		int start = 0;
+		while (true) {
+			int end = topic.indexOf(SEPARATOR, start);
+			if (end < 0)
+				return start < topic.length();
+			if (end == start)
+				return false;
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * collect the subscriptions matching the rest of the topic below this
+	 * node
+	 * @param topic		the topic of the event
+	 * @param start		the index of the level of the topic at this node,
+	 * greater than the length of the topic if all levels are matched
+	 * @param matches	the list to add the matching subscriptions to
+	 */
+	private void match(String topic, int start,
+			List<RegisteredHandler> matches) {
+		addAll(multiLevel, matches);
+		if (start > topic.length()) {
+			addAll(exact, matches);
+			return;
+		}
+		int end = topic.indexOf(SEPARATOR, start);
+		if (end < 0)
+			end = topic.length();
+		if (names.length > 0) {
+			TopicTrie child = childOf(topic, start, end);
+			if (child != null)
+				child.match(topic, end + 1, matches);
+		}
+		if (singleLevel != null)
+			singleLevel.match(topic, end + 1, matches);
+	}
+
+	/**
+	 * look up the child named like a level of the topic
+	 * @param topic	the topic of the event
+	 * @param start	the index of the level in the topic
+	 * @param end	the index after the level in the topic
+	 * @return		the child, null if there is no child of this name
+	 */
+	private TopicTrie childOf(String topic, int start, int end) {
+		// the same hash as String.hashCode() of the level
+		int hash = 0;
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + topic.charAt(i);
+		int length = end - start;
+		for (int i = slotOf(hash); names[i] != null; 
+				i = (i + 1) & (names.length - 1)) {
+			String name = names[i];
+			if (name.length() == length 
+					&& topic.regionMatches(start, name, 0, length))
+				return nodes[i];
+		}
+		return null;
+	}
+
+	/**
+	 * get the first slot of a name in the table of the children
+	 * @param hash	the hash code of the name
+	 * @return		the slot
+	 */
+	private int slotOf(int hash) {
+		return (hash ^ (hash >>> 16)) & (names.length - 1);
+	}
+
+	/**
+	 * get the node or an empty node
+	 * @param node	the node, may be null
+	 * @return		the node, or the empty trie if the node is null
+	 */
+	private static TopicTrie orEmpty(TopicTrie node) {
+		return node == null ? EMPTY : node;
+	}
+
+	/**
+	 * add all subscriptions of the array to the list
+	 * @param subscriptions	the subscriptions to add
+	 * @param matches		the list to add to
+	 */
+	private static void addAll(RegisteredHandler[] subscriptions,
+			List<RegisteredHandler> matches) {
+		for (RegisteredHandler rh : subscriptions)
+			matches.add(rh);
+	}
+
+	/**
+	 * create a copy of the array with an additional subscription
+	 * @param subscriptions	the subscriptions
+	 * @param rh			the subscription to add
+	 * @return				the new array
+	 */
+	private static RegisteredHandler[] append(
+			RegisteredHandler[] subscriptions, RegisteredHandler rh) {
+		RegisteredHandler[] newSubscriptions =
+				Arrays.copyOf(subscriptions, subscriptions.length + 1);
+		newSubscriptions[subscriptions.length] = rh;
+		return newSubscriptions;
+	}
+
+	/**
+	 * create a copy of the array without the subscriptions of the handler
+	 * @param subscriptions	the subscriptions
+	 * @param handler		the handler to be removed
+	 * @return				the new array, or the given array if the handler
+	 * isn't part of it
+	 */
+	private static RegisteredHandler[] remove(
+			RegisteredHandler[] subscriptions, EventHandler handler) {
+		RegisteredHandler[] newSubscriptions = Arrays.stream(subscriptions)
+				.filter(rh -> rh.getHandler() != handler)
+				.toArray(RegisteredHandler[]::new);
+		return newSubscriptions.length == subscriptions.length
+				? subscriptions : newSubscriptions;
+	}
+}
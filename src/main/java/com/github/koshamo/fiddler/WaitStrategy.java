@@ -0,0 +1,68 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+/**
+ * The WaitStrategy defines, what the event thread of the
+ * <code>MessageBus</code> does, while there are no events to be distributed.
+ * <p>
+ * Posting an event always wakes up a waiting event thread directly, so
+ * there is no polling interval. The strategies differ in how much CPU time
+ * they spend to react even faster:
+ * <ul>
+ * <li><code>BLOCKING</code> parks the event thread as soon as the queue
+ * is empty. This is the right choice for most applications.
+ * <li><code>SPIN_THEN_PARK</code> spins and yields for a short while before
+ * parking, so bursts of events are picked up without the cost of
+ * a wakeup.
+ * <li><code>BUSY_SPIN</code> never parks and keeps one core busy all the time.
+ * Use this only for latency critical applications with a spare core.
+ * </ul>
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public enum WaitStrategy {
+	/**
+	 * park the event thread immediately, if there is nothing to do
+	 */
+	BLOCKING(0, 0, true),
+	/**
+	 * spin and yield for a while, then park the event thread
+	 */
+	SPIN_THEN_PARK(1000, 100, true),
+	/**
+	 * never park the event thread
+	 */
+	BUSY_SPIN(0, 0, false);
+
+	final int spinTries;
+	final int yieldTries;
+	final boolean parks;
+
+	/**
+	 * Create the wait strategy
+	 * @param spinTries		number of idle rounds spent in busy spinning
+	 * @param yieldTries	number of idle rounds spent in yielding the thread
+	 * @param parks			true, if the thread parks after spinning and
+	 * yielding, false if it continues spinning
+	 */
+	private WaitStrategy(int spinTries, int yieldTries, boolean parks) {
+		this.spinTries = spinTries;
+		this.yieldTries = yieldTries;
+		this.parks = parks;
+	}
+}
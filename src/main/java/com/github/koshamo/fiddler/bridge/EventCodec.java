@@ -0,0 +1,75 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.bridge;
+
+import java.nio.ByteBuffer;
+
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+
+/**
+ * The EventCodec converts the events of a class to bytes and back, so the
+ * <code>MessageBusBridge</code> can send them to another Java VM. Source
+ * and target of the event are handled by the bridge, the codec only writes
+ * the content of the event:
+ * <pre>
+ * class BatteryLoadCodec implements EventCodec&lt;BatteryLoadEvent&gt; {
+ * 	public void encode(BatteryLoadEvent event, ByteBuffer buffer) {
+ * 		buffer.putInt(event.getData());
+ * 	}
+ * 	public BatteryLoadEvent decode(EventHandler source, 
+ * 			EventHandler target, ByteBuffer buffer) {
+ * 		return new BatteryLoadEvent(source, target, buffer.getInt());
+ * 	}
+ * }
+ * </pre>
+ * For the subclasses of <code>DataEvent</code> and
+ * <code>RequestEvent</code> the codecs of the package
+ * <code>com.github.koshamo.fiddler.codec</code> compose the codec of the
+ * event from the codecs of its meta information and its data.
+ * <p>
+ * The codecs are called by a single thread of the bridge at a time, so 
+ * they don't need to be thread safe, unless the same codec is used by 
+ * several bridges.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ * @param <E>	the class of the events
+ */
+public interface EventCodec<E extends Event> {
+	/**
+	 * write the content of the event to the buffer. If the buffer is too 
+	 * small, the codec may just let the buffer throw the 
+	 * <code>BufferOverflowException</code>: the bridge then calls the codec
+	 * again with a larger buffer.
+	 * @param event		the event to be written
+	 * @param buffer	the buffer to write to, starting at its position
+	 */
+	void encode(E event, ByteBuffer buffer);
+
+	/**
+	 * create the event from the content read from the buffer. The 
+	 * remaining bytes of the buffer are exactly the bytes written by 
+	 * <code>encode(E, ByteBuffer)</code>. The buffer is reused after this
+	 * call, so the event must not keep a reference to it.
+	 * @param source	the source of the event, a <code>RemoteHandler</code>
+	 * @param target	the target of the event, null if the event has no 
+	 * target
+	 * @param buffer	the buffer to read from
+	 * @return			the event
+	 */
+	E decode(EventHandler source, EventHandler target, ByteBuffer buffer);
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.bridge;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+
+/**
+ * This class is a helper class for the MessageBusBridge class. It reads
+ * the frames written by the <code>FrameWriter</code> of the remote bridge
+ * and creates the events.
+ * <p>
+ * The bytes are read into a direct buffer and the codecs decode the events
+ * right from this buffer, limited to the content of their frame, so the
+ * bytes are never copied. Only the beginning of a frame, which isn't read
+ * completely, is moved to the start of the buffer. If a frame is larger
+ * than the buffer, the buffer grows.
+ * <p>
+ * The frame reader is only used by the I/O thread of the bridge.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class FrameReader {
+	private final MessageBusBridge bridge;
+	private ByteBuffer buffer;
+	private EventCodec<?>[] codecs;
+	private boolean[] declaredClasses;
+	private String[] names;
+
+	/**
+	 * Create the frame reader
+	 * @param bridge	the bridge receiving the events
+	 * @param capacity	the initial capacity of the buffer in bytes
+	 */
+	FrameReader(MessageBusBridge bridge, int capacity) {
+		this.bridge = bridge;
+		buffer = ByteBuffer.allocateDirect(capacity);
+		codecs = new EventCodec<?>[16];
+		declaredClasses = new boolean[16];
+		names = new String[16];
+	}
+
+	/**
+	 * read the available bytes from the channel and handle all frames,
+	 * which are read completely
+	 * @param channel	the channel to read from
+	 * @return			the number of bytes read, -1 at the end of the stream
+	 * or if the remote side reset the connection
+	 * @throws IOException	if a frame is corrupt
+	 */
+	int read(ReadableByteChannel channel) throws IOException {
+		int count;
+		try {
+			count = channel.read(buffer);
+		} catch (IOException e) {
+			// a reset connection has been closed by the remote side, too
+			return -1;
+		}
+		if (count <= 0)
+			return count;
+		buffer.flip();
+		int required = 0;
+		while (buffer.remaining() >= 4) {
+			int start = buffer.position();
+			int length = buffer.getInt(start);
+			if (length < 1)
+				throw new IOException("Corrupt frame length " + length);
+			if (buffer.remaining() - 4 < length) {
+				required = 4 + length;
+				break;
+			}
+			int end = start + 4 + length;
+			int limit = buffer.limit();
+			buffer.position(start + 4).limit(end);
+			try {
+				readFrame();
+			} finally {
+				buffer.limit(limit).position(end);
+			}
+		}
+		buffer.compact();
+		if (required > buffer.capacity())
+			grow(required);
+		return count;
+	}
+
+	/**
+	 * handle a single frame, the buffer is limited to the frame
+	 * @throws IOException	if the frame is corrupt
+	 */
+	private void readFrame() throws IOException {
+		byte kind = buffer.get();
+		switch (kind) {
+		case FrameWriter.EVENT:
+			readEvent();
+			break;
+		case FrameWriter.CLASS:
+			int classId = buffer.getShort();
+			ensureClassCapacity(classId);
+			codecs[classId] = bridge.codecOf(readString());
+			declaredClasses[classId] = true;
+			break;
+		case FrameWriter.NAME:
+			int nameId = buffer.getInt();
+			ensureNameCapacity(nameId);
+			names[nameId] = readString();
+			break;
+		default:
+			throw new IOException("Unknown frame kind " + kind);
+		}
+	}
+
+	/**
+	 * create the event of an event frame and hand it to the bridge. Events
+	 * of classes without codec and events targeting a handler, which isn't
+	 * exported, are not delivered.
+	 * @throws IOException	if the frame refers to undeclared ids
+	 */
+	private void readEvent() throws IOException {
+		int classId = buffer.getShort();
+		int sourceId = buffer.getInt();
+		int targetId = buffer.getInt();
+		if (classId < 0 || classId >= declaredClasses.length
+				|| !declaredClasses[classId])
+			throw new IOException("Undeclared event class " + classId);
+		EventHandler source = sourceId == FrameWriter.NO_NAME
+				? bridge.getRemote() : bridge.getRemoteHandler(nameOf(sourceId));
+		EventHandler target = null;
+		if (targetId != FrameWriter.NO_NAME) {
+			target = bridge.exportedHandler(nameOf(targetId));
+			if (target == null) {
+				bridge.undeliverable();
+				return;
+			}
+		}
+		EventCodec<?> codec = codecs[classId];
+		if (codec == null) {
+			bridge.undeliverable();
+			return;
+		}
+		Event ev;
+		try {
+			ev = codec.decode(source, target, buffer);
+		} catch (RuntimeException e) {
+			bridge.undeliverable();
+			Thread t = Thread.currentThread();
+			t.getUncaughtExceptionHandler().uncaughtException(t, e);
+			return;
+		}
+		bridge.received(ev);
+	}
+
+	/**
+	 * get the declared name of the id
+	 * @param nameId	the id of the name
+	 * @return			the name
+	 * @throws IOException	if the name isn't declared
+	 */
+	private String nameOf(int nameId) throws IOException {
+		if (nameId < 0 || nameId >= names.length || names[nameId] == null)
+			throw new IOException("Undeclared name " + nameId);
+		return names[nameId];
+	}
+
+	/**
+	 * read a string written as its length and its bytes
+	 * @return	the string
+	 */
+	private String readString() {
+		byte[] bytes = new byte[buffer.getShort()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * make sure, the arrays of the classes can hold the id
+	 * @param classId	the id of the class
+	 * @throws IOException	if the id is negative
+	 */
+	private void ensureClassCapacity(int classId) throws IOException {
+		if (classId < 0)
+			throw new IOException("Corrupt class id " + classId);
+		if (classId >= codecs.length) {
+			int length = Math.max(classId + 1, codecs.length * 2);
+			codecs = Arrays.copyOf(codecs, length);
+			declaredClasses = Arrays.copyOf(declaredClasses, length);
+		}
+	}
+
+	/**
+	 * make sure, the array of the names can hold the id
+	 * @param nameId	the id of the name
+	 * @throws IOException	if the id is negative
+	 */
+	private void ensureNameCapacity(int nameId) throws IOException {
+		if (nameId < 0)
+			throw new IOException("Corrupt name id " + nameId);
+		if (nameId >= names.length)
+			names = Arrays.copyOf(names, Math.max(nameId + 1, names.length * 2));
+	}
+
+	/**
+	 * replace the buffer by a larger one with the same content
+	 * @param minCapacity	the minimum capacity of the new buffer
+	 */
+	private void grow(int minCapacity) {
+		ByteBuffer larger = ByteBuffer.allocateDirect(
+				Math.max(minCapacity, buffer.capacity() * 2));
+		buffer.flip();
+		larger.put(buffer);
+		buffer = larger;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.bridge;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.koshamo.fiddler.Event;
+
+/**
+ * This class is a helper class for the MessageBusBridge class. It writes
+ * the events to be sent into a buffer, which collects the frames until the
+ * I/O thread of the bridge takes them all at once.
+ * <p>
+ * Every frame starts with its length as an int, not counting the length
+ * itself, followed by the kind of the frame as a byte:
+ * <ul>
+ * <li><code>EVENT</code>: the id of the event class as a short, the ids of
+ * the source and the target names as ints, <code>NO_NAME</code> for none,
+ * and the content written by the codec.
+ * <li><code>CLASS</code>: the id of an event class as a short and the name
+ * of the class.
+ * <li><code>NAME</code>: the id of a handler name as an int and the name.
+ * </ul>
+ * Class names and handler names are written once, as a <code>CLASS</code>
+ * or <code>NAME</code> frame before the first event using them, and are
+ * referred to by their id later on. Strings are written as their length
+ * in bytes as a short followed by their UTF-8 bytes.
+ * <p>
+ * The frame writer isn't thread safe, the bridge guards it with its lock.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class FrameWriter {
+	/** the frame kind of an event */
+	static final byte EVENT = 0;
+	/** the frame kind declaring an event class */
+	static final byte CLASS = 1;
+	/** the frame kind declaring a handler name */
+	static final byte NAME = 2;
+	/** the name id used for events without source or target name */
+	static final int NO_NAME = -1;
+
+	private ByteBuffer buffer;
+	private final Map<Class<?>, Integer> classIds;
+	private final Map<String, Integer> nameIds;
+
+	/**
+	 * Create the frame writer
+	 * @param capacity	the initial capacity of the buffer in bytes
+	 */
+	FrameWriter(int capacity) {
+		buffer = ByteBuffer.allocate(capacity);
+		classIds = new HashMap<>();
+		nameIds = new HashMap<>();
+	}
+
+	/**
+	 * write the frame of an event and the frames declaring its class and
+	 * names, if they are used for the first time
+	 * @param ev			the event to be written
+	 * @param eventClass	the class, the codec has been registered for. Its
+	 * name is sent instead of the class of the event, so the receiver finds
+	 * the codec of a subclass, too.
+	 * @param codec			the codec of the event class
+	 * @param sourceName	the name of the source, null if the source isn't
+	 * exported
+	 * @param targetName	the name of the target, null if the event has no
+	 * target
+	 */
+	void writeEvent(Event ev, Class<?> eventClass, EventCodec<Event> codec,
+			String sourceName, String targetName) {
+		int classId = classIdOf(eventClass);
+		int sourceId = nameIdOf(sourceName);
+		int targetId = nameIdOf(targetName);
+		int start = buffer.position();
+		while (true) {
+			try {
+				buffer.putInt(0).put(EVENT).putShort((short) classId)
+						.putInt(sourceId).putInt(targetId);
+				codec.encode(ev, buffer);
+				buffer.putInt(start, buffer.position() - start - 4);
+				return;
+			} catch (BufferOverflowException e) {
+				buffer.position(start);
+				grow(buffer.capacity());
+			} catch (RuntimeException e) {
+				buffer.position(start);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * get the number of bytes written, that are not taken yet
+	 * @return	the number of bytes
+	 */
+	int size() {
+		return buffer.position();
+	}
+
+	/**
+	 * take the written frames and continue writing into the given buffer
+	 * @param empty	the buffer to continue with, which is cleared
+	 * @return		the written frames, ready to be read
+	 */
+	ByteBuffer swap(ByteBuffer empty) {
+		ByteBuffer frames = buffer;
+		frames.flip();
+		empty.clear();
+		buffer = empty;
+		return frames;
+	}
+
+	/**
+	 * get the id of the event class and write the frame declaring it, if
+	 * the class is used for the first time
+	 * @param eventClass	the event class
+	 * @return				the id of the class
+	 */
+	private int classIdOf(Class<?> eventClass) {
+		Integer id = classIds.get(eventClass);
+		if (id != null)
+			return id;
+		int newId = classIds.size();
+		if (newId > Short.MAX_VALUE)
+			throw new IllegalStateException("Too many event classes");
+		byte[] name = eventClass.getName().getBytes(StandardCharsets.UTF_8);
+		ensureRemaining(4 + 1 + 2 + 2 + name.length);
+		buffer.putInt(1 + 2 + 2 + name.length).put(CLASS)
+				.putShort((short) newId);
+		putString(name);
+		classIds.put(eventClass, newId);
+		return newId;
+	}
+
+	/**
+	 * get the id of the handler name and write the frame declaring it, if
+	 * the name is used for the first time
+	 * @param name	the handler name, may be null
+	 * @return		the id of the name, <code>NO_NAME</code> for null
+	 */
+	private int nameIdOf(String name) {
+		if (name == null)
+			return NO_NAME;
+		Integer id = nameIds.get(name);
+		if (id != null)
+			return id;
+		int newId = nameIds.size();
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ensureRemaining(4 + 1 + 4 + 2 + bytes.length);
+		buffer.putInt(1 + 4 + 2 + bytes.length).put(NAME).putInt(newId);
+		putString(bytes);
+		nameIds.put(name, newId);
+		return newId;
+	}
+
+	/**
+	 * write a string as its length and its bytes
+	 * @param bytes	the UTF-8 bytes of the string
+	 */
+	private void putString(byte[] bytes) {
+		if (bytes.length > Short.MAX_VALUE)
+			throw new IllegalArgumentException("The name is too long");
+		buffer.putShort((short) bytes.length).put(bytes);
+	}
+
+	/**
+	 * grow the buffer, if it has less than the required bytes remaining
+	 * @param required	the number of bytes required
+	 */
+	private void ensureRemaining(int required) {
+		if (buffer.remaining() < required)
+			grow(buffer.position() + required);
+	}
+
+	/**
+	 * replace the buffer by a larger one with the same content
+	 * @param minCapacity	the minimum capacity of the new buffer
+	 */
+	private void grow(int minCapacity) {
+		ByteBuffer larger = ByteBuffer.allocate(
+				Math.max(minCapacity, buffer.capacity() * 2));
+		buffer.flip();
+		larger.put(buffer);
+		buffer = larger;
+	}
+}
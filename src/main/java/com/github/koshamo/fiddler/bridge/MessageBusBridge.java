@@ -0,0 +1,717 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.bridge;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.MessageBus;
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * The MessageBusBridge connects a message bus to the message bus of
+ * another Java VM on the same host, using a TCP connection on the loopback
+ * interface or, on Java 16 or later, a Unix domain socket.
+ * <p>
+ * The events of the forwarded classes posted to the local message bus are
+ * sent to the remote message bus and posted there, the events received
+ * from the remote bridge are posted to the local message bus. Both sides
+ * need an <code>EventCodec</code> for every event class they exchange:
+ * <pre>
+ * MessageBusBridge bridge = new MessageBusBridge(messageBus);
+ * bridge.forward(BatteryLoadEvent.class, new BatteryLoadCodec());
+ * bridge.receive(ChargeCommandEvent.class, new ChargeCommandCodec());
+ * bridge.export("battery", batteryModule);
+ * bridge.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), 4711));
+ * </pre>
+ * The handlers of the remote message bus are addressed by the
+ * <code>RemoteHandler</code>s returned by
+ * <code>getRemoteHandler(String)</code>: an event targeting a remote
+ * handler is delivered to the handler exported with this name by the
+ * remote bridge. Events targeting <code>getRemote()</code> are delivered
+ * to all handlers of the remote message bus, but to no local
+ * <code>ListenerType.TARGET</code> handler. Events targeting any other
+ * local handler are not sent. The source of a received event is the
+ * remote handler of its sender, if the sender is exported, otherwise
+ * <code>getRemote()</code>. Received events are never sent back.
+ * <p>
+ * The events are written into a buffer by the thread distributing them,
+ * the bridge has its own I/O thread sending the buffer. While the I/O
+ * thread is sending, the following events are collected in the buffer
+ * and sent at once with the next write. So an idle bridge sends every
+ * event immediately, while a busy bridge sends large batches with few
+ * system calls. If the remote side doesn't keep up and the buffer holds
+ * more than <code>maxPendingBytes</code>, distributing the events waits
+ * up to the send timeout, then the event is dropped and counted.
+ * <p>
+ * The bridge is closed by <code>close()</code>, by an
+ * <code>ExitEvent</code> posted to the local message bus or when the
+ * connection is closed or reset by the remote side. Errors of the open
+ * connection are passed to the uncaught exception handler of the I/O 
+ * thread.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class MessageBusBridge {
+	/** the default maximum number of bytes waiting to be sent */
+	public static final int DEFAULT_MAX_PENDING_BYTES = 4 * 1024 * 1024;
+	/** the time in milliseconds an event waits for the remote side by default */
+	public static final long DEFAULT_SEND_TIMEOUT_MILLIS = 1000;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final AtomicInteger BRIDGE_NUMBER = new AtomicInteger();
+
+	private final MessageBus messageBus;
+	private final int maxPendingBytes;
+	private final Map<Class<?>, EventCodec<?>> codecs;
+	private final Map<String, EventCodec<?>> codecsByName;
+	private final Map<Class<?>, Class<?>> sentClasses;
+	private final Set<Class<? extends Event>> forwardedClasses;
+	private final Map<String, EventHandler> exports;
+	private final Map<EventHandler, String> exportNames;
+	private final Map<String, RemoteHandler> remoteHandlers;
+	private final RemoteHandler remote;
+	private final Forwarder forwarder;
+	private final ReentrantLock lock;
+	private final Condition notFull;
+	private final FrameWriter writer;
+	private final AtomicBoolean flushRequested;
+	private final LongAdder sentEvents;
+	private final LongAdder receivedEvents;
+	private final LongAdder undeliverableEvents;
+	private final LongAdder droppedEvents;
+	private final LongAdder writes;
+	private volatile boolean open;
+	private volatile boolean closed;
+	private volatile long sendTimeoutNanos;
+	private SocketChannel channel;
+	private volatile Selector selector;
+	private SelectionKey key;
+	private ByteBuffer writing;
+
+	/**
+	 * Create the bridge for the message bus with the default maximum of
+	 * bytes waiting to be sent
+	 * @param messageBus	the local message bus
+	 */
+	public MessageBusBridge(MessageBus messageBus) {
+		this(messageBus, DEFAULT_MAX_PENDING_BYTES);
+	}
+
+	/**
+	 * Create the bridge for the message bus
+	 * @param messageBus		the local message bus
+	 * @param maxPendingBytes	the number of bytes waiting to be sent,
+	 * above which distributing events waits for the remote side
+	 */
+	public MessageBusBridge(MessageBus messageBus, int maxPendingBytes) {
+		Objects.requireNonNull(messageBus, "You must specify a MessageBus");
+		if (maxPendingBytes < 1)
+			throw new IllegalArgumentException(
+					"The maximum of pending bytes must be positive");
+		this.messageBus = messageBus;
+		this.maxPendingBytes = maxPendingBytes;
+		codecs = new ConcurrentHashMap<>();
+		codecsByName = new ConcurrentHashMap<>();
+		sentClasses = new ConcurrentHashMap<>();
+		forwardedClasses = new LinkedHashSet<>();
+		exports = new ConcurrentHashMap<>();
+		exportNames = new IdentityHashMap<>();
+		remoteHandlers = new ConcurrentHashMap<>();
+		remote = new RemoteHandler(this, null);
+		forwarder = new Forwarder();
+		lock = new ReentrantLock();
+		notFull = lock.newCondition();
+		writer = new FrameWriter(BUFFER_SIZE);
+		writing = ByteBuffer.allocate(BUFFER_SIZE);
+		writing.flip();
+		flushRequested = new AtomicBoolean();
+		sentEvents = new LongAdder();
+		receivedEvents = new LongAdder();
+		undeliverableEvents = new LongAdder();
+		droppedEvents = new LongAdder();
+		sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SEND_TIMEOUT_MILLIS);
+		writes = new LongAdder();
+	}
+
+	/**
+	 * set the time an event waits for the remote side, when more than
+	 * <code>maxPendingBytes</code> are waiting to be sent. When the time 
+	 * is up, the event is dropped and counted by 
+	 * <code>getDroppedEvents()</code>, so a remote side, that doesn't read
+	 * anymore, can't block the local message bus forever. Closing the
+	 * bridge waits up to the same time for the remote side to take the
+	 * rest of the events.
+	 * @param timeout	the time to wait, 0 drops the event at once
+	 * @param unit		the unit of the time
+	 */
+	public void setSendTimeout(long timeout, TimeUnit unit) {
+		Objects.requireNonNull(unit, "You must specify a TimeUnit");
+		if (timeout < 0)
+			throw new IllegalArgumentException(
+					"The send timeout must not be negative");
+		sendTimeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * send the events of the class and all its subclasses, that are posted
+	 * to the local message bus, to the remote message bus. The events are
+	 * also received from the remote message bus.
+	 * @param eventClass	the class of the events to be sent
+	 * @param codec			the codec of the event class
+	 * @param <E>			the class of the events
+	 */
+	public <E extends Event> void forward(Class<E> eventClass,
+			EventCodec<? super E> codec) {
+		receive(eventClass, codec);
+		synchronized (forwardedClasses) {
+			if (forwardedClasses.add(eventClass) && open)
+				messageBus.register(eventClass, forwarder, ListenerType.ANY);
+		}
+	}
+
+	/**
+	 * receive the events of the class from the remote message bus, but
+	 * don't send the local events of this class
+	 * @param eventClass	the class of the events to be received
+	 * @param codec			the codec of the event class
+	 * @param <E>			the class of the events
+	 */
+	public <E extends Event> void receive(Class<E> eventClass,
+			EventCodec<? super E> codec) {
+		Objects.requireNonNull(eventClass, "You must specify an Event class");
+		Objects.requireNonNull(codec, "You must specify an EventCodec");
+		codecs.put(eventClass, codec);
+		codecsByName.put(eventClass.getName(), codec);
+		sentClasses.clear();
+	}
+
+	/**
+	 * make the handler addressable by the remote message bus. Events
+	 * targeting the remote handler with this name on the remote side are
+	 * delivered to the handler. Events sent by the handler have the remote
+	 * handler with this name as their source on the remote side.
+	 * @param name		the name of the handler, unique for this bridge
+	 * @param handler	the local handler
+	 */
+	public void export(String name, EventHandler handler) {
+		Objects.requireNonNull(name, "You must specify a name");
+		Objects.requireNonNull(handler, "You must export a non-null EventHandler");
+		synchronized (exportNames) {
+			EventHandler previous = exports.put(name, handler);
+			if (previous != null)
+				exportNames.remove(previous);
+			exportNames.put(handler, name);
+		}
+	}
+
+	/**
+	 * get the handler standing for the handler exported with the name by
+	 * the remote bridge
+	 * @param name	the name of the remote handler
+	 * @return		the remote handler
+	 */
+	public RemoteHandler getRemoteHandler(String name) {
+		Objects.requireNonNull(name, "You must specify a name");
+		return remoteHandlers.computeIfAbsent(name,
+				n -> new RemoteHandler(this, n));
+	}
+
+	/**
+	 * get the handler standing for the remote message bus itself
+	 * @return	the remote handler without name
+	 */
+	public RemoteHandler getRemote() {
+		return remote;
+	}
+
+	/**
+	 * connect to the remote bridge listening at the address and start
+	 * exchanging events
+	 * @param address	the address of the remote bridge, an
+	 * <code>InetSocketAddress</code> or a <code>UnixDomainSocketAddress</code>
+	 * @throws IOException	if the connection fails
+	 * @throws IllegalStateException	if the bridge has been started before
+	 */
+	public void connect(SocketAddress address) throws IOException {
+		Objects.requireNonNull(address, "You must specify an address");
+		SocketChannel sc = address instanceof InetSocketAddress
+				? SocketChannel.open()
+				: (SocketChannel) openUnixChannel(SocketChannel.class);
+		try {
+			sc.connect(address);
+			start(sc);
+		} catch (IOException | RuntimeException e) {
+			sc.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * wait for the remote bridge to connect to the address and start
+	 * exchanging events. Only a single connection is accepted. A Unix
+	 * domain socket file must not exist yet.
+	 * @param address	the local address to listen at, an
+	 * <code>InetSocketAddress</code> or a <code>UnixDomainSocketAddress</code>
+	 * @throws IOException	if listening or accepting fails
+	 * @throws IllegalStateException	if the bridge has been started before
+	 */
+	public void accept(SocketAddress address) throws IOException {
+		accept(bind(address));
+	}
+
+	/**
+	 * wait for the remote bridge to connect to the server channel and
+	 * start exchanging events. Only a single connection is accepted, the
+	 * server channel is closed afterwards. Use this, if the address must
+	 * be known before accepting, e.g. after binding to an ephemeral port.
+	 * @param server	the bound server channel
+	 * @throws IOException	if accepting fails
+	 * @throws IllegalStateException	if the bridge has been started before
+	 */
+	public void accept(ServerSocketChannel server) throws IOException {
+		Objects.requireNonNull(server, "You must specify a server channel");
+		try (ServerSocketChannel s = server) {
+			SocketChannel sc = s.accept();
+			try {
+				start(sc);
+			} catch (IOException | RuntimeException e) {
+				sc.close();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * open a server channel bound to the address
+	 * @param address	the local address to listen at, an
+	 * <code>InetSocketAddress</code> or a <code>UnixDomainSocketAddress</code>
+	 * @return			the bound server channel
+	 * @throws IOException	if binding fails
+	 */
+	public static ServerSocketChannel bind(SocketAddress address)
+			throws IOException {
+		Objects.requireNonNull(address, "You must specify an address");
+		ServerSocketChannel server = address instanceof InetSocketAddress
+				? ServerSocketChannel.open()
+				: (ServerSocketChannel) openUnixChannel(ServerSocketChannel.class);
+		try {
+			server.bind(address);
+		} catch (IOException | RuntimeException e) {
+			server.close();
+			throw e;
+		}
+		return server;
+	}
+
+	/**
+	 * open a channel for Unix domain sockets. The methods are looked up at
+	 * runtime, so the bridge still runs on older Java versions as long as
+	 * Unix domain sockets are not used.
+	 * @param channelClass	the class of the channel to open
+	 * @return				the channel
+	 * @throws IOException	if opening the channel fails
+	 */
+	private static Object openUnixChannel(Class<?> channelClass)
+			throws IOException {
+		try {
+			ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+			return channelClass.getMethod("open", ProtocolFamily.class)
+					.invoke(null, unix);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} catch (IllegalArgumentException | ReflectiveOperationException e) {
+			throw new UnsupportedOperationException(
+					"Unix domain sockets need Java 16 or later", e);
+		}
+	}
+
+	/**
+	 * start the I/O thread for the connected channel and register the
+	 * bridge to the message bus
+	 * @param sc	the connected channel
+	 * @throws IOException	if configuring the channel fails
+	 */
+	private synchronized void start(SocketChannel sc) throws IOException {
+		if (channel != null || closed)
+			throw new IllegalStateException("The bridge has been started before");
+		sc.configureBlocking(false);
+		if (sc.getRemoteAddress() instanceof InetSocketAddress)
+			// the bridge batches the events itself
+			sc.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+		Selector sel = Selector.open();
+		key = sc.register(sel, SelectionKey.OP_READ);
+		channel = sc;
+		selector = sel;
+		synchronized (forwardedClasses) {
+			open = true;
+			for (Class<? extends Event> eventClass : forwardedClasses)
+				messageBus.register(eventClass, forwarder, ListenerType.ANY);
+		}
+		Thread t = new Thread(this::runIo,
+				"Fiddler-Bridge-" + BRIDGE_NUMBER.incrementAndGet());
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * close the connection. The events sent so far are still written to the
+	 * remote side, as long as it takes them within the send timeout.
+	 */
+	public void close() {
+		synchronized (forwardedClasses) {
+			if (closed)
+				return;
+			closed = true;
+			open = false;
+			for (Class<? extends Event> eventClass : forwardedClasses)
+				messageBus.unregister(eventClass, forwarder);
+		}
+		lock.lock();
+		try {
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		Selector sel = selector;
+		if (sel != null)
+			sel.wakeup();
+	}
+
+	/**
+	 * check if the bridge is connected and exchanging events
+	 * @return	true, if the bridge is open
+	 */
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * get the number of events sent to the remote message bus
+	 * @return	the number of sent events
+	 */
+	public long getSentEvents() {
+		return sentEvents.sum();
+	}
+
+	/**
+	 * get the number of events received from the remote message bus and
+	 * posted to the local message bus
+	 * @return	the number of received events
+	 */
+	public long getReceivedEvents() {
+		return receivedEvents.sum();
+	}
+
+	/**
+	 * get the number of received events, which couldn't be delivered,
+	 * because there is no codec for their class, their target isn't
+	 * exported, decoding failed or the local message bus rejected them
+	 * @return	the number of undeliverable events
+	 */
+	public long getUndeliverableEvents() {
+		return undeliverableEvents.sum();
+	}
+
+	/**
+	 * get the number of events, which haven't been sent, because the
+	 * remote side didn't take the pending bytes within the send timeout
+	 * @return	the number of dropped events
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.sum();
+	}
+
+	/**
+	 * get the number of writes to the connection. Compared to the number
+	 * of sent events, this shows how many events are sent at once.
+	 * @return	the number of writes
+	 */
+	public long getWrites() {
+		return writes.sum();
+	}
+
+	/**
+	 * write an event into the buffer and wake up the I/O thread, if it
+	 * isn't woken up already. If the buffer is full, the event waits up to
+	 * the send timeout for the I/O thread and is dropped afterwards.
+	 * @param ev	the event to be sent
+	 */
+	private void send(Event ev) {
+		EventHandler source = ev.getSource();
+		if (source instanceof RemoteHandler
+				&& ((RemoteHandler) source).getBridge() == this)
+			return;
+		EventHandler target = ev.getTarget();
+		String targetName = null;
+		if (target != null) {
+			if (!(target instanceof RemoteHandler)
+					|| ((RemoteHandler) target).getBridge() != this)
+				return;
+			targetName = ((RemoteHandler) target).getName();
+		}
+		Class<?> eventClass = sentClassOf(ev.getClass());
+		if (eventClass == null)
+			return;
+		@SuppressWarnings("unchecked")
+		EventCodec<Event> codec = (EventCodec<Event>) codecs.get(eventClass);
+		String sourceName;
+		synchronized (exportNames) {
+			sourceName = exportNames.get(source);
+		}
+		lock.lock();
+		try {
+			long nanos = sendTimeoutNanos;
+			while (open && writer.size() >= maxPendingBytes) {
+				if (nanos <= 0) {
+					droppedEvents.increment();
+					return;
+				}
+				try {
+					nanos = notFull.awaitNanos(nanos);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					droppedEvents.increment();
+					return;
+				}
+			}
+			if (!open)
+				return;
+			writer.writeEvent(ev, eventClass, codec, sourceName, targetName);
+			sentEvents.increment();
+		} finally {
+			lock.unlock();
+		}
+		if (!flushRequested.get() && flushRequested.compareAndSet(false, true))
+			selector.wakeup();
+	}
+
+	/**
+	 * get the event class or its nearest superclass, that has a codec. The
+	 * name of this class is sent, as the remote bridge only knows the codecs
+	 * of the classes registered there, not of their subclasses.
+	 * @param eventClass	the class of the event
+	 * @return				the class with the codec, null if there is none
+	 */
+	private Class<?> sentClassOf(Class<?> eventClass) {
+		Class<?> sent = sentClasses.get(eventClass);
+		if (sent != null)
+			return sent;
+		for (Class<?> c = eventClass; c != null; c = c.getSuperclass()) {
+			if (codecs.containsKey(c)) {
+				sentClasses.put(eventClass, c);
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * get the codec of a received event class
+	 * @param className	the name of the event class
+	 * @return			the codec, null if the class isn't received
+	 */
+	EventCodec<?> codecOf(String className) {
+		return codecsByName.get(className);
+	}
+
+	/**
+	 * get the exported handler
+	 * @param name	the name of the handler
+	 * @return		the handler, null if no handler is exported with this name
+	 */
+	EventHandler exportedHandler(String name) {
+		return exports.get(name);
+	}
+
+	/**
+	 * post a received event to the local message bus
+	 * @param ev	the received event
+	 */
+	void received(Event ev) {
+		if (messageBus.postEvent(ev))
+			receivedEvents.increment();
+		else
+			undeliverableEvents.increment();
+	}
+
+	/**
+	 * count a received event, which can't be delivered
+	 */
+	void undeliverable() {
+		undeliverableEvents.increment();
+	}
+
+	/**
+	 * the I/O thread reads the frames and writes the buffered events until
+	 * the bridge is closed. Errors of the connection, that happen after 
+	 * the bridge has been closed, are part of closing it and not passed
+	 * to the uncaught exception handler.
+	 */
+	private void runIo() {
+		FrameReader reader = new FrameReader(this, BUFFER_SIZE);
+		boolean remoteClosed = false;
+		try {
+			while (open) {
+				selector.select();
+				if (key.isValid() && key.isReadable()
+						&& !selector.selectedKeys().isEmpty()
+						&& reader.read(channel) < 0) {
+					remoteClosed = true;
+					close();
+				}
+				selector.selectedKeys().clear();
+				flushRequested.set(false);
+				if (open)
+					write();
+			}
+			// nobody reads the rest, if the remote side is gone
+			if (!remoteClosed)
+				finishWriting();
+		} catch (IOException | RuntimeException e) {
+			boolean closing = closed;
+			close();
+			if (!closing || !(e instanceof IOException)) {
+				Thread t = Thread.currentThread();
+				t.getUncaughtExceptionHandler().uncaughtException(t, e);
+			}
+		} finally {
+			try {
+				selector.close();
+				channel.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	/**
+	 * write the buffered events, until the connection doesn't take more
+	 * bytes. If bytes are left, the I/O thread is woken up as soon as the
+	 * connection takes more bytes.
+	 * @throws IOException	if writing fails
+	 */
+	private void write() throws IOException {
+		while (true) {
+			if (!writing.hasRemaining() && !takeFrames()) {
+				key.interestOps(SelectionKey.OP_READ);
+				return;
+			}
+			channel.write(writing);
+			writes.increment();
+			if (writing.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * take the frames written so far for writing them to the connection
+	 * @return	true, if there are frames to be written
+	 */
+	private boolean takeFrames() {
+		lock.lock();
+		try {
+			if (writer.size() == 0)
+				return false;
+			writing = writer.swap(writing);
+			notFull.signalAll();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * write the rest of the buffered events after the bridge is closed. 
+	 * The remote side gets up to the send timeout to take them, the rest
+	 * is dropped. If the remote side closes the connection meanwhile, 
+	 * nobody reads the rest either.
+	 * @throws IOException	if waiting for the connection fails
+	 */
+	private void finishWriting() throws IOException {
+		long deadline = System.nanoTime() + sendTimeoutNanos;
+		key.interestOps(SelectionKey.OP_WRITE);
+		try {
+			while (writing.hasRemaining() || takeFrames()) {
+				channel.write(writing);
+				if (!writing.hasRemaining())
+					continue;
+				long nanos = deadline - System.nanoTime();
+				if (nanos <= 0)
+					return;
+				selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos)));
+				selector.selectedKeys().clear();
+			}
+		} catch (IOException e) {
+			// the remote side closed the connection at the same time
+		}
+	}
+
+	/**
+	 * The forwarder is registered to the local message bus for the
+	 * forwarded event classes and sends their events.
+	 *
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private final class Forwarder implements EventHandler {
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			send(event);
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			close();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.bridge;
+
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+
+/**
+ * The RemoteHandler stands for a handler of the message bus on the other
+ * side of a <code>MessageBusBridge</code>. Use it as the target of events
+ * to send them to the handler exported with the same name by the remote
+ * bridge, just like any other target. Events received from the remote 
+ * message bus have a RemoteHandler as their source, so a handler may 
+ * answer them by using the source as target.
+ * <p>
+ * The RemoteHandler itself doesn't handle any events, the events 
+ * targeting it are taken by the bridge, if their class is forwarded. So
+ * there is no need to register it to the message bus.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class RemoteHandler implements EventHandler {
+	private final MessageBusBridge bridge;
+	private final String name;
+
+	/**
+	 * Create the remote handler
+	 * @param bridge	the bridge connected to the remote message bus
+	 * @param name		the name of the remote handler, null for the remote
+	 * message bus itself
+	 */
+	RemoteHandler(MessageBusBridge bridge, String name) {
+		this.bridge = bridge;
+		this.name = name;
+	}
+
+	/**
+	 * get the name the remote handler is exported with
+	 * @return	the name, null if this stands for the remote message bus
+	 * itself
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * get the bridge connected to the remote message bus
+	 * @return	the bridge
+	 */
+	public MessageBusBridge getBridge() {
+		return bridge;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+	 */
+	@Override
+	public void handle(Event event) {
+		// the events are sent by the bridge
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+	 */
+	@Override
+	public void shutdown() {
+		// the remote handler is shut down by its own message bus
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RemoteHandler[" + (name == null ? "*" : name) + "]";
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import com.github.koshamo.fiddler.DataEvent;
+import com.github.koshamo.fiddler.EventHandler;
+
+/**
+ * The BufferDataEvent is a <code>DataEvent</code>, whose data is a 
+ * read-only <code>ByteBuffer</code>, e.g. a part of the buffer a message 
+ * has been read into. The bytes are not copied, the receivers decode them
+ * when they need them:
+ * <pre>
+ * {@code
+ * class QuoteEvent extends BufferDataEvent<String> {
+ * 	QuoteEvent(EventHandler source, EventHandler target, String meta, ByteBuffer data) {
+ * 		super(source, target, meta, data);
+ * 	}
+ * }
+ * 
+ * // the producer passes the bytes read
+ * messageBus.postEvent(new QuoteEvent(this, null, "EURUSD", buffer));
+ * // the handler decodes them
+ * double[] quotes = event.decode(PayloadCodecs.DOUBLES);
+ * }
+ * </pre>
+ * The event keeps a read-only view of the remaining bytes of the given
+ * buffer, so the producer must not change these bytes afterwards. Every
+ * call of <code>getData()</code> returns a view of its own, so the 
+ * receivers don't disturb each other.
+ * <p>
+ * To send the event to another message bus, register a 
+ * <code>DataEventCodec</code> with <code>PayloadCodecs.BYTE_BUFFER</code>
+ * for the data, which copies the bytes once.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ * @param <M>	the type of the meta information
+ */
+public abstract class BufferDataEvent<M> extends DataEvent<M, ByteBuffer> {
+	private volatile Decoded decoded;
+
+	/**
+	 * The constructor must be called by any subclass. Source must be 
+	 * provided, target may be null.
+	 * 
+	 * @param source	the sender of this event
+	 * @param target	the target of this event, may be null
+	 * @param meta		the meta data for this event
+	 * @param data		the bytes of this event, from the position to the
+	 * limit of the buffer
+	 */
+	public BufferDataEvent(EventHandler source, EventHandler target, M meta,
+			ByteBuffer data) {
+		super(source, target, meta, readOnlyView(data));
+	}
+
+	/**
+	 * create a read-only view of the remaining bytes of the buffer
+	 * @param data	the buffer
+	 * @return		the view
+	 */
+	private static ByteBuffer readOnlyView(ByteBuffer data) {
+		Objects.requireNonNull(data, "You must specify a ByteBuffer");
+		return data.slice().asReadOnlyBuffer().order(data.order());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.DataEvent#getData()
+	 */
+	@Override
+	public ByteBuffer getData() {
+		ByteBuffer data = super.getData();
+		return data.duplicate().order(data.order());
+	}
+
+	/**
+	 * get the number of bytes of this event
+	 * @return	the number of bytes
+	 */
+	public int getSize() {
+		return super.getData().remaining();
+	}
+
+	/**
+	 * decode the bytes of this event. The value is decoded once and then
+	 * shared by all receivers decoding it with the same codec, so it must
+	 * not be changed.
+	 * @param codec	the codec of the value
+	 * @param <T>	the type of the value
+	 * @return		the value
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T decode(PayloadCodec<T> codec) {
+		Objects.requireNonNull(codec, "You must specify a PayloadCodec");
+		Decoded current = decoded;
+		if (current != null && current.codec == codec)
+			return (T) current.value;
+		T value = codec.decode(getData());
+		decoded = new Decoded(codec, value);
+		return value;
+	}
+
+	/**
+	 * A value decoded from the bytes of the event
+	 *
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class Decoded {
+		final PayloadCodec<?> codec;
+		final Object value;
+
+		/**
+		 * Create the decoded value
+		 * @param codec	the codec, that decoded the value
+		 * @param value	the value
+		 */
+		Decoded(PayloadCodec<?> codec, Object value) {
+			this.codec = codec;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.codec;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.koshamo.fiddler.DataEvent;
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.RequestEvent;
+import com.github.koshamo.fiddler.bridge.EventCodec;
+
+/**
+ * The CodecRegistry holds the <code>EventCodec</code>s of the event 
+ * classes of an application, so the codecs are defined in a single place
+ * and handed to the transports from there:
+ * <pre>
+ * CodecRegistry codecs = new CodecRegistry();
+ * codecs.registerData(BatteryLoadEvent.class, PayloadCodecs.STRING, 
+ * 		PayloadCodecs.INTEGER, BatteryLoadEvent::new);
+ * bridge.forward(BatteryLoadEvent.class, 
+ * 		codecs.require(BatteryLoadEvent.class));
+ * journal.record(BatteryLoadEvent.class, 1, 
+ * 		codecs.require(BatteryLoadEvent.class));
+ * </pre>
+ * The codec of a class is used for its subclasses, too, unless they have
+ * a codec of their own. Registering and looking up codecs is thread safe.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class CodecRegistry {
+	private final Map<Class<?>, EventCodec<?>> codecs;
+	private final Map<Class<?>, EventCodec<?>> resolved;
+
+	/**
+	 * Create an empty registry
+	 */
+	public CodecRegistry() {
+		codecs = new ConcurrentHashMap<>();
+		resolved = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * register the codec of an event class
+	 * @param eventClass	the class of the events
+	 * @param codec			the codec of the class
+	 * @param <E>			the class of the events
+	 */
+	public <E extends Event> void register(Class<E> eventClass, 
+			EventCodec<? super E> codec) {
+		Objects.requireNonNull(eventClass, "You must specify an Event class");
+		Objects.requireNonNull(codec, "You must specify an EventCodec");
+		codecs.put(eventClass, codec);
+		resolved.clear();
+	}
+
+	/**
+	 * register the codec of a data event class, which is combined of the
+	 * codecs of the meta information and of the data
+	 * @param eventClass	the class of the events
+	 * @param metaCodec		the codec of the meta information
+	 * @param dataCodec		the codec of the data
+	 * @param factory		creates the decoded events
+	 * @param <E>			the class of the events
+	 * @param <M>			the type of the meta information
+	 * @param <T>			the type of the data
+	 */
+	public <E extends DataEvent<M, T>, M, T> void registerData(
+			Class<E> eventClass, PayloadCodec<M> metaCodec, 
+			PayloadCodec<T> dataCodec, 
+			DataEventCodec.Factory<? extends E, ? super M, ? super T> factory) {
+		register(eventClass, 
+				new DataEventCodec<E, M, T>(metaCodec, dataCodec, factory));
+	}
+
+	/**
+	 * register the codec of a request event class, which writes the meta
+	 * information
+	 * @param eventClass	the class of the events
+	 * @param metaCodec		the codec of the meta information
+	 * @param factory		creates the decoded events
+	 * @param <E>			the class of the events
+	 * @param <M>			the type of the meta information
+	 */
+	public <E extends RequestEvent<M>, M> void registerRequest(
+			Class<E> eventClass, PayloadCodec<M> metaCodec, 
+			RequestEventCodec.Factory<? extends E, ? super M> factory) {
+		register(eventClass, 
+				new RequestEventCodec<E, M>(metaCodec, factory));
+	}
+
+	/**
+	 * get the codec of the event class or of its nearest superclass
+	 * @param eventClass	the class of the events
+	 * @param <E>			the class of the events
+	 * @return				the codec, null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public <E extends Event> EventCodec<? super E> codecOf(
+			Class<E> eventClass) {
+		Objects.requireNonNull(eventClass, "You must specify an Event class");
+		EventCodec<?> codec = resolved.get(eventClass);
+		if (codec == null) {
+			for (Class<?> c = eventClass; codec == null && c != null; 
+					c = c.getSuperclass())
+				codec = codecs.get(c);
+			if (codec != null)
+				resolved.put(eventClass, codec);
+		}
+		return (EventCodec<? super E>) codec;
+	}
+
+	/**
+	 * get the codec of the event class or of its nearest superclass
+	 * @param eventClass	the class of the events
+	 * @param <E>			the class of the events
+	 * @return				the codec
+	 * @throws IllegalArgumentException	if there is no codec for the class
+	 */
+	public <E extends Event> EventCodec<? super E> require(
+			Class<E> eventClass) {
+		EventCodec<? super E> codec = codecOf(eventClass);
+		if (codec == null)
+			throw new IllegalArgumentException("There is no codec for " 
+					+ eventClass.getName());
+		return codec;
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import com.github.koshamo.fiddler.DataEvent;
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.bridge.EventCodec;
+
+/**
+ * The DataEventCodec is the <code>EventCodec</code> of a data event class,
+ * which writes the meta information and the data of an event using a 
+ * <code>PayloadCodec</code> for each of them. The decoded events are 
+ * created by a factory, usually the constructor of the class:
+ * <pre>
+ * EventCodec&lt;BatteryLoadEvent&gt; codec = new DataEventCodec&lt;&gt;(
+ * 		PayloadCodecs.STRING, PayloadCodecs.INTEGER, BatteryLoadEvent::new);
+ * </pre>
+ *
+ * @author Dr. Jochen Raßler
+ *
+ * @param <E>	the class of the events
+ * @param <M>	the type of the meta information
+ * @param <T>	the type of the data
+ */
+public final class DataEventCodec<E extends DataEvent<M, T>, M, T> 
+		implements EventCodec<E> {
+
+	/**
+	 * The Factory creates the decoded data events
+	 *
+	 * @author Dr. Jochen Raßler
+	 *
+	 * @param <E>	the class of the events
+	 * @param <M>	the type of the meta information
+	 * @param <T>	the type of the data
+	 */
+	@FunctionalInterface
+	public interface Factory<E, M, T> {
+		/**
+		 * create the event
+		 * @param source	the source of the event
+		 * @param target	the target of the event, may be null
+		 * @param meta		the meta information
+		 * @param data		the data
+		 * @return			the event
+		 */
+		E create(EventHandler source, EventHandler target, M meta, T data);
+	}
+
+	private final PayloadCodec<M> metaCodec;
+	private final PayloadCodec<T> dataCodec;
+	private final Factory<? extends E, ? super M, ? super T> factory;
+
+	/**
+	 * Create the codec
+	 * @param metaCodec	the codec of the meta information
+	 * @param dataCodec	the codec of the data
+	 * @param factory	creates the decoded events
+	 */
+	public DataEventCodec(PayloadCodec<M> metaCodec, PayloadCodec<T> dataCodec,
+			Factory<? extends E, ? super M, ? super T> factory) {
+		Objects.requireNonNull(metaCodec, "You must specify a meta PayloadCodec");
+		Objects.requireNonNull(dataCodec, "You must specify a data PayloadCodec");
+		Objects.requireNonNull(factory, "You must specify a Factory");
+		this.metaCodec = metaCodec;
+		this.dataCodec = dataCodec;
+		this.factory = factory;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.bridge.EventCodec#encode(com.github.koshamo.fiddler.Event, java.nio.ByteBuffer)
+	 */
+	@Override
+	public void encode(E event, ByteBuffer buffer) {
+		metaCodec.encode(event.getMetaInformation(), buffer);
+		dataCodec.encode(event.getData(), buffer);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.bridge.EventCodec#decode(com.github.koshamo.fiddler.EventHandler, com.github.koshamo.fiddler.EventHandler, java.nio.ByteBuffer)
+	 */
+	@Override
+	public E decode(EventHandler source, EventHandler target, 
+			ByteBuffer buffer) {
+		M meta = metaCodec.decode(buffer);
+		T data = dataCodec.decode(buffer);
+		return factory.create(source, target, meta, data);
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The PayloadCodec converts the values of a type, e.g. the meta 
+ * information or the data of a <code>DataEvent</code>, to bytes and back.
+ * <code>PayloadCodecs</code> has codecs for the primitive types, strings,
+ * arrays and the vectors and matrices of Commons Math. A 
+ * <code>DataEventCodec</code> combines the codecs of the meta information
+ * and of the data to the codec of a data event class:
+ * <pre>
+ * new DataEventCodec&lt;&gt;(PayloadCodecs.STRING, PayloadCodecs.INTEGER,
+ * 		BatteryLoadEvent::new);
+ * </pre>
+ * The codec must read exactly the bytes it has written, as the values of
+ * an event follow each other without any length in between.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ * @param <T>	the type of the values
+ */
+public interface PayloadCodec<T> {
+	/**
+	 * write the value to the buffer. If the buffer is too small, the codec
+	 * may just let the buffer throw the 
+	 * <code>BufferOverflowException</code>: the caller then calls the codec
+	 * again with a larger buffer.
+	 * @param value		the value to be written
+	 * @param buffer	the buffer to write to, starting at its position
+	 */
+	void encode(T value, ByteBuffer buffer);
+
+	/**
+	 * read the value from the buffer, starting at its position. The 
+	 * position is moved behind the bytes of the value.
+	 * @param buffer	the buffer to read from
+	 * @return			the value
+	 */
+	T decode(ByteBuffer buffer);
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * The PayloadCodecs class holds the <code>PayloadCodec</code>s for the 
+ * common types of meta information and data. They write the values as 
+ * fixed size binary numbers in the byte order of the buffer, arrays and 
+ * strings with their length in front, so they are much faster and more 
+ * compact than Java serialization. Arrays, vectors and matrices are 
+ * copied as a whole.
+ * <p>
+ * None of these codecs accepts null values, wrap them by 
+ * <code>nullable(PayloadCodec)</code> if a value may be null.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class PayloadCodecs {
+	/** the codec for Boolean values, written as a single byte */
+	public static final PayloadCodec<Boolean> BOOLEAN = of(
+			(v, b) -> b.put(v.booleanValue() ? (byte) 1 : (byte) 0),
+			b -> Boolean.valueOf(b.get() != 0));
+	/** the codec for Byte values */
+	public static final PayloadCodec<Byte> BYTE = of(
+			(v, b) -> b.put(v.byteValue()),
+			b -> Byte.valueOf(b.get()));
+	/** the codec for Short values */
+	public static final PayloadCodec<Short> SHORT = of(
+			(v, b) -> b.putShort(v.shortValue()),
+			b -> Short.valueOf(b.getShort()));
+	/** the codec for Character values */
+	public static final PayloadCodec<Character> CHARACTER = of(
+			(v, b) -> b.putChar(v.charValue()),
+			b -> Character.valueOf(b.getChar()));
+	/** the codec for Integer values */
+	public static final PayloadCodec<Integer> INTEGER = of(
+			(v, b) -> b.putInt(v.intValue()),
+			b -> Integer.valueOf(b.getInt()));
+	/** the codec for Long values */
+	public static final PayloadCodec<Long> LONG = of(
+			(v, b) -> b.putLong(v.longValue()),
+			b -> Long.valueOf(b.getLong()));
+	/** the codec for Float values */
+	public static final PayloadCodec<Float> FLOAT = of(
+			(v, b) -> b.putFloat(v.floatValue()),
+			b -> Float.valueOf(b.getFloat()));
+	/** the codec for Double values */
+	public static final PayloadCodec<Double> DOUBLE = of(
+			(v, b) -> b.putDouble(v.doubleValue()),
+			b -> Double.valueOf(b.getDouble()));
+	/** the codec for strings, written in UTF-8 */
+	public static final PayloadCodec<String> STRING = of(
+			PayloadCodecs::putString, PayloadCodecs::getString);
+	/** the codec for byte arrays */
+	public static final PayloadCodec<byte[]> BYTES = of(
+			PayloadCodecs::putBytes, PayloadCodecs::getBytes);
+	/** the codec for int arrays */
+	public static final PayloadCodec<int[]> INTS = of(
+			PayloadCodecs::putInts, PayloadCodecs::getInts);
+	/** the codec for long arrays */
+	public static final PayloadCodec<long[]> LONGS = of(
+			PayloadCodecs::putLongs, PayloadCodecs::getLongs);
+	/** the codec for double arrays */
+	public static final PayloadCodec<double[]> DOUBLES = of(
+			PayloadCodecs::putDoubles, PayloadCodecs::getDoubles);
+	/** 
+	 * the codec for the remaining bytes of a buffer, which are read into a
+	 * new buffer, e.g. the data of a <code>BufferDataEvent</code>
+	 */
+	public static final PayloadCodec<ByteBuffer> BYTE_BUFFER = of(
+			PayloadCodecs::putBuffer, PayloadCodecs::getBuffer);
+	/** 
+	 * the codec for vectors of Commons Math, which are read as 
+	 * <code>ArrayRealVector</code> 
+	 */
+	public static final PayloadCodec<RealVector> REAL_VECTOR = of(
+			PayloadCodecs::putVector, PayloadCodecs::getVector);
+	/** 
+	 * the codec for matrices of Commons Math, which are read as 
+	 * <code>Array2DRowRealMatrix</code> 
+	 */
+	public static final PayloadCodec<RealMatrix> REAL_MATRIX = of(
+			PayloadCodecs::putMatrix, PayloadCodecs::getMatrix);
+
+	private PayloadCodecs() {
+		// only static members
+	}
+
+	/**
+	 * create a codec from the functions writing and reading a value
+	 * @param encoder	writes the value to the buffer
+	 * @param decoder	reads the value from the buffer
+	 * @param <T>		the type of the values
+	 * @return			the codec
+	 */
+	public static <T> PayloadCodec<T> of(BiConsumer<? super T, ByteBuffer> encoder,
+			Function<ByteBuffer, ? extends T> decoder) {
+		Objects.requireNonNull(encoder, "You must specify an encoder");
+		Objects.requireNonNull(decoder, "You must specify a decoder");
+		return new PayloadCodec<T>() {
+			@Override
+			public void encode(T value, ByteBuffer buffer) {
+				encoder.accept(value, buffer);
+			}
+
+			@Override
+			public T decode(ByteBuffer buffer) {
+				return decoder.apply(buffer);
+			}
+		};
+	}
+
+	/**
+	 * create a codec accepting null values, which writes a byte telling if
+	 * there is a value in front of the value
+	 * @param codec	the codec for the values, which are not null
+	 * @param <T>	the type of the values
+	 * @return		the codec
+	 */
+	public static <T> PayloadCodec<T> nullable(PayloadCodec<T> codec) {
+		Objects.requireNonNull(codec, "You must specify a PayloadCodec");
+		return of((v, b) -> {
+			b.put(v == null ? (byte) 0 : (byte) 1);
+			if (v != null)
+				codec.encode(v, b);
+		}, b -> b.get() == 0 ? null : codec.decode(b));
+	}
+
+	/**
+	 * create a codec for the constants of an enum, which are written by 
+	 * their ordinal number
+	 * @param enumClass	the class of the enum
+	 * @param <E>		the type of the enum
+	 * @return			the codec
+	 */
+	public static <E extends Enum<E>> PayloadCodec<E> ofEnum(Class<E> enumClass) {
+		Objects.requireNonNull(enumClass, "You must specify an enum class");
+		E[] constants = enumClass.getEnumConstants();
+		return of((v, b) -> b.putInt(v.ordinal()), b -> {
+			int ordinal = b.getInt();
+			if (ordinal < 0 || ordinal >= constants.length)
+				throw new IllegalArgumentException("Invalid ordinal " + ordinal 
+						+ " of " + enumClass.getName());
+			return constants[ordinal];
+		});
+	}
+
+	/**
+	 * write a string in UTF-8 with its length in bytes in front. ASCII 
+	 * strings are written without creating a byte array.
+	 * @param value		the string
+	 * @param buffer	the buffer
+	 */
+	private static void putString(String value, ByteBuffer buffer) {
+		int start = buffer.position();
+		int length = value.length();
+		buffer.putInt(length);
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				buffer.position(start);
+				putBytes(value.getBytes(StandardCharsets.UTF_8), buffer);
+				return;
+			}
+			buffer.put((byte) c);
+		}
+	}
+
+	/**
+	 * read a string written by <code>putString()</code>
+	 * @param buffer	the buffer
+	 * @return			the string
+	 */
+	private static String getString(ByteBuffer buffer) {
+		int length = getLength(buffer, 1);
+		String value;
+		if (buffer.hasArray()) {
+			value = new String(buffer.array(), 
+					buffer.arrayOffset() + buffer.position(), length, 
+					StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+
+	/**
+	 * write a byte array with its length in front
+	 * @param value		the array
+	 * @param buffer	the buffer
+	 */
+	private static void putBytes(byte[] value, ByteBuffer buffer) {
+		buffer.putInt(value.length).put(value);
+	}
+
+	/**
+	 * read a byte array written by <code>putBytes()</code>
+	 * @param buffer	the buffer
+	 * @return			the array
+	 */
+	private static byte[] getBytes(ByteBuffer buffer) {
+		byte[] value = new byte[getLength(buffer, 1)];
+		buffer.get(value);
+		return value;
+	}
+
+	/**
+	 * write the remaining bytes of a buffer with their number in front,
+	 * without moving the position of the buffer
+	 * @param value		the buffer to be written
+	 * @param buffer	the buffer
+	 */
+	private static void putBuffer(ByteBuffer value, ByteBuffer buffer) {
+		buffer.putInt(value.remaining()).put(value.duplicate());
+	}
+
+	/**
+	 * read the bytes written by <code>putBuffer()</code> into a new buffer
+	 * @param buffer	the buffer
+	 * @return			the new buffer
+	 */
+	private static ByteBuffer getBuffer(ByteBuffer buffer) {
+		int length = getLength(buffer, 1);
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.limit(bytes.position() + length);
+		buffer.position(buffer.position() + length);
+		ByteBuffer value = ByteBuffer.allocate(length);
+		value.put(bytes);
+		value.flip();
+		return value;
+	}
+
+	/**
+	 * write an int array with its length in front
+	 * @param value		the array
+	 * @param buffer	the buffer
+	 */
+	private static void putInts(int[] value, ByteBuffer buffer) {
+		buffer.putInt(value.length);
+		buffer.asIntBuffer().put(value);
+		buffer.position(buffer.position() + value.length * Integer.BYTES);
+	}
+
+	/**
+	 * read an int array written by <code>putInts()</code>
+	 * @param buffer	the buffer
+	 * @return			the array
+	 */
+	private static int[] getInts(ByteBuffer buffer) {
+		int[] value = new int[getLength(buffer, Integer.BYTES)];
+		buffer.asIntBuffer().get(value);
+		buffer.position(buffer.position() + value.length * Integer.BYTES);
+		return value;
+	}
+
+	/**
+	 * write a long array with its length in front
+	 * @param value		the array
+	 * @param buffer	the buffer
+	 */
+	private static void putLongs(long[] value, ByteBuffer buffer) {
+		buffer.putInt(value.length);
+		buffer.asLongBuffer().put(value);
+		buffer.position(buffer.position() + value.length * Long.BYTES);
+	}
+
+	/**
+	 * read a long array written by <code>putLongs()</code>
+	 * @param buffer	the buffer
+	 * @return			the array
+	 */
+	private static long[] getLongs(ByteBuffer buffer) {
+		long[] value = new long[getLength(buffer, Long.BYTES)];
+		buffer.asLongBuffer().get(value);
+		buffer.position(buffer.position() + value.length * Long.BYTES);
+		return value;
+	}
+
+	/**
+	 * write a double array with its length in front
+	 * @param value		the array
+	 * @param buffer	the buffer
+	 */
+	private static void putDoubles(double[] value, ByteBuffer buffer) {
+		buffer.putInt(value.length);
+		buffer.asDoubleBuffer().put(value);
+		buffer.position(buffer.position() + value.length * Double.BYTES);
+	}
+
+	/**
+	 * read a double array written by <code>putDoubles()</code>
+	 * @param buffer	the buffer
+	 * @return			the array
+	 */
+	private static double[] getDoubles(ByteBuffer buffer) {
+		double[] value = new double[getLength(buffer, Double.BYTES)];
+		buffer.asDoubleBuffer().get(value);
+		buffer.position(buffer.position() + value.length * Double.BYTES);
+		return value;
+	}
+
+	/**
+	 * write a vector as the array of its entries
+	 * @param value		the vector
+	 * @param buffer	the buffer
+	 */
+	private static void putVector(RealVector value, ByteBuffer buffer) {
+		putDoubles(value instanceof ArrayRealVector 
+				? ((ArrayRealVector) value).getDataRef() : value.toArray(), 
+				buffer);
+	}
+
+	/**
+	 * read a vector written by <code>putVector()</code>
+	 * @param buffer	the buffer
+	 * @return			the vector
+	 */
+	private static RealVector getVector(ByteBuffer buffer) {
+		return new ArrayRealVector(getDoubles(buffer), false);
+	}
+
+	/**
+	 * write a matrix as the number of rows and columns followed by the 
+	 * entries row by row
+	 * @param value		the matrix
+	 * @param buffer	the buffer
+	 */
+	private static void putMatrix(RealMatrix value, ByteBuffer buffer) {
+		int rows = value.getRowDimension();
+		int columns = value.getColumnDimension();
+		buffer.putInt(rows).putInt(columns);
+		double[][] data = value instanceof Array2DRowRealMatrix
+				? ((Array2DRowRealMatrix) value).getDataRef() : value.getData();
+		for (double[] row : data) {
+			buffer.asDoubleBuffer().put(row);
+			buffer.position(buffer.position() + columns * Double.BYTES);
+		}
+	}
+
+	/**
+	 * read a matrix written by <code>putMatrix()</code>
+	 * @param buffer	the buffer
+	 * @return			the matrix
+	 */
+	private static RealMatrix getMatrix(ByteBuffer buffer) {
+		int rows = buffer.getInt();
+		int columns = getLength(buffer, Double.BYTES);
+		if (rows < 0 || columns > 0 
+				&& rows > buffer.remaining() / columns / Double.BYTES)
+			throw new IllegalArgumentException("Invalid matrix size " + rows 
+					+ "x" + columns);
+		double[][] data = new double[rows][columns];
+		for (double[] row : data) {
+			buffer.asDoubleBuffer().get(row);
+			buffer.position(buffer.position() + columns * Double.BYTES);
+		}
+		return new Array2DRowRealMatrix(data, false);
+	}
+
+	/**
+	 * read the length of an array and check it against the remaining bytes,
+	 * so a broken buffer doesn't allocate a huge array
+	 * @param buffer		the buffer
+	 * @param elementSize	the size of an element of the array
+	 * @return				the length
+	 */
+	private static int getLength(ByteBuffer buffer, int elementSize) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining() / elementSize)
+			throw new IllegalArgumentException("Invalid length " + length);
+		return length;
+	}
+}
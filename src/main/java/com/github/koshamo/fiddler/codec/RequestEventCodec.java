@@ -0,0 +1,97 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.RequestEvent;
+import com.github.koshamo.fiddler.bridge.EventCodec;
+
+/**
+ * The RequestEventCodec is the <code>EventCodec</code> of a request event
+ * class, which writes the meta information of an event using a 
+ * <code>PayloadCodec</code>. The decoded events are created by a factory, 
+ * usually the constructor of the class:
+ * <pre>
+ * EventCodec&lt;BatteryLoadRequest&gt; codec = new RequestEventCodec&lt;&gt;(
+ * 		PayloadCodecs.STRING, BatteryLoadRequest::new);
+ * </pre>
+ * The correlation ID of a request is not written, as it is only valid for
+ * the message bus the request has been posted to.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ * @param <E>	the class of the events
+ * @param <M>	the type of the meta information
+ */
+public final class RequestEventCodec<E extends RequestEvent<M>, M> 
+		implements EventCodec<E> {
+
+	/**
+	 * The Factory creates the decoded request events
+	 *
+	 * @author Dr. Jochen Raßler
+	 *
+	 * @param <E>	the class of the events
+	 * @param <M>	the type of the meta information
+	 */
+	@FunctionalInterface
+	public interface Factory<E, M> {
+		/**
+		 * create the event
+		 * @param source	the source of the event
+		 * @param target	the target of the event, may be null
+		 * @param meta		the meta information
+		 * @return			the event
+		 */
+		E create(EventHandler source, EventHandler target, M meta);
+	}
+
+	private final PayloadCodec<M> metaCodec;
+	private final Factory<? extends E, ? super M> factory;
+
+	/**
+	 * Create the codec
+	 * @param metaCodec	the codec of the meta information
+	 * @param factory	creates the decoded events
+	 */
+	public RequestEventCodec(PayloadCodec<M> metaCodec, 
+			Factory<? extends E, ? super M> factory) {
+		Objects.requireNonNull(metaCodec, "You must specify a meta PayloadCodec");
+		Objects.requireNonNull(factory, "You must specify a Factory");
+		this.metaCodec = metaCodec;
+		this.factory = factory;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.bridge.EventCodec#encode(com.github.koshamo.fiddler.Event, java.nio.ByteBuffer)
+	 */
+	@Override
+	public void encode(E event, ByteBuffer buffer) {
+		metaCodec.encode(event.getMetaInformation(), buffer);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.bridge.EventCodec#decode(com.github.koshamo.fiddler.EventHandler, com.github.koshamo.fiddler.EventHandler, java.nio.ByteBuffer)
+	 */
+	@Override
+	public E decode(EventHandler source, EventHandler target, 
+			ByteBuffer buffer) {
+		return factory.create(source, target, metaCodec.decode(buffer));
+	}
+}
@@ -58,6 +58,12 @@ import javafx.application.Application;
  * and <code>shutdown()</code>, that come along with <code>EventHandler</code>
  * interface.
  * 
+ * The message bus calls <code>handle(Event event)</code> on its own thread,
+ * but the GUI may only be changed on the Java FX application thread. Instead
+ * of calling <code>Platform.runLater()</code> for every event, register a
+ * <code>FxEventDispatcher</code> for your application, which delivers the
+ * events in batches on the Java FX application thread.
+ * 
  * @author Dr. Jochen Raßler
  *
  */
@@ -0,0 +1,255 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.jfx;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.EventQueue;
+import com.github.koshamo.fiddler.LinkedEventQueue;
+import com.github.koshamo.fiddler.MessageBus;
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+import com.github.koshamo.fiddler.PooledDataEvent;
+
+import javafx.application.Platform;
+
+/**
+ * The FxEventDispatcher delivers events to an <code>EventHandler</code> on
+ * the Java FX application thread, e.g. to your <code>FiddlerFxApp</code>.
+ * <p>
+ * Calling <code>Platform.runLater()</code> for every single event floods 
+ * the Java FX application thread with runnables, if lots of events are 
+ * posted, and the GUI starts to lag. The dispatcher collects the events 
+ * instead and has at most one runnable waiting on the Java FX application
+ * thread, which delivers all events collected so far in one batch. So the
+ * number of runnables stays bounded, no matter how fast events are posted.
+ * <p>
+ * For data events, where only the latest value is shown, create the 
+ * dispatcher with a <code>ConflatingEventQueue</code>. Then events replaced
+ * by newer ones before the next batch are never delivered to the GUI.
+ * <p>
+ * Register the dispatcher instead of the handler. The dispatcher is always
+ * registered with <code>ListenerType.ANY</code> and filters the events by
+ * target itself, as defined by the listener type given to the dispatcher, 
+ * so events targeted at the handler reach it:
+ * <pre>
+ * <code>
+ * // in your FiddlerFxApp
+ * FxEventDispatcher dispatcher = new FxEventDispatcher(this, 
+ * 		ListenerType.TARGET, new ConflatingEventQueue());
+ * dispatcher.register(getMessageBus(), DataEvent.class);
+ * </code>
+ * </pre>
+ * The <code>shutdown()</code> method of the handler is called on the Java
+ * FX application thread, too, after all events collected before have been
+ * delivered. An exception thrown by the handler is passed to the uncaught
+ * exception handler of the Java FX application thread and the next event
+ * is delivered.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class FxEventDispatcher implements EventHandler {
+	/** maximum number of events delivered by one runnable */
+	private static final int BATCH_SIZE = 10000;
+
+	private final EventHandler handler;
+	private final ListenerType type;
+	private final EventQueue pending;
+	private final Executor fxThread;
+	private final AtomicBoolean scheduled;
+	private final AtomicLong deliveredBatches;
+	private final AtomicLong deliveredEvents;
+
+	/**
+	 * Create the dispatcher, that delivers every event
+	 * 
+	 * @param handler	the handler to be called on the Java FX application
+	 * thread
+	 * @param type		the listener type of the handler
+	 */
+	public FxEventDispatcher(EventHandler handler, ListenerType type) {
+		this(handler, type, new LinkedEventQueue());
+	}
+
+	/**
+	 * Create the dispatcher using the given queue for the collected events
+	 * 
+	 * @param handler	the handler to be called on the Java FX application
+	 * thread
+	 * @param type		the listener type of the handler
+	 * @param pending	the queue for the collected events, e.g. a 
+	 * <code>ConflatingEventQueue</code>, must not be used otherwise
+	 */
+	public FxEventDispatcher(EventHandler handler, ListenerType type, 
+			EventQueue pending) {
+		this(handler, type, pending, Platform::runLater);
+	}
+
+	/**
+	 * Create the dispatcher running the batches on the given executor 
+	 * instead of the Java FX application thread, e.g. in tests
+	 * 
+	 * @param handler	the handler to be called on the executor
+	 * @param type		the listener type of the handler
+	 * @param pending	the queue for the collected events
+	 * @param fxThread	the executor running the batches one after the 
+	 * other, like <code>Platform.runLater()</code>
+	 */
+	FxEventDispatcher(EventHandler handler, ListenerType type, 
+			EventQueue pending, Executor fxThread) {
+		Objects.requireNonNull(handler, "You must specify an EventHandler");
+		Objects.requireNonNull(type, "You must specify a ListenerType");
+		Objects.requireNonNull(pending, "You must specify an EventQueue");
+		this.handler = handler;
+		this.type = type;
+		this.pending = pending;
+		this.fxThread = fxThread;
+		scheduled = new AtomicBoolean();
+		deliveredBatches = new AtomicLong();
+		deliveredEvents = new AtomicLong();
+	}
+
+	/**
+	 * register this dispatcher to the message bus for events of the given
+	 * class and its subclasses
+	 * 
+	 * @param messageBus	the message bus
+	 * @param eventClass	the class of the events to listen for
+	 */
+	public void register(MessageBus messageBus, 
+			Class<? extends Event> eventClass) {
+		Objects.requireNonNull(messageBus, "You must specify a MessageBus");
+		messageBus.register(eventClass, this, ListenerType.ANY);
+	}
+
+	/**
+	 * unregister this dispatcher from receiving events of the given class
+	 * 
+	 * @param messageBus	the message bus
+	 * @param eventClass	the class of the events registered to
+	 */
+	public void unregister(MessageBus messageBus, 
+			Class<? extends Event> eventClass) {
+		Objects.requireNonNull(messageBus, "You must specify a MessageBus");
+		messageBus.unregister(eventClass, this);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+	 */
+	@Override
+	public void handle(Event event) {
+		EventHandler target = event.getTarget();
+		if (type == ListenerType.TARGET && target != null 
+				&& target != handler && target != this)
+			return;
+		// the event is delivered after the message bus is done with it
+		if (event instanceof PooledDataEvent)
+			((PooledDataEvent<?, ?>) event).retain();
+		if (!pending.offer(event)) {
+			release(event);
+			return;
+		}
+		if (scheduled.compareAndSet(false, true))
+			fxThread.execute(this::deliver);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+	 */
+	@Override
+	public void shutdown() {
+		fxThread.execute(() -> {
+			while (deliverBatch())
+				;
+			handler.shutdown();
+		});
+	}
+
+	/**
+	 * get the number of events waiting for the next batch
+	 * @return	the number of pending events
+	 */
+	public int getPendingEvents() {
+		return pending.size();
+	}
+
+	/**
+	 * get the number of batches delivered on the Java FX application thread
+	 * @return	the number of batches
+	 */
+	public long getDeliveredBatches() {
+		return deliveredBatches.get();
+	}
+
+	/**
+	 * get the number of events delivered to the handler
+	 * @return	the number of delivered events
+	 */
+	public long getDeliveredEvents() {
+		return deliveredEvents.get();
+	}
+
+	/**
+	 * deliver the collected events on the Java FX application thread. The
+	 * scheduled flag is cleared first, so an event arriving meanwhile 
+	 * schedules the next batch.
+	 */
+	private void deliver() {
+		scheduled.set(false);
+		if (deliverBatch() && scheduled.compareAndSet(false, true))
+			fxThread.execute(this::deliver);
+	}
+
+	/**
+	 * deliver up to <code>BATCH_SIZE</code> collected events to the handler
+	 * @return	true, if there are events left
+	 */
+	private boolean deliverBatch() {
+		int count = 0;
+		Event ev;
+		while (count < BATCH_SIZE && (ev = pending.poll()) != null) {
+			try {
+				handler.handle(ev);
+			} catch (RuntimeException e) {
+				// like the message bus, don't let one event stop the others
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+			}
+			release(ev);
+			count++;
+		}
+		if (count > 0) {
+			deliveredBatches.incrementAndGet();
+			deliveredEvents.addAndGet(count);
+		}
+		return count == BATCH_SIZE;
+	}
+
+	/**
+	 * give a pooled event back, as the dispatcher is done with it
+	 * @param ev	the event
+	 */
+	private static void release(Event ev) {
+		if (ev instanceof PooledDataEvent)
+			((PooledDataEvent<?, ?>) ev).release();
+	}
+}
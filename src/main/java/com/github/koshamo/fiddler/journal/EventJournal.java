@@ -0,0 +1,701 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.EventQueue;
+import com.github.koshamo.fiddler.MessageBus;
+import com.github.koshamo.fiddler.bridge.EventCodec;
+
+/**
+ * The EventJournal appends the events of the recorded classes to a log of
+ * memory mapped segment files, so they survive the end of the Java VM and
+ * can be posted to a message bus again after a restart. The journal is
+ * filled by a <code>JournalingEventQueue</code>, which appends every event
+ * to the journal when it is posted:
+ * <pre>
+ * EventJournal journal = EventJournal.open(Paths.get("journal"));
+ * journal.record(BatteryLoadEvent.class, 1, new BatteryLoadCodec());
+ * MessageBus messageBus = new MessageBus(
+ * 		new JournalingEventQueue(new LinkedEventQueue(), journal),
+ * 		WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+ * // register the handlers, then rebuild their state
+ * journal.replay(messageBus, 0);
+ * </pre>
+ * Every recorded class has a type number, which must stay the same as
+ * long as the journal is used. Only events without target are recorded,
+ * as the targets can't be restored after a restart.
+ * <p>
+ * Appending an event only encodes it right into the mapped segment, which
+ * takes a few hundred nanoseconds for small events. There is no system
+ * call: the journal thread creates the next segment file in advance and
+ * touches all its pages, so the operating system doesn't map a page while
+ * an event is appended. The mapped pages belong to the operating system, so an event is
+ * safe as soon as <code>postEvent()</code> returned, even if the Java VM
+ * exits because of an <code>ExitEvent</code> right afterwards. To survive
+ * a crash of the operating system, the pages must be written to the disk:
+ * the journal thread does this for all events appended since its last run
+ * once every commit interval, so many events share a single write. Call
+ * <code>commit()</code> to write them at once.
+ * <p>
+ * Every record has an offset, which grows with every appended event.
+ * <code>replay(MessageBus, long)</code> posts the recorded events from an
+ * offset on to a message bus and returns the offset to continue with, so
+ * an application may remember, which events it has seen before.
+ * <p>
+ * A journal directory must only be opened once at a time.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class EventJournal {
+	/** the maximum type number of an event class */
+	public static final int MAX_TYPE = 0xffff;
+	/** the default size of a segment file */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+	/** the minimum size of a segment file */
+	public static final int MIN_SEGMENT_SIZE = 4096;
+	/** the default time between two commits in milliseconds */
+	public static final long DEFAULT_COMMIT_INTERVAL = 100;
+
+	private static final int REPLAY_BATCH_SIZE = 1024;
+	private static final long REPLAY_PARK_NANOS = 100_000;
+	private static final AtomicInteger JOURNAL_NUMBER = new AtomicInteger();
+
+	private final Path directory;
+	private final int segmentSize;
+	private final long commitIntervalNanos;
+	private final Map<Class<?>, TypedCodec> codecs;
+	private volatile EventCodec<?>[] decoders;
+	private final ReplaySource replaySource;
+	private final ReentrantLock lock;
+	private final Condition spareReady;
+	private final Object commitLock;
+	private final CRC32 crc;
+	private final List<JournalSegment> uncommitted;
+	private final LongAdder appendedEvents;
+	private final LongAdder cancelledEvents;
+	private final Thread thread;
+	private JournalSegment segment;
+	private JournalSegment previous;
+	private JournalSegment spare;
+	private boolean preparing;
+	private ByteBuffer view;
+	private int position;
+	private volatile long offset;
+	private volatile long committedOffset;
+	private volatile boolean closed;
+
+	/**
+	 * Create the journal appending to the segment
+	 * @param directory				the directory of the journal
+	 * @param segmentSize			the size of new segments
+	 * @param commitIntervalNanos	the time between two commits
+	 * @param segment				the last segment of the journal
+	 * @param position				the position after the last record of
+	 * the segment
+	 */
+	private EventJournal(Path directory, int segmentSize,
+			long commitIntervalNanos, JournalSegment segment, int position) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.commitIntervalNanos = commitIntervalNanos;
+		codecs = new ConcurrentHashMap<>();
+		decoders = new EventCodec<?>[0];
+		replaySource = new ReplaySource();
+		lock = new ReentrantLock();
+		spareReady = lock.newCondition();
+		commitLock = new Object();
+		crc = new CRC32();
+		uncommitted = new ArrayList<>();
+		appendedEvents = new LongAdder();
+		cancelledEvents = new LongAdder();
+		this.segment = segment;
+		view = segment.buffer.duplicate();
+		this.position = position;
+		offset = segment.base + position;
+		committedOffset = offset;
+		thread = new Thread(this::runCommits,
+				"Fiddler-Journal-" + JOURNAL_NUMBER.incrementAndGet());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * open the journal in the directory with the default segment size and
+	 * commit interval. If there is no journal yet, it is created.
+	 * @param directory	the directory of the journal
+	 * @return			the journal
+	 * @throws IOException	if the journal can't be opened
+	 */
+	public static EventJournal open(Path directory) throws IOException {
+		return open(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMMIT_INTERVAL,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * open the journal in the directory. If there is no journal yet, it is
+	 * created. New events are appended to the last segment of an existing
+	 * journal, a record torn by a crash is dropped.
+	 * @param directory			the directory of the journal
+	 * @param segmentSize		the size of new segment files, at least
+	 * <code>MIN_SEGMENT_SIZE</code>
+	 * @param commitInterval	the time between two commits
+	 * @param unit				the time unit of the commit interval
+	 * @return					the journal
+	 * @throws IOException	if the journal can't be opened
+	 */
+	public static EventJournal open(Path directory, int segmentSize,
+			long commitInterval, TimeUnit unit) throws IOException {
+		Objects.requireNonNull(directory, "You must specify a directory");
+		Objects.requireNonNull(unit, "You must specify a TimeUnit");
+		if (segmentSize < MIN_SEGMENT_SIZE)
+			throw new IllegalArgumentException(
+					"The segment size must be at least " + MIN_SEGMENT_SIZE);
+		if (commitInterval < 1)
+			throw new IllegalArgumentException(
+					"The commit interval must be positive");
+		Files.createDirectories(directory);
+		List<Path> files = JournalSegment.list(directory);
+		JournalSegment segment;
+		int position;
+		if (files.isEmpty()) {
+			segment = JournalSegment.create(directory, 0, segmentSize);
+			position = JournalSegment.HEADER_SIZE;
+		} else {
+			segment = JournalSegment.open(files.get(files.size() - 1), true);
+			position = segment.recover(new CRC32());
+		}
+		return new EventJournal(directory, segmentSize,
+				unit.toNanos(commitInterval), segment, position);
+	}
+
+	/**
+	 * record the events of the class and all its subclasses
+	 * @param eventClass	the class of the events to be recorded
+	 * @param type			the type number of the class, between 0 and
+	 * <code>MAX_TYPE</code>
+	 * @param codec			the codec of the event class
+	 * @param <E>			the class of the events
+	 */
+	public synchronized <E extends Event> void record(Class<E> eventClass,
+			int type, EventCodec<? super E> codec) {
+		Objects.requireNonNull(eventClass, "You must specify an Event class");
+		Objects.requireNonNull(codec, "You must specify an EventCodec");
+		if (type < 0 || type > MAX_TYPE)
+			throw new IllegalArgumentException(
+					"The type must be between 0 and " + MAX_TYPE);
+		EventCodec<?>[] newDecoders = decoders.length > type
+				? decoders.clone() : Arrays.copyOf(decoders, type + 1);
+		newDecoders[type] = codec;
+		decoders = newDecoders;
+		codecs.put(eventClass, new TypedCodec(type, codec));
+	}
+
+	/**
+	 * get the offset after the last appended event, where the next event
+	 * is appended
+	 * @return	the offset
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * get the offset up to which the events have been written to the disk
+	 * @return	the committed offset
+	 */
+	public long getCommittedOffset() {
+		return committedOffset;
+	}
+
+	/**
+	 * get the number of events appended since the journal was opened
+	 * @return	the number of events
+	 */
+	public long getAppendedEvents() {
+		return appendedEvents.sum();
+	}
+
+	/**
+	 * get the number of appended events, that have been cancelled, as the
+	 * event queue rejected them
+	 * @return	the number of events
+	 */
+	public long getCancelledEvents() {
+		return cancelledEvents.sum();
+	}
+
+	/**
+	 * get the handler, which is the source of all replayed events. The
+	 * replayed events are never appended to the journal again.
+	 * @return	the replay handler
+	 */
+	public EventHandler getReplaySource() {
+		return replaySource;
+	}
+
+	/**
+	 * append the event to the journal, if its class is recorded
+	 * @param ev	the event to be appended
+	 * @return		the offset of the record, -1 if the event is not recorded
+	 * @throws IllegalArgumentException	if the event is larger than a
+	 * segment
+	 * @throws UncheckedIOException	if the next segment can't be
+	 * created
+	 */
+	long append(Event ev) {
+		TypedCodec codec = codecOf(ev);
+		if (codec == null)
+			return -1;
+		lock.lock();
+		try {
+			if (closed)
+				return -1;
+			while (true) {
+				int start = position + JournalSegment.RECORD_HEADER_SIZE;
+				if (start <= segment.size()) {
+					view.limit(segment.size()).position(start);
+					if (encode(ev, codec.codec))
+						return publish(codec.type);
+				}
+				if (position == JournalSegment.HEADER_SIZE)
+					throw new IllegalArgumentException(
+							"The event is too large for a journal segment");
+				roll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * cancel a record, so it is never replayed
+	 * @param recordOffset	the offset of the record
+	 */
+	void cancel(long recordOffset) {
+		lock.lock();
+		try {
+			JournalSegment s = segmentOf(recordOffset);
+			if (s != null) {
+				s.buffer.putInt((int) (recordOffset - s.base) + 4,
+						JournalSegment.CANCELLED);
+				cancelledEvents.increment();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * append the event to the journal, if its class is recorded, and offer
+	 * it to the queue, before any other event is appended. So the records
+	 * are in the order of the queue, even if several threads post at once.
+	 * If the queue rejects the event, its record is cancelled.
+	 * @param ev		the event to be appended and queued
+	 * @param queue		the queue holding the events until they are
+	 * distributed
+	 * @return			true, if the queue has taken the event
+	 * @throws IllegalArgumentException	if the event is larger than a
+	 * segment
+	 * @throws UncheckedIOException	if the next segment can't be
+	 * created
+	 */
+	boolean offer(Event ev, EventQueue queue) {
+		if (codecOf(ev) == null)
+			return queue.offer(ev);
+		lock.lock();
+		try {
+			long recordOffset = append(ev);
+			if (queue.offer(ev))
+				return true;
+			if (recordOffset >= 0)
+				cancel(recordOffset);
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * append the events of the recorded classes to the journal and offer
+	 * all events to the queue, before any other event is appended. If the
+	 * queue rejects the events, their records are cancelled.
+	 * @param events	the events to be appended and queued in this order
+	 * @param queue		the queue holding the events until they are
+	 * distributed
+	 * @return			true, if the queue has taken the events
+	 * @throws IllegalArgumentException	if an event is larger than a
+	 * segment
+	 * @throws UncheckedIOException	if the next segment can't be
+	 * created
+	 */
+	boolean offerAll(Collection<? extends Event> events, EventQueue queue) {
+		lock.lock();
+		try {
+			long[] offsets = new long[events.size()];
+			int i = 0;
+			for (Event ev : events)
+				offsets[i++] = append(ev);
+			if (queue.offerAll(events))
+				return true;
+			for (long recordOffset : offsets)
+				if (recordOffset >= 0)
+					cancel(recordOffset);
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * write all events appended so far to the disk. This is done by the
+	 * journal thread once every commit interval, too.
+	 */
+	public void commit() {
+		synchronized (commitLock) {
+			long end;
+			List<JournalSegment> segments;
+			lock.lock();
+			try {
+				end = offset;
+				segments = new ArrayList<>(uncommitted);
+				uncommitted.clear();
+				segments.add(segment);
+			} finally {
+				lock.unlock();
+			}
+			if (end == committedOffset)
+				return;
+			for (JournalSegment s : segments)
+				s.buffer.force();
+			committedOffset = end;
+		}
+	}
+
+	/**
+	 * stop appending events and commit the events appended so far
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			if (closed)
+				return;
+			closed = true;
+		} finally {
+			lock.unlock();
+		}
+		LockSupport.unpark(thread);
+		commit();
+	}
+
+	/**
+	 * post the recorded events from the offset on to the message bus. The
+	 * events are posted in batches as fast as the message bus takes them,
+	 * while the event queue is full, the replay waits. Events appended
+	 * while replaying are not replayed. The replayed events have the source
+	 * <code>getReplaySource()</code> and no target. Records of a type
+	 * without codec are skipped.
+	 * @param messageBus	the message bus to post the events to
+	 * @param fromOffset	the offset of the first record to be replayed, 0
+	 * for all records or an offset returned by <code>getOffset()</code> or
+	 * by a previous replay
+	 * @return				the offset after the last replayed record
+	 * @throws IOException	if a segment can't be read
+	 */
+	public long replay(MessageBus messageBus, long fromOffset)
+			throws IOException {
+		Objects.requireNonNull(messageBus, "You must specify a MessageBus");
+		long end = offset;
+		long replayed = fromOffset;
+		CRC32 checksum = new CRC32();
+		List<Event> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+		for (Path file : JournalSegment.list(directory)) {
+			long base = JournalSegment.baseOf(file);
+			if (base >= end)
+				break;
+			if (base + Files.size(file) <= fromOffset)
+				continue;
+			JournalSegment s = JournalSegment.open(file, false);
+			ByteBuffer content = s.buffer.duplicate();
+			int pos = fromOffset > base ? (int) (fromOffset - base)
+					: JournalSegment.HEADER_SIZE;
+			int next;
+			while (s.base + pos < end && (next = s.next(pos, checksum)) > 0) {
+				int type = s.buffer.getInt(pos + 4);
+				content.limit(pos + s.buffer.getInt(pos))
+						.position(pos + JournalSegment.RECORD_HEADER_SIZE);
+				Event ev = decode(type, content);
+				if (ev != null) {
+					batch.add(ev);
+					if (batch.size() == REPLAY_BATCH_SIZE)
+						post(messageBus, batch);
+				}
+				pos = next;
+			}
+			replayed = s.base + pos;
+		}
+		post(messageBus, batch);
+		return replayed;
+	}
+
+	/**
+	 * encode the event into the view of the current segment
+	 * @param ev	the event to be encoded
+	 * @param codec	the codec of the event class
+	 * @return		true, if the event has been encoded, false if it didn't
+	 * fit into the rest of the segment
+	 */
+	private boolean encode(Event ev, EventCodec<Event> codec) {
+		int start = view.position();
+		boolean encoded = false;
+		try {
+			codec.encode(ev, view);
+			encoded = true;
+			return true;
+		} catch (BufferOverflowException e) {
+			return false;
+		} finally {
+			// the journal must end with zeros, so the bytes written by a
+			// failed encode are cleared, whether it overflowed or threw
+			if (!encoded)
+				for (int i = view.position() - 1; i >= start; i--)
+					view.put(i, (byte) 0);
+		}
+	}
+
+	/**
+	 * complete the record of the encoded event. The size of the record is
+	 * written last, which makes it visible to the readers.
+	 * @param type	the type number of the event
+	 * @return		the offset of the record
+	 */
+	private long publish(int type) {
+		int recordLength = view.position() - position;
+		view.limit(view.position())
+				.position(position + JournalSegment.RECORD_HEADER_SIZE);
+		crc.reset();
+		crc.update(view);
+		segment.buffer.putInt(position + 4, type);
+		segment.buffer.putInt(position + 8, (int) crc.getValue());
+		segment.buffer.putInt(position, recordLength);
+		long recordOffset = segment.base + position;
+		position += JournalSegment.recordSize(
+				recordLength - JournalSegment.RECORD_HEADER_SIZE);
+		offset = segment.base + position;
+		appendedEvents.increment();
+		return recordOffset;
+	}
+
+	/**
+	 * continue with the next segment, which is usually prepared by the
+	 * journal thread. The rest of the current segment stays zero, which 
+	 * ends it.
+	 */
+	private void roll() {
+		while (preparing)
+			spareReady.awaitUninterruptibly();
+		JournalSegment next = spare;
+		spare = null;
+		if (next == null) {
+			try {
+				next = JournalSegment.create(directory,
+						segment.base + segment.size(), segmentSize);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		uncommitted.add(segment);
+		previous = segment;
+		segment = next;
+		view = segment.buffer.duplicate();
+		position = JournalSegment.HEADER_SIZE;
+		// let the journal thread prepare the next segment
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * create the segment following the current one in advance, unless it
+	 * exists already. This is done by the journal thread, while the 
+	 * producers keep appending to the current segment.
+	 */
+	private void prepareSpare() {
+		long base;
+		lock.lock();
+		try {
+			if (closed || spare != null)
+				return;
+			base = segment.base + segment.size();
+			preparing = true;
+		} finally {
+			lock.unlock();
+		}
+		JournalSegment next = null;
+		try {
+			next = JournalSegment.create(directory, base, segmentSize);
+		} catch (IOException e) {
+			// the producer tries again when it needs the segment
+			Thread t = Thread.currentThread();
+			t.getUncaughtExceptionHandler().uncaughtException(t, e);
+		} finally {
+			lock.lock();
+			try {
+				spare = next;
+				preparing = false;
+				spareReady.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * find the mapped segment holding the offset
+	 * @param recordOffset	the offset
+	 * @return				the segment, null if it isn't mapped any more
+	 */
+	private JournalSegment segmentOf(long recordOffset) {
+		if (recordOffset >= segment.base)
+			return segment;
+		if (previous != null && recordOffset >= previous.base)
+			return previous;
+		for (JournalSegment s : uncommitted)
+			if (recordOffset >= s.base && recordOffset < s.base + s.size())
+				return s;
+		return null;
+	}
+
+	/**
+	 * decode a record
+	 * @param type		the type number of the record
+	 * @param content	the content of the record
+	 * @return			the event, null if the record is cancelled or can't
+	 * be decoded
+	 */
+	private Event decode(int type, ByteBuffer content) {
+		EventCodec<?>[] current = decoders;
+		if (type < 0 || type >= current.length || current[type] == null)
+			return null;
+		try {
+			return current[type].decode(replaySource, null, content);
+		} catch (RuntimeException e) {
+			Thread t = Thread.currentThread();
+			t.getUncaughtExceptionHandler().uncaughtException(t, e);
+			return null;
+		}
+	}
+
+	/**
+	 * post the batch of replayed events to the message bus, waiting while
+	 * the event queue is full
+	 * @param messageBus	the message bus
+	 * @param batch			the events, cleared afterwards
+	 */
+	private static void post(MessageBus messageBus, List<Event> batch) {
+		if (batch.isEmpty())
+			return;
+		while (!messageBus.postEvents(batch))
+			LockSupport.parkNanos(REPLAY_PARK_NANOS);
+		batch.clear();
+	}
+
+	/**
+	 * get the codec of the event, if it is recorded. Events with a target
+	 * and replayed events are never recorded.
+	 * @param ev	the event
+	 * @return		the codec, null if the event is not recorded
+	 */
+	private TypedCodec codecOf(Event ev) {
+		if (ev.getTarget() != null || ev.getSource() == replaySource)
+			return null;
+		return codecOf(ev.getClass());
+	}
+
+	/**
+	 * get the codec of the event class or of its nearest superclass
+	 * @param eventClass	the class of the event
+	 * @return				the codec, null if there is none
+	 */
+	private TypedCodec codecOf(Class<?> eventClass) {
+		for (Class<?> c = eventClass; c != null; c = c.getSuperclass()) {
+			TypedCodec codec = codecs.get(c);
+			if (codec != null) {
+				if (c != eventClass)
+					codecs.putIfAbsent(eventClass, codec);
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * the journal thread prepares the next segment and commits the 
+	 * appended events once every commit interval until the journal is 
+	 * closed
+	 */
+	private void runCommits() {
+		while (!closed) {
+			prepareSpare();
+			LockSupport.parkNanos(this, commitIntervalNanos);
+			if (!closed)
+				commit();
+		}
+	}
+
+	/**
+	 * A codec with the type number of its event class
+	 *
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class TypedCodec {
+		final int type;
+		final EventCodec<Event> codec;
+
+		/**
+		 * Create the typed codec
+		 * @param type	the type number of the event class
+		 * @param codec	the codec of the event class
+		 */
+		@SuppressWarnings("unchecked")
+		TypedCodec(int type, EventCodec<?> codec) {
+			this.type = type;
+			this.codec = (EventCodec<Event>) codec;
+		}
+	}
+}
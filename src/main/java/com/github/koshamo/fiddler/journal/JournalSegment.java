@@ -0,0 +1,228 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This class is a helper class for the EventJournal class. A segment is a
+ * memory mapped file of the journal holding the records of a range of
+ * offsets. The name of the file is the offset of its first byte, so the
+ * segments are sorted by their names.
+ * <p>
+ * A segment starts with a header of <code>HEADER_SIZE</code> bytes, the
+ * records follow, every record starting at a multiple of 4 bytes:
+ * <ul>
+ * <li>the size of the record including this header as an int, written
+ * last, so a record is complete if its size is not 0
+ * <li>the type of the content as an int, <code>CANCELLED</code> for a
+ * record to be skipped
+ * <li>the CRC32 checksum of the content as an int
+ * <li>the content
+ * </ul>
+ * The first record with the size 0 or a wrong checksum ends the segment.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class JournalSegment {
+	/** the size of the header of a segment */
+	static final int HEADER_SIZE = 8;
+	/** the size of the header of a record */
+	static final int RECORD_HEADER_SIZE = 12;
+	/** the type of a cancelled record */
+	static final int CANCELLED = -1;
+
+	private static final int MAGIC = 0x464a524e;
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".journal";
+	private static final int PAGE_SIZE = 4096;
+
+	final long base;
+	final MappedByteBuffer buffer;
+
+	/**
+	 * Create the segment for the mapped file
+	 * @param base		the offset of the first byte of the segment
+	 * @param buffer	the mapped file
+	 */
+	private JournalSegment(long base, MappedByteBuffer buffer) {
+		this.base = base;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * create a new, empty segment file. All pages of the file are touched,
+	 * so appending to it never waits for the operating system to map a
+	 * page.
+	 * @param directory	the directory of the journal
+	 * @param base		the offset of the first byte of the segment
+	 * @param size		the size of the segment
+	 * @return			the segment
+	 * @throws IOException	if the file can't be created
+	 */
+	static JournalSegment create(Path directory, long base, int size)
+			throws IOException {
+		Path file = directory.resolve(String.format("%019d%s",
+				Long.valueOf(base), SUFFIX));
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			JournalSegment segment = new JournalSegment(base, buffer);
+			segment.pretouch(HEADER_SIZE);
+			return segment;
+		}
+	}
+
+	/**
+	 * map an existing segment file
+	 * @param file		the segment file
+	 * @param writable	true to map the file for writing
+	 * @return			the segment
+	 * @throws IOException	if the file can't be mapped or is no segment
+	 */
+	static JournalSegment open(Path file, boolean writable)
+			throws IOException {
+		try (FileChannel channel = writable
+				? FileChannel.open(file, StandardOpenOption.READ,
+						StandardOpenOption.WRITE)
+				: FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+				throw new IOException("No journal segment: " + file);
+			MappedByteBuffer buffer = channel.map(writable
+					? FileChannel.MapMode.READ_WRITE
+					: FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+				throw new IOException("No journal segment: " + file);
+			return new JournalSegment(baseOf(file), buffer);
+		}
+	}
+
+	/**
+	 * list the segment files of a journal in the order of their offsets
+	 * @param directory	the directory of the journal
+	 * @return			the segment files
+	 * @throws IOException	if the directory can't be read
+	 */
+	static List<Path> list(Path directory) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream =
+				Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : stream)
+				files.add(file);
+		}
+		// the names have a fixed length, so they sort like the offsets
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * get the offset of the first byte of a segment file
+	 * @param file	the segment file
+	 * @return		the offset
+	 */
+	static long baseOf(Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * get the size of the record, aligned to 4 bytes
+	 * @param length	the length of the content
+	 * @return			the size of the record
+	 */
+	static int recordSize(int length) {
+		return (RECORD_HEADER_SIZE + length + 3) & ~3;
+	}
+
+	/**
+	 * get the size of the segment
+	 * @return	the size in bytes
+	 */
+	int size() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * check the record at the position and get the position of the next
+	 * record
+	 * @param position	the position of the record
+	 * @param crc		the checksum to be used
+	 * @return			the position of the next record, -1 if there is no
+	 * valid record at the position
+	 */
+	int next(int position, CRC32 crc) {
+		if (position > size() - RECORD_HEADER_SIZE)
+			return -1;
+		int recordLength = buffer.getInt(position);
+		if (recordLength < RECORD_HEADER_SIZE
+				|| recordLength > size() - position)
+			return -1;
+		ByteBuffer content = buffer.duplicate();
+		content.limit(position + recordLength)
+				.position(position + RECORD_HEADER_SIZE);
+		crc.reset();
+		crc.update(content);
+		if ((int) crc.getValue() != buffer.getInt(position + 8))
+			return -1;
+		return position + recordSize(recordLength - RECORD_HEADER_SIZE);
+	}
+
+	/**
+	 * find the end of the records written so far and zero everything
+	 * behind it, which may be left of a record torn by a crash. The pages
+	 * behind the end are touched for appending.
+	 * @param crc	the checksum to be used
+	 * @return		the position after the last valid record
+	 */
+	int recover(CRC32 crc) {
+		int position = HEADER_SIZE;
+		int next;
+		while ((next = next(position, crc)) > 0)
+			position = next;
+		for (int i = position; i < size(); i++)
+			if (buffer.get(i) != 0)
+				buffer.put(i, (byte) 0);
+		pretouch(position);
+		return position;
+	}
+
+	/**
+	 * write to every page from the position on, so the operating system
+	 * maps them now and not while appending. The bytes must be zero.
+	 * @param position	the position of the first byte to touch
+	 */
+	private void pretouch(int position) {
+		for (int i = position; i < size(); i = (i & ~(PAGE_SIZE - 1)) + PAGE_SIZE)
+			buffer.put(i, (byte) 0);
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.journal;
+
+import java.util.Collection;
+import java.util.Objects;
+
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventQueue;
+
+/**
+ * The JournalingEventQueue is an <code>EventQueue</code>, that appends the
+ * posted events of the recorded classes to an <code>EventJournal</code>
+ * and then passes them on to another queue, which holds them until they 
+ * are distributed. So every event is recorded before 
+ * <code>postEvent()</code> returns, even if it is still queued when the
+ * message bus exits. The events are appended and queued while holding the
+ * lock of the journal, so the records are in the order the events are
+ * distributed, even if several threads post at once.
+ * <p>
+ * If the other queue rejects an event, its record is cancelled, so it is
+ * never replayed. Events dropped by a <code>BoundedEventQueue</code> stay
+ * in the journal, as the message bus treats them as posted.
+ * <p>
+ * Example:
+ * <pre>
+ * <code>
+ * MessageBus messageBus = new MessageBus(
+ * 		new JournalingEventQueue(new LinkedEventQueue(), journal), 
+ * 		WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+ * </code>
+ * </pre>
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class JournalingEventQueue implements EventQueue {
+	private final EventQueue queue;
+	private final EventJournal journal;
+	
+	/**
+	 * Create the queue
+	 * 
+	 * @param queue		the queue holding the events until they are 
+	 * distributed, must not be used by any other message bus
+	 * @param journal	the journal the events are appended to
+	 */
+	public JournalingEventQueue(EventQueue queue, EventJournal journal) {
+		Objects.requireNonNull(queue, "You must specify an EventQueue");
+		Objects.requireNonNull(journal, "You must specify an EventJournal");
+		this.queue = queue;
+		this.journal = journal;
+	}
+	
+	/**
+	 * get the journal the events are appended to
+	 * @return	the journal
+	 */
+	public EventJournal getJournal() {
+		return journal;
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#offer(com.github.koshamo.fiddler.Event)
+	 */
+	@Override
+	public boolean offer(Event ev) {
+		return journal.offer(ev, queue);
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#offerAll(java.util.Collection)
+	 */
+	@Override
+	public boolean offerAll(Collection<? extends Event> events) {
+		return journal.offerAll(events, queue);
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#poll()
+	 */
+	@Override
+	public Event poll() {
+		return queue.poll();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#size()
+	 */
+	@Override
+	public int size() {
+		return queue.size();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.koshamo.fiddler.EventQueue#remainingCapacity()
+	 */
+	@Override
+	public int remainingCapacity() {
+		return queue.remainingCapacity();
+	}
+}
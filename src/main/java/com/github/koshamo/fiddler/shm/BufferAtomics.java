@@ -0,0 +1,147 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.shm;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This class is a helper class for the SharedMemoryRing class. It provides
+ * the atomic access to the longs of a memory mapped buffer, which is
+ * shared by several processes.
+ * <p>
+ * The access is done by the <code>VarHandle</code> of Java 9, which is
+ * looked up at runtime, so Fiddler still runs on Java 8 as long as the
+ * shared memory transport is not used. The method handles are constants,
+ * so the JIT compiler inlines them like direct calls of the var handle.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+final class BufferAtomics {
+	private static final MethodHandle GET_LONG_ACQUIRE;
+	private static final MethodHandle SET_LONG_RELEASE;
+	private static final MethodHandle COMPARE_AND_SET_LONG;
+	private static final ReflectiveOperationException LOOKUP_FAILURE;
+
+	static {
+		MethodHandle get = null;
+		MethodHandle set = null;
+		MethodHandle cas = null;
+		ReflectiveOperationException failure = null;
+		try {
+			Object varHandle = MethodHandles.class
+					.getMethod("byteBufferViewVarHandle",
+							Class.class, ByteOrder.class)
+					.invoke(null, long[].class, ByteOrder.nativeOrder());
+			Class<?> accessMode =
+					Class.forName("java.lang.invoke.VarHandle$AccessMode");
+			Method toMethodHandle = Class.forName("java.lang.invoke.VarHandle")
+					.getMethod("toMethodHandle", accessMode);
+			get = (MethodHandle) toMethodHandle.invoke(varHandle,
+					accessMode.getField("GET_ACQUIRE").get(null));
+			set = (MethodHandle) toMethodHandle.invoke(varHandle,
+					accessMode.getField("SET_RELEASE").get(null));
+			cas = (MethodHandle) toMethodHandle.invoke(varHandle,
+					accessMode.getField("COMPARE_AND_SET").get(null));
+		} catch (ReflectiveOperationException e) {
+			failure = e;
+		}
+		GET_LONG_ACQUIRE = get;
+		SET_LONG_RELEASE = set;
+		COMPARE_AND_SET_LONG = cas;
+		LOOKUP_FAILURE = failure;
+	}
+
+	private BufferAtomics() {
+		// only static methods
+	}
+
+	/**
+	 * check if the atomic access is supported by the Java runtime
+	 * @throws UnsupportedOperationException	if the Java version is too old
+	 */
+	static void checkSupported() {
+		if (LOOKUP_FAILURE != null)
+			throw new UnsupportedOperationException(
+					"The shared memory transport needs Java 9 or later",
+					LOOKUP_FAILURE);
+	}
+
+	/**
+	 * read a long with acquire semantics, so the following reads see all
+	 * writes done before the long was written with release semantics
+	 * @param buffer	the buffer
+	 * @param index		the index of the long, aligned to 8 bytes
+	 * @return			the long
+	 */
+	static long getLongAcquire(ByteBuffer buffer, int index) {
+		try {
+			return (long) GET_LONG_ACQUIRE.invokeExact(buffer, index);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/**
+	 * write a long with release semantics, so all writes done before are
+	 * seen by the reader of the long
+	 * @param buffer	the buffer
+	 * @param index		the index of the long, aligned to 8 bytes
+	 * @param value		the new value
+	 */
+	static void setLongRelease(ByteBuffer buffer, int index, long value) {
+		try {
+			SET_LONG_RELEASE.invokeExact(buffer, index, value);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/**
+	 * set a long atomically, if it has the expected value
+	 * @param buffer	the buffer
+	 * @param index		the index of the long, aligned to 8 bytes
+	 * @param expected	the expected value
+	 * @param value		the new value
+	 * @return			true, if the long has been set
+	 */
+	static boolean compareAndSetLong(ByteBuffer buffer, int index,
+			long expected, long value) {
+		try {
+			return (boolean) COMPARE_AND_SET_LONG.invokeExact(buffer, index,
+					expected, value);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/**
+	 * pass on unchecked exceptions and errors thrown by a method handle
+	 * @param t	the thrown exception
+	 * @return	never returns, the exception to throw for the compiler
+	 */
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		return new IllegalStateException(t);
+	}
+}
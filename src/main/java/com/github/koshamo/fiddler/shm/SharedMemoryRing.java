@@ -0,0 +1,337 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.shm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The SharedMemoryRing is a ring buffer in a memory mapped file, which is
+ * shared by the processes on the same host mapping the same file. Several
+ * producers in any of these processes write records into the ring, a
+ * single consumer reads them. Writing and reading a record doesn't need
+ * any system call and no lock: the producers reserve space in the ring by
+ * a compare and set of the claim cursor, then write their record and
+ * publish it by writing its header with release semantics. The consumer
+ * reads the records in the order of their reservation and publishes its
+ * position, so the producers may reuse the space.
+ * <p>
+ * The file starts with a header of <code>HEADER_SIZE</code> bytes holding
+ * the capacity and the cursors, every cursor in its own cache line. The
+ * records follow, every record starting at a multiple of 8 bytes:
+ * <ul>
+ * <li>the position of the record in the ring plus one, written last
+ * <li>the length of the content as an int
+ * <li>the type of the content as an int
+ * <li>the content
+ * </ul>
+ * A record never wraps around the end of the ring, the producer skips the
+ * space left at the end instead. The consumer zeroes the records it has
+ * read, so a stale record can never look like a published one.
+ * <p>
+ * The ring is used by the <code>SharedMemorySink</code> and the
+ * <code>SharedMemorySource</code>. It needs Java 9 or later. If a producer
+ * dies while writing a record, the consumer can't read any of the
+ * following records, so the ring should be created anew by all processes
+ * in this case.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class SharedMemoryRing {
+	/** the size of the header of the file */
+	public static final int HEADER_SIZE = 384;
+	/** the minimum capacity of the ring */
+	public static final int MIN_CAPACITY = 4096;
+	/** the maximum capacity of the ring */
+	public static final int MAX_CAPACITY = 1 << 30;
+
+	private static final int MAGIC = 0x46494444;
+	private static final int VERSION = 1;
+	private static final int MAGIC_INDEX = 0;
+	private static final int VERSION_INDEX = 4;
+	private static final int CAPACITY_INDEX = 8;
+	private static final int CLAIM_INDEX = 128;
+	private static final int CONSUMED_INDEX = 256;
+	private static final int RECORD_HEADER_SIZE = 16;
+	private static final int PADDING = -1;
+
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private final int mask;
+
+	/**
+	 * Create the ring for the mapped file
+	 * @param buffer	the mapped file
+	 * @param capacity	the capacity of the ring
+	 */
+	private SharedMemoryRing(MappedByteBuffer buffer, int capacity) {
+		this.buffer = buffer;
+		this.capacity = capacity;
+		mask = capacity - 1;
+	}
+
+	/**
+	 * open the ring in the file. If the file doesn't exist or is empty, the
+	 * ring is created, otherwise the existing ring is used.
+	 * @param file		the file, preferably on a memory file system like
+	 * <code>/dev/shm</code>
+	 * @param capacity	the capacity of the ring in bytes, a power of 2
+	 * between <code>MIN_CAPACITY</code> and <code>MAX_CAPACITY</code>
+	 * @return			the ring
+	 * @throws IOException	if the file can't be mapped
+	 * @throws IllegalArgumentException	if the capacity is not valid or
+	 * the file holds a ring of another capacity
+	 * @throws UnsupportedOperationException	if the Java version is older
+	 * than 9
+	 */
+	public static SharedMemoryRing open(Path file, int capacity)
+			throws IOException {
+		Objects.requireNonNull(file, "You must specify a file");
+		if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY
+				|| Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException(
+					"The capacity must be a power of 2 between "
+							+ MIN_CAPACITY + " and " + MAX_CAPACITY);
+		BufferAtomics.checkSupported();
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			// serializes creating the ring with other processes
+			FileLock lock = channel.lock();
+			try {
+				return map(channel, capacity);
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * map the file and create the ring, if the file is empty
+	 * @param channel	the channel of the locked file
+	 * @param capacity	the capacity of the ring
+	 * @return			the ring
+	 * @throws IOException	if the file can't be mapped
+	 */
+	private static SharedMemoryRing map(FileChannel channel, int capacity)
+			throws IOException {
+		boolean create = channel.size() == 0;
+		if (!create && channel.size() != HEADER_SIZE + (long) capacity)
+			throw new IllegalArgumentException(
+					"The file holds a ring of another capacity");
+		MappedByteBuffer buffer = channel.map(
+				FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+		buffer.order(ByteOrder.nativeOrder());
+		if (create) {
+			buffer.putInt(VERSION_INDEX, VERSION);
+			buffer.putInt(CAPACITY_INDEX, capacity);
+			buffer.putInt(MAGIC_INDEX, MAGIC);
+		} else if (buffer.getInt(MAGIC_INDEX) != MAGIC
+				|| buffer.getInt(VERSION_INDEX) != VERSION
+				|| buffer.getInt(CAPACITY_INDEX) != capacity) {
+			throw new IllegalArgumentException(
+					"The file doesn't hold a ring of this capacity");
+		}
+		return new SharedMemoryRing(buffer, capacity);
+	}
+
+	/**
+	 * get the capacity of the ring
+	 * @return	the capacity in bytes
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * get the number of bytes reserved by the producers, which are not
+	 * read by the consumer yet
+	 * @return	the number of bytes
+	 */
+	public long getBacklog() {
+		return BufferAtomics.getLongAcquire(buffer, CLAIM_INDEX)
+				- BufferAtomics.getLongAcquire(buffer, CONSUMED_INDEX);
+	}
+
+	/**
+	 * get the maximum length of the content of a record. A record may take
+	 * half of the ring, so it always fits into the empty ring, even if the
+	 * space at the end of the ring must be skipped.
+	 * @return	the maximum length in bytes
+	 */
+	public int getMaxRecordLength() {
+		return capacity / 2 - RECORD_HEADER_SIZE;
+	}
+
+	/**
+	 * create a view of the ring for a single producer or the consumer,
+	 * used to copy the content without changing the state of the shared
+	 * buffer. The view has the default big endian byte order like all
+	 * buffers given to an <code>EventCodec</code>, while the headers are
+	 * in native order.
+	 * @return	the view
+	 */
+	ByteBuffer newView() {
+		return buffer.duplicate();
+	}
+
+	/**
+	 * write a record into the ring, if there is enough space
+	 * @param view		the view of the producer
+	 * @param type		the type of the content, not negative
+	 * @param content	the content, from its position to its limit
+	 * @return			true, if the record has been written, false if the
+	 * ring is full
+	 * @throws IllegalArgumentException	if the content is larger than
+	 * <code>getMaxRecordLength()</code>
+	 */
+	boolean offer(ByteBuffer view, int type, ByteBuffer content) {
+		int length = content.remaining();
+		if (length > getMaxRecordLength())
+			throw new IllegalArgumentException("The record is too large");
+		int size = recordSize(length);
+		long position;
+		int padding;
+		while (true) {
+			position = BufferAtomics.getLongAcquire(buffer, CLAIM_INDEX);
+			int remaining = capacity - (int) (position & mask);
+			padding = remaining < size ? remaining : 0;
+			long end = position + padding + size;
+			if (end - BufferAtomics.getLongAcquire(buffer, CONSUMED_INDEX)
+					> capacity)
+				return false;
+			if (BufferAtomics.compareAndSetLong(buffer, CLAIM_INDEX,
+					position, end))
+				break;
+		}
+		if (padding >= RECORD_HEADER_SIZE)
+			publish(position, padding - RECORD_HEADER_SIZE, PADDING);
+		long recordPosition = position + padding;
+		int index = indexOf(recordPosition);
+		view.clear();
+		view.position(index + RECORD_HEADER_SIZE);
+		view.put(content);
+		publish(recordPosition, length, type);
+		return true;
+	}
+
+	/**
+	 * read the published records in the order of their reservation. Must
+	 * only be called by a single consumer.
+	 * @param view			the view of the consumer
+	 * @param handler		called with the content and the type of every
+	 * record, the view must not be used after the call
+	 * @param maxRecords	the maximum number of records to be read
+	 * @return				the number of records read
+	 */
+	int drain(ByteBuffer view, ObjIntConsumer<ByteBuffer> handler,
+			int maxRecords) {
+		long consumed = BufferAtomics.getLongAcquire(buffer, CONSUMED_INDEX);
+		long position = consumed;
+		int count = 0;
+		try {
+			while (count < maxRecords) {
+				int remaining = capacity - (int) (position & mask);
+				// too small for a record, skipped by the producers
+				if (remaining < RECORD_HEADER_SIZE) {
+					if (!isPublished(position + remaining))
+						break;
+					clear(indexOf(position), remaining);
+					position += remaining;
+					continue;
+				}
+				if (!isPublished(position))
+					break;
+				int index = indexOf(position);
+				int length = buffer.getInt(index + 8);
+				int type = buffer.getInt(index + 12);
+				int size = type == PADDING ? remaining : recordSize(length);
+				if (type != PADDING) {
+					view.limit(index + RECORD_HEADER_SIZE + length)
+							.position(index + RECORD_HEADER_SIZE);
+					count++;
+					handler.accept(view, type);
+				}
+				clear(index, size);
+				position += size;
+			}
+		} finally {
+			if (position != consumed)
+				BufferAtomics.setLongRelease(buffer, CONSUMED_INDEX, position);
+		}
+		return count;
+	}
+
+	/**
+	 * write the header of a record, which publishes it to the consumer
+	 * @param position	the position of the record
+	 * @param length	the length of the content
+	 * @param type		the type of the content
+	 */
+	private void publish(long position, int length, int type) {
+		int index = indexOf(position);
+		buffer.putInt(index + 8, length);
+		buffer.putInt(index + 12, type);
+		BufferAtomics.setLongRelease(buffer, index, position + 1);
+	}
+
+	/**
+	 * check if the record at the position is published
+	 * @param position	the position of the record
+	 * @return			true, if the record is published
+	 */
+	private boolean isPublished(long position) {
+		return BufferAtomics.getLongAcquire(buffer, indexOf(position))
+				== position + 1;
+	}
+
+	/**
+	 * zero the bytes of a record read by the consumer
+	 * @param index	the index of the record in the buffer
+	 * @param size	the size of the record, a multiple of 8
+	 */
+	private void clear(int index, int size) {
+		for (int i = index + size - 8; i >= index; i -= 8)
+			buffer.putLong(i, 0L);
+	}
+
+	/**
+	 * get the index of the position in the buffer
+	 * @param position	the position in the ring
+	 * @return			the index in the buffer
+	 */
+	private int indexOf(long position) {
+		return HEADER_SIZE + (int) (position & mask);
+	}
+
+	/**
+	 * get the size of a record, aligned to 8 bytes
+	 * @param length	the length of the content
+	 * @return			the size of the record
+	 */
+	private static int recordSize(int length) {
+		return (RECORD_HEADER_SIZE + length + 7) & ~7;
+	}
+}
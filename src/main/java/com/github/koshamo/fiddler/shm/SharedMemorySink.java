@@ -0,0 +1,253 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.shm;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.MessageBus;
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+import com.github.koshamo.fiddler.bridge.EventCodec;
+
+/**
+ * The SharedMemorySink writes the events of the forwarded classes posted
+ * to a message bus into a <code>SharedMemoryRing</code>, so the
+ * <code>SharedMemorySource</code> of another process on the same host
+ * posts them to its message bus:
+ * <pre>
+ * SharedMemoryRing ring = SharedMemoryRing.open(
+ * 		Paths.get("/dev/shm/battery"), 1 &lt;&lt; 20);
+ * SharedMemorySink sink = new SharedMemorySink(messageBus, ring);
+ * sink.forward(BatteryLoadEvent.class, 1, new BatteryLoadCodec());
+ * </pre>
+ * Every forwarded class has a type number, which must be the same in the
+ * sink and the source. The codec writes the event as flat binary content,
+ * which is copied into the ring without any system call.
+ * <p>
+ * Only events without target are forwarded, as the handlers of the other
+ * process can't be targeted. Events received by a
+ * <code>SharedMemorySource</code> are never written back. If the ring is
+ * full, distributing the events waits until the consumer has read enough
+ * records. The sink is closed by <code>close()</code> or by an
+ * <code>ExitEvent</code> posted to the message bus.
+ * <p>
+ * Several sinks in several processes may write into the same ring.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class SharedMemorySink {
+	private static final int BUFFER_SIZE = 4096;
+	private static final long FULL_PARK_NANOS = 10_000;
+
+	private final MessageBus messageBus;
+	private final SharedMemoryRing ring;
+	private final Map<Class<?>, TypedCodec> codecs;
+	private final Set<Class<? extends Event>> forwardedClasses;
+	private final Forwarder forwarder;
+	private final LongAdder sentEvents;
+	private final LongAdder fullWaits;
+	private final ByteBuffer view;
+	private ByteBuffer content;
+	private volatile boolean closed;
+
+	/**
+	 * Create the sink writing the events of the message bus into the ring
+	 * @param messageBus	the local message bus
+	 * @param ring			the ring to write to
+	 */
+	public SharedMemorySink(MessageBus messageBus, SharedMemoryRing ring) {
+		Objects.requireNonNull(messageBus, "You must specify a MessageBus");
+		Objects.requireNonNull(ring, "You must specify a SharedMemoryRing");
+		this.messageBus = messageBus;
+		this.ring = ring;
+		codecs = new ConcurrentHashMap<>();
+		forwardedClasses = new LinkedHashSet<>();
+		forwarder = new Forwarder();
+		sentEvents = new LongAdder();
+		fullWaits = new LongAdder();
+		view = ring.newView();
+		content = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	/**
+	 * write the events of the class and all its subclasses into the ring
+	 * @param eventClass	the class of the events to be written
+	 * @param type			the type number of the class, between 0 and
+	 * <code>SharedMemorySource.MAX_TYPE</code>
+	 * @param codec			the codec of the event class
+	 * @param <E>			the class of the events
+	 */
+	public <E extends Event> void forward(Class<E> eventClass, int type,
+			EventCodec<? super E> codec) {
+		Objects.requireNonNull(eventClass, "You must specify an Event class");
+		Objects.requireNonNull(codec, "You must specify an EventCodec");
+		SharedMemorySource.checkType(type);
+		codecs.put(eventClass, new TypedCodec(type, codec));
+		synchronized (forwardedClasses) {
+			if (closed)
+				throw new IllegalStateException("The sink is closed");
+			if (forwardedClasses.add(eventClass))
+				messageBus.register(eventClass, forwarder, ListenerType.ANY);
+		}
+	}
+
+	/**
+	 * stop writing events into the ring
+	 */
+	public void close() {
+		synchronized (forwardedClasses) {
+			if (closed)
+				return;
+			closed = true;
+			for (Class<? extends Event> eventClass : forwardedClasses)
+				messageBus.unregister(eventClass, forwarder);
+		}
+	}
+
+	/**
+	 * get the number of events written into the ring
+	 * @return	the number of events
+	 */
+	public long getSentEvents() {
+		return sentEvents.sum();
+	}
+
+	/**
+	 * get the number of times, the sink had to wait for the consumer, as
+	 * the ring was full
+	 * @return	the number of waits
+	 */
+	public long getFullWaits() {
+		return fullWaits.sum();
+	}
+
+	/**
+	 * encode the event and write it into the ring
+	 * @param ev	the event to be written
+	 */
+	private synchronized void send(Event ev) {
+		if (ev.getTarget() != null || ev.getSource() instanceof RemoteProcess)
+			return;
+		TypedCodec codec = codecOf(ev.getClass());
+		if (codec == null)
+			return;
+		encode(ev, codec.codec);
+		while (!ring.offer(view, codec.type, content)) {
+			if (closed)
+				return;
+			fullWaits.increment();
+			LockSupport.parkNanos(FULL_PARK_NANOS);
+		}
+		sentEvents.increment();
+	}
+
+	/**
+	 * encode the event into the content buffer, which grows as needed
+	 * @param ev	the event to be encoded
+	 * @param codec	the codec of the event class
+	 */
+	private void encode(Event ev, EventCodec<Event> codec) {
+		while (true) {
+			content.clear();
+			try {
+				codec.encode(ev, content);
+				content.flip();
+				return;
+			} catch (BufferOverflowException e) {
+				if (content.capacity() >= ring.getMaxRecordLength())
+					throw new IllegalArgumentException(
+							"The event is too large for the ring", e);
+				content = ByteBuffer.allocate(Math.min(
+						content.capacity() * 2, ring.getMaxRecordLength()));
+			}
+		}
+	}
+
+	/**
+	 * get the codec of the event class or of its nearest superclass
+	 * @param eventClass	the class of the event
+	 * @return				the codec, null if there is none
+	 */
+	private TypedCodec codecOf(Class<?> eventClass) {
+		for (Class<?> c = eventClass; c != null; c = c.getSuperclass()) {
+			TypedCodec codec = codecs.get(c);
+			if (codec != null) {
+				if (c != eventClass)
+					codecs.putIfAbsent(eventClass, codec);
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A codec with the type number of its event class
+	 *
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class TypedCodec {
+		final int type;
+		final EventCodec<Event> codec;
+
+		/**
+		 * Create the typed codec
+		 * @param type	the type number of the event class
+		 * @param codec	the codec of the event class
+		 */
+		@SuppressWarnings("unchecked")
+		TypedCodec(int type, EventCodec<?> codec) {
+			this.type = type;
+			this.codec = (EventCodec<Event>) codec;
+		}
+	}
+
+	/**
+	 * The forwarder is registered to the local message bus for the
+	 * forwarded event classes and writes their events into the ring.
+	 *
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private final class Forwarder implements EventHandler {
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			send(event);
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			close();
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.shm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.MessageBus;
+import com.github.koshamo.fiddler.bridge.EventCodec;
+
+/**
+ * The SharedMemorySource reads the events written into a
+ * <code>SharedMemoryRing</code> by the <code>SharedMemorySink</code>s of
+ * other processes on the same host and posts them to a message bus:
+ * <pre>
+ * SharedMemoryRing ring = SharedMemoryRing.open(
+ * 		Paths.get("/dev/shm/battery"), 1 &lt;&lt; 20);
+ * SharedMemorySource source = new SharedMemorySource(messageBus, ring);
+ * source.receive(BatteryLoadEvent.class, 1, new BatteryLoadCodec());
+ * source.start();
+ * </pre>
+ * The codecs decode the events right from the memory of the ring, without
+ * copying the content. The received events have no target and the source
+ * <code>getRemote()</code>.
+ * <p>
+ * The source has its own thread polling the ring, as there is no way to
+ * wake up a thread of another process without a system call. While there
+ * are no records, the thread spins for a short while, then yields and at
+ * last parks for <code>idleParkNanos</code> between polls. So the latency
+ * of an idle source is about this time, while a busy source reads the
+ * records as fast as they are written.
+ * <p>
+ * There must be only one source per ring on the whole host.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public final class SharedMemorySource {
+	/** the maximum type number of an event class */
+	public static final int MAX_TYPE = 0xffff;
+	/** the default time the idle thread parks between polls */
+	public static final long DEFAULT_IDLE_PARK_NANOS = 50_000;
+
+	private static final int BATCH_SIZE = 256;
+	private static final int SPIN_TRIES = 1000;
+	private static final int YIELD_TRIES = 100;
+	private static final AtomicInteger SOURCE_NUMBER = new AtomicInteger();
+
+	private final MessageBus messageBus;
+	private final SharedMemoryRing ring;
+	private final long idleParkNanos;
+	private final RemoteProcess remote;
+	private final LongAdder receivedEvents;
+	private final LongAdder undeliverableEvents;
+	private volatile EventCodec<?>[] codecs;
+	private volatile boolean run;
+	private Thread thread;
+
+	/**
+	 * Create the source posting the events of the ring to the message bus
+	 * with the default idle park time
+	 * @param messageBus	the local message bus
+	 * @param ring			the ring to read from
+	 */
+	public SharedMemorySource(MessageBus messageBus, SharedMemoryRing ring) {
+		this(messageBus, ring, DEFAULT_IDLE_PARK_NANOS);
+	}
+
+	/**
+	 * Create the source posting the events of the ring to the message bus
+	 * @param messageBus	the local message bus
+	 * @param ring			the ring to read from
+	 * @param idleParkNanos	the time the idle thread parks between polls
+	 */
+	public SharedMemorySource(MessageBus messageBus, SharedMemoryRing ring,
+			long idleParkNanos) {
+		Objects.requireNonNull(messageBus, "You must specify a MessageBus");
+		Objects.requireNonNull(ring, "You must specify a SharedMemoryRing");
+		if (idleParkNanos < 1)
+			throw new IllegalArgumentException(
+					"The idle park time must be positive");
+		this.messageBus = messageBus;
+		this.ring = ring;
+		this.idleParkNanos = idleParkNanos;
+		remote = new RemoteProcess();
+		receivedEvents = new LongAdder();
+		undeliverableEvents = new LongAdder();
+		codecs = new EventCodec<?>[0];
+	}
+
+	/**
+	 * check the type number of an event class
+	 * @param type	the type number
+	 * @throws IllegalArgumentException	if the type number is out of range
+	 */
+	static void checkType(int type) {
+		if (type < 0 || type > MAX_TYPE)
+			throw new IllegalArgumentException(
+					"The type must be between 0 and " + MAX_TYPE);
+	}
+
+	/**
+	 * post the events of the class read from the ring to the message bus
+	 * @param eventClass	the class of the events to be received
+	 * @param type			the type number of the class, between 0 and
+	 * <code>MAX_TYPE</code>
+	 * @param codec			the codec of the event class
+	 * @param <E>			the class of the events
+	 */
+	public synchronized <E extends Event> void receive(Class<E> eventClass,
+			int type, EventCodec<? super E> codec) {
+		Objects.requireNonNull(eventClass, "You must specify an Event class");
+		Objects.requireNonNull(codec, "You must specify an EventCodec");
+		checkType(type);
+		EventCodec<?>[] newCodecs = codecs.length > type ? codecs.clone()
+				: Arrays.copyOf(codecs, type + 1);
+		newCodecs[type] = codec;
+		codecs = newCodecs;
+	}
+
+	/**
+	 * start the thread reading the ring
+	 * @throws IllegalStateException	if the source has been started before
+	 */
+	public synchronized void start() {
+		if (thread != null)
+			throw new IllegalStateException("The source has been started before");
+		run = true;
+		thread = new Thread(this::runSource,
+				"Fiddler-SharedMemory-" + SOURCE_NUMBER.incrementAndGet());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * stop reading the ring. The records not read yet stay in the ring.
+	 * The thread is woken up, so it ends at once, even while it parks
+	 * between polls.
+	 */
+	public synchronized void close() {
+		run = false;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * get the handler standing for the processes writing into the ring,
+	 * which is the source of all received events
+	 * @return	the remote handler
+	 */
+	public EventHandler getRemote() {
+		return remote;
+	}
+
+	/**
+	 * get the number of events read from the ring and posted to the
+	 * message bus
+	 * @return	the number of received events
+	 */
+	public long getReceivedEvents() {
+		return receivedEvents.sum();
+	}
+
+	/**
+	 * get the number of records, which couldn't be delivered, because there
+	 * is no codec for their type, decoding failed or the message bus
+	 * rejected the event
+	 * @return	the number of undeliverable records
+	 */
+	public long getUndeliverableEvents() {
+		return undeliverableEvents.sum();
+	}
+
+	/**
+	 * the thread reads the ring until the source is closed
+	 */
+	private void runSource() {
+		ByteBuffer view = ring.newView();
+		int idleCount = 0;
+		while (run) {
+			if (ring.drain(view, this::receive, BATCH_SIZE) > 0) {
+				idleCount = 0;
+			} else if (idleCount < SPIN_TRIES) {
+				idleCount++;
+			} else if (idleCount < SPIN_TRIES + YIELD_TRIES) {
+				idleCount++;
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(this, idleParkNanos);
+			}
+		}
+	}
+
+	/**
+	 * decode a record and post the event to the message bus
+	 * @param content	the content of the record
+	 * @param type		the type number of the record
+	 */
+	private void receive(ByteBuffer content, int type) {
+		EventCodec<?>[] current = codecs;
+		EventCodec<?> codec = type < current.length ? current[type] : null;
+		if (codec == null) {
+			undeliverableEvents.increment();
+			return;
+		}
+		Event ev;
+		try {
+			ev = codec.decode(remote, null, content);
+		} catch (RuntimeException e) {
+			undeliverableEvents.increment();
+			Thread t = Thread.currentThread();
+			t.getUncaughtExceptionHandler().uncaughtException(t, e);
+			return;
+		}
+		if (messageBus.postEvent(ev))
+			receivedEvents.increment();
+		else
+			undeliverableEvents.increment();
+	}
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests, that an <code>AsyncEventHandler</code> never has more events in
+ * flight than its limit and that the waiting events are started in the 
+ * order of its <code>AsyncOrdering</code>, when the stages complete.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class AsyncMailboxTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to shut down
+		}
+	};
+
+	private MessageBus messageBus;
+
+	/**
+	 * create a message bus
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING);
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * post more events than may be in flight and check, that the others
+	 * wait in the mailbox and are started one by one as stages complete
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void unorderedStopsAtMaxInFlight() throws InterruptedException {
+		StagedHandler handler = register(AsyncOrdering.UNORDERED, 4);
+		post("a", "a", "a", "a", "a", "a", "a", "a", "a", "a");
+
+		handler.awaitStarted(4);
+		awaitDepth(handler, 6);
+		assertEquals(4, handler.started());
+		handler.complete(1);
+		handler.awaitStarted(5);
+		handler.complete(0);
+		handler.complete(3);
+		handler.awaitStarted(7);
+		assertEquals(4, handler.inFlight());
+		assertEquals(3, depthOf(handler));
+		handler.complete(2);
+		handler.awaitStarted(8);
+		handler.complete(4);
+		handler.awaitStarted(9);
+		handler.complete(5);
+		handler.awaitStarted(10);
+		for (int i = 6; i < 10; i++)
+			handler.complete(i);
+
+		assertEquals(4, handler.maxInFlight);
+		assertEquals(0, handler.inFlight());
+		assertEquals(0, depthOf(handler));
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), 
+				handler.startedSequences());
+	}
+
+	/**
+	 * an ordered handler starts the next event only after the stage of the
+	 * event before has completed, whatever its limit is
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void orderedHasOneEventInFlight() throws InterruptedException {
+		StagedHandler handler = register(AsyncOrdering.ORDERED, 4);
+		post("a", "a", "a", "a", "a");
+
+		for (int i = 0; i < 5; i++) {
+			handler.awaitStarted(i + 1);
+			Thread.sleep(10);
+			assertEquals(i + 1, handler.started());
+			handler.complete(i);
+		}
+
+		assertEquals(1, handler.maxInFlight);
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4), handler.startedSequences());
+	}
+
+	/**
+	 * a handler ordered per key has a single event in flight per key and
+	 * no more than its limit in total. A key, that becomes ready again, 
+	 * waits behind the keys, that have been ready before.
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void perKeyLimitsEveryKeyAndTheTotal() throws InterruptedException {
+		StagedHandler handler = register(AsyncOrdering.PER_KEY, 3);
+		post("a", "a", "b", "b", "c", "c", "d");
+
+		handler.awaitStarted(3);
+		Thread.sleep(10);
+		assertEquals(Arrays.asList("a", "b", "c"), handler.startedKeys());
+		handler.complete(0);
+		handler.awaitStarted(4);
+		Thread.sleep(10);
+		assertEquals(Arrays.asList("a", "b", "c", "d"), handler.startedKeys());
+		handler.complete(2);
+		handler.awaitStarted(5);
+		handler.complete(6);
+		handler.awaitStarted(6);
+		handler.complete(4);
+		handler.awaitStarted(7);
+
+		assertEquals(Arrays.asList("a", "b", "c", "d", "a", "b", "c"), 
+				handler.startedKeys());
+		assertEquals(Arrays.asList(0, 2, 4, 6, 1, 3, 5), 
+				handler.startedSequences());
+		assertEquals(3, handler.maxInFlight);
+	}
+
+	/**
+	 * register a new staged handler
+	 * @param ordering		the ordering of the handler
+	 * @param maxInFlight	the limit of events in flight
+	 * @return				the handler
+	 */
+	private StagedHandler register(AsyncOrdering ordering, int maxInFlight) {
+		StagedHandler handler = new StagedHandler(ordering, maxInFlight);
+		messageBus.register(KeyedEvent.class, handler, ListenerType.ANY);
+		return handler;
+	}
+
+	/**
+	 * post an event for every key, numbered in the order of posting
+	 * @param keys	the partition keys of the events
+	 */
+	private void post(String... keys) {
+		for (int i = 0; i < keys.length; i++)
+			messageBus.postEvent(new KeyedEvent(keys[i], i));
+	}
+
+	/**
+	 * wait until the event thread has put the events into the mailbox of 
+	 * the handler
+	 * @param handler	the handler
+	 * @param depth		the expected mailbox depth
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	private void awaitDepth(EventHandler handler, int depth) 
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (depthOf(handler) != depth && System.nanoTime() < deadline)
+			Thread.sleep(1);
+		assertEquals(depth, depthOf(handler));
+	}
+
+	/**
+	 * get the number of events waiting in the mailbox of the handler
+	 * @param handler	the handler
+	 * @return			the mailbox depth
+	 */
+	private int depthOf(EventHandler handler) {
+		for (HandlerStatistics statistics : messageBus.getHandlerStatistics())
+			if (statistics.getHandler() == handler)
+				return statistics.getMailboxDepth();
+		throw new AssertionError("The handler is not registered");
+	}
+
+	/**
+	 * An asynchronous handler, whose stages are completed by the test
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class StagedHandler implements AsyncEventHandler {
+		private final AsyncOrdering ordering;
+		private final int limit;
+		private final List<KeyedEvent> started = new ArrayList<>();
+		private final List<CompletableFuture<Void>> stages = new ArrayList<>();
+		private int running;
+		int maxInFlight;
+
+		/**
+		 * Create the handler
+		 * @param ordering	the ordering of the handler
+		 * @param limit		the limit of events in flight
+		 */
+		StagedHandler(AsyncOrdering ordering, int limit) {
+			this.ordering = ordering;
+			this.limit = limit;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.AsyncEventHandler#handleAsync(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public synchronized CompletionStage<?> handleAsync(Event event) {
+			KeyedEvent ev = (KeyedEvent) event;
+			CompletableFuture<Void> stage = new CompletableFuture<>();
+			while (stages.size() <= ev.sequence)
+				stages.add(null);
+			stages.set(ev.sequence, stage);
+			started.add(ev);
+			running++;
+			maxInFlight = Math.max(maxInFlight, running);
+			notifyAll();
+			return stage;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.AsyncEventHandler#getMaxInFlight()
+		 */
+		@Override
+		public int getMaxInFlight() {
+			return limit;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.AsyncEventHandler#getOrdering()
+		 */
+		@Override
+		public AsyncOrdering getOrdering() {
+			return ordering;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to shut down
+		}
+
+		/**
+		 * wait until the number of events have been started
+		 * @param count	the number of events
+		 * @throws InterruptedException	if interrupted while waiting
+		 */
+		synchronized void awaitStarted(int count) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (started.size() < count) {
+				long nanos = deadline - System.nanoTime();
+				assertTrue("started " + started.size() + " of " + count, 
+						nanos > 0);
+				TimeUnit.NANOSECONDS.timedWait(this, nanos);
+			}
+		}
+
+		/**
+		 * complete the stage of the event with the sequence number, which
+		 * may start the next events on this thread
+		 * @param sequence	the sequence number of the event
+		 */
+		void complete(int sequence) {
+			CompletableFuture<Void> stage;
+			synchronized (this) {
+				stage = stages.get(sequence);
+				running--;
+			}
+			stage.complete(null);
+		}
+
+		/**
+		 * get the number of started events
+		 * @return	the number of started events
+		 */
+		synchronized int started() {
+			return started.size();
+		}
+
+		/**
+		 * get the number of events in flight
+		 * @return	the number of events in flight
+		 */
+		synchronized int inFlight() {
+			return running;
+		}
+
+		/**
+		 * get the sequence numbers of the started events in start order
+		 * @return	the sequence numbers
+		 */
+		synchronized List<Integer> startedSequences() {
+			List<Integer> sequences = new ArrayList<>();
+			for (KeyedEvent ev : started)
+				sequences.add(Integer.valueOf(ev.sequence));
+			return sequences;
+		}
+
+		/**
+		 * get the keys of the started events in start order
+		 * @return	the keys
+		 */
+		synchronized List<String> startedKeys() {
+			List<String> keys = new ArrayList<>();
+			for (KeyedEvent ev : started)
+				keys.add(ev.key);
+			return keys;
+		}
+	}
+
+	/**
+	 * An event with an explicit partition key and a sequence number
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class KeyedEvent extends Event {
+		final String key;
+		final int sequence;
+
+		/**
+		 * Create the event
+		 * @param key		the partition key
+		 * @param sequence	the number of the event in posting order
+		 */
+		KeyedEvent(String key, int sequence) {
+			super(SOURCE, null);
+			this.key = key;
+			this.sequence = sequence;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.Event#getPartitionKey()
+		 */
+		@Override
+		public Object getPartitionKey() {
+			return key;
+		}
+	}
+}
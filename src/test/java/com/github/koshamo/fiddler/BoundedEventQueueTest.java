@@ -0,0 +1,155 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.BoundedEventQueue.OverflowPolicy;
+
+/**
+ * Tests, that the drop policies of the <code>BoundedEventQueue</code> never
+ * drop control events.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class BoundedEventQueueTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	/**
+	 * the oldest ordinary event is dropped, the exit event before it stays
+	 */
+	@Test
+	public void dropOldestKeepsExitEvent() {
+		BoundedEventQueue queue = new BoundedEventQueue(2, OverflowPolicy.DROP_OLDEST);
+		Event exit = new ExitEvent(SOURCE, null);
+		Event a = message("a");
+		Event b = message("b");
+		Event c = message("c");
+		assertTrue(queue.offer(exit));
+		assertTrue(queue.offer(a));
+		assertTrue(queue.offer(b));
+		assertTrue(queue.offer(c));
+		assertEquals(2, queue.getDroppedEvents());
+		assertSame(exit, queue.poll());
+		assertSame(c, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	/**
+	 * an exit event posted to the full queue replaces the newest ordinary
+	 * event
+	 */
+	@Test
+	public void dropNewestQueuesExitEvent() {
+		BoundedEventQueue queue = new BoundedEventQueue(3, OverflowPolicy.DROP_NEWEST);
+		Event a = message("a");
+		Event b = message("b");
+		Event c = message("c");
+		Event exit = new ExitEvent(SOURCE, null);
+		assertTrue(queue.offer(a));
+		assertTrue(queue.offer(b));
+		assertTrue(queue.offer(c));
+		assertTrue(queue.offer(exit));
+		assertTrue(queue.offer(message("d")));
+		assertEquals(2, queue.getDroppedEvents());
+		assertSame(a, queue.poll());
+		assertSame(b, queue.poll());
+		assertSame(exit, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	/**
+	 * the events between the head and the dropped event keep their order
+	 */
+	@Test
+	public void dropOldestBehindControlEvents() {
+		BoundedEventQueue queue = new BoundedEventQueue(4, OverflowPolicy.DROP_OLDEST);
+		Event exit1 = new ExitEvent(SOURCE, null);
+		Event exit2 = new ExitEvent(SOURCE, null);
+		Event a = message("a");
+		Event b = message("b");
+		Event c = message("c");
+		assertTrue(queue.offerAll(Arrays.asList(exit1, a, exit2, b)));
+		assertTrue(queue.offer(c));
+		assertSame(exit1, queue.poll());
+		assertSame(exit2, queue.poll());
+		assertSame(b, queue.poll());
+		assertSame(c, queue.poll());
+	}
+
+	/**
+	 * a batch posted to the full queue keeps its exit event
+	 */
+	@Test
+	public void offerAllKeepsExitEvent() {
+		for (OverflowPolicy policy : new OverflowPolicy[] {
+				OverflowPolicy.DROP_OLDEST, OverflowPolicy.DROP_NEWEST}) {
+			BoundedEventQueue queue = new BoundedEventQueue(2, policy);
+			Event exit = new ExitEvent(SOURCE, null);
+			assertTrue(queue.offer(message("a")));
+			assertTrue(queue.offerAll(Arrays.asList(message("b"), 
+					message("c"), exit)));
+			assertEquals(2, queue.size());
+			queue.poll();
+			assertSame(policy.toString(), exit, queue.poll());
+		}
+	}
+
+	/**
+	 * a control event is only rejected, if the queue is full of control
+	 * events
+	 */
+	@Test
+	public void queueFullOfControlEvents() {
+		BoundedEventQueue queue = new BoundedEventQueue(1, OverflowPolicy.DROP_OLDEST);
+		Event exit = new ExitEvent(SOURCE, null);
+		assertTrue(queue.offer(exit));
+		assertFalse(queue.offer(new ExitEvent(SOURCE, null)));
+		assertEquals(1, queue.getRejectedEvents());
+		assertTrue(queue.offer(message("a")));
+		assertEquals(1, queue.getDroppedEvents());
+		assertSame(exit, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	/**
+	 * create an ordinary event
+	 * @param message	the message of the event
+	 * @return			the event
+	 */
+	private static Event message(String message) {
+		return new MessageEvent(SOURCE, null, message);
+	}
+}
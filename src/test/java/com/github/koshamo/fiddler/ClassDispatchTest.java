@@ -0,0 +1,188 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests the delivery of events to the handlers registered for their class
+ * and its superclasses.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class ClassDispatchTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	private MessageBus messageBus;
+	private List<String> received;
+
+	/**
+	 * create the message bus distributing the events in order
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		received = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * an event reaches the handlers of its class and of every superclass
+	 * in the order of their registration, but not the handlers of its
+	 * subclasses or of other classes
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void subclassReachesSuperclassHandlers() throws InterruptedException {
+		messageBus.register(UrgentEvent.class, new Recorder("urgent"),
+				ListenerType.ANY);
+		messageBus.register(Event.class, new Recorder("event"),
+				ListenerType.ANY);
+		messageBus.register(PlainEvent.class, new Recorder("plain"),
+				ListenerType.ANY);
+		messageBus.register(ExitEvent.class, new Recorder("exit"),
+				ListenerType.ANY);
+		post(new UrgentEvent("a"), new PlainEvent("b"));
+		assertEquals(Arrays.asList("urgent:a", "event:a", "plain:a",
+				"event:b", "plain:b"), received);
+	}
+
+	/**
+	 * a handler registered for a superclass, after an event of the
+	 * subclass has been distributed, receives the next events of the
+	 * subclass
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void laterRegistrationIsVisible() throws InterruptedException {
+		messageBus.register(UrgentEvent.class, new Recorder("urgent"),
+				ListenerType.ANY);
+		post(new UrgentEvent("a"));
+		messageBus.register(PlainEvent.class, new Recorder("plain"),
+				ListenerType.ANY);
+		post(new UrgentEvent("b"));
+		assertEquals(Arrays.asList("urgent:a", "urgent:b", "plain:b"),
+				received);
+	}
+
+	/**
+	 * post the events and wait until they have been distributed
+	 * @param events	the events to be posted
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	private void post(Event... events) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		EventHandler marker = new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				done.countDown();
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to clean up
+			}
+		};
+		messageBus.register(MessageEvent.class, marker, ListenerType.ANY);
+		for (Event ev : events)
+			messageBus.postEvent(ev);
+		// the events are distributed in order, so the marker is last
+		messageBus.postEvent(new MessageEvent(SOURCE, null, "done"));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		messageBus.unregister(MessageEvent.class, marker);
+	}
+
+	/**
+	 * records the names of the events it receives
+	 */
+	private final class Recorder implements EventHandler {
+		private final String name;
+
+		Recorder(String name) {
+			this.name = name;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			if (event instanceof PlainEvent)
+				received.add(name + ":" + ((PlainEvent) event).name);
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+
+	/**
+	 * an event with a name
+	 */
+	private static class PlainEvent extends Event {
+		final String name;
+
+		PlainEvent(String name) {
+			super(SOURCE, null);
+			this.name = name;
+		}
+	}
+
+	/**
+	 * a subclass of the event with a name
+	 */
+	private static final class UrgentEvent extends PlainEvent {
+		UrgentEvent(String name) {
+			super(name);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests, that the <code>ConflatingEventQueue</code> keeps only the latest
+ * data event per key and passes all other events through.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class ConflatingEventQueueTest {
+	private static final EventHandler SOURCE = handler();
+
+	/**
+	 * the latest event of a key takes the place of the first one, the
+	 * replaced events are never polled
+	 */
+	@Test
+	public void latestValueWins() {
+		ConflatingEventQueue queue = new ConflatingEventQueue();
+		Event a1 = new QuoteEvent(null, "A", 1);
+		Event b1 = new QuoteEvent(null, "B", 1);
+		Event a2 = new QuoteEvent(null, "A", 2);
+		Event a3 = new QuoteEvent(null, "A", 3);
+		assertTrue(queue.offer(a1));
+		assertTrue(queue.offer(b1));
+		assertTrue(queue.offer(a2));
+		assertTrue(queue.offer(a3));
+		assertEquals(2, queue.size());
+		assertEquals(2, queue.getConflatedEvents());
+		assertSame(a3, queue.poll());
+		// a polled event is not replaced anymore, the next one is queued
+		Event a4 = new QuoteEvent(null, "A", 4);
+		assertTrue(queue.offer(a4));
+		assertSame(b1, queue.poll());
+		assertSame(a4, queue.poll());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * events with the same conflation key, but different targets or
+	 * classes are distributed all
+	 */
+	@Test
+	public void distinctTargetsAndClassesAreKept() {
+		ConflatingEventQueue queue = new ConflatingEventQueue();
+		EventHandler first = handler();
+		EventHandler second = handler();
+		Event toFirst = new QuoteEvent(first, "A", 1);
+		Event toSecond = new QuoteEvent(second, "A", 2);
+		Event toAll = new QuoteEvent(null, "A", 3);
+		Event other = new OtherQuoteEvent(null, "A", 4);
+		Event toFirstAgain = new QuoteEvent(first, "A", 5);
+		assertTrue(queue.offerAll(Arrays.asList(toFirst, toSecond, toAll,
+				other, toFirstAgain)));
+		assertEquals(1, queue.getConflatedEvents());
+		assertSame(toFirstAgain, queue.poll());
+		assertSame(toSecond, queue.poll());
+		assertSame(toAll, queue.poll());
+		assertSame(other, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	/**
+	 * control events and data events without conflation key pass through
+	 * in the order they have been posted
+	 */
+	@Test
+	public void controlEventsPassThrough() {
+		ConflatingEventQueue queue = new ConflatingEventQueue();
+		Event exit = new ExitEvent(SOURCE, null);
+		Event a1 = new QuoteEvent(null, "A", 1);
+		Event message = new MessageEvent(SOURCE, null, "message");
+		Event plain1 = new PlainDataEvent("A", 1);
+		Event plain2 = new PlainDataEvent("A", 2);
+		Event a2 = new QuoteEvent(null, "A", 2);
+		Event exitAgain = new ExitEvent(SOURCE, null);
+		for (Event ev : Arrays.asList(exit, a1, message, plain1, plain2, a2,
+				exitAgain))
+			assertTrue(queue.offer(ev));
+		assertEquals(1, queue.getConflatedEvents());
+		assertSame(exit, queue.poll());
+		assertSame(a2, queue.poll());
+		assertSame(message, queue.poll());
+		assertSame(plain1, queue.poll());
+		assertSame(plain2, queue.poll());
+		assertSame(exitAgain, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	/**
+	 * a class set to be conflated is conflated by the meta information of
+	 * its events, including the events of its subclasses
+	 */
+	@Test
+	public void conflatedClassUsesMetaInformation() {
+		ConflatingEventQueue queue = new ConflatingEventQueue();
+		queue.conflate(PlainDataEvent.class);
+		Event plain1 = new PlainDataEvent("A", 1);
+		Event plain2 = new PlainDataEvent("A", 2);
+		Event sub1 = new SubDataEvent("A", 3);
+		Event sub2 = new SubDataEvent("A", 4);
+		for (Event ev : Arrays.asList(plain1, sub1, plain2, sub2))
+			assertTrue(queue.offer(ev));
+		assertSame(plain2, queue.poll());
+		assertSame(sub2, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	/**
+	 * a replaced pooled event is given back to its pool, the latest one
+	 * is kept for the handlers
+	 */
+	@Test
+	public void replacedPooledEventIsReleased() {
+		ConflatingEventQueue queue = new ConflatingEventQueue();
+		queue.conflate(PooledDataEvent.class);
+		EventPool<PooledDataEvent<String, Integer>> pool =
+				new EventPool<>(4, PooledDataEvent::new);
+		int available = pool.getAvailable();
+		PooledDataEvent<String, Integer> first = claim(pool, 1);
+		PooledDataEvent<String, Integer> second = claim(pool, 2);
+		PooledDataEvent<String, Integer> third = claim(pool, 3);
+		assertTrue(queue.offer(first));
+		assertTrue(queue.offerAll(Arrays.asList(second, third)));
+		assertEquals(available - 1, pool.getAvailable());
+		assertSame(third, queue.poll());
+		assertEquals(Integer.valueOf(3), third.getData());
+		third.release();
+		assertEquals(available, pool.getAvailable());
+	}
+
+	/**
+	 * claim an event from the pool and fill it in
+	 * @param pool	the pool
+	 * @param data	the data of the event
+	 * @return		the event
+	 */
+	private static PooledDataEvent<String, Integer> claim(
+			EventPool<PooledDataEvent<String, Integer>> pool, int data) {
+		PooledDataEvent<String, Integer> ev = pool.claim();
+		ev.set(SOURCE, null, "A", Integer.valueOf(data));
+		return ev;
+	}
+
+	/**
+	 * create a handler, which is used as source or target only
+	 * @return	the handler
+	 */
+	private static EventHandler handler() {
+		return new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				// never called
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to clean up
+			}
+		};
+	}
+
+	/**
+	 * a data event conflated by its symbol
+	 */
+	private static class QuoteEvent extends DataEvent<String, Integer> {
+		QuoteEvent(EventHandler target, String symbol, int price) {
+			super(SOURCE, target, symbol, Integer.valueOf(price));
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.DataEvent#getConflationKey()
+		 */
+		@Override
+		public Object getConflationKey() {
+			return getMetaInformation();
+		}
+	}
+
+	/**
+	 * another class of data events conflated by their symbol
+	 */
+	private static final class OtherQuoteEvent extends QuoteEvent {
+		OtherQuoteEvent(EventHandler target, String symbol, int price) {
+			super(target, symbol, price);
+		}
+	}
+
+	/**
+	 * a data event without conflation key
+	 */
+	private static class PlainDataEvent extends DataEvent<String, Integer> {
+		PlainDataEvent(String meta, int data) {
+			super(SOURCE, null, meta, Integer.valueOf(data));
+		}
+	}
+
+	/**
+	 * a subclass of the data event without conflation key
+	 */
+	private static final class SubDataEvent extends PlainDataEvent {
+		SubDataEvent(String meta, int data) {
+			super(meta, data);
+		}
+	}
+}
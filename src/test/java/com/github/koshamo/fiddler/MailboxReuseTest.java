@@ -0,0 +1,280 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests, that a handler registering again while its mailbox is still 
+ * draining gets the same mailbox back, so it is never called from two
+ * threads.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class MailboxReuseTest {
+	private static final int EVENTS = 50;
+	private static final int ROUNDS = 20;
+
+	private MessageBus messageBus;
+
+	/**
+	 * create a message bus dispatching to mailboxes
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.MAILBOX);
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * unregister and register a handler again while it is blocked in its
+	 * first event, then check that all events are handled in order by a
+	 * single thread at a time
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void registeringAgainReusesDrainingMailbox() 
+			throws InterruptedException {
+		BlockingHandler handler = new BlockingHandler();
+		messageBus.registerMessageEvents(handler, ListenerType.ANY);
+		for (int i = 0; i < EVENTS; i++)
+			messageBus.postEvent(new MessageEvent(handler, null, "" + i));
+		assertTrue(handler.entered.await(10, TimeUnit.SECONDS));
+		messageBus.unregisterMessageEvents(handler);
+		messageBus.registerMessageEvents(handler, ListenerType.ANY);
+		for (int i = EVENTS; i < 2 * EVENTS; i++)
+			messageBus.postEvent(new MessageEvent(handler, null, "" + i));
+		handler.release.countDown();
+		assertTrue(handler.handled.await(10, TimeUnit.SECONDS));
+		assertFalse("handler called concurrently", handler.concurrent);
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 2 * EVENTS; i++)
+			expected.add("" + i);
+		assertEquals(expected, handler.messages);
+	}
+
+	/**
+	 * unregister and register a handler again in a loop, while the event
+	 * thread is about to post to its idle mailbox from a dispatch list 
+	 * taken before, and check that the handler is never called 
+	 * concurrently from the removed and the new mailbox
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void registeringInALoopNeverRunsConcurrently() 
+			throws InterruptedException {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		MessageBus bus = new MessageBus(new LinkedEventQueue(), executor, 
+				DispatchMode.MAILBOX);
+		try {
+			// an asynchronous handler is called by the event thread, so it 
+			// holds the event thread within the dispatch list
+			GateHandler gate = new GateHandler();
+			bus.registerMessageEvents(gate, ListenerType.ANY);
+			SleepingHandler handler = new SleepingHandler();
+			bus.registerMessageEvents(handler, ListenerType.ANY);
+			for (int round = 1; round <= ROUNDS; round++) {
+				gate.close();
+				bus.postEvent(new MessageEvent(gate, null, "first"));
+				assertTrue(gate.entered.tryAcquire(10, TimeUnit.SECONDS));
+				bus.unregisterMessageEvents(handler);
+				bus.registerMessageEvents(handler, ListenerType.ANY);
+				gate.open();
+				bus.postEvent(new MessageEvent(gate, null, "second"));
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+				while (handler.handled.get() < 2 * round 
+						&& System.nanoTime() < deadline)
+					Thread.sleep(1);
+				assertEquals(2 * round, handler.handled.get());
+			}
+			assertFalse("handler called concurrently", handler.concurrent);
+		} finally {
+			bus.stop();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * unregister a handler with an idle mailbox, while the event thread is
+	 * about to post to it, and check that the event is still handled
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void postingToRemovedMailboxStillDelivers() 
+			throws InterruptedException {
+		GateHandler gate = new GateHandler();
+		messageBus.registerMessageEvents(gate, ListenerType.ANY);
+		SleepingHandler handler = new SleepingHandler();
+		messageBus.registerMessageEvents(handler, ListenerType.ANY);
+		gate.close();
+		messageBus.postEvent(new MessageEvent(gate, null, "first"));
+		assertTrue(gate.entered.tryAcquire(10, TimeUnit.SECONDS));
+		messageBus.unregisterMessageEvents(handler);
+		gate.open();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (handler.handled.get() < 1 && System.nanoTime() < deadline)
+			Thread.sleep(1);
+		assertEquals(1, handler.handled.get());
+	}
+
+	/**
+	 * An asynchronous handler, that holds the event thread while it is
+	 * closed
+	 */
+	private static final class GateHandler implements AsyncEventHandler {
+		final Semaphore entered = new Semaphore(0);
+		private volatile CountDownLatch gate = new CountDownLatch(0);
+
+		/**
+		 * hold the event thread at the next event
+		 */
+		void close() {
+			entered.drainPermits();
+			gate = new CountDownLatch(1);
+		}
+
+		/**
+		 * let the event thread go on
+		 */
+		void open() {
+			gate.countDown();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.AsyncEventHandler#handleAsync(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public CompletionStage<?> handleAsync(Event event) {
+			entered.release();
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+
+	/**
+	 * A handler sleeping a little in every event, which notes if it is 
+	 * called concurrently
+	 */
+	private static final class SleepingHandler implements EventHandler {
+		final AtomicInteger handled = new AtomicInteger();
+		private final AtomicInteger active = new AtomicInteger();
+		volatile boolean concurrent;
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			if (active.incrementAndGet() > 1)
+				concurrent = true;
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			active.decrementAndGet();
+			handled.incrementAndGet();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+
+	/**
+	 * A handler blocking in its first event until it is released
+	 */
+	private static final class BlockingHandler implements EventHandler {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch handled = new CountDownLatch(2 * EVENTS);
+		final List<String> messages = 
+				Collections.synchronizedList(new ArrayList<String>());
+		private final AtomicInteger active = new AtomicInteger();
+		volatile boolean concurrent;
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			if (active.incrementAndGet() > 1)
+				concurrent = true;
+			try {
+				entered.countDown();
+				release.await();
+				// give a second mailbox the chance to run
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			messages.add(((MessageEvent) event).getMessage());
+			active.decrementAndGet();
+			handled.countDown();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+}
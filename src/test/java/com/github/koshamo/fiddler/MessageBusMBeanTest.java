@@ -0,0 +1,147 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests reading the metrics of the <code>MessageBus</code> through the
+ * platform MBean server.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class MessageBusMBeanTest {
+	private static final int EVENTS = 10;
+	private static final String NAME = "MessageBusMBeanTest";
+
+	private MBeanServer server;
+	private MessageBus messageBus;
+
+	/**
+	 * create the message bus
+	 */
+	@Before
+	public void setUp() {
+		server = ManagementFactory.getPlatformMBeanServer();
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * the attributes of the registered bean show the metrics of the
+	 * message bus
+	 * @throws Exception	if an attribute can't be read
+	 */
+	@Test
+	public void attributesShowMetrics() throws Exception {
+		ObjectName name = messageBus.registerMBean(NAME);
+		assertTrue(server.isRegistered(name));
+		CountDownLatch handled = new CountDownLatch(EVENTS);
+		EventHandler handler = new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				handled.countDown();
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to clean up
+			}
+		};
+		messageBus.registerMessageEvents(handler, ListenerType.ANY);
+		for (int i = 0; i < EVENTS; i++)
+			assertTrue(messageBus.postEvent(
+					new MessageEvent(handler, null, "mbean")));
+		assertTrue(handled.await(10, TimeUnit.SECONDS));
+		// the bean takes a new snapshot at most ten times a second
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (((Long) server.getAttribute(name, "DispatchedEvents")).longValue()
+				< EVENTS && System.nanoTime() < deadline)
+			Thread.sleep(20);
+		assertEquals(Long.valueOf(EVENTS), server.getAttribute(name, "PostedEvents"));
+		assertEquals(Long.valueOf(EVENTS), server.getAttribute(name, "DispatchedEvents"));
+		assertEquals(Integer.valueOf(0), server.getAttribute(name, "QueueDepth"));
+		assertEquals(Long.valueOf(1), server.getAttribute(name, "Registrations"));
+		long median = ((Long) server.getAttribute(name,
+				"MedianLatencyNanos")).longValue();
+		long p99 = ((Long) server.getAttribute(name,
+				"99thPercentileLatencyNanos")).longValue();
+		long p999 = ((Long) server.getAttribute(name,
+				"999thPercentileLatencyNanos")).longValue();
+		long max = ((Long) server.getAttribute(name,
+				"MaxLatencyNanos")).longValue();
+		assertTrue(median > 0);
+		assertTrue(median <= p99);
+		assertTrue(p99 <= p999);
+		assertTrue(p999 <= max);
+		TabularData perClass = (TabularData) server.getAttribute(name,
+				"PostedEventsPerClass");
+		CompositeData row = perClass.get(
+				new Object[] { MessageEvent.class.getName() });
+		assertEquals(Long.valueOf(EVENTS), row.get("value"));
+	}
+
+	/**
+	 * stopping the message bus unregisters its bean, so the name can be
+	 * used by another message bus
+	 */
+	@Test
+	public void stopUnregistersBean() {
+		ObjectName name = messageBus.registerMBean(NAME);
+		try {
+			messageBus.registerMBean(NAME);
+			throw new AssertionError("Registered twice");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		messageBus.stop();
+		assertFalse(server.isRegistered(name));
+		MessageBus other = new MessageBus(WaitStrategy.BLOCKING,
+				DispatchMode.SEQUENTIAL);
+		try {
+			assertEquals(name, other.registerMBean(NAME));
+			assertTrue(server.isRegistered(name));
+		} finally {
+			other.stop();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests the delivery of data events to handlers registered with a
+ * <code>MetaFilter</code> and to the handlers without filter.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class MetaFilterDispatchTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	private MessageBus messageBus;
+	private List<String> received;
+
+	/**
+	 * create the message bus distributing the events in order
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		received = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * a filtered handler receives only the events with accepted meta
+	 * information, a handler without filter receives all of them
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void filterSelectsMetaInformation() throws InterruptedException {
+		messageBus.register(RegionEvent.class, MetaFilter.in("EU", "US"),
+				new Recorder("filtered"), ListenerType.ANY);
+		messageBus.register(RegionEvent.class, new Recorder("all"),
+				ListenerType.ANY);
+		post(new RegionEvent(null, "EU"), new RegionEvent(null, "ASIA"),
+				new RegionEvent(null, "US"));
+		assertEquals(Arrays.asList("filtered:EU", "all:EU", "all:ASIA",
+				"filtered:US", "all:US"), received);
+	}
+
+	/**
+	 * the filtered handlers and the handlers without filter receive an
+	 * event in the order of their registration
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void handlersKeepRegistrationOrder() throws InterruptedException {
+		messageBus.register(RegionEvent.class, new Recorder("first"),
+				ListenerType.ANY);
+		messageBus.register(RegionEvent.class, MetaFilter.equalTo("EU"),
+				new Recorder("second"), ListenerType.ANY);
+		messageBus.register(RegionEvent.class, new Recorder("third"),
+				ListenerType.ANY);
+		messageBus.register(RegionEvent.class, MetaFilter.in("EU", "US"),
+				new Recorder("fourth"), ListenerType.ANY);
+		post(new RegionEvent(null, "EU"), new RegionEvent(null, "US"));
+		assertEquals(Arrays.asList("first:EU", "second:EU", "third:EU",
+				"fourth:EU", "first:US", "third:US", "fourth:US"), received);
+	}
+
+	/**
+	 * a targeted event reaches the filtered and unfiltered any handlers
+	 * and its target, if the target's filter accepts it
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void targetedEventsRespectFilters() throws InterruptedException {
+		Recorder target = new Recorder("target");
+		Recorder other = new Recorder("other");
+		messageBus.register(RegionEvent.class, MetaFilter.equalTo("EU"),
+				target, ListenerType.TARGET);
+		messageBus.register(RegionEvent.class, MetaFilter.equalTo("EU"),
+				other, ListenerType.TARGET);
+		messageBus.register(RegionEvent.class, MetaFilter.equalTo("EU"),
+				new Recorder("filteredAny"), ListenerType.ANY);
+		messageBus.register(RegionEvent.class, new Recorder("any"),
+				ListenerType.ANY);
+		post(new RegionEvent(target, "EU"), new RegionEvent(target, "US"));
+		assertEquals(Arrays.asList("target:EU", "filteredAny:EU", "any:EU",
+				"any:US"), received);
+	}
+
+	/**
+	 * post the events and wait until they have been distributed
+	 * @param events	the events to be posted
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	private void post(Event... events) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		EventHandler marker = new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				done.countDown();
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to clean up
+			}
+		};
+		messageBus.register(MessageEvent.class, marker, ListenerType.ANY);
+		for (Event ev : events)
+			messageBus.postEvent(ev);
+		// the events are distributed in order, so the marker is last
+		messageBus.postEvent(new MessageEvent(SOURCE, null, "done"));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * records the meta information of the events it receives
+	 */
+	private final class Recorder implements EventHandler {
+		private final String name;
+
+		Recorder(String name) {
+			this.name = name;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			received.add(name + ":" + ((RegionEvent) event).getMetaInformation());
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+
+	/**
+	 * a data event with the region as meta information
+	 */
+	private static final class RegionEvent extends DataEvent<String, Integer> {
+		RegionEvent(EventHandler target, String region) {
+			super(SOURCE, target, region, Integer.valueOf(0));
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests switching the metrics of the <code>MessageBus</code> off and on.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class MetricsSwitchTest {
+	private static final int EVENTS = 10;
+
+	private MessageBus messageBus;
+	private LatchHandler handler;
+
+	/**
+	 * create a message bus with a single handler
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		handler = new LatchHandler();
+		messageBus.registerAllEvents(handler, ListenerType.ANY);
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * without metrics the events are handled, but not counted
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void switchedOffMetricsStayUnchanged() throws InterruptedException {
+		assertTrue(messageBus.isMetricsEnabled());
+		messageBus.setMetricsEnabled(false);
+		assertFalse(messageBus.isMetricsEnabled());
+		postAndAwait();
+		MetricsSnapshot snapshot = messageBus.getMetrics();
+		assertEquals(0, snapshot.getPostedEvents());
+		assertEquals(0, snapshot.getDispatchedEvents());
+		assertEquals(0, snapshot.getLatencyCount());
+		assertEquals(0, snapshot.getHandlerStatistics().get(0).getHandledEvents());
+		messageBus.setMetricsEnabled(true);
+		postAndAwait();
+		snapshot = messageBus.getMetrics();
+		assertEquals(EVENTS, snapshot.getPostedEvents());
+		assertEquals(EVENTS, snapshot.getDispatchedEvents());
+		assertEquals(EVENTS, snapshot.getLatencyCount());
+	}
+
+	/**
+	 * the slow handler listener still works without metrics
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void slowHandlerListenerWorksWithoutMetrics() 
+			throws InterruptedException {
+		CountDownLatch slow = new CountDownLatch(EVENTS);
+		messageBus.setSlowHandlerListener(0, TimeUnit.NANOSECONDS, 
+				(h, ev, nanos, depth) -> slow.countDown());
+		messageBus.setMetricsEnabled(false);
+		postAndAwait();
+		assertTrue(slow.await(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * post the events and wait until they have been handled
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	private void postAndAwait() throws InterruptedException {
+		handler.expect(EVENTS);
+		for (int i = 0; i < EVENTS; i++)
+			assertTrue(messageBus.postEvent(
+					new MessageEvent(handler, null, "metrics")));
+		assertTrue(handler.await());
+	}
+
+	/**
+	 * A handler counting down a latch for every event
+	 */
+	private static final class LatchHandler implements EventHandler {
+		private volatile CountDownLatch latch;
+
+		/**
+		 * prepare to wait for the given number of events
+		 * @param events	the number of events
+		 */
+		void expect(int events) {
+			latch = new CountDownLatch(events);
+		}
+
+		/**
+		 * wait for the expected events
+		 * @return	true, if all events have been handled in time
+		 * @throws InterruptedException	if interrupted while waiting
+		 */
+		boolean await() throws InterruptedException {
+			return latch.await(10, TimeUnit.SECONDS);
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			latch.countDown();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+}
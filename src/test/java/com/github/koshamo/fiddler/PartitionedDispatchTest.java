@@ -0,0 +1,209 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests, that a message bus in <code>DispatchMode.PARTITIONED</code> 
+ * handles the events of the same partition key one at a time in the order
+ * they have been posted, and the events of different keys in parallel.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class PartitionedDispatchTest {
+	private static final int PARTITIONS = 4;
+	private static final int KEYS = 16;
+	private static final int EVENTS_PER_KEY = 500;
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to shut down
+		}
+	};
+
+	private MessageBus messageBus;
+
+	/**
+	 * create a partitioned message bus
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(new LinkedEventQueue(), 
+				WaitStrategy.BLOCKING, PARTITIONS);
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * post the events of many keys interleaved from several threads, each
+	 * thread posting its own keys, and check that every key sees its events
+	 * in order and never two of them at once
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void eventsOfAKeyKeepTheirOrder() throws InterruptedException {
+		Map<Integer, List<Integer>> handled = new ConcurrentHashMap<>();
+		Map<Integer, AtomicBoolean> busy = new ConcurrentHashMap<>();
+		AtomicBoolean overlap = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(KEYS * EVENTS_PER_KEY);
+		for (int key = 0; key < KEYS; key++) {
+			handled.put(Integer.valueOf(key), new ArrayList<>());
+			busy.put(Integer.valueOf(key), new AtomicBoolean());
+		}
+		messageBus.register(KeyedEvent.class, new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				KeyedEvent ev = (KeyedEvent) event;
+				AtomicBoolean keyBusy = busy.get(ev.key);
+				if (!keyBusy.compareAndSet(false, true))
+					overlap.set(true);
+				if (ThreadLocalRandom.current().nextInt(64) == 0)
+					Thread.yield();
+				// only the partition of the key adds to its list
+				handled.get(ev.key).add(Integer.valueOf(ev.sequence));
+				keyBusy.set(false);
+				done.countDown();
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to shut down
+			}
+		}, ListenerType.ANY);
+
+		Thread[] producers = new Thread[PARTITIONS];
+		for (int p = 0; p < producers.length; p++) {
+			int first = p;
+			producers[p] = new Thread(() -> {
+				for (int i = 0; i < EVENTS_PER_KEY; i++)
+					for (int key = first; key < KEYS; key += PARTITIONS)
+						messageBus.postEvent(new KeyedEvent(
+								Integer.valueOf(key), i));
+			});
+			producers[p].start();
+		}
+		for (Thread producer : producers)
+			producer.join();
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+
+		assertFalse(overlap.get());
+		for (int key = 0; key < KEYS; key++) {
+			List<Integer> sequences = handled.get(Integer.valueOf(key));
+			assertEquals(EVENTS_PER_KEY, sequences.size());
+			for (int i = 0; i < EVENTS_PER_KEY; i++)
+				assertEquals("key " + key, i, sequences.get(i).intValue());
+		}
+	}
+
+	/**
+	 * block the handler in an event of one key until the event of another
+	 * key, which is posted later, has been handled. This only completes if
+	 * the two keys are handled in parallel.
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void differentKeysAreHandledInParallel() 
+			throws InterruptedException {
+		// the keys 0 and 1 hash to different partitions
+		CountDownLatch second = new CountDownLatch(1);
+		CountDownLatch first = new CountDownLatch(1);
+		messageBus.register(KeyedEvent.class, new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				KeyedEvent ev = (KeyedEvent) event;
+				if (ev.key.intValue() == 1) {
+					second.countDown();
+					return;
+				}
+				try {
+					if (second.await(10, TimeUnit.SECONDS))
+						first.countDown();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to shut down
+			}
+		}, ListenerType.ANY);
+
+		messageBus.postEvent(new KeyedEvent(Integer.valueOf(0), 0));
+		messageBus.postEvent(new KeyedEvent(Integer.valueOf(1), 0));
+		assertTrue(first.await(20, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * An event with an explicit partition key and a sequence number
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class KeyedEvent extends Event {
+		final Integer key;
+		final int sequence;
+
+		/**
+		 * Create the event
+		 * @param key		the partition key
+		 * @param sequence	the number of the event within its key
+		 */
+		KeyedEvent(Integer key, int sequence) {
+			super(SOURCE, null);
+			this.key = key;
+			this.sequence = sequence;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.Event#getPartitionKey()
+		 */
+		@Override
+		public Object getPartitionKey() {
+			return key;
+		}
+	}
+}
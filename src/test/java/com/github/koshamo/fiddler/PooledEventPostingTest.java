@@ -0,0 +1,196 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests, that the <code>MessageBus</code> rejects pooled events, that are
+ * not claimed or posted twice, and survives handlers releasing an event
+ * once too often.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class PooledEventPostingTest {
+	private MessageBus messageBus;
+	private EventPool<PooledDataEvent<String, Integer>> pool;
+	private RecordingHandler handler;
+	private UncaughtExceptionHandler defaultHandler;
+	private LinkedBlockingQueue<Throwable> uncaught;
+
+	/**
+	 * create the message bus, the pool and a handler and record the 
+	 * uncaught exceptions
+	 */
+	@Before
+	public void setUp() {
+		defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+		uncaught = new LinkedBlockingQueue<>();
+		Thread.setDefaultUncaughtExceptionHandler((t, e) -> uncaught.add(e));
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		pool = new EventPool<>(4, PooledDataEvent::new);
+		handler = new RecordingHandler();
+		messageBus.registerDataEvents(handler, ListenerType.ANY);
+	}
+
+	/**
+	 * stop the message bus and restore the default uncaught exception 
+	 * handler
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+		Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+	}
+
+	/**
+	 * an event not claimed from a pool is rejected
+	 */
+	@Test
+	public void unclaimedEventIsRejected() {
+		assertFalse(messageBus.postEvent(new PooledDataEvent<String, Integer>()));
+		PooledDataEvent<String, Integer> ev = claim(1);
+		ev.release();
+		assertFalse(messageBus.postEvent(ev));
+		assertTrue(uncaught.isEmpty());
+	}
+
+	/**
+	 * an event posted twice is rejected the second time and given back to
+	 * its pool once
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void eventPostedTwiceIsRejected() throws InterruptedException {
+		int available = pool.getAvailable();
+		PooledDataEvent<String, Integer> ev = claim(1);
+		assertTrue(messageBus.postEvent(ev));
+		assertFalse(messageBus.postEvent(ev));
+		assertEquals(Integer.valueOf(1), handler.take());
+		assertTrue(awaitAvailable(available));
+		assertTrue(uncaught.isEmpty());
+	}
+
+	/**
+	 * a batch with the same event twice is rejected as a whole, its events
+	 * may be posted afterwards
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void batchWithDuplicateIsRejected() throws InterruptedException {
+		PooledDataEvent<String, Integer> first = claim(1);
+		PooledDataEvent<String, Integer> second = claim(2);
+		assertFalse(messageBus.postEvents(Arrays.asList(first, second, first)));
+		assertTrue(messageBus.postEvents(Arrays.asList(first, second)));
+		assertEquals(Integer.valueOf(1), handler.take());
+		assertEquals(Integer.valueOf(2), handler.take());
+	}
+
+	/**
+	 * a handler releasing the event once too often doesn't stop the event 
+	 * thread, the exception is passed to the uncaught exception handler
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void releasingTooOftenKeepsEventThreadAlive() 
+			throws InterruptedException {
+		handler.releaseInHandler = true;
+		assertTrue(messageBus.postEvent(claim(1)));
+		assertEquals(Integer.valueOf(1), handler.take());
+		Throwable e = uncaught.poll(10, TimeUnit.SECONDS);
+		assertTrue(String.valueOf(e), e instanceof IllegalStateException);
+		handler.releaseInHandler = false;
+		assertTrue(messageBus.postEvent(claim(2)));
+		assertEquals(Integer.valueOf(2), handler.take());
+	}
+
+	/**
+	 * claim an event from the pool and fill it in
+	 * @param data	the data of the event
+	 * @return		the event
+	 */
+	private PooledDataEvent<String, Integer> claim(int data) {
+		PooledDataEvent<String, Integer> ev = pool.claim();
+		ev.set(handler, null, "pooled", Integer.valueOf(data));
+		return ev;
+	}
+
+	/**
+	 * wait until the pool has the given number of events available
+	 * @param available	the number of events
+	 * @return			true, if the events are available in time
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	private boolean awaitAvailable(int available) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (pool.getAvailable() != available) {
+			if (System.nanoTime() > deadline)
+				return false;
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+	/**
+	 * A handler recording the data of the events
+	 */
+	private static final class RecordingHandler implements EventHandler {
+		private final LinkedBlockingQueue<Object> data = new LinkedBlockingQueue<>();
+		volatile boolean releaseInHandler;
+
+		/**
+		 * take the data of the next handled event
+		 * @return	the data, null if there is no event in time
+		 * @throws InterruptedException	if interrupted while waiting
+		 */
+		Object take() throws InterruptedException {
+			return data.poll(10, TimeUnit.SECONDS);
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			PooledDataEvent<?, ?> ev = (PooledDataEvent<?, ?>) event;
+			data.add(ev.getData());
+			if (releaseInHandler)
+				ev.release();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.BoundedEventQueue.OverflowPolicy;
+
+/**
+ * Tests, that the <code>PriorityEventQueue</code> queues the events of a
+ * batch spanning several lanes either all or none.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class PriorityEventQueueTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	/**
+	 * a batch is rejected as a whole, if one of its lanes is full
+	 */
+	@Test
+	public void batchIsRejectedIfOneLaneIsFull() {
+		PriorityEventQueue queue = new PriorityEventQueue(p -> 
+				p == EventPriority.NORMAL 
+						? new BoundedEventQueue(2, OverflowPolicy.REJECT)
+						: new LinkedEventQueue());
+		queue.setPriority(UrgentEvent.class, EventPriority.HIGH);
+		Event a = new MessageEvent(SOURCE, null, "a");
+		Event b = new MessageEvent(SOURCE, null, "b");
+		assertTrue(queue.offerAll(Arrays.asList(a, b)));
+		assertFalse(queue.offerAll(Arrays.asList(
+				new UrgentEvent(), new MessageEvent(SOURCE, null, "c"))));
+		assertEquals(2, queue.size());
+		assertTrue(queue.getLane(EventPriority.HIGH).isEmpty());
+		assertSame(a, queue.poll());
+		Event urgent = new UrgentEvent();
+		Event c = new MessageEvent(SOURCE, null, "c");
+		assertTrue(queue.offerAll(Arrays.asList(c, urgent)));
+		assertSame(urgent, queue.poll());
+		assertSame(b, queue.poll());
+		assertSame(c, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	/**
+	 * the space of a ring buffer lane is checked, too
+	 */
+	@Test
+	public void ringBufferLaneIsChecked() {
+		PriorityEventQueue queue = new PriorityEventQueue(p -> 
+				new RingBufferEventQueue(2));
+		queue.setPriority(UrgentEvent.class, EventPriority.HIGH);
+		assertTrue(queue.offer(new UrgentEvent()));
+		assertTrue(queue.offer(new UrgentEvent()));
+		assertFalse(queue.offerAll(Arrays.asList(
+				new MessageEvent(SOURCE, null, "a"), new UrgentEvent())));
+		assertTrue(queue.getLane(EventPriority.NORMAL).isEmpty());
+		assertEquals(2, queue.size());
+	}
+
+	/**
+	 * An event distributed with high priority
+	 */
+	private static final class UrgentEvent extends Event {
+		/**
+		 * Create the event
+		 */
+		UrgentEvent() {
+			super(SOURCE, null);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests registering and unregistering handlers while the events are
+ * distributed, which takes effect with the next batch of events.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class RegistrySnapshotTest {
+	private static final int EVENTS = 10000;
+
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	private MessageBus messageBus;
+	private List<String> received;
+
+	/**
+	 * create the message bus distributing the events in order
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		received = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * a handler unregistering itself and another handler while handling
+	 * an event doesn't disturb the distribution of this event, the next
+	 * events don't reach them anymore
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void unregisterDuringDispatch() throws InterruptedException {
+		Recorder second = new Recorder("second");
+		messageBus.register(NamedEvent.class, new Recorder("first") {
+			@Override
+			public void handle(Event event) {
+				super.handle(event);
+				messageBus.unregister(NamedEvent.class, this);
+				messageBus.unregister(NamedEvent.class, second);
+			}
+		}, ListenerType.ANY);
+		messageBus.register(NamedEvent.class, second, ListenerType.ANY);
+		messageBus.register(NamedEvent.class, new Recorder("third"),
+				ListenerType.ANY);
+		post(new NamedEvent("a"));
+		post(new NamedEvent("b"));
+		assertEquals(Arrays.asList("first:a", "second:a", "third:a",
+				"third:b"), received);
+	}
+
+	/**
+	 * a handler registered while an event is handled receives the next
+	 * events
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void registerDuringDispatch() throws InterruptedException {
+		Recorder later = new Recorder("later");
+		messageBus.register(NamedEvent.class, new Recorder("first") {
+			@Override
+			public void handle(Event event) {
+				super.handle(event);
+				messageBus.register(NamedEvent.class, later, 
+						ListenerType.ANY);
+			}
+		}, ListenerType.ANY);
+		post(new NamedEvent("a"));
+		post(new NamedEvent("b"));
+		assertEquals(Arrays.asList("first:a", "first:b", "later:b"), 
+				received);
+	}
+
+	/**
+	 * registering and unregistering a handler from another thread all the
+	 * time doesn't disturb the delivery of the events to the other handlers
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void concurrentChangesKeepDelivery() throws InterruptedException {
+		AtomicInteger handled = new AtomicInteger();
+		messageBus.register(NamedEvent.class, new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				handled.incrementAndGet();
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to clean up
+			}
+		}, ListenerType.ANY);
+		Recorder toggled = new Recorder("toggled");
+		Thread changer = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				messageBus.register(NamedEvent.class, toggled, 
+						ListenerType.ANY);
+				messageBus.unregister(NamedEvent.class, toggled);
+			}
+		});
+		changer.start();
+		try {
+			NamedEvent[] events = new NamedEvent[EVENTS];
+			for (int i = 0; i < EVENTS; i++)
+				events[i] = new NamedEvent(Integer.toString(i));
+			post(events);
+		} finally {
+			changer.interrupt();
+			changer.join();
+		}
+		assertEquals(EVENTS, handled.get());
+	}
+
+	/**
+	 * post the events and wait until they have been distributed
+	 * @param events	the events to be posted
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	private void post(Event... events) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		EventHandler marker = new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				done.countDown();
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to clean up
+			}
+		};
+		messageBus.register(MessageEvent.class, marker, ListenerType.ANY);
+		for (Event ev : events)
+			messageBus.postEvent(ev);
+		// the events are distributed in order, so the marker is last
+		messageBus.postEvent(new MessageEvent(SOURCE, null, "done"));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		messageBus.unregister(MessageEvent.class, marker);
+	}
+
+	/**
+	 * records the names of the events it receives
+	 */
+	private class Recorder implements EventHandler {
+		private final String name;
+
+		Recorder(String name) {
+			this.name = name;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			if (event instanceof NamedEvent)
+				received.add(name + ":" + ((NamedEvent) event).name);
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+
+	/**
+	 * an event with a name
+	 */
+	private static final class NamedEvent extends Event {
+		final String name;
+
+		NamedEvent(String name) {
+			super(SOURCE, null);
+			this.name = name;
+		}
+	}
+}
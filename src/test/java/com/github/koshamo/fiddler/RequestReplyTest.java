@@ -0,0 +1,217 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests posting requests with <code>MessageBus.postRequest()</code> and
+ * answering them with <code>MessageBus.reply()</code>.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class RequestReplyTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	private MessageBus messageBus;
+
+	/**
+	 * create the message bus
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * the reply of the answering handler completes the future
+	 * @throws Exception	if waiting for the reply fails
+	 */
+	@Test
+	public void replyCompletesFuture() throws Exception {
+		messageBus.registerRequestEvents(new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				QuestionEvent request = (QuestionEvent) event;
+				messageBus.reply(request, new AnswerEvent(this,
+						request.getSource(), request.getMetaInformation()));
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to clean up
+			}
+		}, ListenerType.ANY);
+		QuestionEvent request = new QuestionEvent("question");
+		CompletableFuture<DataEvent<?, ?>> future =
+				messageBus.postRequest(request, 5, TimeUnit.SECONDS);
+		DataEvent<?, ?> reply = future.get(5, TimeUnit.SECONDS);
+		assertEquals("question", reply.getMetaInformation());
+		assertSame(SOURCE, reply.getTarget());
+		awaitNoPendingRequests();
+		assertFalse(messageBus.reply(request, new AnswerEvent(SOURCE, null, "again")));
+	}
+
+	/**
+	 * a request without a reply times out and is not pending anymore
+	 * @throws Exception	if waiting fails
+	 */
+	@Test
+	public void timeoutRemovesRequest() throws Exception {
+		QuestionEvent request = new QuestionEvent("question");
+		CompletableFuture<DataEvent<?, ?>> future =
+				messageBus.postRequest(request, 10, TimeUnit.MILLISECONDS);
+		assertCause(TimeoutException.class, future);
+		awaitNoPendingRequests();
+		assertFalse(messageBus.reply(request, new AnswerEvent(SOURCE, null, "late")));
+	}
+
+	/**
+	 * a request posted to a stopped message bus is rejected and not
+	 * pending, whether the bus has had requests before or not
+	 * @throws Exception	if waiting fails
+	 */
+	@Test
+	public void postingAfterStopIsRejected() throws Exception {
+		messageBus.stop();
+		assertCause(RejectedExecutionException.class, messageBus.postRequest(
+				new QuestionEvent("first"), 5, TimeUnit.SECONDS));
+		assertEquals(0, messageBus.getPendingRequests());
+
+		MessageBus used = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		try {
+			CompletableFuture<DataEvent<?, ?>> before = used.postRequest(
+					new QuestionEvent("before"), 10, TimeUnit.MILLISECONDS);
+			used.stop();
+			assertCause(TimeoutException.class, before);
+			assertCause(RejectedExecutionException.class, used.postRequest(
+					new QuestionEvent("after"), 5, TimeUnit.SECONDS));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (used.getPendingRequests() > 0 && System.nanoTime() < deadline)
+				Thread.sleep(1);
+			assertEquals(0, used.getPendingRequests());
+		} finally {
+			used.stop();
+		}
+	}
+
+	/**
+	 * a reply at another message bus doesn't complete the request, even
+	 * if that bus is waiting for requests itself
+	 * @throws Exception	if waiting fails
+	 */
+	@Test
+	public void replyAtOtherBusIsIgnored() throws Exception {
+		MessageBus other = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		try {
+			QuestionEvent request = new QuestionEvent("question");
+			CompletableFuture<DataEvent<?, ?>> future =
+					messageBus.postRequest(request, 5, TimeUnit.SECONDS);
+			CompletableFuture<DataEvent<?, ?>> otherFuture = other.postRequest(
+					new QuestionEvent("other"), 5, TimeUnit.SECONDS);
+			assertFalse(other.reply(request, new AnswerEvent(SOURCE, null, "wrong")));
+			assertFalse(future.isDone());
+			assertFalse(otherFuture.isDone());
+			assertTrue(messageBus.reply(request, new AnswerEvent(SOURCE, null, "right")));
+			assertEquals("right", future.get(5, TimeUnit.SECONDS).getMetaInformation());
+		} finally {
+			other.stop();
+		}
+	}
+
+	/**
+	 * wait for the pending request to be removed, which happens right
+	 * after completing its future
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	private void awaitNoPendingRequests() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (messageBus.getPendingRequests() > 0 && System.nanoTime() < deadline)
+			Thread.sleep(1);
+		assertEquals(0, messageBus.getPendingRequests());
+	}
+
+	/**
+	 * check, that the future completes exceptionally with the cause
+	 * @param cause		the class of the expected cause
+	 * @param future	the future to check
+	 * @throws InterruptedException	if interrupted while waiting
+	 * @throws TimeoutException		if the future doesn't complete in time
+	 */
+	private static void assertCause(Class<? extends Throwable> cause,
+			CompletableFuture<?> future)
+			throws InterruptedException, TimeoutException {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("The future must complete exceptionally");
+		} catch (ExecutionException e) {
+			assertSame(cause, e.getCause().getClass());
+		}
+	}
+
+	/**
+	 * the request of the tests
+	 */
+	private static final class QuestionEvent extends RequestEvent<String> {
+		QuestionEvent(String meta) {
+			super(SOURCE, null, meta);
+		}
+	}
+
+	/**
+	 * the answer of the tests
+	 */
+	private static final class AnswerEvent extends DataEvent<String, String> {
+		AnswerEvent(EventHandler source, EventHandler target, String meta) {
+			super(source, target, meta, meta);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests the capacity of the <code>RingBufferEventQueue</code>.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class RingBufferEventQueueTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	/**
+	 * the capacity is rounded up to a power of two
+	 */
+	@Test
+	public void capacityIsRoundedUp() {
+		assertEquals(2, new RingBufferEventQueue(2).getCapacity());
+		assertEquals(4, new RingBufferEventQueue(3).getCapacity());
+		assertEquals(1024, new RingBufferEventQueue(1000).getCapacity());
+	}
+
+	/**
+	 * a ring buffer created with the capacity 1 doesn't overwrite an event
+	 * not taken yet
+	 */
+	@Test
+	public void smallestRingBufferKeepsItsEvents() {
+		RingBufferEventQueue queue = new RingBufferEventQueue(1);
+		assertEquals(2, queue.getCapacity());
+		Event first = new MessageEvent(SOURCE, null, "first");
+		Event second = new MessageEvent(SOURCE, null, "second");
+		assertTrue(queue.offer(first));
+		assertTrue(queue.offer(second));
+		assertFalse(queue.offer(new MessageEvent(SOURCE, null, "third")));
+		assertSame(first, queue.poll());
+		assertSame(second, queue.poll());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * events offered together fit as long as there is space for all of 
+	 * them
+	 */
+	@Test
+	public void offerAllRespectsCapacity() {
+		RingBufferEventQueue queue = new RingBufferEventQueue(1);
+		Event first = new MessageEvent(SOURCE, null, "first");
+		Event second = new MessageEvent(SOURCE, null, "second");
+		assertFalse(queue.offerAll(Arrays.asList(first, second, first)));
+		assertTrue(queue.offerAll(Arrays.asList(first, second)));
+		assertEquals(2, queue.size());
+		assertSame(first, queue.poll());
+		assertSame(second, queue.poll());
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests many message buses distributing their events on a single shared
+ * executor.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class SharedExecutorDispatchTest {
+	private static final int BUSES = 20;
+	private static final int EVENTS = 500;
+	private static final int THREADS = 2;
+
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	private AtomicInteger createdThreads;
+	private Set<Thread> poolThreads;
+	private ExecutorService executor;
+	private List<MessageBus> buses;
+
+	/**
+	 * create the shared executor, which records its threads
+	 */
+	@Before
+	public void setUp() {
+		createdThreads = new AtomicInteger();
+		poolThreads = Collections.synchronizedSet(new HashSet<>());
+		executor = Executors.newFixedThreadPool(THREADS, r -> {
+			Thread t = new Thread(r, "shared-" + createdThreads.incrementAndGet());
+			t.setDaemon(true);
+			poolThreads.add(t);
+			return t;
+		});
+		buses = new ArrayList<>();
+	}
+
+	/**
+	 * stop the message buses and the executor
+	 */
+	@After
+	public void tearDown() {
+		for (MessageBus bus : buses)
+			bus.stop();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * every bus delivers its events in order to its handler, which is never
+	 * called concurrently, and all buses together use only the threads of
+	 * the shared executor
+	 * @throws Exception	if waiting fails
+	 */
+	@Test
+	public void busesShareThreadsAndKeepOrder() throws Exception {
+		int threadsBefore = Thread.getAllStackTraces().size();
+		CountDownLatch done = new CountDownLatch(BUSES * EVENTS);
+		List<OrderHandler> handlers = new ArrayList<>();
+		for (int i = 0; i < BUSES; i++) {
+			MessageBus bus = new MessageBus(executor);
+			buses.add(bus);
+			OrderHandler handler = new OrderHandler(done);
+			handlers.add(handler);
+			bus.registerAllEvents(handler, ListenerType.ANY);
+		}
+		// the buses don't start threads of their own
+		assertTrue(Thread.getAllStackTraces().size() <= threadsBefore + THREADS);
+		for (int n = 0; n < EVENTS; n++)
+			for (MessageBus bus : buses)
+				bus.postEvent(new MessageEvent(SOURCE, null, Integer.toString(n)));
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		for (OrderHandler handler : handlers) {
+			assertEquals(EVENTS, handler.next);
+			assertTrue(handler.inOrder);
+			assertTrue(handler.sequential);
+			assertTrue(poolThreads.containsAll(handler.threads));
+		}
+		assertTrue(createdThreads.get() <= THREADS);
+		// idle buses don't hold on to the threads of the executor
+		executor.submit(() -> { /* nothing to do */ }).get(5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * A handler checking the order of the events of its bus
+	 */
+	private static final class OrderHandler implements EventHandler {
+		private final CountDownLatch done;
+		private final AtomicBoolean handling = new AtomicBoolean();
+		final Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+		volatile int next;
+		volatile boolean inOrder = true;
+		volatile boolean sequential = true;
+
+		/**
+		 * Create the handler
+		 * @param done	counted down for every event
+		 */
+		OrderHandler(CountDownLatch done) {
+			this.done = done;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			if (!(event instanceof MessageEvent))
+				return;
+			if (!handling.compareAndSet(false, true))
+				sequential = false;
+			threads.add(Thread.currentThread());
+			int n = Integer.parseInt(((MessageEvent) event).getMessage());
+			if (n != next)
+				inOrder = false;
+			next = n + 1;
+			handling.set(false);
+			done.countDown();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests the delivery of events with a target to their target and the
+ * handlers registered with <code>ListenerType.ANY</code> only.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class TargetedDispatchTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	private MessageBus messageBus;
+	private List<String> received;
+
+	/**
+	 * create the message bus distributing the events in order
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		received = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * a targeted event reaches its target and the any handlers in the
+	 * order of their registration, but no other target handler
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void targetedEventReachesOnlyTarget() throws InterruptedException {
+		Recorder first = new Recorder("first");
+		Recorder second = new Recorder("second");
+		messageBus.register(NamedEvent.class, first, ListenerType.TARGET);
+		messageBus.register(NamedEvent.class, new Recorder("any"),
+				ListenerType.ANY);
+		messageBus.register(NamedEvent.class, second, ListenerType.TARGET);
+		post(new NamedEvent(second, "a"), new NamedEvent(first, "b"));
+		assertEquals(Arrays.asList("any:a", "second:a", "first:b", "any:b"),
+				received);
+	}
+
+	/**
+	 * an event without target reaches every handler, an event targeted
+	 * to an unregistered handler reaches only the any handlers
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void untargetedEventReachesAll() throws InterruptedException {
+		messageBus.register(NamedEvent.class, new Recorder("first"),
+				ListenerType.TARGET);
+		messageBus.register(NamedEvent.class, new Recorder("any"),
+				ListenerType.ANY);
+		messageBus.register(NamedEvent.class, new Recorder("second"),
+				ListenerType.TARGET);
+		post(new NamedEvent(null, "a"), 
+				new NamedEvent(new Recorder("unknown"), "b"));
+		assertEquals(Arrays.asList("first:a", "any:a", "second:a", "any:b"),
+				received);
+	}
+
+	/**
+	 * a handler registered for a superclass and for the class of the
+	 * event receives a targeted event once per registration, like an 
+	 * event without target
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void targetRegisteredTwiceReceivesTwice() 
+			throws InterruptedException {
+		Recorder target = new Recorder("target");
+		messageBus.register(Event.class, target, ListenerType.TARGET);
+		messageBus.register(NamedEvent.class, new Recorder("other"),
+				ListenerType.TARGET);
+		messageBus.register(NamedEvent.class, target, ListenerType.TARGET);
+		post(new NamedEvent(target, "a"), new NamedEvent(null, "b"));
+		assertEquals(Arrays.asList("target:a", "target:a", "target:b", 
+				"other:b", "target:b"), received);
+	}
+
+	/**
+	 * post the events and wait until they have been distributed
+	 * @param events	the events to be posted
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	private void post(Event... events) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		EventHandler marker = new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				done.countDown();
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to clean up
+			}
+		};
+		messageBus.register(MessageEvent.class, marker, ListenerType.ANY);
+		for (Event ev : events)
+			messageBus.postEvent(ev);
+		// the events are distributed in order, so the marker is last
+		messageBus.postEvent(new MessageEvent(SOURCE, null, "done"));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		messageBus.unregister(MessageEvent.class, marker);
+	}
+
+	/**
+	 * records the names of the events it receives
+	 */
+	private final class Recorder implements EventHandler {
+		private final String name;
+
+		Recorder(String name) {
+			this.name = name;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			if (event instanceof NamedEvent)
+				received.add(name + ":" + ((NamedEvent) event).name);
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+
+	/**
+	 * an event with a name
+	 */
+	private static final class NamedEvent extends Event {
+		final String name;
+
+		NamedEvent(EventHandler target, String name) {
+			super(SOURCE, target);
+			this.name = name;
+		}
+	}
+}
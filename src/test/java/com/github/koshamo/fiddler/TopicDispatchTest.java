@@ -0,0 +1,249 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests the delivery of events to the handlers subscribed to topic
+ * patterns.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class TopicDispatchTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	private MessageBus messageBus;
+	private List<String> received;
+
+	/**
+	 * create the message bus distributing the events in order
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		received = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * a pattern without wildcards matches exactly its topic
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void exactPatternMatchesItsTopic() throws InterruptedException {
+		messageBus.subscribe("orders/eu/berlin", new Recorder("exact"),
+				ListenerType.ANY);
+		post("orders/eu/berlin", "orders/eu", "orders/eu/berlin/mitte",
+				"orders/eu/paris", "orders/eu/berlinx");
+		assertEquals(Arrays.asList("exact:orders/eu/berlin"), received);
+	}
+
+	/**
+	 * <code>*</code> matches exactly one level of any name
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void singleLevelMatchesOneLevel() throws InterruptedException {
+		messageBus.subscribe("orders/*/berlin", new Recorder("single"),
+				ListenerType.ANY);
+		post("orders/eu/berlin", "orders/berlin", "orders/eu/de/berlin",
+				"orders/us/berlin");
+		assertEquals(Arrays.asList("single:orders/eu/berlin",
+				"single:orders/us/berlin"), received);
+	}
+
+	/**
+	 * <code>**</code> matches any number of levels, including none
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void multiLevelMatchesAnyLevels() throws InterruptedException {
+		messageBus.subscribe("orders/**", new Recorder("multi"),
+				ListenerType.ANY);
+		post("orders", "orders/eu", "orders/eu/berlin", "shipping/eu",
+				"ordersx");
+		assertEquals(Arrays.asList("multi:orders", "multi:orders/eu",
+				"multi:orders/eu/berlin"), received);
+	}
+
+	/**
+	 * a handler subscribed to several matching patterns receives the
+	 * event once, in the order of its first subscription
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void severalMatchingPatternsDeliverOnce()
+			throws InterruptedException {
+		Recorder first = new Recorder("first");
+		messageBus.subscribe("orders/eu/berlin", first, ListenerType.ANY);
+		messageBus.subscribe("orders/eu/*", new Recorder("second"),
+				ListenerType.ANY);
+		messageBus.subscribe("orders/**", first, ListenerType.ANY);
+		messageBus.subscribe("*/eu/berlin", first, ListenerType.ANY);
+		post("orders/eu/berlin", "orders/us");
+		assertEquals(Arrays.asList("first:orders/eu/berlin",
+				"second:orders/eu/berlin", "first:orders/us"), received);
+	}
+
+	/**
+	 * topics with empty levels match no pattern, patterns with empty
+	 * levels are rejected
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void emptyLevelsMatchNothing() throws InterruptedException {
+		Recorder recorder = new Recorder("any");
+		messageBus.subscribe("**", recorder, ListenerType.ANY);
+		messageBus.subscribe("orders/*", recorder, ListenerType.ANY);
+		messageBus.subscribe("orders/*/berlin", recorder, ListenerType.ANY);
+		post("orders/", "orders//berlin", "/orders", "", "orders");
+		assertEquals(Arrays.asList("any:orders"), received);
+		for (String pattern : Arrays.asList("orders/", "orders//berlin",
+				"/orders", "")) {
+			try {
+				messageBus.subscribe(pattern, recorder, ListenerType.ANY);
+				throw new AssertionError("Accepted " + pattern);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * many names at the same level are found by their lookup table
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void manyNamesAreFound() throws InterruptedException {
+		Recorder recorder = new Recorder("symbol");
+		List<String> topics = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			messageBus.subscribe("symbols/S" + i, recorder, ListenerType.ANY);
+			topics.add("symbols/S" + i);
+			topics.add("symbols/T" + i);
+			expected.add("symbol:symbols/S" + i);
+		}
+		post(topics.toArray(new String[0]));
+		assertEquals(expected, received);
+	}
+
+	/**
+	 * post events with the topics and wait until they have been
+	 * distributed
+	 * @param topics	the topics of the events
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	private void post(String... topics) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		messageBus.register(MessageEvent.class, new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				done.countDown();
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to clean up
+			}
+		}, ListenerType.ANY);
+		for (String topic : topics)
+			messageBus.postEvent(new TopicEvent(topic));
+		// the events are distributed in order, so the marker is last
+		messageBus.postEvent(new MessageEvent(SOURCE, null, "done"));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * records the topics of the events it receives
+	 */
+	private final class Recorder implements EventHandler {
+		private final String name;
+
+		Recorder(String name) {
+			this.name = name;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			received.add(name + ":" + event.getTopic());
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+
+	/**
+	 * an event with a topic
+	 */
+	private static final class TopicEvent extends Event {
+		private final String topic;
+
+		TopicEvent(String topic) {
+			super(SOURCE, null);
+			this.topic = topic;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.Event#getTopic()
+		 */
+		@Override
+		public String getTopic() {
+			return topic;
+		}
+	}
+}
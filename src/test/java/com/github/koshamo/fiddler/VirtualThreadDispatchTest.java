@@ -0,0 +1,133 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests, that handlers blocking in <code>DispatchMode.VIRTUAL_THREAD</code>
+ * don't need a platform thread each. The test is skipped on Java versions
+ * without virtual threads.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class VirtualThreadDispatchTest {
+	private static final int HANDLERS = 1000;
+	private static final long BLOCK_MILLIS = 200;
+
+	private MessageBus messageBus;
+
+	/**
+	 * create the message bus, if the Java VM supports virtual threads
+	 */
+	@Before
+	public void setUp() {
+		try {
+			messageBus = new MessageBus(WaitStrategy.BLOCKING, 
+					DispatchMode.VIRTUAL_THREAD);
+		} catch (UnsupportedOperationException e) {
+			assumeNoException(e);
+		}
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		if (messageBus != null)
+			messageBus.stop();
+	}
+
+	/**
+	 * let many handlers block at the same time and check, that they all
+	 * complete in about the time of a single handler, while only a few 
+	 * platform threads are started
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void blockingHandlersShareFewPlatformThreads() 
+			throws InterruptedException {
+		CountDownLatch handled = new CountDownLatch(HANDLERS);
+		BlockingHandler[] handlers = new BlockingHandler[HANDLERS];
+		for (int i = 0; i < HANDLERS; i++) {
+			handlers[i] = new BlockingHandler(handled);
+			messageBus.registerMessageEvents(handlers[i], ListenerType.ANY);
+		}
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int before = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+		long start = System.nanoTime();
+		messageBus.postEvent(new MessageEvent(handlers[0], null, "block"));
+		assertTrue("handlers still blocked", 
+				handled.await(HANDLERS * BLOCK_MILLIS / 10, TimeUnit.MILLISECONDS));
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		int started = threads.getPeakThreadCount() - before;
+		assertTrue(started + " platform threads started", 
+				started < HANDLERS / 10);
+		assertTrue("handlers took " + millis + " ms", 
+				millis < HANDLERS * BLOCK_MILLIS / 10);
+	}
+
+	/**
+	 * A handler blocking in every event
+	 */
+	private static final class BlockingHandler implements EventHandler {
+		private final CountDownLatch handled;
+
+		/**
+		 * Create the handler
+		 * @param handled	the latch counted down for every handled event
+		 */
+		BlockingHandler(CountDownLatch handled) {
+			this.handled = handled;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			try {
+				Thread.sleep(BLOCK_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			handled.countDown();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests, that the event thread of a <code>MessageBus</code> parked on an
+ * empty queue is woken up by the posting thread instead of polling the
+ * queue.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class WakeupLatencyTest {
+	private static final int ROUNDS = 200;
+	/** the former polling interval of the event thread */
+	private static final long POLLING_INTERVAL = TimeUnit.MILLISECONDS.toNanos(5);
+
+	private MessageBus messageBus;
+	private StampingHandler handler;
+
+	/**
+	 * create a message bus with a single handler
+	 */
+	@Before
+	public void setUp() {
+		messageBus = new MessageBus(WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		handler = new StampingHandler();
+		messageBus.registerAllEvents(handler, ListenerType.ANY);
+	}
+
+	/**
+	 * stop the message bus
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+	}
+
+	/**
+	 * post single events to the parked event thread and check, that the
+	 * time until they are handled stays well below the former polling 
+	 * interval
+	 * @throws InterruptedException	if interrupted while sleeping
+	 */
+	@Test
+	public void parkedEventThreadIsWokenUp() throws InterruptedException {
+		Event event = new MessageEvent(handler, null, "wakeup");
+		long[] latencies = new long[ROUNDS];
+		for (int i = 0; i < ROUNDS; i++) {
+			// give the event thread the time to park
+			Thread.sleep(2);
+			long posted = System.nanoTime();
+			messageBus.postEvent(event);
+			latencies[i] = handler.awaitCount(i + 1) - posted;
+		}
+		Arrays.sort(latencies);
+		long median = latencies[ROUNDS / 2];
+		assertTrue("median wakeup latency " + median + " ns", 
+				median < POLLING_INTERVAL / 5);
+		assertTrue("maximum wakeup latency " + latencies[ROUNDS - 1] + " ns", 
+				latencies[ROUNDS - 1] < 10 * POLLING_INTERVAL);
+	}
+
+	/**
+	 * A handler recording the time the last event has been handled
+	 */
+	private static final class StampingHandler implements EventHandler {
+		private volatile long count;
+		private volatile long handledAt;
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			handledAt = System.nanoTime();
+			count++;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+
+		/**
+		 * wait until the handler has received the given number of events
+		 * @param expected	the number of events to wait for
+		 * @return			the time the last event has been handled
+		 */
+		long awaitCount(long expected) {
+			while (count < expected)
+				Thread.yield();
+			return handledAt;
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.bridge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.MessageBus;
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+import com.github.koshamo.fiddler.MessageEvent;
+
+/**
+ * Tests the exchange of events between two message buses connected by
+ * bridges over the loopback interface.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class MessageBusBridgeTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to shut down
+		}
+	};
+	private static final int EVENTS = 200;
+
+	private MessageBus senderBus;
+	private MessageBus receiverBus;
+	private MessageBusBridge sender;
+	private MessageBusBridge receiver;
+
+	/**
+	 * create the message buses and their bridges
+	 */
+	@Before
+	public void setUp() {
+		senderBus = new MessageBus();
+		receiverBus = new MessageBus();
+		sender = new MessageBusBridge(senderBus);
+		receiver = new MessageBusBridge(receiverBus);
+	}
+
+	/**
+	 * close the bridges and stop the message buses
+	 */
+	@After
+	public void tearDown() {
+		sender.close();
+		receiver.close();
+		senderBus.stop();
+		receiverBus.stop();
+	}
+
+	/**
+	 * post an event of a subclass of the forwarded class, which has no
+	 * codec of its own, and check that it is received as an event of the
+	 * forwarded class
+	 * @throws Exception	if connecting or waiting fails
+	 */
+	@Test
+	public void subclassIsSentAsForwardedClass() throws Exception {
+		sender.forward(MessageEvent.class, new MessageCodec());
+		receiver.receive(MessageEvent.class, new MessageCodec());
+		BlockingQueue<Event> received = new LinkedBlockingQueue<>();
+		receiverBus.registerMessageEvents(new EventHandler() {
+			@Override
+			public void handle(Event event) {
+				received.add(event);
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to shut down
+			}
+		}, ListenerType.ANY);
+		connect();
+
+		senderBus.postEvent(new UrgentMessageEvent(SOURCE, "urgent"));
+		senderBus.postEvent(new MessageEvent(SOURCE, null, "plain"));
+
+		Event first = received.poll(10, TimeUnit.SECONDS);
+		Event second = received.poll(10, TimeUnit.SECONDS);
+		assertTrue(first instanceof MessageEvent);
+		assertEquals("urgent", ((MessageEvent) first).getMessage());
+		assertTrue(second instanceof MessageEvent);
+		assertEquals("plain", ((MessageEvent) second).getMessage());
+		assertEquals(0, receiver.getUndeliverableEvents());
+	}
+
+	/**
+	 * connect the sender to a remote side, that never reads, and check 
+	 * that the events are dropped after the send timeout instead of 
+	 * blocking the message bus, and closing the bridge doesn't block the
+	 * I/O thread either
+	 * @throws Exception	if connecting or waiting fails
+	 */
+	@Test
+	public void stalledRemoteDropsEvents() throws Exception {
+		sender.close();
+		sender = new MessageBusBridge(senderBus, 1);
+		sender.setSendTimeout(200, TimeUnit.MILLISECONDS);
+		sender.forward(MessageEvent.class, new MessageCodec());
+		ServerSocketChannel server = MessageBusBridge.bind(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		try (ServerSocketChannel s = server) {
+			s.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+			Set<Thread> before = bridgeThreads();
+			sender.connect(s.getLocalAddress());
+			SocketChannel stalled = s.accept();
+			Thread io = newBridgeThread(before);
+			try {
+				char[] chars = new char[1024 * 1024];
+				Arrays.fill(chars, 'x');
+				String message = new String(chars);
+				// post until the remote side doesn't take any more events, 
+				// which is more than a single busy moment of the I/O thread
+				int posted = 0;
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+				while (sender.getDroppedEvents() < 3 
+						&& System.nanoTime() < deadline) {
+					senderBus.postEvent(new MessageEvent(SOURCE, null, message));
+					posted++;
+					while (sender.getSentEvents() + sender.getDroppedEvents() 
+							< posted && System.nanoTime() < deadline)
+						Thread.sleep(1);
+				}
+				assertEquals(posted, 
+						sender.getSentEvents() + sender.getDroppedEvents());
+				assertTrue(sender.getDroppedEvents() > 0);
+				// the final flush isn't taken either, but doesn't block
+				sender.close();
+				assertFalse(sender.isOpen());
+				io.join(5000);
+				assertFalse(io.isAlive());
+			} finally {
+				stalled.close();
+			}
+		}
+	}
+
+	/**
+	 * close both sides at the same time while they are sending, and check
+	 * that this is no error of the connection
+	 * @throws Exception	if connecting or waiting fails
+	 */
+	@Test
+	public void closingBothSidesIsNoError() throws Exception {
+		List<Throwable> errors = new CopyOnWriteArrayList<>();
+		UncaughtExceptionHandler previous = 
+				Thread.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler((t, e) -> errors.add(e));
+		try {
+			sender.forward(MessageEvent.class, new MessageCodec());
+			receiver.forward(MessageEvent.class, new MessageCodec());
+			Set<Thread> before = bridgeThreads();
+			connect();
+			Thread first = newBridgeThread(before);
+			before.add(first);
+			Thread second = newBridgeThread(before);
+			char[] chars = new char[1024];
+			Arrays.fill(chars, 'x');
+			String message = new String(chars);
+			for (int i = 0; i < EVENTS; i++) {
+				senderBus.postEvent(new MessageEvent(SOURCE, null, message));
+				receiverBus.postEvent(new MessageEvent(SOURCE, null, message));
+			}
+			CountDownLatch start = new CountDownLatch(1);
+			Thread closer = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				receiver.close();
+			});
+			closer.start();
+			start.countDown();
+			sender.close();
+			closer.join(5000);
+			first.join(5000);
+			second.join(5000);
+			assertFalse(first.isAlive());
+			assertFalse(second.isAlive());
+			assertEquals(Collections.emptyList(), errors);
+		} finally {
+			Thread.setDefaultUncaughtExceptionHandler(previous);
+		}
+	}
+
+	/**
+	 * get the I/O threads of the bridges, that are running
+	 * @return	the I/O threads
+	 */
+	private static Set<Thread> bridgeThreads() {
+		Set<Thread> threads = new HashSet<>();
+		for (Thread t : Thread.getAllStackTraces().keySet())
+			if (t.getName().startsWith("Fiddler-Bridge-") && t.isAlive())
+				threads.add(t);
+		return threads;
+	}
+
+	/**
+	 * get an I/O thread of a bridge, that has been started after others
+	 * @param before	the I/O threads running before
+	 * @return			the new I/O thread
+	 */
+	private static Thread newBridgeThread(Set<Thread> before) {
+		for (Thread t : bridgeThreads())
+			if (!before.contains(t))
+				return t;
+		throw new AssertionError("No new bridge thread");
+	}
+
+	/**
+	 * connect the sender to the receiver over an ephemeral port
+	 * @throws Exception	if connecting fails
+	 */
+	private void connect() throws Exception {
+		ServerSocketChannel server = MessageBusBridge.bind(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		InetSocketAddress address = 
+				(InetSocketAddress) server.getLocalAddress();
+		Thread acceptor = new Thread(() -> {
+			try {
+				receiver.accept(server);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		acceptor.start();
+		sender.connect(address);
+		acceptor.join(10000);
+	}
+
+	/**
+	 * A message event subclass without a codec of its own
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class UrgentMessageEvent extends MessageEvent {
+		UrgentMessageEvent(EventHandler source, String message) {
+			super(source, null, message);
+		}
+	}
+
+	/**
+	 * The codec of the message events
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class MessageCodec 
+			implements EventCodec<MessageEvent> {
+
+		@Override
+		public void encode(MessageEvent event, ByteBuffer buffer) {
+			buffer.put(event.getMessage().getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public MessageEvent decode(EventHandler source, EventHandler target,
+				ByteBuffer buffer) {
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			return new MessageEvent(source, target, 
+					new String(bytes, StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.DataEvent;
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.RequestEvent;
+import com.github.koshamo.fiddler.bridge.EventCodec;
+
+/**
+ * Tests, that the event codecs composed of payload codecs read the events
+ * they have written, and that the codec registry finds the codecs of 
+ * subclasses.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class EventCodecTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to shut down
+		}
+	};
+
+	/**
+	 * round trip a data event, which gets the source and target passed to
+	 * the decoding
+	 */
+	@Test
+	public void dataEvent() {
+		DataEventCodec<LoadEvent, String, int[]> codec = new DataEventCodec<>(
+				PayloadCodecs.STRING, PayloadCodecs.INTS, LoadEvent::new);
+		LoadEvent decoded = roundTrip(codec, 
+				new LoadEvent(SOURCE, null, "battery", new int[] {1, 2, 3}));
+		assertSame(SOURCE, decoded.getSource());
+		assertNull(decoded.getTarget());
+		assertEquals("battery", decoded.getMetaInformation());
+		assertArrayEquals(new int[] {1, 2, 3}, decoded.getData());
+	}
+
+	/**
+	 * round trip a request event with nullable meta information
+	 */
+	@Test
+	public void requestEvent() {
+		RequestEventCodec<LoadRequest, String> codec = new RequestEventCodec<>(
+				PayloadCodecs.nullable(PayloadCodecs.STRING), LoadRequest::new);
+		assertEquals("battery", roundTrip(codec, 
+				new LoadRequest(SOURCE, null, "battery")).getMetaInformation());
+		assertNull(roundTrip(codec, 
+				new LoadRequest(SOURCE, null, null)).getMetaInformation());
+	}
+
+	/**
+	 * round trip a buffer data event and decode its content twice, which
+	 * decodes it only once
+	 */
+	@Test
+	public void bufferDataEvent() {
+		ByteBuffer content = ByteBuffer.allocate(64);
+		PayloadCodecs.STRING.encode("charging", content);
+		content.flip();
+		DataEventCodec<SampleEvent, Integer, ByteBuffer> codec = 
+				new DataEventCodec<>(PayloadCodecs.INTEGER, 
+						PayloadCodecs.BYTE_BUFFER, SampleEvent::new);
+		SampleEvent decoded = roundTrip(codec, 
+				new SampleEvent(SOURCE, null, Integer.valueOf(7), content));
+		assertEquals(Integer.valueOf(7), decoded.getMetaInformation());
+		assertEquals(content.remaining(), decoded.getSize());
+		String value = decoded.decode(PayloadCodecs.STRING);
+		assertEquals("charging", value);
+		assertSame(value, decoded.decode(PayloadCodecs.STRING));
+		assertEquals(content.remaining(), decoded.getData().remaining());
+	}
+
+	/**
+	 * look up the codecs of registered classes and of their subclasses
+	 */
+	@Test
+	public void registryResolvesSubclasses() {
+		CodecRegistry registry = new CodecRegistry();
+		assertNull(registry.codecOf(LoadEvent.class));
+		registry.registerData(LoadEvent.class, PayloadCodecs.STRING, 
+				PayloadCodecs.INTS, LoadEvent::new);
+		EventCodec<? super LoadEvent> codec = registry.codecOf(LoadEvent.class);
+		assertTrue(codec instanceof DataEventCodec);
+		assertSame(codec, registry.require(PeakLoadEvent.class));
+
+		EventCodec<PeakLoadEvent> own = new DataEventCodec<>(
+				PayloadCodecs.STRING, PayloadCodecs.INTS, PeakLoadEvent::new);
+		registry.register(PeakLoadEvent.class, own);
+		assertSame(own, registry.codecOf(PeakLoadEvent.class));
+		assertSame(codec, registry.codecOf(LoadEvent.class));
+	}
+
+	/**
+	 * requiring the codec of a class without codec fails
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void requireFailsWithoutCodec() {
+		new CodecRegistry().require(LoadRequest.class);
+	}
+
+	/**
+	 * encode the event into a buffer and decode it again. The decoding must
+	 * read exactly the bytes written by the encoding.
+	 * @param codec	the codec of the event
+	 * @param event	the event
+	 * @param <E>	the class of the event
+	 * @return		the decoded event
+	 */
+	private static <E extends Event> E roundTrip(EventCodec<E> codec, E event) {
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+		codec.encode(event, buffer);
+		buffer.flip();
+		E decoded = codec.decode(SOURCE, null, buffer);
+		assertEquals(0, buffer.remaining());
+		return decoded;
+	}
+
+	/**
+	 * A data event with a name and samples
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static class LoadEvent extends DataEvent<String, int[]> {
+		LoadEvent(EventHandler source, EventHandler target, String meta, 
+				int[] data) {
+			super(source, target, meta, data);
+		}
+	}
+
+	/**
+	 * A subclass of the data event
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class PeakLoadEvent extends LoadEvent {
+		PeakLoadEvent(EventHandler source, EventHandler target, String meta, 
+				int[] data) {
+			super(source, target, meta, data);
+		}
+	}
+
+	/**
+	 * A request event with a name
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class LoadRequest extends RequestEvent<String> {
+		LoadRequest(EventHandler source, EventHandler target, String meta) {
+			super(source, target, meta);
+		}
+	}
+
+	/**
+	 * A buffer data event with a sample number
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class SampleEvent extends BufferDataEvent<Integer> {
+		SampleEvent(EventHandler source, EventHandler target, Integer meta, 
+				ByteBuffer data) {
+			super(source, target, meta, data);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.OpenMapRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Test;
+
+/**
+ * Tests, that the payload codecs read the values they have written, from
+ * heap and direct buffers of both byte orders and from positions, which
+ * are not aligned.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class PayloadCodecsTest {
+
+	/**
+	 * round trip the boxed primitives
+	 */
+	@Test
+	public void primitives() {
+		assertEquals(Boolean.TRUE, roundTrip(PayloadCodecs.BOOLEAN, Boolean.TRUE));
+		assertEquals(Boolean.FALSE, roundTrip(PayloadCodecs.BOOLEAN, Boolean.FALSE));
+		assertEquals(Byte.valueOf((byte) -7), 
+				roundTrip(PayloadCodecs.BYTE, Byte.valueOf((byte) -7)));
+		assertEquals(Short.valueOf(Short.MIN_VALUE), 
+				roundTrip(PayloadCodecs.SHORT, Short.valueOf(Short.MIN_VALUE)));
+		assertEquals(Character.valueOf('ä'), 
+				roundTrip(PayloadCodecs.CHARACTER, Character.valueOf('ä')));
+		assertEquals(Integer.valueOf(-123456789), 
+				roundTrip(PayloadCodecs.INTEGER, Integer.valueOf(-123456789)));
+		assertEquals(Long.valueOf(Long.MAX_VALUE), 
+				roundTrip(PayloadCodecs.LONG, Long.valueOf(Long.MAX_VALUE)));
+		assertEquals(Float.valueOf(3.25f), 
+				roundTrip(PayloadCodecs.FLOAT, Float.valueOf(3.25f)));
+		assertEquals(Double.valueOf(Double.NaN), 
+				roundTrip(PayloadCodecs.DOUBLE, Double.valueOf(Double.NaN)));
+	}
+
+	/**
+	 * round trip ASCII, non ASCII and empty strings
+	 */
+	@Test
+	public void strings() {
+		assertEquals("battery", roundTrip(PayloadCodecs.STRING, "battery"));
+		assertEquals("Raßler € 😀", 
+				roundTrip(PayloadCodecs.STRING, "Raßler € 😀"));
+		assertEquals("", roundTrip(PayloadCodecs.STRING, ""));
+	}
+
+	/**
+	 * round trip the primitive arrays, including empty ones
+	 */
+	@Test
+	public void arrays() {
+		byte[] bytes = {1, -2, 3, -4, 5};
+		assertArrayEquals(bytes, roundTrip(PayloadCodecs.BYTES, bytes));
+		int[] ints = {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE};
+		assertArrayEquals(ints, roundTrip(PayloadCodecs.INTS, ints));
+		long[] longs = {Long.MIN_VALUE, 42, Long.MAX_VALUE};
+		assertArrayEquals(longs, roundTrip(PayloadCodecs.LONGS, longs));
+		double[] doubles = {-0.5, 0, Math.PI, Double.MAX_VALUE};
+		assertArrayEquals(doubles, roundTrip(PayloadCodecs.DOUBLES, doubles), 0);
+		assertArrayEquals(new int[0], roundTrip(PayloadCodecs.INTS, new int[0]));
+	}
+
+	/**
+	 * round trip the remaining bytes of a buffer, which keeps its position
+	 */
+	@Test
+	public void byteBuffer() {
+		ByteBuffer value = ByteBuffer.wrap(new byte[] {9, 8, 7, 6, 5});
+		value.position(1).limit(4);
+		ByteBuffer decoded = roundTrip(PayloadCodecs.BYTE_BUFFER, value);
+		assertEquals(1, value.position());
+		assertEquals(ByteBuffer.wrap(new byte[] {8, 7, 6}), decoded);
+	}
+
+	/**
+	 * round trip array based and sparse vectors and a matrix
+	 */
+	@Test
+	public void commonsMath() {
+		RealVector vector = new ArrayRealVector(new double[] {1, 2.5, -3});
+		assertEquals(vector, roundTrip(PayloadCodecs.REAL_VECTOR, vector));
+		RealVector sparse = new OpenMapRealVector(new double[] {0, 0, 4, 0});
+		assertArrayEquals(sparse.toArray(), 
+				roundTrip(PayloadCodecs.REAL_VECTOR, sparse).toArray(), 0);
+		RealMatrix matrix = new Array2DRowRealMatrix(
+				new double[][] {{1, 2, 3}, {4, 5, 6}});
+		assertEquals(matrix, roundTrip(PayloadCodecs.REAL_MATRIX, matrix));
+	}
+
+	/**
+	 * round trip null and present values of a nullable codec and the 
+	 * constants of an enum
+	 */
+	@Test
+	public void nullableAndEnum() {
+		PayloadCodec<String> nullable = PayloadCodecs.nullable(PayloadCodecs.STRING);
+		assertNull(roundTrip(nullable, null));
+		assertEquals("x", roundTrip(nullable, "x"));
+		PayloadCodec<TimeUnit> units = PayloadCodecs.ofEnum(TimeUnit.class);
+		for (TimeUnit unit : TimeUnit.values())
+			assertEquals(unit, roundTrip(units, unit));
+	}
+
+	/**
+	 * decoding an invalid enum ordinal fails
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidOrdinalIsRejected() {
+		ByteBuffer buffer = ByteBuffer.allocate(4);
+		buffer.putInt(TimeUnit.values().length).flip();
+		PayloadCodecs.ofEnum(TimeUnit.class).decode(buffer);
+	}
+
+	/**
+	 * decoding a length larger than the remaining bytes fails, instead of
+	 * allocating a huge array
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidLengthIsRejected() {
+		ByteBuffer buffer = ByteBuffer.allocate(12);
+		buffer.putInt(Integer.MAX_VALUE).putLong(1).flip();
+		PayloadCodecs.LONGS.decode(buffer);
+	}
+
+	/**
+	 * encode the value into heap and direct buffers of both byte orders,
+	 * starting at an odd position, and decode it again. The decoding must
+	 * read exactly the bytes written by the encoding.
+	 * @param codec	the codec of the value
+	 * @param value	the value
+	 * @param <T>	the type of the value
+	 * @return		the value decoded from the last buffer
+	 */
+	private static <T> T roundTrip(PayloadCodec<T> codec, T value) {
+		T decoded = null;
+		for (ByteBuffer buffer : new ByteBuffer[] {
+				ByteBuffer.allocate(1024), 
+				ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN),
+				ByteBuffer.allocateDirect(1024), 
+				ByteBuffer.allocateDirect(1024).order(ByteOrder.LITTLE_ENDIAN)}) {
+			buffer.position(3);
+			codec.encode(value, buffer);
+			int end = buffer.position();
+			buffer.flip().position(3);
+			decoded = codec.decode(buffer);
+			assertEquals(end, buffer.position());
+		}
+		return decoded;
+	}
+}
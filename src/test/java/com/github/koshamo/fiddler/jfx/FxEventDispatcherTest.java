@@ -0,0 +1,201 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.jfx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koshamo.fiddler.ConflatingEventQueue;
+import com.github.koshamo.fiddler.DataEvent;
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.LinkedEventQueue;
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+
+/**
+ * Tests, that the <code>FxEventDispatcher</code> keeps at most one 
+ * runnable waiting for the Java FX application thread, no matter how many
+ * events arrive. The Java FX application thread is replaced by a queue of
+ * runnables run by the test.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class FxEventDispatcherTest {
+	private static final int FLOOD = 25000;
+	private static final int SYMBOLS = 10;
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to clean up
+		}
+	};
+
+	private Queue<Runnable> fxThread;
+	private RecordingHandler handler;
+
+	/**
+	 * create the stubbed Java FX application thread and the handler
+	 */
+	@Before
+	public void setUp() {
+		fxThread = new ArrayDeque<>();
+		handler = new RecordingHandler();
+	}
+
+	/**
+	 * a flood of events schedules a single runnable, which delivers the
+	 * events in batches
+	 */
+	@Test
+	public void floodSchedulesSingleRunnable() {
+		FxEventDispatcher dispatcher = new FxEventDispatcher(handler, 
+				ListenerType.ANY, new LinkedEventQueue(), fxThread::add);
+		for (int i = 0; i < FLOOD; i++)
+			dispatcher.handle(new QuoteEvent("S" + (i % SYMBOLS), i));
+		assertEquals(1, fxThread.size());
+		assertEquals(FLOOD, dispatcher.getPendingEvents());
+		runFxThread();
+		assertEquals(FLOOD, handler.events.size());
+		assertEquals(FLOOD, dispatcher.getDeliveredEvents());
+		assertEquals(3, dispatcher.getDeliveredBatches());
+		for (int i = 0; i < FLOOD; i++)
+			assertEquals(Integer.valueOf(i), handler.events.get(i).getData());
+	}
+
+	/**
+	 * with a conflating queue only the latest value of every key waits for
+	 * the Java FX application thread
+	 */
+	@Test
+	public void floodIsCoalesced() {
+		ConflatingEventQueue pending = new ConflatingEventQueue();
+		pending.conflate(QuoteEvent.class);
+		FxEventDispatcher dispatcher = new FxEventDispatcher(handler, 
+				ListenerType.ANY, pending, fxThread::add);
+		for (int i = 0; i < FLOOD; i++) {
+			dispatcher.handle(new QuoteEvent("S" + (i % SYMBOLS), i));
+			assertTrue(dispatcher.getPendingEvents() <= SYMBOLS);
+		}
+		assertEquals(1, fxThread.size());
+		runFxThread();
+		assertEquals(SYMBOLS, handler.events.size());
+		Map<String, Integer> latest = new HashMap<>();
+		for (QuoteEvent ev : handler.events)
+			latest.put(ev.getMetaInformation(), ev.getData());
+		for (int s = 0; s < SYMBOLS; s++)
+			assertEquals(Integer.valueOf(FLOOD - SYMBOLS + s), latest.get("S" + s));
+	}
+
+	/**
+	 * events arriving while a batch is delivered are delivered, too
+	 */
+	@Test
+	public void eventsDuringDeliveryAreScheduled() {
+		FxEventDispatcher dispatcher = new FxEventDispatcher(handler, 
+				ListenerType.ANY, new LinkedEventQueue(), fxThread::add);
+		dispatcher.handle(new QuoteEvent("S0", 0));
+		handler.onHandle = () -> {
+			if (handler.events.size() == 1)
+				dispatcher.handle(new QuoteEvent("S0", 1));
+		};
+		runFxThread();
+		assertEquals(2, handler.events.size());
+		assertEquals(0, dispatcher.getPendingEvents());
+	}
+
+	/**
+	 * the handler is shut down after the pending events are delivered
+	 */
+	@Test
+	public void shutdownAfterPendingEvents() {
+		FxEventDispatcher dispatcher = new FxEventDispatcher(handler, 
+				ListenerType.ANY, new LinkedEventQueue(), fxThread::add);
+		for (int i = 0; i < FLOOD; i++)
+			dispatcher.handle(new QuoteEvent("S0", i));
+		dispatcher.shutdown();
+		fxThread.remove().run();
+		fxThread.remove().run();
+		assertEquals(FLOOD, handler.eventsAtShutdown);
+	}
+
+	/**
+	 * run the runnables on the stubbed Java FX application thread, checking
+	 * that at most one runnable is waiting at any time
+	 */
+	private void runFxThread() {
+		Runnable runnable;
+		while ((runnable = fxThread.poll()) != null) {
+			runnable.run();
+			assertTrue(fxThread.size() <= 1);
+		}
+	}
+
+	/**
+	 * A quote of a symbol
+	 */
+	private static final class QuoteEvent extends DataEvent<String, Integer> {
+		/**
+		 * Create the event
+		 * @param symbol	the symbol
+		 * @param price		the price
+		 */
+		QuoteEvent(String symbol, int price) {
+			super(SOURCE, null, symbol, Integer.valueOf(price));
+		}
+	}
+
+	/**
+	 * A handler recording the delivered events
+	 */
+	private static final class RecordingHandler implements EventHandler {
+		final List<QuoteEvent> events = new ArrayList<>();
+		Runnable onHandle = () -> { /* nothing to do */ };
+		int eventsAtShutdown = -1;
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#handle(com.github.koshamo.fiddler.Event)
+		 */
+		@Override
+		public void handle(Event event) {
+			events.add((QuoteEvent) event);
+			onHandle.run();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.koshamo.fiddler.EventHandler#shutdown()
+		 */
+		@Override
+		public void shutdown() {
+			eventsAtShutdown = events.size();
+		}
+	}
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.koshamo.fiddler.DispatchMode;
+import com.github.koshamo.fiddler.Event;
+import com.github.koshamo.fiddler.EventHandler;
+import com.github.koshamo.fiddler.LinkedEventQueue;
+import com.github.koshamo.fiddler.MessageBus;
+import com.github.koshamo.fiddler.MessageBus.ListenerType;
+import com.github.koshamo.fiddler.MessageEvent;
+import com.github.koshamo.fiddler.WaitStrategy;
+import com.github.koshamo.fiddler.bridge.EventCodec;
+
+/**
+ * Tests, that the journal replays its records from an offset on and drops
+ * a record torn by a crash, when it is opened again.
+ * 
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class EventJournalTest {
+	private static final EventHandler SOURCE = new EventHandler() {
+		@Override
+		public void handle(Event event) {
+			// never called
+		}
+
+		@Override
+		public void shutdown() {
+			// nothing to shut down
+		}
+	};
+
+	/** the directory of the journal */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+	private EventJournal journal;
+	private MessageBus messageBus;
+
+	/**
+	 * open the journal with small segments
+	 * @throws IOException	if the journal can't be opened
+	 */
+	@Before
+	public void setUp() throws IOException {
+		directory = folder.getRoot().toPath();
+		journal = open();
+		messageBus = new MessageBus(
+				new JournalingEventQueue(new LinkedEventQueue(), journal),
+				WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+	}
+
+	/**
+	 * stop the message bus and close the journal
+	 */
+	@After
+	public void tearDown() {
+		messageBus.stop();
+		journal.close();
+	}
+
+	/**
+	 * replay the journal from an offset returned by 
+	 * <code>getOffset()</code> and from the offset returned by the replay
+	 * @throws Exception	if the journal can't be read
+	 */
+	@Test
+	public void replayStartsAtOffset() throws Exception {
+		post("a", "b", "c");
+		long offset = journal.getOffset();
+		post("d", "e");
+
+		assertEquals(Arrays.asList("d", "e"), replay(journal, offset));
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"), 
+				replay(journal, 0));
+
+		long end = replayTo(journal, offset, new ArrayList<>());
+		assertEquals(journal.getOffset(), end);
+		post("f");
+		assertEquals(Collections.singletonList("f"), replay(journal, end));
+	}
+
+	/**
+	 * replay events, that are spread across several segments
+	 * @throws Exception	if the journal can't be read
+	 */
+	@Test
+	public void replayCrossesSegments() throws Exception {
+		String large = large('x', 3000);
+		post("a", large);
+		long offset = journal.getOffset();
+		post(large, "b");
+
+		assertTrue(JournalSegment.list(directory).size() >= 2);
+		assertEquals(Arrays.asList(large, "b"), replay(journal, offset));
+		assertEquals(Arrays.asList("a", large, large, "b"), replay(journal, 0));
+	}
+
+	/**
+	 * corrupt the last record, as if the Java VM crashed while writing it,
+	 * then open the journal again and check, that the record is dropped
+	 * and new events are appended in its place
+	 * @throws Exception	if the journal can't be read
+	 */
+	@Test
+	public void tornRecordIsDropped() throws Exception {
+		post("a", "b");
+		long torn = journal.getOffset();
+		post("c");
+		messageBus.stop();
+		journal.close();
+		List<Path> files = JournalSegment.list(directory);
+		// the journal thread may have prepared the next segment already, 
+		// remove it, so the torn record is in the last segment
+		for (Path spare : files.subList(1, files.size()))
+			Files.delete(spare);
+		Path file = files.get(0);
+		try (FileChannel channel = FileChannel.open(file, 
+				StandardOpenOption.WRITE)) {
+			// overwrite the content, so the checksum doesn't match anymore
+			channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xff}), 
+					torn - JournalSegment.baseOf(file) 
+					+ JournalSegment.RECORD_HEADER_SIZE + 4);
+		}
+
+		journal = open();
+		messageBus = new MessageBus(
+				new JournalingEventQueue(new LinkedEventQueue(), journal),
+				WaitStrategy.BLOCKING, DispatchMode.SEQUENTIAL);
+		assertEquals(torn, journal.getOffset());
+		assertEquals(Arrays.asList("a", "b"), replay(journal, 0));
+		post("d");
+		assertEquals(Arrays.asList("a", "b", "d"), replay(journal, 0));
+		assertEquals(Collections.singletonList("d"), replay(journal, torn));
+	}
+
+	/**
+	 * append an event, that doesn't fit into the rest of the segment, and
+	 * check that the bytes its codec wrote before the overflow are cleared
+	 * @throws Exception	if the journal can't be read
+	 */
+	@Test
+	public void overflowingRecordLeavesZeros() throws Exception {
+		String large = large('x', 3000);
+		post("a", large);
+		long end = journal.getOffset();
+		post(large);
+		journal.commit();
+		Path file = JournalSegment.list(directory).get(0);
+		byte[] bytes = Files.readAllBytes(file);
+		for (int i = (int) (end - JournalSegment.baseOf(file)); 
+				i < bytes.length; i++)
+			assertEquals("byte " + i, 0, bytes[i]);
+		assertEquals(Arrays.asList("a", large, large), replay(journal, 0));
+	}
+
+	/**
+	 * several threads post at once, the journal records the events in the
+	 * order the queue distributes them
+	 * @throws Exception	if the journal can't be read
+	 */
+	@Test
+	public void postersKeepQueueOrder() throws Exception {
+		// the queue yields before taking an event, so the other posters
+		// get in between appending and queueing
+		LinkedEventQueue slowQueue = new LinkedEventQueue() {
+			@Override
+			public boolean offer(Event ev) {
+				Thread.yield();
+				return super.offer(ev);
+			}
+		};
+		JournalingEventQueue queue = new JournalingEventQueue(slowQueue, 
+				journal);
+		List<Thread> posters = new ArrayList<>();
+		for (int p = 0; p < 4; p++) {
+			String poster = Integer.toString(p);
+			Thread t = new Thread(() -> {
+				for (int i = 0; i < 500; i++)
+					queue.offer(new MessageEvent(SOURCE, null, poster + ":" + i));
+			});
+			posters.add(t);
+			t.start();
+		}
+		for (Thread t : posters)
+			t.join();
+		List<String> queued = new ArrayList<>();
+		for (Event ev = queue.poll(); ev != null; ev = queue.poll())
+			queued.add(((MessageEvent) ev).getMessage());
+		assertEquals(2000, queued.size());
+		assertEquals(queued, replay(journal, 0));
+	}
+
+	/**
+	 * open the journal in the directory with segments of the minimum size
+	 * @return	the journal recording message events
+	 * @throws IOException	if the journal can't be opened
+	 */
+	private EventJournal open() throws IOException {
+		EventJournal j = EventJournal.open(directory, 
+				EventJournal.MIN_SEGMENT_SIZE, 1, TimeUnit.SECONDS);
+		j.record(MessageEvent.class, 1, new MessageCodec());
+		return j;
+	}
+
+	/**
+	 * post message events to the message bus, which appends them to the
+	 * journal
+	 * @param messages	the messages to post
+	 */
+	private void post(String... messages) {
+		for (String message : messages)
+			messageBus.postEvent(new MessageEvent(SOURCE, null, message));
+	}
+
+	/**
+	 * replay the journal to a new message bus
+	 * @param j				the journal
+	 * @param fromOffset	the offset to replay from
+	 * @return				the replayed messages
+	 * @throws Exception	if the journal can't be read
+	 */
+	private static List<String> replay(EventJournal j, long fromOffset) 
+			throws Exception {
+		List<String> messages = new ArrayList<>();
+		replayTo(j, fromOffset, messages);
+		return messages;
+	}
+
+	/**
+	 * replay the journal to a new message bus and wait, until all replayed
+	 * events have been handled, which is the case when an event posted 
+	 * after the replay has been handled
+	 * @param j				the journal
+	 * @param fromOffset	the offset to replay from
+	 * @param messages		the list to add the replayed messages to
+	 * @return				the offset returned by the replay
+	 * @throws Exception	if the journal can't be read
+	 */
+	private static long replayTo(EventJournal j, long fromOffset, 
+			List<String> messages) throws Exception {
+		MessageBus replayBus = new MessageBus(WaitStrategy.BLOCKING, 
+				DispatchMode.SEQUENTIAL);
+		try {
+			List<String> received = Collections.synchronizedList(
+					new ArrayList<>());
+			CountDownLatch done = new CountDownLatch(1);
+			replayBus.registerMessageEvents(new EventHandler() {
+				@Override
+				public void handle(Event event) {
+					if (event.getSource() == SOURCE)
+						done.countDown();
+					else
+						received.add(((MessageEvent) event).getMessage());
+				}
+
+				@Override
+				public void shutdown() {
+					// nothing to shut down
+				}
+			}, ListenerType.ANY);
+			long end = j.replay(replayBus, fromOffset);
+			replayBus.postEvent(new MessageEvent(SOURCE, null, "done"));
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			messages.addAll(received);
+			return end;
+		} finally {
+			replayBus.stop();
+		}
+	}
+
+	/**
+	 * create a large message
+	 * @param c			the character of the message
+	 * @param length	the length of the message
+	 * @return			the message
+	 */
+	private static String large(char c, int length) {
+		char[] chars = new char[length];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	/**
+	 * The codec of the message events, writing the length of the message
+	 * before its bytes
+	 * 
+	 * @author Dr. Jochen Raßler
+	 *
+	 */
+	private static final class MessageCodec 
+			implements EventCodec<MessageEvent> {
+
+		@Override
+		public void encode(MessageEvent event, ByteBuffer buffer) {
+			byte[] bytes = event.getMessage().getBytes(StandardCharsets.UTF_8);
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+
+		@Override
+		public MessageEvent decode(EventHandler source, EventHandler target,
+				ByteBuffer buffer) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			return new MessageEvent(source, target, 
+					new String(bytes, StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright [2017] [Dr. Jochen Raßler]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.koshamo.fiddler.shm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.koshamo.fiddler.DispatchMode;
+import com.github.koshamo.fiddler.MessageBus;
+import com.github.koshamo.fiddler.WaitStrategy;
+
+/**
+ * Tests writing and reading the records of the
+ * <code>SharedMemoryRing</code>, especially at the end of the ring, and
+ * closing the <code>SharedMemorySource</code>.
+ *
+ * @author Dr. Jochen Raßler
+ *
+ */
+public class SharedMemoryRingTest {
+	private static final int CAPACITY = SharedMemoryRing.MIN_CAPACITY;
+	private static final int RECORD_HEADER_SIZE = 16;
+	private static final int PRODUCERS = 4;
+	private static final int RECORDS = 2000;
+
+	/** the directory of the ring */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SharedMemoryRing ring;
+	private ByteBuffer producerView;
+	private ByteBuffer consumerView;
+
+	/**
+	 * open the ring with the minimum capacity
+	 * @throws IOException	if the ring can't be opened
+	 */
+	@Before
+	public void setUp() throws IOException {
+		ring = SharedMemoryRing.open(
+				folder.getRoot().toPath().resolve("ring"), CAPACITY);
+		producerView = ring.newView();
+		consumerView = ring.newView();
+	}
+
+	/**
+	 * a record, that doesn't fit into the last 8 bytes of the ring, is
+	 * written at the start of the ring without a padding record
+	 */
+	@Test
+	public void wrapSkipsEightByteTail() {
+		// 2048 + 2040 bytes leave 8 bytes at the end of the ring
+		assertTrue(offer(1, recordOfSize(2048, 1)));
+		assertTrue(offer(2, recordOfSize(2040, 2)));
+		assertEquals(2, drain().size());
+		assertTrue(offer(3, content(100, 3)));
+		List<ByteBuffer> records = drain();
+		assertEquals(1, records.size());
+		assertContent(records.get(0), 100, 3);
+		assertEquals(0, ring.getBacklog());
+		// the ring is still usable after the wrap
+		assertTrue(offer(4, content(10, 4)));
+		assertContent(drain().get(0), 10, 4);
+	}
+
+	/**
+	 * a record, that doesn't fit into the rest of the ring, but leaves
+	 * space for a record header, is preceded by a padding record, which is
+	 * not read by the consumer
+	 */
+	@Test
+	public void wrapWritesPaddingRecord() {
+		// 2048 + 2000 bytes leave 48 bytes at the end of the ring
+		assertTrue(offer(1, recordOfSize(2048, 1)));
+		assertTrue(offer(2, recordOfSize(2000, 2)));
+		assertEquals(2, drain().size());
+		assertTrue(offer(3, content(100, 3)));
+		assertTrue(offer(4, content(200, 4)));
+		List<ByteBuffer> records = drain();
+		assertEquals(2, records.size());
+		assertContent(records.get(0), 100, 3);
+		assertContent(records.get(1), 200, 4);
+		assertEquals(0, ring.getBacklog());
+	}
+
+	/**
+	 * a full ring rejects the record, and takes it again after the
+	 * consumer has read some records
+	 */
+	@Test
+	public void fullRingRejectsRecords() {
+		// 4 records of 1016 bytes fit into the ring, a fifth doesn't
+		for (int i = 0; i < 4; i++)
+			assertTrue(offer(i, content(1000, i)));
+		assertFalse(offer(4, content(1000, 4)));
+		assertEquals(4 * 1016, ring.getBacklog());
+		assertEquals(1, ring.drain(consumerView, (view, type) -> {
+			/* dropped */ }, 1));
+		// wraps with a padding record of the 32 bytes at the end
+		assertTrue(offer(4, content(1000, 4)));
+		assertFalse(offer(5, content(1000, 5)));
+		List<ByteBuffer> records = drain();
+		assertEquals(4, records.size());
+		assertContent(records.get(3), 1000, 4);
+	}
+
+	/**
+	 * a record larger than the maximum record length is rejected
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void tooLargeRecordIsRejected() {
+		offer(1, content(ring.getMaxRecordLength() + 1, 1));
+	}
+
+	/**
+	 * several producers write at the same time, the consumer reads all
+	 * records and the records of every producer in the order they have
+	 * been written
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void producersWriteConcurrently() throws InterruptedException {
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			int producer = p;
+			Thread t = new Thread(() -> {
+				ByteBuffer view = ring.newView();
+				ByteBuffer content = ByteBuffer.allocate(8 + 8 * producer);
+				for (int i = 0; i < RECORDS; i++) {
+					content.clear();
+					content.putInt(producer).putInt(i).position(0);
+					while (!ring.offer(view, producer, content))
+						Thread.yield();
+				}
+			});
+			producers.add(t);
+			t.start();
+		}
+		int[] next = new int[PRODUCERS];
+		boolean[] inOrder = { true };
+		int read = 0;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (read < PRODUCERS * RECORDS && System.nanoTime() < deadline) {
+			int count = ring.drain(consumerView, (view, type) -> {
+				int producer = view.getInt();
+				int i = view.getInt();
+				if (producer != type || i != next[producer]
+						|| view.remaining() != 8 * producer)
+					inOrder[0] = false;
+				next[producer] = i + 1;
+			}, 64);
+			if (count == 0)
+				Thread.yield();
+			read += count;
+		}
+		for (Thread t : producers)
+			t.join();
+		assertEquals(PRODUCERS * RECORDS, read);
+		assertTrue(inOrder[0]);
+		for (int p = 0; p < PRODUCERS; p++)
+			assertEquals(RECORDS, next[p]);
+		assertEquals(0, ring.getBacklog());
+	}
+
+	/**
+	 * closing the source wakes up its parked thread, which ends at once
+	 * instead of after the idle park time
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	@Test
+	public void closeWakesParkedSource() throws InterruptedException {
+		MessageBus messageBus = new MessageBus(WaitStrategy.BLOCKING,
+				DispatchMode.SEQUENTIAL);
+		try {
+			SharedMemorySource source = new SharedMemorySource(messageBus,
+					ring, TimeUnit.MINUTES.toNanos(1));
+			source.start();
+			Thread thread = sourceThread();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (thread.getState() != Thread.State.TIMED_WAITING
+					&& System.nanoTime() < deadline)
+				Thread.sleep(1);
+			assertEquals(Thread.State.TIMED_WAITING, thread.getState());
+			source.close();
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+			assertFalse(thread.isAlive());
+		} finally {
+			messageBus.stop();
+		}
+	}
+
+	/**
+	 * get the thread of the source started last
+	 * @return	the thread
+	 */
+	private static Thread sourceThread() {
+		Thread last = null;
+		int number = -1;
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			String name = t.getName();
+			if (!name.startsWith("Fiddler-SharedMemory-"))
+				continue;
+			int n = Integer.parseInt(name.substring(name.lastIndexOf('-') + 1));
+			if (n > number) {
+				number = n;
+				last = t;
+			}
+		}
+		if (last == null)
+			throw new AssertionError("No source thread");
+		return last;
+	}
+
+	/**
+	 * write a record into the ring
+	 * @param type		the type of the record
+	 * @param content	the content of the record
+	 * @return			true, if the record has been written
+	 */
+	private boolean offer(int type, ByteBuffer content) {
+		return ring.offer(producerView, type, content);
+	}
+
+	/**
+	 * read all published records of the ring
+	 * @return	copies of the contents of the records
+	 */
+	private List<ByteBuffer> drain() {
+		List<ByteBuffer> records = new ArrayList<>();
+		ring.drain(consumerView, (view, type) -> {
+			ByteBuffer copy = ByteBuffer.allocate(view.remaining());
+			copy.put(view).flip();
+			records.add(copy);
+		}, Integer.MAX_VALUE);
+		return records;
+	}
+
+	/**
+	 * create the content of a record taking the given size in the ring
+	 * @param size	the size of the record including its header, a
+	 * multiple of 8
+	 * @param value	the value of every byte
+	 * @return		the content
+	 */
+	private static ByteBuffer recordOfSize(int size, int value) {
+		return content(size - RECORD_HEADER_SIZE, value);
+	}
+
+	/**
+	 * create the content of a record
+	 * @param length	the length of the content
+	 * @param value		the value of every byte
+	 * @return			the content
+	 */
+	private static ByteBuffer content(int length, int value) {
+		ByteBuffer content = ByteBuffer.allocate(length);
+		while (content.hasRemaining())
+			content.put((byte) value);
+		content.flip();
+		return content;
+	}
+
+	/**
+	 * check the content of a record
+	 * @param content	the content read
+	 * @param length	the expected length
+	 * @param value		the expected value of every byte
+	 */
+	private static void assertContent(ByteBuffer content, int length,
+			int value) {
+		assertEquals(length, content.remaining());
+		while (content.hasRemaining())
+			assertEquals((byte) value, content.get());
+	}
+}